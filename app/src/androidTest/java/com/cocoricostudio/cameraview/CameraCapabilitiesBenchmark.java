@@ -0,0 +1,57 @@
+package com.cocoricostudio.cameraview;
+
+import android.Manifest;
+import android.hardware.Camera;
+import android.os.SystemClock;
+import android.support.test.rule.GrantPermissionRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures, on device, the time saved by {@link CameraCapabilitiesCache} on each camera configuration.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CameraCapabilitiesBenchmark {
+
+    private static final String TAG = CameraCapabilitiesBenchmark.class.getSimpleName();
+    private static final int ITERATIONS = 50;
+
+    @Rule
+    public GrantPermissionRule mPermissionRule = GrantPermissionRule.grant(Manifest.permission.CAMERA);
+
+    @Test
+    public void cachedCapabilitiesAreFasterThanQueries() {
+        assumeTrue(Camera.getNumberOfCameras() > 0);
+        Camera camera = Camera.open(0);
+        try {
+            CameraCapabilitiesCache cache = new CameraCapabilitiesCache();
+
+            // What configuring the camera used to cost, on top of the getParameters() to mutate.
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < ITERATIONS; i++) {
+                camera.getParameters().getSupportedPreviewSizes();
+                Camera.CameraInfo info = new Camera.CameraInfo();
+                Camera.getCameraInfo(0, info);
+            }
+            long queriedNs = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < ITERATIONS; i++) {
+                cache.get(0, camera);
+            }
+            long cachedNs = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+            Log.i(TAG, "Capabilities queried: " + queriedNs / 1000 + " us, cached: " + cachedNs / 1000 + " us (first query included)");
+            assertTrue(cachedNs < queriedNs);
+        } finally {
+            camera.release();
+        }
+    }
+}
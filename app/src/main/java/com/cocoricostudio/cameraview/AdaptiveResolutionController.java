@@ -0,0 +1,239 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Decides when to step the preview size down or up a ladder of sizes, from the frame rate the
+ * camera achieves and the share of frames the consumers drop, see
+ * {@link CameraView#setAdaptiveResolutionEnabled(boolean)}.
+ * <p/>
+ * Hysteresis keeps it from thrashing: stepping down takes a few bad samples in a row, stepping up
+ * many more good ones, samples in between reset both counts, and the samples right after a change
+ * are ignored while the camera is reconfigured. A step up followed by a step down doubles the good
+ * samples needed for the next step up.
+ * <p/>
+ * Not thread safe.
+ */
+final class AdaptiveResolutionController {
+
+    private static final String TAG = AdaptiveResolutionController.class.getSimpleName();
+
+    /**
+     * Below this share of the target frame rate, a sample is bad.
+     */
+    static final float STEP_DOWN_FRAME_RATE_RATIO = 0.8f;
+    /**
+     * From this share of the target frame rate, a sample is good, if frames are not dropped.
+     */
+    static final float STEP_UP_FRAME_RATE_RATIO = 0.95f;
+    /**
+     * Above this share of frames dropped, a sample is bad.
+     */
+    static final float STEP_DOWN_DROP_RATE = 0.2f;
+    /**
+     * Up to this share of frames dropped, a sample is good, if the frame rate is reached.
+     */
+    static final float STEP_UP_DROP_RATE = 0.05f;
+
+    static final int DEFAULT_SAMPLES_TO_STEP_DOWN = 3;
+    static final int DEFAULT_SAMPLES_TO_STEP_UP = 10;
+    static final int DEFAULT_SETTLING_SAMPLES = 2;
+    /**
+     * The most good samples a step up can take after failed ones.
+     */
+    static final int MAX_SAMPLES_TO_STEP_UP = 160;
+
+    /**
+     * Two sizes have the same aspect ratio if their ratios differ by less than this.
+     */
+    private static final double RATIO_TOLERANCE = 0.01;
+
+    private final int mSamplesToStepDown;
+    private final int mSamplesToStepUp;
+    private final int mSettlingSamples;
+
+    /**
+     * From the largest size, {@code null} until reset.
+     */
+    @Nullable
+    private List<Size> mLadder;
+    private float mTargetFrameRate;
+    private int mLevel;
+    private int mBadSamples;
+    private int mGoodSamples;
+    private int mSamplesLeftToSettle;
+    /**
+     * The good samples needed for the next step up, raised by failed ones.
+     */
+    private int mSamplesToNextStepUp;
+    /**
+     * Whether the last change was a step up, not confirmed by enough good samples yet.
+     */
+    private boolean mProbing;
+
+    AdaptiveResolutionController() {
+        this(DEFAULT_SAMPLES_TO_STEP_DOWN, DEFAULT_SAMPLES_TO_STEP_UP, DEFAULT_SETTLING_SAMPLES);
+    }
+
+    /**
+     * @param samplesToStepDown The bad samples in a row to step down.
+     * @param samplesToStepUp   The good samples in a row to step up, at least as many as to step down.
+     * @param settlingSamples   The samples ignored after each change.
+     */
+    AdaptiveResolutionController(int samplesToStepDown, int samplesToStepUp, int settlingSamples) {
+        if (samplesToStepDown < 1 || samplesToStepUp < samplesToStepDown || settlingSamples < 0) {
+            throw new IllegalArgumentException("Invalid sample counts: down " + samplesToStepDown
+                    + ", up " + samplesToStepUp + ", settling " + settlingSamples);
+        }
+        mSamplesToStepDown = samplesToStepDown;
+        mSamplesToStepUp = samplesToStepUp;
+        mSettlingSamples = settlingSamples;
+        mSamplesToNextStepUp = samplesToStepUp;
+    }
+
+    /**
+     * @param supportedSizes The preview sizes supported by the camera.
+     * @param ceiling        The largest size of the ladder, eg. the size targeted by the app.
+     * @param scorer         How the supported sizes are compared to each resolution, eg. the one
+     *                       that chose the ceiling.
+     * @param selector       Scores the supported sizes, owned by the calling thread.
+     * @return The sizes with the aspect ratio of the ceiling, from the ceiling down: the sizes
+     * supported closest to each {@link Resolution} no larger than the ceiling, each once.
+     */
+    @NonNull
+    static List<Size> createLadder(@NonNull List<Size> supportedSizes, @NonNull Size ceiling,
+                                   @NonNull PreviewSizeScorer scorer, @NonNull PreviewSizeSelector selector) {
+        final List<Size> ladder = new ArrayList<>();
+        ladder.add(ceiling);
+        for (Resolution resolution : Resolution.values()) {
+            if (resolution.width * resolution.height > ceiling.width * ceiling.height) {
+                continue;
+            }
+            Size size = CameraUtils.getClosestPreviewSize(supportedSizes, resolution.width, resolution.height,
+                    scorer, selector);
+            if (!ladder.contains(size) && hasSameRatio(size, ceiling)
+                    && size.width * size.height < ceiling.width * ceiling.height) {
+                ladder.add(size);
+            }
+        }
+        Collections.sort(ladder, new Comparator<Size>() {
+            @Override
+            public int compare(Size lhs, Size rhs) {
+                return rhs.width * rhs.height - lhs.width * lhs.height;
+            }
+        });
+        return ladder;
+    }
+
+    private static boolean hasSameRatio(@NonNull Size size, @NonNull Size other) {
+        return Math.abs((double) size.width / size.height - (double) other.width / other.height) < RATIO_TOLERANCE;
+    }
+
+    /**
+     * Starts again from the top of the given ladder.
+     *
+     * @param ladder          The sizes to step through, from the largest one, see
+     *                        {@link #createLadder(List, Size, PreviewSizeScorer, PreviewSizeSelector)}.
+     * @param targetFrameRate The frame rate to reach, in frames per second.
+     */
+    void reset(@NonNull List<Size> ladder, float targetFrameRate) {
+        if (ladder.isEmpty()) {
+            throw new IllegalArgumentException("Empty ladder");
+        }
+        mLadder = new ArrayList<>(ladder);
+        mTargetFrameRate = targetFrameRate;
+        mLevel = 0;
+        mBadSamples = 0;
+        mGoodSamples = 0;
+        mSamplesLeftToSettle = mSettlingSamples;
+        mSamplesToNextStepUp = mSamplesToStepUp;
+        mProbing = false;
+    }
+
+    /**
+     * Forgets the ladder, eg. once the app targets another size, until reset.
+     */
+    void clear() {
+        mLadder = null;
+    }
+
+    boolean isReset() {
+        return mLadder != null;
+    }
+
+    /**
+     * @return The size currently decided, {@code null} until reset.
+     */
+    @Nullable
+    Size getSize() {
+        return mLadder != null ? mLadder.get(mLevel) : null;
+    }
+
+    /**
+     * @param frameRate The frame rate achieved over the last interval, in frames per second.
+     * @param dropRate  The share of frames dropped by the consumers over the last interval, from 0
+     *                  to 1, 0 if no frame was consumed.
+     * @return The size to step to, {@code null} to keep the current one.
+     */
+    @Nullable
+    Size onSample(float frameRate, float dropRate) {
+        final List<Size> ladder = mLadder;
+        if (ladder == null) {
+            return null;
+        }
+        if (mSamplesLeftToSettle > 0) {
+            // Measured while the camera was reconfigured.
+            mSamplesLeftToSettle--;
+            return null;
+        }
+        if (frameRate < mTargetFrameRate * STEP_DOWN_FRAME_RATE_RATIO || dropRate > STEP_DOWN_DROP_RATE) {
+            mGoodSamples = 0;
+            if (++mBadSamples >= mSamplesToStepDown && mLevel + 1 < ladder.size()) {
+                if (mProbing) {
+                    // The larger size could not keep up: wait longer before trying it again.
+                    mSamplesToNextStepUp = Math.min(mSamplesToNextStepUp * 2, MAX_SAMPLES_TO_STEP_UP);
+                    mProbing = false;
+                }
+                return step(1);
+            }
+            return null;
+        }
+        if (frameRate >= mTargetFrameRate * STEP_UP_FRAME_RATE_RATIO && dropRate <= STEP_UP_DROP_RATE) {
+            mBadSamples = 0;
+            mGoodSamples++;
+            if (mProbing && mGoodSamples >= mSamplesToStepUp) {
+                // The step up held.
+                mProbing = false;
+                mSamplesToNextStepUp = mSamplesToStepUp;
+            }
+            if (mGoodSamples >= mSamplesToNextStepUp && mLevel > 0) {
+                mProbing = true;
+                return step(-1);
+            }
+            return null;
+        }
+        // Neither good nor bad: in the dead band.
+        mBadSamples = 0;
+        mGoodSamples = 0;
+        return null;
+    }
+
+    @NonNull
+    private Size step(int direction) {
+        mLevel += direction;
+        mBadSamples = 0;
+        mGoodSamples = 0;
+        mSamplesLeftToSettle = mSettlingSamples;
+        final Size size = mLadder.get(mLevel);
+        if (CameraLog.isVerbose()) {
+            CameraLog.v(TAG, "Stepping " + (direction > 0 ? "down" : "up") + " to " + size);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,191 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stream of analysis frames at a size of their own, see
+ * {@link CameraView#addAnalysisConsumer(FrameConsumer, java.util.concurrent.Executor, int, int)}.
+ * <p/>
+ * Each preview frame is cropped to the region of interest and scaled to the analysis size in a
+ * single pass, on the executor of the consumer, into one of a few pooled NV21 frames: the latest
+ * preview frame is analyzed, whatever the preview size. Analysis frames are only valid until
+ * released, like preview frames.
+ */
+public final class AnalysisStream {
+
+    /**
+     * Analysis frames the consumer can retain at once, eg. one processed while the next is being
+     * scaled.
+     */
+    static final int POOL_SIZE = 2;
+
+    /**
+     * {@code ImageFormat.NV21}, without depending on the framework.
+     */
+    private static final int NV21 = 0x11;
+
+    private final FrameConsumer mConsumer;
+    private final int mWidth;
+    private final int mHeight;
+    @Nullable
+    private FrameSubscription mSubscription;
+
+    // The region of interest, replaced at once.
+    private volatile float[] mRegion = {0, 0, 1, 1};
+
+    // Confined to the executor of the consumer.
+    private final FrameCropScaler mScaler = new FrameCropScaler();
+
+    // Guarded by the pool.
+    private final Frame[] mPool = new Frame[POOL_SIZE];
+    private int mFreeCount;
+    private int mAllocated;
+
+    private final AtomicLong mDelivered = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+
+    private final FrameConsumer mPreviewConsumer = new FrameConsumer() {
+        @Override
+        public void onFrame(@NonNull Frame frame) {
+            onPreviewFrame(frame);
+        }
+    };
+
+    private final Frame.Recycler mRecycler = new Frame.Recycler() {
+        @Override
+        public void recycle(@NonNull Frame frame) {
+            synchronized (mPool) {
+                mPool[mFreeCount++] = frame;
+            }
+        }
+    };
+
+    /**
+     * @param width  The width of the analysis frames, even.
+     * @param height The height of the analysis frames, even.
+     */
+    AnalysisStream(@NonNull FrameConsumer consumer, int width, int height) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("Invalid analysis size: " + width + "x" + height);
+        }
+        mConsumer = consumer;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * @return The consumer of the preview frames, to be subscribed on the executor of the analysis
+     * consumer.
+     */
+    @NonNull
+    FrameConsumer getPreviewConsumer() {
+        return mPreviewConsumer;
+    }
+
+    void setSubscription(@NonNull FrameSubscription subscription) {
+        mSubscription = subscription;
+    }
+
+    @Nullable
+    FrameSubscription getSubscription() {
+        return mSubscription;
+    }
+
+    /**
+     * Sets the region of the preview frames to analyze, applied from the next frame. Defaults to
+     * the whole frame. The region is cropped further, around its center, to the aspect ratio of the
+     * analysis size.
+     * <p/>
+     * Coordinates are fractions of the preview frame, as delivered by the camera, ie. not rotated
+     * by the display orientation: the region stays the same whatever the preview size.
+     *
+     * @param left   From 0 to 1.
+     * @param top    From 0 to 1.
+     * @param right  Greater than left, at most 1.
+     * @param bottom Greater than top, at most 1.
+     */
+    public void setRegionOfInterest(float left, float top, float right, float bottom) {
+        if (!(0 <= left && left < right && right <= 1 && 0 <= top && top < bottom && bottom <= 1)) {
+            throw new IllegalArgumentException("Invalid region: " + left + ", " + top + ", " + right + ", " + bottom);
+        }
+        mRegion = new float[]{left, top, right, bottom};
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return The number of analysis frames the consumer received.
+     */
+    public long getDeliveredCount() {
+        return mDelivered.get();
+    }
+
+    /**
+     * @return The number of preview frames not analyzed: dropped while the consumer was busy, or
+     * while it retained every analysis frame.
+     */
+    public long getDroppedCount() {
+        final FrameSubscription subscription = mSubscription;
+        return mDropped.get() + (subscription != null ? subscription.getDroppedCount() : 0);
+    }
+
+    /**
+     * Scales the given preview frame and hands it to the consumer. On the executor of the
+     * consumer.
+     */
+    void onPreviewFrame(@NonNull Frame frame) {
+        if (frame.getFormat() != NV21) {
+            mDropped.incrementAndGet();
+            return;
+        }
+        final Frame analysisFrame = obtain();
+        if (analysisFrame == null) {
+            mDropped.incrementAndGet();
+            return;
+        }
+        final float[] region = mRegion;
+        mScaler.configure(frame.getWidth(), frame.getHeight(), region[0], region[1], region[2], region[3],
+                mWidth, mHeight);
+        mScaler.scale(frame.getData(), analysisFrame.getData());
+        analysisFrame.mWidth = mWidth;
+        analysisFrame.mHeight = mHeight;
+        analysisFrame.mFormat = NV21;
+        analysisFrame.mTimestampNs = frame.getTimestampNs();
+        analysisFrame.acquire();
+        try {
+            mConsumer.onFrame(analysisFrame);
+            mDelivered.incrementAndGet();
+        } finally {
+            analysisFrame.release();
+        }
+    }
+
+    /**
+     * @return A free analysis frame, allocated if needed, {@code null} if the consumer retains
+     * every one.
+     */
+    @Nullable
+    private Frame obtain() {
+        synchronized (mPool) {
+            if (mFreeCount > 0) {
+                Frame frame = mPool[--mFreeCount];
+                mPool[mFreeCount] = null;
+                return frame;
+            }
+            if (mAllocated < POOL_SIZE) {
+                mAllocated++;
+                return new Frame(new byte[mWidth * mHeight * 3 / 2], mRecycler);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes the recorded video to a raw H.264 elementary stream, in Annex B format as produced by the
+ * encoder, eg. to be packetized later or played with {@code ffplay}. Pure Java: unlike
+ * {@link MuxerSink}, there is no container and no rotation.
+ */
+public final class AnnexBFileSink implements EncodedSink {
+
+    private final File mFile;
+    @Nullable
+    private FileOutputStream mOutput;
+
+    public AnnexBFileSink(@NonNull File file) {
+        mFile = file;
+    }
+
+    @Override
+    public void onStart(int width, int height, int rotation) throws IOException {
+        mOutput = new FileOutputStream(mFile);
+    }
+
+    @Override
+    public void onPacket(@NonNull EncodedPacket packet) throws IOException {
+        if (mOutput == null) {
+            throw new IOException("Not started.");
+        }
+        mOutput.write(packet.getData(), 0, packet.getSize());
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        if (mOutput != null) {
+            try {
+                mOutput.getFD().sync();
+            } finally {
+                mOutput.close();
+                mOutput = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package com.cocoricostudio.cameraview;
+
+import android.hardware.Camera;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link CameraDriver} of the {@link Camera} API.
+ * <p/>
+ * Camera thread only: {@link Camera#open(int)} is called on that thread, so camera callbacks are
+ * delivered on its looper too.
+ */
+class Camera1Driver implements CameraDriver {
+
+    private static final String TAG = Camera1Driver.class.getSimpleName();
+
+    private final PreviewTarget mPreviewTarget;
+    private final FramePipeline mFramePipeline;
+    private final FrameCallback mFrameCallback;
+    private final CameraMetrics mMetrics;
+
+    /**
+     * The parameters last set on each camera, reused when it is opened again to save a
+     * {@link Camera#getParameters()}.
+     */
+    private final Map<Integer, Camera.Parameters> mParameters = new HashMap<>();
+    /**
+     * The frame rate range each camera had before one was set, restored when the configuration
+     * leaves it to the camera again.
+     */
+    private final Map<Integer, int[]> mDefaultFpsRanges = new HashMap<>();
+    /**
+     * The focus mode of each camera before one was set, restored for {@link FocusMode#DEFAULT}.
+     */
+    private final Map<Integer, String> mDefaultFocusModes = new HashMap<>();
+
+    private final Camera.PreviewCallback mPreviewCallback = new Camera.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            if (data == null) {
+                // The buffer was too small, it has been dropped by the camera.
+                return;
+            }
+            final long timestampNs = System.nanoTime();
+            mMetrics.onFrameCaptured(timestampNs);
+            if (!mFrameDelivery) {
+                // Only counted.
+                if (mMetrics.isFirstFramePending()) {
+                    mMetrics.onPreviewFrame(timestampNs);
+                }
+                camera.addCallbackBuffer(data);
+                return;
+            }
+            mFrameCallback.onFrame(data);
+        }
+    };
+
+    /**
+     * Only installed while waiting for the first frame of a camera opened or switched to, that has
+     * no other preview callback.
+     */
+    private final Camera.PreviewCallback mFirstFrameCallback = new Camera.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            mMetrics.onPreviewFrame(System.nanoTime());
+        }
+    };
+
+    /**
+     * The callback of the picture being taken, {@code null} if none.
+     */
+    @Nullable
+    private JpegCallback mJpegCallback;
+
+    private final Camera.PictureCallback mPictureCallback = new Camera.PictureCallback() {
+        @Override
+        public void onPictureTaken(byte[] data, Camera camera) {
+            JpegCallback callback = mJpegCallback;
+            if (callback == null) {
+                // Failed when the preview was stopped.
+                return;
+            }
+            mJpegCallback = null;
+            // The camera stopped the preview to take the picture: restart it before handing the
+            // picture over, so the preview pauses as little as possible.
+            try {
+                camera.startPreview();
+                installPreviewCallback(camera);
+            } catch (RuntimeException exception) {
+                CameraLog.e(TAG, "Failed to restart the preview after a picture", exception);
+            }
+            if (data == null) {
+                callback.onJpegFailed();
+            } else {
+                callback.onJpegTaken(data);
+            }
+        }
+    };
+
+    @Nullable
+    private Camera mCamera;
+    private int mCameraId = Integer.MIN_VALUE;
+    @Nullable
+    private Size mPreviewSize;
+    private int mPreviewFormat;
+    private boolean mFrameDelivery;
+
+    /**
+     * @param previewTarget   Where the preview is drawn.
+     * @param framePipeline   The pipeline the preview frames are delivered through.
+     * @param frameCallback   Receives the preview frames, in the buffers of the pipeline.
+     * @param metrics         Measures the first frame after a switch and the frame rate.
+     */
+    Camera1Driver(@NonNull PreviewTarget previewTarget, @NonNull FramePipeline framePipeline,
+                  @NonNull FrameCallback frameCallback, @NonNull CameraMetrics metrics) {
+        mPreviewTarget = previewTarget;
+        mFramePipeline = framePipeline;
+        mFrameCallback = frameCallback;
+        mMetrics = metrics;
+    }
+
+    @Override
+    public boolean open(int cameraId) {
+        try {
+            mCamera = Camera.open(cameraId);
+        } catch (RuntimeException exception) {
+            CameraLog.e(TAG, "Failed to open camera " + cameraId, exception);
+            return false;
+        }
+        mCameraId = cameraId;
+        return true;
+    }
+
+    @NonNull
+    @Override
+    public CameraCapabilities queryCapabilities() {
+        CameraCapabilities capabilities = CameraCapabilities.query(mCameraId, requireCamera());
+        CameraUtils.logSizes("Supported Preview Sizes of camera " + mCameraId + ":", capabilities.previewSizes);
+        return capabilities;
+    }
+
+    @Override
+    public void configure(@NonNull CameraConfiguration configuration) {
+        Camera camera = requireCamera();
+        camera.setDisplayOrientation(configuration.displayOrientation);
+        Camera.Parameters parameters = setParameters(camera, configuration);
+        mPreviewSize = configuration.previewSize;
+        mPreviewFormat = parameters.getPreviewFormat();
+        installPreviewCallback(camera);
+    }
+
+    @Override
+    public void setDisplayOrientation(int degrees) {
+        // Allowed while previewing since API 14.
+        requireCamera().setDisplayOrientation(degrees);
+    }
+
+    @Override
+    public void applySettings(@NonNull CameraSettings settings) {
+        Camera camera = requireCamera();
+        Camera.Parameters parameters = mParameters.get(mCameraId);
+        if (parameters == null) {
+            throw new IllegalStateException("Camera not configured");
+        }
+        applySettings(parameters, settings);
+        try {
+            // Once for all the settings, each call costing a round trip to the camera service.
+            camera.setParameters(parameters);
+        } catch (RuntimeException exception) {
+            CameraLog.w(TAG, "Settings rejected by camera " + mCameraId + ": " + settings);
+            mParameters.put(mCameraId, camera.getParameters());
+        }
+    }
+
+    @Override
+    public void setFrameDelivery(boolean enabled) {
+        mFrameDelivery = enabled;
+        if (mCamera != null && mPreviewSize != null) {
+            installPreviewCallback(mCamera);
+        }
+    }
+
+    @Override
+    public boolean isRecordingSurfaceSupported() {
+        // Drawing the preview on another surface would need a GL pipeline.
+        return false;
+    }
+
+    @Override
+    public void setRecordingSurface(@Nullable Surface surface) {
+        if (surface != null) {
+            throw new UnsupportedOperationException("Recording surfaces are not supported by the Camera API.");
+        }
+    }
+
+    @Override
+    public boolean isSurfaceSizedToPreview() {
+        // The camera scales the preview to the surface.
+        return false;
+    }
+
+    @Override
+    public int getTextureRotation(int screenRotation) {
+        // The display orientation applies to textures too.
+        return 0;
+    }
+
+    @Override
+    public void startPreview() {
+        Camera camera = requireCamera();
+        try {
+            mPreviewTarget.setOn(camera);
+        } catch (IOException exception) {
+            CameraLog.e(TAG, "IOException caused by setPreviewDisplay()", exception);
+        }
+        camera.startPreview();
+    }
+
+    @Override
+    public void takePicture(@NonNull JpegCallback callback) {
+        if (mJpegCallback != null) {
+            throw new IllegalStateException("A picture is already being taken.");
+        }
+        try {
+            requireCamera().takePicture(null, null, mPictureCallback);
+        } catch (RuntimeException exception) {
+            CameraLog.e(TAG, "Failed to take a picture", exception);
+            callback.onJpegFailed();
+            return;
+        }
+        mJpegCallback = callback;
+    }
+
+    @Override
+    public void stopPreview() {
+        requireCamera().stopPreview();
+        failPicture();
+    }
+
+    @Override
+    public void release() {
+        if (mCamera != null) {
+            // Consumers releasing frames must not queue buffers in a released camera.
+            mFramePipeline.detach();
+            mCamera.stopPreview();
+            failPicture();
+            mCamera.release();
+            mCamera = null;
+            mCameraId = Integer.MIN_VALUE;
+            mPreviewSize = null;
+        }
+    }
+
+    /**
+     * @return The parameters set.
+     */
+    @NonNull
+    private Camera.Parameters setParameters(@NonNull Camera camera, @NonNull CameraConfiguration configuration) {
+        final int cameraId = configuration.cameraId;
+        Camera.Parameters parameters = mParameters.get(cameraId);
+        if (parameters != null) {
+            applyConfiguration(parameters, configuration);
+            try {
+                camera.setParameters(parameters);
+                return parameters;
+            } catch (RuntimeException exception) {
+                CameraLog.w(TAG, "Previous parameters of camera " + cameraId + " rejected, querying them again.");
+            }
+        }
+        parameters = camera.getParameters();
+        if (!mDefaultFpsRanges.containsKey(cameraId)) {
+            int[] defaultFpsRange = new int[2];
+            parameters.getPreviewFpsRange(defaultFpsRange);
+            mDefaultFpsRanges.put(cameraId, defaultFpsRange);
+        }
+        if (!mDefaultFocusModes.containsKey(cameraId)) {
+            mDefaultFocusModes.put(cameraId, parameters.getFocusMode());
+        }
+        applyConfiguration(parameters, configuration);
+        camera.setParameters(parameters);
+        mParameters.put(cameraId, parameters);
+        return parameters;
+    }
+
+    private void applyConfiguration(@NonNull Camera.Parameters parameters, @NonNull CameraConfiguration configuration) {
+        parameters.setPreviewSize(configuration.previewSize.width, configuration.previewSize.height);
+        int[] fpsRange = configuration.hasFpsRange() ?
+                new int[]{configuration.minFps, configuration.maxFps} :
+                mDefaultFpsRanges.get(configuration.cameraId);
+        if (fpsRange != null) {
+            parameters.setPreviewFpsRange(fpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                    fpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+        }
+        applySettings(parameters, configuration.settings);
+    }
+
+    private void applySettings(@NonNull Camera.Parameters parameters, @NonNull CameraSettings settings) {
+        if (parameters.isZoomSupported()) {
+            parameters.setZoom(getZoomIndex(parameters.getZoomRatios(), settings.zoom));
+        }
+        String focusMode = getFocusMode(settings.focusMode);
+        if (focusMode == null) {
+            focusMode = mDefaultFocusModes.get(mCameraId);
+        }
+        if (focusMode != null && isSupported(parameters.getSupportedFocusModes(), focusMode)) {
+            parameters.setFocusMode(focusMode);
+        }
+        String flashMode = getFlashMode(settings.flashMode);
+        if (isSupported(parameters.getSupportedFlashModes(), flashMode)) {
+            parameters.setFlashMode(flashMode);
+        }
+        parameters.setExposureCompensation(Math.max(parameters.getMinExposureCompensation(),
+                Math.min(settings.exposureCompensation, parameters.getMaxExposureCompensation())));
+    }
+
+    /**
+     * @return The index of the highest ratio up to the given one, the ratios being sorted.
+     */
+    private static int getZoomIndex(@NonNull List<Integer> zoomRatios, int zoom) {
+        int index = 0;
+        while (index + 1 < zoomRatios.size() && zoomRatios.get(index + 1) <= zoom) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * @return {@code null} for the default mode of the camera.
+     */
+    @Nullable
+    private static String getFocusMode(@NonNull FocusMode focusMode) {
+        switch (focusMode) {
+            case CONTINUOUS_PICTURE:
+                return Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE;
+            case CONTINUOUS_VIDEO:
+                return Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO;
+            case INFINITY:
+                return Camera.Parameters.FOCUS_MODE_INFINITY;
+            default:
+                return null;
+        }
+    }
+
+    @NonNull
+    private static String getFlashMode(@NonNull FlashMode flashMode) {
+        switch (flashMode) {
+            case AUTO:
+                return Camera.Parameters.FLASH_MODE_AUTO;
+            case ON:
+                return Camera.Parameters.FLASH_MODE_ON;
+            case TORCH:
+                return Camera.Parameters.FLASH_MODE_TORCH;
+            default:
+                return Camera.Parameters.FLASH_MODE_OFF;
+        }
+    }
+
+    /**
+     * @param supported The supported modes, {@code null} if the setting is not supported at all.
+     */
+    private static boolean isSupported(@Nullable List<String> supported, @NonNull String mode) {
+        return supported != null && supported.contains(mode);
+    }
+
+    /**
+     * Hands the pooled buffers to the camera if frames must be delivered, or counted. Buffers are
+     * only reallocated when the preview size or format changed.
+     */
+    private void installPreviewCallback(@NonNull final Camera camera) {
+        // Take the buffers back before clearing the buffer queue of the camera.
+        mFramePipeline.detach();
+        camera.setPreviewCallbackWithBuffer(null);
+
+        Size previewSize = mPreviewSize;
+        if (!(mFrameDelivery || mMetrics.isFrameRateCounted()) || previewSize == null) {
+            if (mMetrics.isFirstFramePending()) {
+                camera.setOneShotPreviewCallback(mFirstFrameCallback);
+            }
+            return;
+        }
+        boolean reallocated = mFramePipeline.attach(new FramePipeline.BufferQueue() {
+            @Override
+            public void queueBuffer(@NonNull byte[] buffer) {
+                camera.addCallbackBuffer(buffer);
+            }
+        }, previewSize.width, previewSize.height, mPreviewFormat);
+        if (reallocated && CameraLog.isVerbose()) {
+            CameraLog.v(TAG, "Allocated preview buffers for " + previewSize.width + "x" + previewSize.height);
+        }
+        camera.setPreviewCallbackWithBuffer(mPreviewCallback);
+    }
+
+    /**
+     * Fails the picture being taken, if any: its callback is not called by a stopped camera.
+     */
+    private void failPicture() {
+        JpegCallback callback = mJpegCallback;
+        if (callback != null) {
+            mJpegCallback = null;
+            callback.onJpegFailed();
+        }
+    }
+
+    @NonNull
+    private Camera requireCamera() {
+        if (mCamera == null) {
+            throw new IllegalStateException("No camera opened.");
+        }
+        return mCamera;
+    }
+}
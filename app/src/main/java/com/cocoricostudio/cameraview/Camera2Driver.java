@@ -0,0 +1,952 @@
+package com.cocoricostudio.cameraview;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.hardware.Camera;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.RequiresApi;
+import android.util.Range;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CameraDriver} of the {@link android.hardware.camera2} API. On recent devices the {@link Camera} API runs through a compatibility
+ * layer on top of this one, adding latency and hiding the output streams.
+ * <p/>
+ * The preview is a repeating request targeting the preview surface and, when frames must be
+ * delivered, an {@link ImageReader} whose YUV images are copied in NV21 into the buffers of the
+ * frame pipeline: consumers get the same frames as with {@link Camera1Driver}. Pictures are single
+ * requests also targeting a JPEG {@link ImageReader}, added to the session with the first picture
+ * taken, so the preview goes on while they are taken.
+ * <p/>
+ * Camera thread only. Images and capture results are delivered on the camera thread, while the
+ * state callbacks of the device and of the capture sessions, awaited by the camera thread, are
+ * delivered on a thread of their own.
+ */
+@RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+class Camera2Driver implements CameraDriver {
+
+    private static final String TAG = Camera2Driver.class.getSimpleName();
+    private static final String CALLBACK_THREAD_NAME = "Camera2Callbacks";
+
+    /**
+     * How long the camera thread waits for a device or a capture session to be opened or closed.
+     */
+    private static final long TIMEOUT_MS = 3000;
+
+    /**
+     * Images held by the reader: one being copied while the next one is filled.
+     */
+    private static final int MAX_IMAGES = 2;
+
+    /**
+     * A preview stream and a YUV stream of up to 1080p are supported together at every hardware
+     * level, see {@link CameraDevice#createCaptureSession(List, CameraCaptureSession.StateCallback, Handler)}.
+     */
+    private static final int MAX_PREVIEW_WIDTH = 1920;
+    private static final int MAX_PREVIEW_HEIGHT = 1080;
+
+    /**
+     * Whether every camera of the device is implemented natively, see {@link #isSupported(Context)}.
+     */
+    @Nullable
+    private static volatile Boolean sSupported;
+    @Nullable
+    private static Handler sCallbackHandler;
+
+    private final CameraManager mManager;
+    private final PreviewTarget mPreviewTarget;
+    private final FramePipeline mFramePipeline;
+    private final FrameCallback mFrameCallback;
+    private final CameraMetrics mMetrics;
+
+    /**
+     * Buffers of the pipeline to be filled by the next images. Guarded by itself: buffers are
+     * recycled from the threads of the consumers.
+     */
+    private final ArrayDeque<byte[]> mFreeBuffers = new ArrayDeque<>();
+
+    private final FramePipeline.BufferQueue mBufferQueue = new FramePipeline.BufferQueue() {
+        @Override
+        public void queueBuffer(@NonNull byte[] buffer) {
+            synchronized (mFreeBuffers) {
+                mFreeBuffers.addLast(buffer);
+            }
+        }
+    };
+
+    private final ImageReader.OnImageAvailableListener mImageListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            if (reader != mImageReader) {
+                // Replaced since the image was posted, and closed.
+                return;
+            }
+            Image image = reader.acquireLatestImage();
+            if (image == null) {
+                return;
+            }
+            try {
+                byte[] buffer;
+                synchronized (mFreeBuffers) {
+                    buffer = mFreeBuffers.pollFirst();
+                }
+                if (buffer == null) {
+                    // Every buffer is held by the consumers: the frame is dropped, as by the
+                    // Camera API running out of callback buffers.
+                    return;
+                }
+                Image.Plane[] planes = image.getPlanes();
+                Nv21.fromYuv420(image.getWidth(), image.getHeight(),
+                        planes[0].getBuffer(), planes[0].getRowStride(),
+                        planes[1].getBuffer(), planes[2].getBuffer(),
+                        planes[1].getRowStride(), planes[1].getPixelStride(), buffer);
+                mFrameCallback.onFrame(buffer);
+            } finally {
+                image.close();
+            }
+        }
+    };
+
+    private final ImageReader.OnImageAvailableListener mJpegListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            if (reader != mJpegReader) {
+                return;
+            }
+            Image image = reader.acquireNextImage();
+            if (image == null) {
+                return;
+            }
+            byte[] jpeg;
+            try {
+                ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+                jpeg = new byte[buffer.remaining()];
+                buffer.get(jpeg);
+            } finally {
+                image.close();
+            }
+            JpegCallback callback = mJpegCallback;
+            if (callback == null) {
+                // Failed since, eg. the preview was stopped.
+                return;
+            }
+            mJpegCallback = null;
+            callback.onJpegTaken(jpeg);
+        }
+    };
+
+    private final CameraCaptureSession.CaptureCallback mStillCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                    @NonNull CaptureFailure failure) {
+            CameraLog.w(TAG, "Picture of camera " + mCameraId + " failed: " + failure.getReason());
+            failPicture();
+        }
+    };
+
+    /**
+     * Measures the first frame after a switch and the frame rate, even when no frame is delivered.
+     */
+    private final CameraCaptureSession.CaptureCallback mCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                       @NonNull TotalCaptureResult result) {
+            final long timestampNs = System.nanoTime();
+            mMetrics.onFrameCaptured(timestampNs);
+            if (mMetrics.isFirstFramePending()) {
+                mMetrics.onPreviewFrame(timestampNs);
+            }
+        }
+    };
+
+    @Nullable
+    private Handler mCameraHandler;
+    @Nullable
+    private CameraDevice mDevice;
+    @Nullable
+    private DeviceCallback mDeviceCallback;
+    @Nullable
+    private CameraCharacteristics mCharacteristics;
+    private int mCameraId = Integer.MIN_VALUE;
+    @Nullable
+    private Size mPreviewSize;
+    /**
+     * The frame rate range of the preview, {@code null} for the default of the template.
+     */
+    @Nullable
+    private Range<Integer> mFpsRange;
+    @NonNull
+    private CameraSettings mSettings = CameraSettings.DEFAULT;
+    /**
+     * The repeating request of the preview, updated when the settings change.
+     */
+    @Nullable
+    private CaptureRequest.Builder mPreviewRequest;
+    private boolean mFrameDelivery;
+    @Nullable
+    private Surface mRecordingSurface;
+    @Nullable
+    private ImageReader mImageReader;
+    /**
+     * The reader of the pictures, created with the first one at the largest JPEG size with the
+     * aspect ratio of the preview.
+     */
+    @Nullable
+    private ImageReader mJpegReader;
+    /**
+     * The callback of the picture being taken, {@code null} if none.
+     */
+    @Nullable
+    private JpegCallback mJpegCallback;
+    @Nullable
+    private Surface mPreviewSurface;
+    @Nullable
+    private CameraCaptureSession mCaptureSession;
+    @Nullable
+    private SessionCallback mSessionCallback;
+
+    /**
+     * @param context       Any context, to get the {@link CameraManager}.
+     * @param previewTarget Where the preview is drawn.
+     * @param framePipeline The pipeline the preview frames are delivered through.
+     * @param frameCallback Receives the preview frames, in the buffers of the pipeline.
+     * @param metrics       Measures the first frame after a switch and the frame rate.
+     */
+    Camera2Driver(@NonNull Context context, @NonNull PreviewTarget previewTarget, @NonNull FramePipeline framePipeline,
+                  @NonNull FrameCallback frameCallback, @NonNull CameraMetrics metrics) {
+        mManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        mPreviewTarget = previewTarget;
+        mFramePipeline = framePipeline;
+        mFrameCallback = frameCallback;
+        mMetrics = metrics;
+    }
+
+    /**
+     * @return Whether every camera of the device is implemented natively, with a preview size its
+     * frames can be delivered at. Cameras at the legacy hardware level run this API on top of the
+     * {@link Camera} API, which is then faster.
+     */
+    static boolean isSupported(@NonNull Context context) {
+        Boolean supported = sSupported;
+        if (supported == null) {
+            supported = queryIsSupported((CameraManager) context.getSystemService(Context.CAMERA_SERVICE));
+            sSupported = supported;
+        }
+        return supported;
+    }
+
+    private static boolean queryIsSupported(@Nullable CameraManager manager) {
+        if (manager == null) {
+            return false;
+        }
+        try {
+            String[] ids = manager.getCameraIdList();
+            if (ids.length == 0) {
+                return false;
+            }
+            for (String id : ids) {
+                CameraCharacteristics characteristics = manager.getCameraCharacteristics(id);
+                Integer level = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+                if (level == null || level == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+                    return false;
+                }
+                if (toCapabilities(0, characteristics).previewSizes.isEmpty()) {
+                    // No size can be both previewed and delivered as frames.
+                    CameraLog.w(TAG, "No preview size usable with camera " + id + ", falling back to the Camera API.");
+                    return false;
+                }
+            }
+            return true;
+        } catch (CameraAccessException | RuntimeException exception) {
+            CameraLog.e(TAG, "Failed to query the hardware level of the cameras", exception);
+            return false;
+        }
+    }
+
+    /**
+     * @return The capabilities of the given camera, with the frame rates scaled by 1000 as with
+     * {@link Camera.Parameters#getSupportedPreviewFpsRange()}.
+     */
+    @NonNull
+    static CameraCapabilities toCapabilities(int cameraId, @NonNull CameraCharacteristics characteristics) {
+        Integer lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        int facing = lensFacing != null && lensFacing == CameraCharacteristics.LENS_FACING_FRONT ?
+                Camera.CameraInfo.CAMERA_FACING_FRONT : Camera.CameraInfo.CAMERA_FACING_BACK;
+        Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+
+        List<Size> previewSizes = new ArrayList<>();
+        List<Integer> previewMaxFps = new ArrayList<>();
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map != null) {
+            android.util.Size[] surfaceSizes = map.getOutputSizes(SurfaceHolder.class);
+            android.util.Size[] yuvSizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+            if (surfaceSizes != null && yuvSizes != null) {
+                List<android.util.Size> frameSizes = Arrays.asList(yuvSizes);
+                android.util.Size smallest = null;
+                for (android.util.Size size : surfaceSizes) {
+                    if (!frameSizes.contains(size)) {
+                        continue;
+                    }
+                    if (size.getWidth() <= MAX_PREVIEW_WIDTH && size.getHeight() <= MAX_PREVIEW_HEIGHT) {
+                        previewSizes.add(new Size(size.getWidth(), size.getHeight()));
+                        previewMaxFps.add(getMaxFps(map, size));
+                    } else if (smallest == null
+                            || (long) size.getWidth() * size.getHeight() < (long) smallest.getWidth() * smallest.getHeight()) {
+                        smallest = size;
+                    }
+                }
+                if (previewSizes.isEmpty() && smallest != null) {
+                    // Only sizes above 1080p: the smallest one rather than none.
+                    previewSizes.add(new Size(smallest.getWidth(), smallest.getHeight()));
+                    previewMaxFps.add(getMaxFps(map, smallest));
+                }
+            }
+        }
+
+        List<int[]> fpsRanges = new ArrayList<>();
+        Range<Integer>[] ranges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges != null) {
+            for (Range<Integer> range : ranges) {
+                fpsRanges.add(new int[]{range.getLower() * 1000, range.getUpper() * 1000});
+            }
+        }
+
+        // Frames are delivered in NV21 whatever the format of the images.
+        return new CameraCapabilities(cameraId, facing, orientation != null ? orientation : 0,
+                previewSizes, Collections.singletonList(ImageFormat.NV21), fpsRanges, previewMaxFps);
+    }
+
+    /**
+     * @return The highest frame rate of a preview of the given size, scaled by 1000.
+     */
+    private static int getMaxFps(@NonNull StreamConfigurationMap map, @NonNull android.util.Size size) {
+        // Both streams are captured at once, as slow as the slowest one.
+        return toMaxFps(Math.max(map.getOutputMinFrameDuration(SurfaceHolder.class, size),
+                map.getOutputMinFrameDuration(ImageFormat.YUV_420_888, size)));
+    }
+
+    /**
+     * @param minFrameDurationNs The minimum frame duration of a stream, 0 if unknown.
+     * @return The highest frame rate of the stream, scaled by 1000.
+     */
+    private static int toMaxFps(long minFrameDurationNs) {
+        return minFrameDurationNs <= 0 ? Integer.MAX_VALUE : (int) (1000000000000L / minFrameDurationNs);
+    }
+
+    /**
+     * @return The handler of the thread receiving the state callbacks, shared by every driver of
+     * the process and idle but for state changes.
+     */
+    @NonNull
+    private static synchronized Handler getCallbackHandler() {
+        if (sCallbackHandler == null) {
+            HandlerThread thread = new HandlerThread(CALLBACK_THREAD_NAME);
+            thread.start();
+            sCallbackHandler = new Handler(thread.getLooper());
+        }
+        return sCallbackHandler;
+    }
+
+    @SuppressLint("MissingPermission") // Required by CameraView, as for Camera#open(int).
+    @Override
+    public boolean open(int cameraId) {
+        if (mCameraHandler == null) {
+            mCameraHandler = new Handler(Looper.myLooper());
+        }
+        DeviceCallback callback = new DeviceCallback(cameraId);
+        CameraCharacteristics characteristics;
+        try {
+            String[] ids = mManager.getCameraIdList();
+            if (cameraId < 0 || cameraId >= ids.length) {
+                CameraLog.e(TAG, "No camera " + cameraId);
+                return false;
+            }
+            characteristics = mManager.getCameraCharacteristics(ids[cameraId]);
+            mManager.openCamera(ids[cameraId], callback, getCallbackHandler());
+        } catch (CameraAccessException | RuntimeException exception) {
+            // SecurityException without the camera permission.
+            CameraLog.e(TAG, "Failed to open camera " + cameraId, exception);
+            return false;
+        }
+        CameraDevice device = callback.mOpened.await();
+        if (device == null) {
+            CameraLog.e(TAG, "Failed to open camera " + cameraId);
+            return false;
+        }
+        mDevice = device;
+        mDeviceCallback = callback;
+        mCharacteristics = characteristics;
+        mCameraId = cameraId;
+        return true;
+    }
+
+    @NonNull
+    @Override
+    public CameraCapabilities queryCapabilities() {
+        CameraCharacteristics characteristics = mCharacteristics;
+        if (characteristics == null) {
+            throw new IllegalStateException("No camera opened.");
+        }
+        CameraCapabilities capabilities = toCapabilities(mCameraId, characteristics);
+        CameraUtils.logSizes("Supported Preview Sizes of camera " + mCameraId + ":", capabilities.previewSizes);
+        return capabilities;
+    }
+
+    @Override
+    public void configure(@NonNull CameraConfiguration configuration) {
+        requireDevice();
+        // The display orientation is applied by the system to the buffers of the surface.
+        mPreviewSize = configuration.previewSize;
+        mFpsRange = configuration.hasFpsRange() ?
+                new Range<>(configuration.minFps / 1000, configuration.maxFps / 1000) : null;
+        mSettings = configuration.settings;
+        updateImageReader();
+        // Created again for the aspect ratio of the new preview size, with the next picture.
+        closeJpegReader();
+    }
+
+    @Override
+    public void setDisplayOrientation(int degrees) {
+        // Applied by the system to the buffers of the surface, see getTextureRotation(int).
+    }
+
+    @Override
+    public void applySettings(@NonNull CameraSettings settings) {
+        requireDevice();
+        mSettings = settings;
+        CameraCaptureSession session = mCaptureSession;
+        CaptureRequest.Builder request = mPreviewRequest;
+        if (session == null || request == null) {
+            // Applied once the preview starts.
+            return;
+        }
+        applySettings(request, settings);
+        try {
+            // Replaces the repeating request, without reconfiguring the session.
+            session.setRepeatingRequest(request.build(), mCaptureCallback, mCameraHandler);
+        } catch (CameraAccessException | IllegalStateException exception) {
+            CameraLog.e(TAG, "Failed to apply the settings of camera " + mCameraId, exception);
+        }
+    }
+
+    @Override
+    public void setFrameDelivery(boolean enabled) {
+        final boolean outputsChanged = enabled != mFrameDelivery;
+        mFrameDelivery = enabled;
+        if (mDevice == null || mPreviewSize == null) {
+            return;
+        }
+        if (!outputsChanged) {
+            // Consumers may have been added, needing more buffers.
+            attachFramePipeline();
+            return;
+        }
+        // The outputs of a capture session are fixed.
+        final boolean previewing = mCaptureSession != null;
+        if (previewing) {
+            stopPreview();
+        }
+        updateImageReader();
+        if (previewing) {
+            startPreview();
+        }
+    }
+
+    @Override
+    public boolean isRecordingSurfaceSupported() {
+        return true;
+    }
+
+    @Override
+    public void setRecordingSurface(@Nullable Surface surface) {
+        if (surface == mRecordingSurface) {
+            return;
+        }
+        mRecordingSurface = surface;
+        // The outputs of a capture session are fixed.
+        if (mDevice != null && mCaptureSession != null) {
+            stopPreview();
+            startPreview();
+        }
+    }
+
+    @Override
+    public boolean isSurfaceSizedToPreview() {
+        // Otherwise the camera picks a default size for the stream of the surface. Textures are
+        // sized by the target itself.
+        return mPreviewTarget.isBufferSizeSetByView();
+    }
+
+    @Override
+    public int getTextureRotation(int screenRotation) {
+        // The buffers are upright in the natural orientation of the device.
+        return (360 - 90 * screenRotation) % 360;
+    }
+
+    @Override
+    public void startPreview() {
+        CameraDevice device = requireDevice();
+        Surface previewSurface = mPreviewTarget.getSurface(requirePreviewSize());
+        List<Surface> outputs = new ArrayList<>(4);
+        outputs.add(previewSurface);
+        if (mImageReader != null) {
+            outputs.add(mImageReader.getSurface());
+        }
+        if (mRecordingSurface != null) {
+            outputs.add(mRecordingSurface);
+        }
+        SessionCallback callback = new SessionCallback();
+        try {
+            CaptureRequest.Builder request = device.createCaptureRequest(mRecordingSurface != null ?
+                    CameraDevice.TEMPLATE_RECORD : CameraDevice.TEMPLATE_PREVIEW);
+            for (Surface output : outputs) {
+                request.addTarget(output);
+            }
+            // Only targeted by the pictures.
+            if (mJpegReader != null) {
+                outputs.add(mJpegReader.getSurface());
+            }
+            if (mFpsRange != null) {
+                request.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mFpsRange);
+            }
+            applySettings(request, mSettings);
+            device.createCaptureSession(outputs, callback, getCallbackHandler());
+            CameraCaptureSession session = callback.mConfigured.await();
+            if (session == null) {
+                CameraLog.e(TAG, "Failed to configure the capture session of camera " + mCameraId);
+                return;
+            }
+            mCaptureSession = session;
+            mSessionCallback = callback;
+            mPreviewSurface = previewSurface;
+            mPreviewRequest = request;
+            session.setRepeatingRequest(request.build(), mCaptureCallback, mCameraHandler);
+        } catch (CameraAccessException | IllegalStateException exception) {
+            // IllegalStateException if the device has been closed, eg. disconnected.
+            CameraLog.e(TAG, "Failed to start the preview of camera " + mCameraId, exception);
+        }
+    }
+
+    @Override
+    public void takePicture(@NonNull JpegCallback callback) {
+        CameraDevice device = requireDevice();
+        if (mJpegCallback != null) {
+            throw new IllegalStateException("A picture is already being taken.");
+        }
+        if (mCaptureSession == null) {
+            callback.onJpegFailed();
+            return;
+        }
+        if (mJpegReader == null) {
+            mJpegReader = createJpegReader();
+            if (mJpegReader == null) {
+                callback.onJpegFailed();
+                return;
+            }
+            // The outputs of a capture session are fixed.
+            stopPreview();
+            startPreview();
+        }
+        CameraCaptureSession session = mCaptureSession;
+        Surface previewSurface = mPreviewSurface;
+        if (session == null || previewSurface == null) {
+            callback.onJpegFailed();
+            return;
+        }
+        try {
+            CaptureRequest.Builder request = device.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            // The preview goes on with the picture.
+            request.addTarget(previewSurface);
+            request.addTarget(mJpegReader.getSurface());
+            applySettings(request, mSettings);
+            mJpegCallback = callback;
+            session.capture(request.build(), mStillCaptureCallback, mCameraHandler);
+        } catch (CameraAccessException | IllegalStateException exception) {
+            CameraLog.e(TAG, "Failed to take a picture with camera " + mCameraId, exception);
+            failPicture();
+        }
+    }
+
+    @Override
+    public void stopPreview() {
+        requireDevice();
+        failPicture();
+        CameraCaptureSession session = mCaptureSession;
+        SessionCallback callback = mSessionCallback;
+        if (session == null || callback == null) {
+            return;
+        }
+        mCaptureSession = null;
+        mSessionCallback = null;
+        mPreviewSurface = null;
+        mPreviewRequest = null;
+        try {
+            session.stopRepeating();
+            session.abortCaptures();
+        } catch (CameraAccessException | IllegalStateException exception) {
+            CameraLog.w(TAG, "Failed to stop the preview of camera " + mCameraId + ": " + exception);
+        }
+        session.close();
+        // The surface may be destroyed right after, once the session does not use it anymore.
+        if (callback.mClosed.await() == null) {
+            CameraLog.w(TAG, "Capture session of camera " + mCameraId + " not closed in time.");
+        }
+    }
+
+    @Override
+    public void release() {
+        CameraDevice device = mDevice;
+        DeviceCallback callback = mDeviceCallback;
+        if (device == null || callback == null) {
+            return;
+        }
+        stopPreview();
+        mPreviewSize = null;
+        // Consumers releasing frames must not queue buffers for a closed reader.
+        updateImageReader();
+        closeJpegReader();
+        device.close();
+        if (callback.mClosed.await() == null) {
+            CameraLog.w(TAG, "Camera " + mCameraId + " not closed in time.");
+        }
+        mDevice = null;
+        mDeviceCallback = null;
+        mCharacteristics = null;
+        mCameraId = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Sets the given settings on the given request, as far as the opened camera supports them.
+     */
+    private void applySettings(@NonNull CaptureRequest.Builder request, @NonNull CameraSettings settings) {
+        CameraCharacteristics characteristics = mCharacteristics;
+        if (characteristics == null) {
+            return;
+        }
+        Rect activeArray = characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+        Float maxZoom = characteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+        if (activeArray != null && maxZoom != null) {
+            final float zoom = Math.min(settings.zoom / 100f, maxZoom);
+            final int cropWidth = Math.round(activeArray.width() / zoom);
+            final int cropHeight = Math.round(activeArray.height() / zoom);
+            final int left = (activeArray.width() - cropWidth) / 2;
+            final int top = (activeArray.height() - cropHeight) / 2;
+            request.set(CaptureRequest.SCALER_CROP_REGION, new Rect(left, top, left + cropWidth, top + cropHeight));
+        }
+
+        int[] afModes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+        switch (settings.focusMode) {
+            case CONTINUOUS_PICTURE:
+                setIfAvailable(request, CaptureRequest.CONTROL_AF_MODE, afModes,
+                        CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+                break;
+            case CONTINUOUS_VIDEO:
+                setIfAvailable(request, CaptureRequest.CONTROL_AF_MODE, afModes,
+                        CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+                break;
+            case INFINITY:
+                if (setIfAvailable(request, CaptureRequest.CONTROL_AF_MODE, afModes, CameraMetadata.CONTROL_AF_MODE_OFF)) {
+                    request.set(CaptureRequest.LENS_FOCUS_DISTANCE, 0f);
+                }
+                break;
+            default:
+                // Left to the template.
+                break;
+        }
+
+        Boolean flashAvailable = characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+        if (Boolean.TRUE.equals(flashAvailable)) {
+            int[] aeModes = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_MODES);
+            switch (settings.flashMode) {
+                case AUTO:
+                    setIfAvailable(request, CaptureRequest.CONTROL_AE_MODE, aeModes,
+                            CameraMetadata.CONTROL_AE_MODE_ON_AUTO_FLASH);
+                    request.set(CaptureRequest.FLASH_MODE, CameraMetadata.FLASH_MODE_OFF);
+                    break;
+                case ON:
+                    setIfAvailable(request, CaptureRequest.CONTROL_AE_MODE, aeModes,
+                            CameraMetadata.CONTROL_AE_MODE_ON_ALWAYS_FLASH);
+                    request.set(CaptureRequest.FLASH_MODE, CameraMetadata.FLASH_MODE_OFF);
+                    break;
+                case TORCH:
+                    // The torch needs the auto-exposure not to drive the flash.
+                    request.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_ON);
+                    request.set(CaptureRequest.FLASH_MODE, CameraMetadata.FLASH_MODE_TORCH);
+                    break;
+                default:
+                    request.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_ON);
+                    request.set(CaptureRequest.FLASH_MODE, CameraMetadata.FLASH_MODE_OFF);
+                    break;
+            }
+        }
+
+        Range<Integer> compensationRange = characteristics.get(CameraCharacteristics.CONTROL_AE_COMPENSATION_RANGE);
+        if (compensationRange != null) {
+            request.set(CaptureRequest.CONTROL_AE_EXPOSURE_COMPENSATION, Math.max(compensationRange.getLower(),
+                    Math.min(settings.exposureCompensation, compensationRange.getUpper())));
+        }
+    }
+
+    /**
+     * @return Whether the given mode is available, and has been set.
+     */
+    private static boolean setIfAvailable(@NonNull CaptureRequest.Builder request, @NonNull CaptureRequest.Key<Integer> key,
+                                          @Nullable int[] availableModes, int mode) {
+        if (availableModes == null) {
+            return false;
+        }
+        for (int availableMode : availableModes) {
+            if (availableMode == mode) {
+                request.set(key, mode);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the reader of the delivered frames, closes it if frames are not delivered anymore.
+     */
+    private void updateImageReader() {
+        final Size previewSize = mPreviewSize;
+        final ImageReader reader = mImageReader;
+        if (reader != null && (!mFrameDelivery || previewSize == null
+                || reader.getWidth() != previewSize.width || reader.getHeight() != previewSize.height)) {
+            mImageReader = null;
+            reader.close();
+        }
+        if (mImageReader == null && mFrameDelivery && previewSize != null) {
+            mImageReader = ImageReader.newInstance(previewSize.width, previewSize.height, ImageFormat.YUV_420_888, MAX_IMAGES);
+            mImageReader.setOnImageAvailableListener(mImageListener, mCameraHandler);
+        }
+        attachFramePipeline();
+    }
+
+    /**
+     * @return A reader of the largest JPEG images with the aspect ratio of the preview, or the
+     * largest ones if none has it, {@code null} if the camera has no JPEG output.
+     */
+    @Nullable
+    private ImageReader createJpegReader() {
+        final Size previewSize = requirePreviewSize();
+        CameraCharacteristics characteristics = mCharacteristics;
+        StreamConfigurationMap map = characteristics != null ?
+                characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP) : null;
+        android.util.Size[] sizes = map != null ? map.getOutputSizes(ImageFormat.JPEG) : null;
+        if (sizes == null || sizes.length == 0) {
+            CameraLog.e(TAG, "No JPEG output for camera " + mCameraId);
+            return null;
+        }
+        android.util.Size largest = null;
+        android.util.Size largestWithAspect = null;
+        for (android.util.Size size : sizes) {
+            final long area = (long) size.getWidth() * size.getHeight();
+            if (largest == null || area > (long) largest.getWidth() * largest.getHeight()) {
+                largest = size;
+            }
+            if ((long) size.getWidth() * previewSize.height == (long) size.getHeight() * previewSize.width
+                    && (largestWithAspect == null
+                    || area > (long) largestWithAspect.getWidth() * largestWithAspect.getHeight())) {
+                largestWithAspect = size;
+            }
+        }
+        android.util.Size size = largestWithAspect != null ? largestWithAspect : largest;
+        if (CameraLog.isVerbose()) {
+            CameraLog.v(TAG, "Pictures of camera " + mCameraId + " taken at " + size.getWidth() + "x" + size.getHeight());
+        }
+        // A picture being written while the next one is filled.
+        ImageReader reader = ImageReader.newInstance(size.getWidth(), size.getHeight(), ImageFormat.JPEG, MAX_IMAGES);
+        reader.setOnImageAvailableListener(mJpegListener, mCameraHandler);
+        return reader;
+    }
+
+    private void closeJpegReader() {
+        ImageReader reader = mJpegReader;
+        if (reader != null) {
+            mJpegReader = null;
+            reader.close();
+        }
+    }
+
+    /**
+     * Fails the picture being taken, if any.
+     */
+    private void failPicture() {
+        JpegCallback callback = mJpegCallback;
+        if (callback != null) {
+            mJpegCallback = null;
+            callback.onJpegFailed();
+        }
+    }
+
+    /**
+     * Hands the pooled buffers to the reader if frames must be delivered. Buffers are only
+     * reallocated when the preview size changed.
+     */
+    private void attachFramePipeline() {
+        // Take the buffers back before forgetting the free ones.
+        mFramePipeline.detach();
+        synchronized (mFreeBuffers) {
+            mFreeBuffers.clear();
+        }
+        final Size previewSize = mPreviewSize;
+        if (mImageReader == null || previewSize == null) {
+            return;
+        }
+        boolean reallocated = mFramePipeline.attach(mBufferQueue, previewSize.width, previewSize.height, ImageFormat.NV21);
+        if (reallocated && CameraLog.isVerbose()) {
+            CameraLog.v(TAG, "Allocated preview buffers for " + previewSize.width + "x" + previewSize.height);
+        }
+    }
+
+    @NonNull
+    private Size requirePreviewSize() {
+        if (mPreviewSize == null) {
+            throw new IllegalStateException("No camera configured.");
+        }
+        return mPreviewSize;
+    }
+
+    @NonNull
+    private CameraDevice requireDevice() {
+        if (mDevice == null) {
+            throw new IllegalStateException("No camera opened.");
+        }
+        return mDevice;
+    }
+
+    /**
+     * The outcome of an asynchronous operation, awaited by the camera thread.
+     */
+    private static class Outcome<T> {
+
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        @Nullable
+        private T mResult;
+        private boolean mAbandoned;
+
+        /**
+         * @return {@code false} if the camera thread stopped waiting, the result must then be
+         * disposed of.
+         */
+        synchronized boolean set(@Nullable T result) {
+            if (mAbandoned) {
+                return false;
+            }
+            if (mLatch.getCount() > 0) {
+                mResult = result;
+                mLatch.countDown();
+            }
+            return true;
+        }
+
+        /**
+         * @return The result, {@code null} if the operation failed or timed out.
+         */
+        @Nullable
+        T await() {
+            try {
+                mLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                if (mLatch.getCount() > 0) {
+                    mAbandoned = true;
+                }
+                return mResult;
+            }
+        }
+    }
+
+    private static class DeviceCallback extends CameraDevice.StateCallback {
+
+        final Outcome<CameraDevice> mOpened = new Outcome<>();
+        final Outcome<Boolean> mClosed = new Outcome<>();
+        private final int mCameraId;
+
+        DeviceCallback(int cameraId) {
+            mCameraId = cameraId;
+        }
+
+        @Override
+        public void onOpened(@NonNull CameraDevice camera) {
+            if (!mOpened.set(camera)) {
+                // Opened too late.
+                camera.close();
+            }
+        }
+
+        @Override
+        public void onClosed(@NonNull CameraDevice camera) {
+            mClosed.set(Boolean.TRUE);
+        }
+
+        @Override
+        public void onDisconnected(@NonNull CameraDevice camera) {
+            CameraLog.w(TAG, "Camera " + mCameraId + " disconnected.");
+            camera.close();
+            mOpened.set(null);
+        }
+
+        @Override
+        public void onError(@NonNull CameraDevice camera, int error) {
+            CameraLog.e(TAG, "Camera " + mCameraId + " error " + error);
+            camera.close();
+            mOpened.set(null);
+        }
+    }
+
+    private static class SessionCallback extends CameraCaptureSession.StateCallback {
+
+        final Outcome<CameraCaptureSession> mConfigured = new Outcome<>();
+        final Outcome<Boolean> mClosed = new Outcome<>();
+
+        @Override
+        public void onConfigured(@NonNull CameraCaptureSession session) {
+            if (!mConfigured.set(session)) {
+                // Configured too late.
+                session.close();
+            }
+        }
+
+        @Override
+        public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+            mConfigured.set(null);
+        }
+
+        @Override
+        public void onClosed(@NonNull CameraCaptureSession session) {
+            mClosed.set(Boolean.TRUE);
+        }
+    }
+}
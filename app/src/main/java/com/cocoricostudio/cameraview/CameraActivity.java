@@ -46,6 +46,11 @@ public class CameraActivity extends AppCompatActivity {
             return;
         }
 
+        if (savedInstanceState == null) {
+            // Opened while the layout is inflated, the preview view takes it over.
+            CameraView.prewarm(this);
+        }
+
         // Create a RelativeLayout container that will hold a SurfaceView,
         // and set it as the content of our activity.
         setContentView(R.layout.activity_camera);
@@ -0,0 +1,107 @@
+package com.cocoricostudio.cameraview;
+
+import android.hardware.Camera;
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a camera supports, as reported by {@link Camera#getCameraInfo(int, Camera.CameraInfo)} and
+ * {@link Camera#getParameters()}. Querying those is a binder round-trip parsing a flattened
+ * parameter string each time, so capabilities are cached, see {@link CameraCapabilitiesCache}.
+ */
+final class CameraCapabilities {
+
+    final int cameraId;
+    /**
+     * See {@link Camera.CameraInfo#facing}.
+     */
+    final int facing;
+    /**
+     * See {@link Camera.CameraInfo#orientation}.
+     */
+    final int orientation;
+    @NonNull
+    final List<Size> previewSizes;
+    @NonNull
+    final List<Integer> previewFormats;
+    /**
+     * See {@link Camera.Parameters#getSupportedPreviewFpsRange()}.
+     */
+    @NonNull
+    final List<int[]> previewFpsRanges;
+    /**
+     * The highest frame rate, scaled by 1000, each of {@link #previewSizes} can be streamed at, in
+     * the same order.
+     */
+    @NonNull
+    final List<Integer> previewMaxFps;
+
+    /**
+     * Capabilities of a camera that streams every preview size at the highest of its frame rates,
+     * as far as it tells: the {@link Camera} API has no frame rate per size.
+     */
+    CameraCapabilities(int cameraId, int facing, int orientation, @NonNull List<Size> previewSizes,
+                       @NonNull List<Integer> previewFormats, @NonNull List<int[]> previewFpsRanges) {
+        this(cameraId, facing, orientation, previewSizes, previewFormats, previewFpsRanges,
+                Collections.nCopies(previewSizes.size(), getMaxFps(previewFpsRanges)));
+    }
+
+    CameraCapabilities(int cameraId, int facing, int orientation, @NonNull List<Size> previewSizes,
+                       @NonNull List<Integer> previewFormats, @NonNull List<int[]> previewFpsRanges,
+                       @NonNull List<Integer> previewMaxFps) {
+        if (previewMaxFps.size() != previewSizes.size()) {
+            throw new IllegalArgumentException("One frame rate per preview size expected, got "
+                    + previewMaxFps.size() + " for " + previewSizes.size() + " sizes.");
+        }
+        this.cameraId = cameraId;
+        this.facing = facing;
+        this.orientation = orientation;
+        this.previewSizes = Collections.unmodifiableList(previewSizes);
+        this.previewFormats = Collections.unmodifiableList(previewFormats);
+        this.previewFpsRanges = Collections.unmodifiableList(previewFpsRanges);
+        this.previewMaxFps = Collections.unmodifiableList(previewMaxFps);
+    }
+
+    /**
+     * Queries the capabilities of the given camera.
+     *
+     * @param cameraId The id of the camera.
+     * @param camera   The camera, opened.
+     */
+    @NonNull
+    static CameraCapabilities query(int cameraId, @NonNull Camera camera) {
+        Camera.CameraInfo info = new Camera.CameraInfo();
+        Camera.getCameraInfo(cameraId, info);
+        Camera.Parameters parameters = camera.getParameters();
+        return new CameraCapabilities(cameraId, info.facing, info.orientation,
+                CameraUtils.toSizes(nonNull(parameters.getSupportedPreviewSizes())),
+                nonNull(parameters.getSupportedPreviewFormats()),
+                nonNull(parameters.getSupportedPreviewFpsRange()));
+    }
+
+    boolean isFrontFacing() {
+        return facing == Camera.CameraInfo.CAMERA_FACING_FRONT;
+    }
+
+    /**
+     * @return The highest upper bound of the given frame rate ranges, {@link Integer#MAX_VALUE} if
+     * there is none.
+     */
+    private static int getMaxFps(@NonNull List<int[]> fpsRanges) {
+        if (fpsRanges.isEmpty()) {
+            return Integer.MAX_VALUE;
+        }
+        int maxFps = 0;
+        for (int[] range : fpsRanges) {
+            maxFps = Math.max(maxFps, range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+        }
+        return maxFps;
+    }
+
+    @NonNull
+    private static <T> List<T> nonNull(List<T> list) {
+        return list != null ? list : Collections.<T>emptyList();
+    }
+}
@@ -0,0 +1,187 @@
+package com.cocoricostudio.cameraview;
+
+import android.hardware.Camera;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Process-wide cache of {@link CameraCapabilities}, per camera id.
+ * <p/>
+ * Capabilities are queried once, the first time a camera is opened, then reused on every resume,
+ * switch and resolution change. They only change if the set of cameras changes, eg. an external
+ * camera is plugged, in which case {@link #invalidate()} must be called.
+ * <p/>
+ * With a {@link #setStoreIfAbsent(CapabilityStore, Executor) store}, capabilities also outlive the
+ * process: the store is read on first use, and written off the camera thread whenever a camera is
+ * queried.
+ */
+class CameraCapabilitiesCache {
+
+    private static final String TAG = CameraCapabilitiesCache.class.getSimpleName();
+
+    private static final CameraCapabilitiesCache sInstance = new CameraCapabilitiesCache();
+
+    interface Loader {
+        @NonNull
+        CameraCapabilities load(int cameraId);
+    }
+
+    private final ConcurrentMap<Integer, CameraCapabilities> mCapabilities = new ConcurrentHashMap<>();
+
+    // Guarded by mStoreLock.
+    private final Object mStoreLock = new Object();
+    @Nullable
+    private CapabilityStore mStore;
+    @Nullable
+    private Executor mStoreWriter;
+    private volatile boolean mStoreLoaded;
+
+    static CameraCapabilitiesCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @param cameraId The id of the camera.
+     * @param camera   The camera, opened, queried in case its capabilities are not cached yet.
+     */
+    @NonNull
+    CameraCapabilities get(final int cameraId, @NonNull final Camera camera) {
+        return get(cameraId, new Loader() {
+            @NonNull
+            @Override
+            public CameraCapabilities load(int cameraId) {
+                CameraCapabilities capabilities = CameraCapabilities.query(cameraId, camera);
+                CameraUtils.logSizes("Supported Preview Sizes of camera " + cameraId + ":", capabilities.previewSizes);
+                return capabilities;
+            }
+        });
+    }
+
+    @NonNull
+    CameraCapabilities get(int cameraId, @NonNull Loader loader) {
+        CameraCapabilities capabilities = getIfPresent(cameraId);
+        if (capabilities == null) {
+            capabilities = loader.load(cameraId);
+            CameraCapabilities previous = mCapabilities.putIfAbsent(cameraId, capabilities);
+            if (previous != null) {
+                capabilities = previous;
+            } else {
+                saveStore();
+            }
+        }
+        return capabilities;
+    }
+
+    /**
+     * @return The capabilities of the given camera, or null if not cached, nor stored, yet.
+     */
+    @Nullable
+    CameraCapabilities getIfPresent(int cameraId) {
+        CameraCapabilities capabilities = mCapabilities.get(cameraId);
+        if (capabilities == null && !mStoreLoaded) {
+            loadStore();
+            capabilities = mCapabilities.get(cameraId);
+        }
+        return capabilities;
+    }
+
+    boolean contains(int cameraId) {
+        return getIfPresent(cameraId) != null;
+    }
+
+    /**
+     * Persists the capabilities with the given store, unless a store is already set: the first
+     * camera view of the process sets it. Capabilities are read from it on first use.
+     *
+     * @param writer Writes the store, eg. a background thread. Must run one task at a time, in
+     *               order, so the last snapshot wins. The store is only loaded before the first
+     *               write.
+     */
+    void setStoreIfAbsent(@NonNull CapabilityStore store, @NonNull Executor writer) {
+        synchronized (mStoreLock) {
+            if (mStore == null) {
+                mStore = store;
+                mStoreWriter = writer;
+                mStoreLoaded = false;
+            }
+        }
+    }
+
+    /**
+     * Forgets the capabilities of every camera, they will be queried again on next use. The store
+     * is deleted.
+     */
+    void invalidate() {
+        synchronized (mStoreLock) {
+            mCapabilities.clear();
+            // Not to be loaded again.
+            mStoreLoaded = true;
+            final CapabilityStore store = mStore;
+            if (store != null) {
+                mStoreWriter.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        store.delete();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Forgets the capabilities of the given camera.
+     */
+    void invalidate(int cameraId) {
+        mCapabilities.remove(cameraId);
+        saveStore();
+    }
+
+    /**
+     * Adds the stored capabilities to the cached ones, once.
+     */
+    private void loadStore() {
+        synchronized (mStoreLock) {
+            if (mStoreLoaded) {
+                return;
+            }
+            mStoreLoaded = true;
+            if (mStore == null) {
+                return;
+            }
+            final long startNs = System.nanoTime();
+            Map<Integer, CameraCapabilities> stored = mStore.load();
+            for (Map.Entry<Integer, CameraCapabilities> entry : stored.entrySet()) {
+                mCapabilities.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            if (CameraLog.isVerbose()) {
+                CameraLog.v(TAG, "Loaded the capabilities of " + stored.size()
+                        + " cameras in " + (System.nanoTime() - startNs) / 1000 + " us.");
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of the cached capabilities to the store, if any.
+     */
+    private void saveStore() {
+        synchronized (mStoreLock) {
+            final CapabilityStore store = mStore;
+            if (store == null) {
+                return;
+            }
+            final ArrayList<CameraCapabilities> snapshot = new ArrayList<>(mCapabilities.values());
+            mStoreWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    store.save(snapshot);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * How a camera is configured: computed from its cached {@link CameraCapabilities} only, so it can
+ * be prepared before the camera is opened, eg. while the previous camera is still previewing.
+ */
+final class CameraConfiguration {
+
+    // Changes of a configuration, see diff(CameraConfiguration), along with CameraSettings.CHANGED_*.
+    static final int CHANGED_CAMERA = 1 << 8;
+    static final int CHANGED_PREVIEW_SIZE = 1 << 9;
+    static final int CHANGED_FPS_RANGE = 1 << 10;
+    static final int CHANGED_DISPLAY_ORIENTATION = 1 << 11;
+    static final int CHANGED_SETTINGS = CameraSettings.CHANGED_ZOOM | CameraSettings.CHANGED_FOCUS_MODE
+            | CameraSettings.CHANGED_FLASH_MODE | CameraSettings.CHANGED_EXPOSURE_COMPENSATION;
+    static final int CHANGED_ALL = CHANGED_CAMERA | CHANGED_PREVIEW_SIZE | CHANGED_FPS_RANGE
+            | CHANGED_DISPLAY_ORIENTATION | CHANGED_SETTINGS;
+    /**
+     * The changes the preview must be stopped for, the others are applied while previewing.
+     */
+    static final int CHANGES_STOPPING_PREVIEW = CHANGED_CAMERA | CHANGED_PREVIEW_SIZE | CHANGED_FPS_RANGE;
+
+    final int cameraId;
+    @NonNull
+    final Size previewSize;
+    /**
+     * See {@link android.hardware.Camera#setDisplayOrientation(int)}.
+     */
+    final int displayOrientation;
+    /**
+     * The frame rate range of the preview, scaled by 1000, see
+     * {@link android.hardware.Camera.Parameters#setPreviewFpsRange(int, int)}. Both 0 to keep the
+     * default range of the camera.
+     */
+    final int minFps;
+    final int maxFps;
+    @NonNull
+    final CameraSettings settings;
+
+    CameraConfiguration(int cameraId, @NonNull Size previewSize, int displayOrientation) {
+        this(cameraId, previewSize, displayOrientation, 0, 0);
+    }
+
+    CameraConfiguration(int cameraId, @NonNull Size previewSize, int displayOrientation, int minFps, int maxFps) {
+        this(cameraId, previewSize, displayOrientation, minFps, maxFps, CameraSettings.DEFAULT);
+    }
+
+    CameraConfiguration(int cameraId, @NonNull Size previewSize, int displayOrientation, int minFps, int maxFps,
+                        @NonNull CameraSettings settings) {
+        this.cameraId = cameraId;
+        this.previewSize = previewSize;
+        this.displayOrientation = displayOrientation;
+        this.minFps = minFps;
+        this.maxFps = maxFps;
+        this.settings = settings;
+    }
+
+    boolean hasFpsRange() {
+        return maxFps != 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CameraConfiguration)) return false;
+        CameraConfiguration that = (CameraConfiguration) o;
+        return diff(that) == 0;
+    }
+
+    /**
+     * @param previous The configuration applied, {@code null} if none.
+     * @return What changed from the given configuration, as {@code CHANGED_} flags of this class
+     * and of {@link CameraSettings}, 0 if nothing did, {@link #CHANGED_ALL} if there is none. See
+     * {@link #CHANGES_STOPPING_PREVIEW}.
+     */
+    int diff(@Nullable CameraConfiguration previous) {
+        if (previous == null) {
+            return CHANGED_ALL;
+        }
+        int changes = settings.diff(previous.settings);
+        if (cameraId != previous.cameraId) {
+            changes |= CHANGED_CAMERA;
+        }
+        if (!previewSize.equals(previous.previewSize)) {
+            changes |= CHANGED_PREVIEW_SIZE;
+        }
+        if (minFps != previous.minFps || maxFps != previous.maxFps) {
+            changes |= CHANGED_FPS_RANGE;
+        }
+        if (displayOrientation != previous.displayOrientation) {
+            changes |= CHANGED_DISPLAY_ORIENTATION;
+        }
+        return changes;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 31 * (31 * cameraId + previewSize.hashCode()) + displayOrientation;
+        result = 31 * (31 * result + minFps) + maxFps;
+        return 31 * result + settings.hashCode();
+    }
+
+    /**
+     * @param capabilities   The capabilities of the camera.
+     * @param screenRotation The rotation of the screen (see. {@link android.view.Display#getRotation()}).
+     * @param targetWidth    The width of the wanted preview size, {@link Integer#MIN_VALUE} if none.
+     * @param targetHeight   The height of the wanted preview size, {@link Integer#MIN_VALUE} if none.
+     * @param scorer         How the supported preview sizes are compared to the wanted one.
+     * @param targetFps      The wanted frame rate, scaled by 1000, 0 to keep the default frame
+     *                       rate of the camera. Sizes that can't be streamed at that rate are only
+     *                       chosen if no other one can.
+     * @param fixedFps       Whether the frame rate must stay constant, see
+     *                       {@link PreviewGeometry#selectFpsRange(java.util.List, int, int, boolean)}.
+     */
+    @NonNull
+    static CameraConfiguration create(@NonNull CameraCapabilities capabilities, int screenRotation,
+                                      int targetWidth, int targetHeight, @NonNull PreviewSizeScorer scorer,
+                                      int targetFps, boolean fixedFps) {
+        return create(capabilities, screenRotation, targetWidth, targetHeight, scorer, targetFps, fixedFps,
+                CameraSettings.DEFAULT);
+    }
+
+    /**
+     * Same as {@link #create(CameraCapabilities, int, int, int, PreviewSizeScorer, int, boolean)},
+     * with the given settings.
+     */
+    @NonNull
+    static CameraConfiguration create(@NonNull CameraCapabilities capabilities, int screenRotation,
+                                      int targetWidth, int targetHeight, @NonNull PreviewSizeScorer scorer,
+                                      int targetFps, boolean fixedFps, @NonNull CameraSettings settings) {
+        return create(capabilities, screenRotation, targetWidth, targetHeight, scorer, targetFps, fixedFps,
+                settings, new PreviewSizeSelector());
+    }
+
+    /**
+     * Same as
+     * {@link #create(CameraCapabilities, int, int, int, PreviewSizeScorer, int, boolean, CameraSettings)},
+     * scoring the preview sizes with the given selector, owned by the calling thread.
+     */
+    @NonNull
+    static CameraConfiguration create(@NonNull CameraCapabilities capabilities, int screenRotation,
+                                      int targetWidth, int targetHeight, @NonNull PreviewSizeScorer scorer,
+                                      int targetFps, boolean fixedFps, @NonNull CameraSettings settings,
+                                      @NonNull PreviewSizeSelector selector) {
+        Size previewSize;
+        if (targetFps == 0) {
+            previewSize = targetWidth == Integer.MIN_VALUE || targetHeight == Integer.MIN_VALUE ?
+                    capabilities.previewSizes.get(0) :
+                    CameraUtils.getClosestPreviewSize(capabilities.previewSizes, targetWidth, targetHeight, scorer,
+                            selector);
+        } else {
+            previewSize = CameraUtils.getClosestPreviewSize(capabilities.previewSizes, capabilities.previewMaxFps,
+                    targetFps, targetWidth, targetHeight, scorer, selector);
+        }
+        int displayOrientation = CameraUtils.getDisplayOrientation(screenRotation, capabilities);
+        if (targetFps == 0) {
+            return new CameraConfiguration(capabilities.cameraId, previewSize, displayOrientation, 0, 0, settings);
+        }
+        int sizeMaxFps = capabilities.previewMaxFps.get(capabilities.previewSizes.indexOf(previewSize));
+        int[] fpsRange = CameraUtils.getPreviewFpsRange(capabilities.previewFpsRanges, sizeMaxFps, targetFps, fixedFps);
+        if (fpsRange == null) {
+            return new CameraConfiguration(capabilities.cameraId, previewSize, displayOrientation, 0, 0, settings);
+        }
+        return new CameraConfiguration(capabilities.cameraId, previewSize, displayOrientation,
+                fpsRange[0], fpsRange[1], settings);
+    }
+}
@@ -0,0 +1,130 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.Surface;
+
+/**
+ * The camera operations {@link CameraSession} relies on, so the session logic does not depend on
+ * a camera API and can run on the JVM against a fake driver.
+ * <p/>
+ * Camera thread only. A driver drives one camera at a time.
+ */
+interface CameraDriver {
+
+    /**
+     * Receives the preview frames, on the camera thread.
+     */
+    interface FrameCallback {
+
+        /**
+         * @param data A buffer of the frame pipeline, filled with the frame in the format and size
+         *             the pipeline was attached with.
+         */
+        void onFrame(@NonNull byte[] data);
+    }
+
+    /**
+     * Receives a picture, on the camera thread. Exactly one method is called per picture.
+     */
+    interface JpegCallback {
+
+        /**
+         * @param jpeg The JPEG image, owned by the receiver.
+         */
+        void onJpegTaken(@NonNull byte[] jpeg);
+
+        /**
+         * The picture could not be taken, eg. the preview was stopped first.
+         */
+        void onJpegFailed();
+    }
+
+    /**
+     * Opens the given camera, the previous one must have been released.
+     *
+     * @return {@code false} if the camera could not be opened, eg. it is used by another app.
+     */
+    boolean open(int cameraId);
+
+    /**
+     * @return The capabilities of the opened camera.
+     */
+    @NonNull
+    CameraCapabilities queryCapabilities();
+
+    /**
+     * Applies the given configuration to the opened camera. The preview is stopped.
+     */
+    void configure(@NonNull CameraConfiguration configuration);
+
+    /**
+     * Rotates the preview of the configured camera, eg. after the screen rotated, without stopping
+     * it.
+     *
+     * @param degrees See {@link CameraConfiguration#displayOrientation}.
+     */
+    void setDisplayOrientation(int degrees);
+
+    /**
+     * Applies the given settings to the configured camera, without stopping its preview, in a
+     * single update of its parameters. The settings not supported by the camera are ignored.
+     */
+    void applySettings(@NonNull CameraSettings settings);
+
+    /**
+     * @param enabled Whether the preview frames must be delivered to the frame pipeline, applied
+     *                now if a camera is configured, or once one is.
+     */
+    void setFrameDelivery(boolean enabled);
+
+    /**
+     * @return Whether the camera can draw on a recording surface besides the preview, see
+     * {@link #setRecordingSurface(Surface)}. Otherwise the recording is fed with the delivered
+     * frames.
+     */
+    boolean isRecordingSurfaceSupported();
+
+    /**
+     * @param surface The surface the preview frames must also be drawn on, eg. the input surface of
+     *                a video encoder, {@code null} for none. Applied now if a camera is configured,
+     *                or once one is. The camera does not draw on the previous surface anymore once
+     *                this method returns.
+     */
+    void setRecordingSurface(@Nullable Surface surface);
+
+    /**
+     * @return Whether the buffers of the preview surface must have the size of the preview, in
+     * which case the preview only starts once the surface has been resized, see
+     * {@link CameraSession.Listener#onConfigured(Size, boolean, boolean)}.
+     */
+    boolean isSurfaceSizedToPreview();
+
+    /**
+     * Any thread.
+     *
+     * @param screenRotation The rotation of the screen (see. {@link android.view.Display#getRotation()}).
+     * @return The clockwise rotation, in degrees, to display the content of a
+     * {@link android.graphics.SurfaceTexture} with, on top of the transform set by the camera.
+     */
+    int getTextureRotation(int screenRotation);
+
+    /**
+     * Starts the preview of the configured camera on the preview target, which is ready.
+     */
+    void startPreview();
+
+    /**
+     * Takes a picture while the preview runs, and keeps it running, or restarts it, right after.
+     * Pictures are taken one at a time: the previous one must have been delivered. A picture not
+     * delivered yet when the preview stops is failed.
+     */
+    void takePicture(@NonNull JpegCallback callback);
+
+    void stopPreview();
+
+    /**
+     * Releases the opened camera, stopping its preview if needed.
+     */
+    void release();
+}
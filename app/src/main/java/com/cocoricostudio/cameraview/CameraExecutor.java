@@ -0,0 +1,155 @@
+package com.cocoricostudio.cameraview;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serializes every camera operation on a single background looper and posts results back to the
+ * UI thread.
+ * <p/>
+ * Operations are tagged with the session they were submitted in. Calling {@link #invalidate()}
+ * (typically from {@code onPause()}) starts a new session: UI callbacks posted by operations of an
+ * older session are then dropped instead of reaching a view that already moved on.
+ */
+class CameraExecutor {
+
+    private static final String THREAD_NAME = "CameraThread";
+
+    private final Executor mCameraExecutor;
+    private final Executor mUiExecutor;
+    @Nullable
+    private final HandlerThread mThread;
+    private final AtomicInteger mSession = new AtomicInteger();
+    private volatile boolean mQuit;
+
+    /**
+     * Session of the operation currently running. Only accessed from the camera thread.
+     */
+    private int mRunningSession;
+
+    CameraExecutor(@NonNull Executor cameraExecutor, @NonNull Executor uiExecutor) {
+        this(cameraExecutor, uiExecutor, null);
+    }
+
+    private CameraExecutor(@NonNull Executor cameraExecutor, @NonNull Executor uiExecutor, @Nullable HandlerThread thread) {
+        mCameraExecutor = cameraExecutor;
+        mUiExecutor = uiExecutor;
+        mThread = thread;
+    }
+
+    /**
+     * @return An executor backed by a newly started {@link HandlerThread}. Since {@link
+     * android.hardware.Camera#open(int)} is called on that thread, camera callbacks are delivered
+     * on its looper too.
+     */
+    static CameraExecutor create() {
+        HandlerThread thread = new HandlerThread(THREAD_NAME);
+        thread.start();
+        return new CameraExecutor(
+                new HandlerExecutor(new Handler(thread.getLooper())),
+                new HandlerExecutor(new Handler(Looper.getMainLooper())),
+                thread);
+    }
+
+    /**
+     * Enqueues the given operation on the camera thread, after every operation previously submitted.
+     */
+    void execute(@NonNull final Runnable operation) {
+        final int session = mSession.get();
+        mCameraExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mRunningSession = session;
+                operation.run();
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #execute(Runnable)} but blocks the caller until the operation ran.
+     *
+     * @return {@code false} if the operation did not complete within the given timeout.
+     */
+    boolean executeAndWait(@NonNull final Runnable operation, long timeoutMs) {
+        final CountDownLatch done = new CountDownLatch(1);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    operation.run();
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        try {
+            return done.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Posts the given callback to the UI thread. Must be called from a camera operation.
+     * <p/>
+     * The callback is dropped if {@link #invalidate()} has been called since that operation was
+     * submitted.
+     */
+    void postToUi(@NonNull final Runnable callback) {
+        final int session = mRunningSession;
+        mUiExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (session == mSession.get()) {
+                    callback.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts a new session, so that pending UI callbacks of previously submitted operations are
+     * dropped.
+     */
+    void invalidate() {
+        mSession.incrementAndGet();
+    }
+
+    /**
+     * Lets the camera thread run its pending operations then stops it.
+     */
+    void quit() {
+        mQuit = true;
+        invalidate();
+        if (mThread != null) {
+            mThread.quitSafely();
+        }
+    }
+
+    boolean isQuit() {
+        return mQuit;
+    }
+
+    private static class HandlerExecutor implements Executor {
+
+        private final Handler mHandler;
+
+        HandlerExecutor(Handler handler) {
+            mHandler = handler;
+        }
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mHandler.post(command);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.cocoricostudio.cameraview;
+
+import android.hardware.Camera;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The camera of a {@link CameraView}: the camera thread, the driver and the session, with the frame
+ * pipeline and the metrics they feed.
+ * <p/>
+ * A host outlives its view across configuration changes: the view of an activity being recreated,
+ * eg. after a rotation, {@link #park(int, CameraHost) parks} its host, and the view recreated with
+ * the same id {@link #adopt(int) adopts} it. The camera stays opened and configured meanwhile, only
+ * the preview is restarted on the surface of the new view, see {@link #bind(PreviewTarget,
+ * CameraDriver.FrameCallback, CameraSession.Listener)}.
+ * <p/>
+ * A host can also be created ahead of any view, see {@link CameraView#prewarm}: the camera is
+ * opened and configured without a surface, and the next view created {@link #adoptPrewarmed()
+ * adopts} it.
+ * <p/>
+ * Parking, prewarming and adopting are UI thread only.
+ */
+final class CameraHost {
+
+    private static final String TAG = CameraHost.class.getSimpleName();
+
+    /**
+     * Creates the driver of a host, drawing on the given target and delivering frames to the given
+     * callback.
+     */
+    interface DriverFactory {
+        @NonNull
+        CameraDriver create(@NonNull PreviewTarget previewTarget, @NonNull FramePipeline framePipeline,
+                            @NonNull CameraDriver.FrameCallback frameCallback, @NonNull CameraMetrics metrics);
+    }
+
+    /**
+     * Hosts waiting for their view to be recreated, per view id. UI thread only.
+     */
+    private static final Map<Integer, CameraHost> sParked = new HashMap<>();
+    /**
+     * The host opened ahead of its view, if any. UI thread only.
+     */
+    @Nullable
+    private static CameraHost sPrewarmed;
+
+    final CameraExecutor executor;
+    final FramePipeline framePipeline;
+    final CameraMetrics metrics;
+    final CameraDriver driver;
+    final CameraSession session;
+
+    // The view currently bound. The preview target is only changed on the camera thread.
+    @Nullable
+    private PreviewTarget mPreviewTarget;
+    @Nullable
+    private volatile CameraDriver.FrameCallback mFrameCallback;
+    @Nullable
+    private volatile CameraSession.Listener mListener;
+    // Whether the view bound wants the preview frames itself. Camera thread only.
+    private boolean mPreviewFramesWanted;
+
+    private final PreviewTarget mPreviewTargetDelegate = new PreviewTarget() {
+        @Override
+        void setOn(@NonNull Camera camera) throws IOException {
+            requirePreviewTarget().setOn(camera);
+        }
+
+        @NonNull
+        @Override
+        Surface getSurface(@NonNull Size previewSize) {
+            return requirePreviewTarget().getSurface(previewSize);
+        }
+
+        @Override
+        boolean isBufferSizeSetByView() {
+            // Prewarmed without a view: told again once bound, see CameraSession#onViewChanged().
+            return mPreviewTarget != null && mPreviewTarget.isBufferSizeSetByView();
+        }
+    };
+
+    private final CameraDriver.FrameCallback mFrameCallbackDelegate = new CameraDriver.FrameCallback() {
+        @Override
+        public void onFrame(@NonNull byte[] data) {
+            CameraDriver.FrameCallback callback = mFrameCallback;
+            if (callback != null) {
+                callback.onFrame(data);
+            }
+        }
+    };
+
+    private final CameraSession.Listener mListenerDelegate = new CameraSession.Listener() {
+        @Override
+        public void onConfigured(@NonNull Size previewSize, boolean relayout, boolean resizeSurface) {
+            CameraSession.Listener listener = mListener;
+            if (listener != null) {
+                listener.onConfigured(previewSize, relayout, resizeSurface);
+            }
+        }
+    };
+
+    /**
+     * @param screenRotation The rotation of the screen (see. {@link android.view.Display#getRotation()}).
+     */
+    CameraHost(@NonNull CameraExecutor executor, @NonNull FramePipeline framePipeline, @NonNull CameraMetrics metrics,
+               @NonNull DriverFactory driverFactory, @NonNull CameraCapabilitiesCache capabilitiesCache,
+               int screenRotation) {
+        this.executor = executor;
+        this.framePipeline = framePipeline;
+        this.metrics = metrics;
+        driver = driverFactory.create(mPreviewTargetDelegate, framePipeline, mFrameCallbackDelegate, metrics);
+        session = new CameraSession(executor, driver, capabilitiesCache, metrics, mListenerDelegate, screenRotation);
+    }
+
+    /**
+     * Shows the camera in the given view, whose surface is not ready yet. The preview of the
+     * previous view, if any, must have been stopped with its surface.
+     */
+    void bind(@NonNull final PreviewTarget previewTarget, @NonNull CameraDriver.FrameCallback frameCallback,
+              @NonNull CameraSession.Listener listener) {
+        mFrameCallback = frameCallback;
+        mListener = listener;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mPreviewTarget = previewTarget;
+                session.onViewChanged();
+            }
+        });
+    }
+
+    /**
+     * Detaches the view: its preview is stopped, the surface goes away with it, and frames are
+     * only delivered to the consumers left until a view is bound again.
+     */
+    void unbind() {
+        mFrameCallback = null;
+        mListener = null;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                session.onSurfaceDestroyed();
+                mPreviewFramesWanted = false;
+                session.setFrameDelivery(framePipeline.hasSubscriptions());
+            }
+        });
+    }
+
+    /**
+     * Delivers the preview frames while the view bound wants them, or any consumer is subscribed.
+     */
+    void setPreviewFramesWanted(final boolean wanted) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mPreviewFramesWanted = wanted;
+                session.setFrameDelivery(wanted || framePipeline.hasSubscriptions());
+            }
+        });
+    }
+
+    /**
+     * To be called once consumers are subscribed or unsubscribed.
+     */
+    void updateFrameDelivery() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                session.setFrameDelivery(mPreviewFramesWanted || framePipeline.hasSubscriptions());
+            }
+        });
+    }
+
+    /**
+     * Releases the camera and stops the camera thread.
+     */
+    void close() {
+        session.close();
+        executor.quit();
+    }
+
+    /**
+     * Keeps the given host, {@link #unbind() unbound}, for the view recreated with the given id.
+     * The consumers of the view are gone with it. A host previously parked for that id is closed.
+     */
+    static void park(int viewId, @NonNull CameraHost host) {
+        host.framePipeline.unsubscribeAll();
+        host.updateFrameDelivery();
+        CameraHost previous = sParked.put(viewId, host);
+        if (previous != null && previous != host) {
+            CameraLog.w(TAG, "Closing the camera parked for view " + viewId + ", replaced.");
+            previous.close();
+        }
+    }
+
+    /**
+     * @return The host parked for the view of the given id, {@code null} if none, not parked
+     * anymore.
+     */
+    @Nullable
+    static CameraHost adopt(int viewId) {
+        return sParked.remove(viewId);
+    }
+
+    static boolean isParked(int viewId, @NonNull CameraHost host) {
+        return sParked.get(viewId) == host;
+    }
+
+    /**
+     * Closes the given host if it is still parked, eg. the activity was not recreated in time.
+     *
+     * @return Whether the host was parked.
+     */
+    static boolean closeIfParked(int viewId, @NonNull CameraHost host) {
+        if (sParked.get(viewId) != host) {
+            return false;
+        }
+        sParked.remove(viewId);
+        host.close();
+        return true;
+    }
+
+    /**
+     * Keeps the given host, whose camera is being opened, for the next view created. A host
+     * previously prewarmed is closed.
+     */
+    static void prewarm(@NonNull CameraHost host) {
+        CameraHost previous = sPrewarmed;
+        sPrewarmed = host;
+        if (previous != null && previous != host) {
+            CameraLog.w(TAG, "Closing the camera prewarmed before, replaced.");
+            previous.close();
+        }
+    }
+
+    /**
+     * @return The host prewarmed, {@code null} if none, already adopted or closed.
+     */
+    @Nullable
+    static CameraHost adoptPrewarmed() {
+        CameraHost host = sPrewarmed;
+        sPrewarmed = null;
+        return host;
+    }
+
+    /**
+     * Closes the given host if it is still prewarmed, eg. no view was created in time.
+     *
+     * @return Whether the host was prewarmed.
+     */
+    static boolean closeIfPrewarmed(@NonNull CameraHost host) {
+        if (sPrewarmed != host) {
+            return false;
+        }
+        sPrewarmed = null;
+        host.close();
+        return true;
+    }
+
+    @NonNull
+    private PreviewTarget requirePreviewTarget() {
+        if (mPreviewTarget == null) {
+            throw new IllegalStateException("No view bound.");
+        }
+        return mPreviewTarget;
+    }
+}
@@ -0,0 +1,79 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+/**
+ * Logging of the library, through the {@link CameraLogger} set with
+ * {@link CameraView#setLogger(CameraLogger)}.
+ * <p/>
+ * Messages built by concatenation must be guarded so nothing is allocated when the level is not
+ * logged:
+ * <pre>
+ * if (CameraLog.isVerbose()) {
+ *     CameraLog.v(TAG, "size: " + width + "x" + height);
+ * }
+ * </pre>
+ */
+final class CameraLog {
+
+    private static volatile CameraLogger sLogger = getDefaultLogger();
+
+    private CameraLog() {
+    }
+
+    /**
+     * @return Logcat in debug builds, if available: on the JVM, eg. in unit tests, the stubs of
+     * {@link Log} throw, so nothing is logged.
+     */
+    @NonNull
+    private static CameraLogger getDefaultLogger() {
+        if (!BuildConfig.DEBUG) {
+            return CameraLogger.NONE;
+        }
+        try {
+            Log.isLoggable(CameraLog.class.getSimpleName(), Log.VERBOSE);
+        } catch (RuntimeException exception) {
+            // "Method isLoggable in android.util.Log not mocked."
+            return CameraLogger.NONE;
+        }
+        return CameraLogger.LOGCAT;
+    }
+
+    static void setLogger(@NonNull CameraLogger logger) {
+        sLogger = logger;
+    }
+
+    @NonNull
+    static CameraLogger getLogger() {
+        return sLogger;
+    }
+
+    static boolean isVerbose() {
+        return sLogger.isLoggable(Log.VERBOSE);
+    }
+
+    static void v(@NonNull String tag, @NonNull String message) {
+        log(Log.VERBOSE, tag, message, null);
+    }
+
+    static void w(@NonNull String tag, @NonNull String message) {
+        log(Log.WARN, tag, message, null);
+    }
+
+    static void e(@NonNull String tag, @NonNull String message) {
+        log(Log.ERROR, tag, message, null);
+    }
+
+    static void e(@NonNull String tag, @NonNull String message, @Nullable Throwable throwable) {
+        log(Log.ERROR, tag, message, throwable);
+    }
+
+    private static void log(int level, @NonNull String tag, @NonNull String message, @Nullable Throwable throwable) {
+        CameraLogger logger = sLogger;
+        if (logger.isLoggable(level)) {
+            logger.log(level, tag, message, throwable);
+        }
+    }
+}
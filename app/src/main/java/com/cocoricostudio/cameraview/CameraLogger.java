@@ -0,0 +1,72 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+/**
+ * Receives the logs of the library, see {@link CameraView#setLogger(CameraLogger)}.
+ * <p/>
+ * The library checks {@link #isLoggable(int)} before building any message, so a logger rejecting
+ * a level costs a virtual call per log, never a string. Debug builds log to logcat by default and
+ * release builds log nothing.
+ */
+public abstract class CameraLogger {
+
+    /**
+     * Logs nothing.
+     */
+    public static final CameraLogger NONE = new CameraLogger() {
+        @Override
+        public boolean isLoggable(int level) {
+            return false;
+        }
+
+        @Override
+        public void log(int level, @NonNull String tag, @NonNull String message, @Nullable Throwable throwable) {
+        }
+    };
+
+    /**
+     * Logs every level to logcat.
+     */
+    public static final CameraLogger LOGCAT = logcat(Log.VERBOSE);
+
+    /**
+     * @param level The log level, one of the {@link Log} priorities, eg. {@link Log#VERBOSE}.
+     * @return Whether messages of that level are logged.
+     */
+    public abstract boolean isLoggable(int level);
+
+    /**
+     * Only called if {@link #isLoggable(int)} returned true for the level.
+     *
+     * @param level     The log level, one of the {@link Log} priorities.
+     * @param tag       The class that logs.
+     * @param message   The message.
+     * @param throwable The error being logged, if any.
+     */
+    public abstract void log(int level, @NonNull String tag, @NonNull String message, @Nullable Throwable throwable);
+
+    /**
+     * @param minLevel The lowest level logged, one of the {@link Log} priorities.
+     * @return A logger to logcat of the messages of the given level and above.
+     */
+    @NonNull
+    public static CameraLogger logcat(final int minLevel) {
+        return new CameraLogger() {
+            @Override
+            public boolean isLoggable(int level) {
+                return level >= minLevel;
+            }
+
+            @Override
+            public void log(int level, @NonNull String tag, @NonNull String message, @Nullable Throwable throwable) {
+                if (throwable != null) {
+                    message = message + '\n' + Log.getStackTraceString(throwable);
+                }
+                Log.println(level, tag, message);
+            }
+        };
+    }
+}
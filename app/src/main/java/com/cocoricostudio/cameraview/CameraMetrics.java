@@ -0,0 +1,374 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Performance metrics of a {@link CameraView}, see {@link CameraView#getMetrics()}.
+ * <p/>
+ * Metrics are written on the camera thread and can be read from any thread, one by one or at once
+ * with {@link #snapshot()}. Durations are in nanoseconds, -1 until measured. Recording them does
+ * not allocate.
+ */
+public final class CameraMetrics {
+
+    /**
+     * Notified on the camera thread when a metric has been measured: the first frame after
+     * {@link CameraView#onResume()} or a switch, and the frame rate about every second while
+     * counted. Must not block.
+     */
+    public interface Listener {
+        void onMetricsUpdated(@NonNull CameraMetrics metrics);
+    }
+
+    private static final long NONE = -1;
+
+    private volatile long mSwitchRequestedAtNs = NONE;
+    private volatile long mLastSwitchLatencyNs = NONE;
+    private volatile long mMaxSwitchLatencyNs = NONE;
+    private volatile int mSwitchCount;
+    private volatile long mOpenRequestedAtNs = NONE;
+    private volatile long mTimeToFirstFrameNs = NONE;
+    private volatile boolean mTimeToFirstFrameWarm;
+    private boolean mWarmStartPending;
+    private volatile long mOpenDurationNs = NONE;
+    private volatile long mConfigureDurationNs = NONE;
+    private final FrameRateCounter mFrameRate = new FrameRateCounter();
+    @Nullable
+    private volatile Listener mListener;
+
+    /**
+     * @return The time between the last {@link CameraView#onResume()} and the first preview frame.
+     */
+    public long getTimeToFirstFrameNs() {
+        return mTimeToFirstFrameNs;
+    }
+
+    /**
+     * @return Whether the camera was already opened and configured when the last time to first
+     * frame started to be measured, eg. prewarmed with {@link CameraView#prewarm} or kept across a
+     * rotation: only the preview had to be started.
+     */
+    public boolean isTimeToFirstFrameWarm() {
+        return mTimeToFirstFrameWarm;
+    }
+
+    /**
+     * @return How long opening the camera last took.
+     */
+    public long getOpenDurationNs() {
+        return mOpenDurationNs;
+    }
+
+    /**
+     * @return How long configuring the camera last took, eg. {@link android.hardware.Camera#setParameters}.
+     */
+    public long getConfigureDurationNs() {
+        return mConfigureDurationNs;
+    }
+
+    /**
+     * @return The time between the last {@link CameraView#switchCamera()} and the first preview
+     * frame of the camera switched to.
+     */
+    public long getLastSwitchLatencyNs() {
+        return mLastSwitchLatencyNs;
+    }
+
+    /**
+     * @return The longest switch latency, see {@link #getLastSwitchLatencyNs()}.
+     */
+    public long getMaxSwitchLatencyNs() {
+        return mMaxSwitchLatencyNs;
+    }
+
+    /**
+     * @return The number of switches measured.
+     */
+    public int getSwitchCount() {
+        return mSwitchCount;
+    }
+
+    /**
+     * @return The frame rate the camera delivered over the last second, 0 until measured or if not
+     * counted, see {@link CameraView#setFrameRateCounterEnabled(boolean)}.
+     */
+    public float getFrameRate() {
+        return mFrameRate.getFramesPerSecond();
+    }
+
+    /**
+     * @return Every metric measured so far, including the distribution of the intervals between
+     * frames while counted.
+     */
+    @NonNull
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * @param listener Notified when a metric has been measured, {@code null} for none.
+     */
+    public void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    void setFrameRateCounted(boolean counted) {
+        mFrameRate.setEnabled(counted);
+    }
+
+    boolean isFrameRateCounted() {
+        return mFrameRate.isEnabled();
+    }
+
+    /**
+     * Camera thread only. Called by the drivers for each frame captured, whether it is delivered
+     * or not.
+     *
+     * @param timestampNs When the frame was received, see {@link System#nanoTime()}.
+     */
+    void onFrameCaptured(long timestampNs) {
+        if (mFrameRate.onFrame(timestampNs)) {
+            notifyListener();
+        }
+    }
+
+    /**
+     * Camera thread only.
+     *
+     * @param requestedAtNs When the camera was requested to be opened, see {@link System#nanoTime()}.
+     */
+    void onOpenRequested(long requestedAtNs) {
+        mOpenRequestedAtNs = requestedAtNs;
+        mWarmStartPending = false;
+    }
+
+    /**
+     * Camera thread only. The camera is requested while already opened and configured, but not
+     * previewing yet.
+     *
+     * @param requestedAtNs When the camera was requested, see {@link System#nanoTime()}.
+     */
+    void onWarmStartRequested(long requestedAtNs) {
+        mOpenRequestedAtNs = requestedAtNs;
+        mWarmStartPending = true;
+    }
+
+    /**
+     * Camera thread only.
+     */
+    void onOpenCancelled() {
+        mOpenRequestedAtNs = NONE;
+    }
+
+    /**
+     * Camera thread only.
+     */
+    void onOpened(long durationNs) {
+        mOpenDurationNs = durationNs;
+    }
+
+    /**
+     * Camera thread only.
+     */
+    void onConfigured(long durationNs) {
+        mConfigureDurationNs = durationNs;
+    }
+
+    /**
+     * Camera thread only.
+     *
+     * @param requestedAtNs When the switch was requested, see {@link System#nanoTime()}.
+     */
+    void onSwitchRequested(long requestedAtNs) {
+        if (mSwitchRequestedAtNs == NONE) {
+            mSwitchRequestedAtNs = requestedAtNs;
+        }
+        // Otherwise switching again before the first frame: measure from the first request.
+    }
+
+    boolean isSwitchPending() {
+        return mSwitchRequestedAtNs != NONE;
+    }
+
+    /**
+     * @return Whether the next preview frame is measured, see {@link #onPreviewFrame(long)}.
+     */
+    boolean isFirstFramePending() {
+        return mSwitchRequestedAtNs != NONE || mOpenRequestedAtNs != NONE;
+    }
+
+    /**
+     * Camera thread only.
+     */
+    void onSwitchCancelled() {
+        mSwitchRequestedAtNs = NONE;
+    }
+
+    /**
+     * Camera thread only.
+     *
+     * @param timestampNs When the frame was received, see {@link System#nanoTime()}.
+     */
+    void onPreviewFrame(long timestampNs) {
+        final long openRequestedAtNs = mOpenRequestedAtNs;
+        final long switchRequestedAtNs = mSwitchRequestedAtNs;
+        if (openRequestedAtNs == NONE && switchRequestedAtNs == NONE) {
+            return;
+        }
+        if (openRequestedAtNs != NONE) {
+            mOpenRequestedAtNs = NONE;
+            mTimeToFirstFrameWarm = mWarmStartPending;
+            mTimeToFirstFrameNs = timestampNs - openRequestedAtNs;
+        }
+        if (switchRequestedAtNs != NONE) {
+            mSwitchRequestedAtNs = NONE;
+            final long latencyNs = timestampNs - switchRequestedAtNs;
+            mLastSwitchLatencyNs = latencyNs;
+            if (latencyNs > mMaxSwitchLatencyNs) {
+                mMaxSwitchLatencyNs = latencyNs;
+            }
+            mSwitchCount++;
+        }
+        notifyListener();
+    }
+
+    private void notifyListener() {
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onMetricsUpdated(this);
+        }
+    }
+
+    /**
+     * The metrics of a {@link CameraView} at a point in time, see {@link CameraMetrics#snapshot()}.
+     */
+    public static final class Snapshot {
+
+        private final long mTimeToFirstFrameNs;
+        private final boolean mTimeToFirstFrameWarm;
+        private final long mOpenDurationNs;
+        private final long mConfigureDurationNs;
+        private final long mLastSwitchLatencyNs;
+        private final long mMaxSwitchLatencyNs;
+        private final int mSwitchCount;
+        private final float mFrameRate;
+        private final long[] mIntervalCounts = new long[FrameIntervalHistogram.COUNTS_LENGTH];
+        private final long mIntervalCount;
+        private final long mTotalIntervalUs;
+        private final long mMaxIntervalUs;
+
+        Snapshot(@NonNull CameraMetrics metrics) {
+            mTimeToFirstFrameNs = metrics.getTimeToFirstFrameNs();
+            mTimeToFirstFrameWarm = metrics.isTimeToFirstFrameWarm();
+            mOpenDurationNs = metrics.getOpenDurationNs();
+            mConfigureDurationNs = metrics.getConfigureDurationNs();
+            mLastSwitchLatencyNs = metrics.getLastSwitchLatencyNs();
+            mMaxSwitchLatencyNs = metrics.getMaxSwitchLatencyNs();
+            mSwitchCount = metrics.getSwitchCount();
+            mFrameRate = metrics.getFrameRate();
+            FrameIntervalHistogram intervals = metrics.mFrameRate.getIntervals();
+            intervals.copyCounts(mIntervalCounts);
+            mIntervalCount = FrameIntervalHistogram.getTotalCount(mIntervalCounts);
+            // Recorded after the counts: both may include a few more intervals.
+            mTotalIntervalUs = intervals.getTotalUs();
+            mMaxIntervalUs = intervals.getMaxUs();
+        }
+
+        /**
+         * See {@link CameraMetrics#getTimeToFirstFrameNs()}.
+         */
+        public long getTimeToFirstFrameNs() {
+            return mTimeToFirstFrameNs;
+        }
+
+        /**
+         * See {@link CameraMetrics#isTimeToFirstFrameWarm()}.
+         */
+        public boolean isTimeToFirstFrameWarm() {
+            return mTimeToFirstFrameWarm;
+        }
+
+        /**
+         * See {@link CameraMetrics#getOpenDurationNs()}.
+         */
+        public long getOpenDurationNs() {
+            return mOpenDurationNs;
+        }
+
+        /**
+         * See {@link CameraMetrics#getConfigureDurationNs()}.
+         */
+        public long getConfigureDurationNs() {
+            return mConfigureDurationNs;
+        }
+
+        /**
+         * See {@link CameraMetrics#getLastSwitchLatencyNs()}.
+         */
+        public long getLastSwitchLatencyNs() {
+            return mLastSwitchLatencyNs;
+        }
+
+        /**
+         * See {@link CameraMetrics#getMaxSwitchLatencyNs()}.
+         */
+        public long getMaxSwitchLatencyNs() {
+            return mMaxSwitchLatencyNs;
+        }
+
+        /**
+         * See {@link CameraMetrics#getSwitchCount()}.
+         */
+        public int getSwitchCount() {
+            return mSwitchCount;
+        }
+
+        /**
+         * See {@link CameraMetrics#getFrameRate()}.
+         */
+        public float getFrameRate() {
+            return mFrameRate;
+        }
+
+        /**
+         * @return The number of intervals between frames recorded while the frame rate is counted.
+         */
+        public long getFrameIntervalCount() {
+            return mIntervalCount;
+        }
+
+        /**
+         * @param percentile The percentile, from 0 to 100, eg. 99 for the interval 99% of the
+         *                   frames came within.
+         * @return The interval between frames at the given percentile, within about 3%, -1 if
+         * none was recorded.
+         */
+        public long getFrameIntervalNs(double percentile) {
+            if (mIntervalCount == 0) {
+                return NONE;
+            }
+            return FrameIntervalHistogram.getValueAtPercentile(mIntervalCounts, percentile) * 1000;
+        }
+
+        /**
+         * @return The mean interval between frames, -1 if none was recorded.
+         */
+        public long getMeanFrameIntervalNs() {
+            if (mIntervalCount == 0) {
+                return NONE;
+            }
+            return mTotalIntervalUs * 1000 / mIntervalCount;
+        }
+
+        /**
+         * @return The longest interval between frames, -1 if none was recorded.
+         */
+        public long getMaxFrameIntervalNs() {
+            if (mIntervalCount == 0) {
+                return NONE;
+            }
+            return mMaxIntervalUs * 1000;
+        }
+    }
+}
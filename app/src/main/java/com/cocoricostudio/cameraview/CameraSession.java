@@ -0,0 +1,557 @@
+package com.cocoricostudio.cameraview;
+
+import android.hardware.Camera;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.Surface;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The state of the camera of a {@link CameraView}, driven on the camera thread:
+ * <pre>
+ * CLOSED → OPENING → CONFIGURED ⇄ PREVIEWING
+ *                        ↑             ↓
+ *                        └ RECONFIGURING
+ * </pre>
+ * Requests (open, close, switch, preview size) only record what is wanted and schedule a single
+ * update on the camera thread. Bursts of requests, eg. a spinner scrolled through resolutions, are
+ * coalesced into one reconfiguration to the last one, and requests leaving the configuration
+ * unchanged do nothing. A rotation of the screen only rotates the preview, without stopping it.
+ * <p/>
+ * The preview is started only once configured, with a ready surface laid out to the aspect ratio
+ * of the preview (and sized to the preview, if the driver needs it), and never started twice.
+ * Pictures are taken while it runs, see {@link StillCapture}.
+ */
+class CameraSession {
+
+    private static final String TAG = CameraSession.class.getSimpleName();
+
+    enum State {
+        CLOSED, OPENING, CONFIGURED, PREVIEWING, RECONFIGURING
+    }
+
+    /**
+     * Called on the camera thread.
+     */
+    interface Listener {
+
+        /**
+         * @param previewSize   The size of the preview.
+         * @param relayout      Whether the aspect ratio of the preview changed: the preview starts
+         *                      once the surface is laid out again, see {@link #onLayoutDone()} and
+         *                      {@link #onSurfaceChanged()}.
+         * @param resizeSurface Whether the buffers of the surface must be resized to the preview
+         *                      size, see {@link CameraDriver#isSurfaceSizedToPreview()}: the
+         *                      preview starts once they are, see {@link #onSurfaceChanged()}.
+         */
+        void onConfigured(@NonNull Size previewSize, boolean relayout, boolean resizeSurface);
+    }
+
+    private static final long NONE = -1;
+
+    private final CameraExecutor mExecutor;
+    private final CameraDriver mDriver;
+    private final CameraCapabilitiesCache mCapabilitiesCache;
+    private final CameraMetrics mMetrics;
+    private final Listener mListener;
+    private final StillCapture mStillCapture;
+
+    private final Runnable mUpdate = new Runnable() {
+        @Override
+        public void run() {
+            update();
+        }
+    };
+
+    /**
+     * Queries the opened camera.
+     */
+    private final CameraCapabilitiesCache.Loader mCapabilitiesLoader = new CameraCapabilitiesCache.Loader() {
+        @NonNull
+        @Override
+        public CameraCapabilities load(int cameraId) {
+            return mDriver.queryCapabilities();
+        }
+    };
+
+    // What is requested, guarded by mLock.
+    private final Object mLock = new Object();
+    private boolean mUpdateScheduled;
+    private boolean mOpenRequested;
+    private int mRequestedCameraId;
+    private int mTargetWidth = Integer.MIN_VALUE;
+    private int mTargetHeight = Integer.MIN_VALUE;
+    @NonNull
+    private PreviewSizeScorer mScorer = PreviewSizeScorer.BALANCED;
+    private int mTargetFps;
+    private boolean mFixedFps;
+    @NonNull
+    private CameraSettings mSettings = CameraSettings.DEFAULT;
+    private int mRequestedScreenRotation;
+    private long mSwitchRequestedAtNs = NONE;
+    private long mOpenRequestedAtNs = NONE;
+
+    // Confined to the camera thread.
+    private State mState = State.CLOSED;
+    private int mScreenRotation;
+    private int mCameraId = Integer.MIN_VALUE;
+    @Nullable
+    private CameraConfiguration mConfiguration;
+    @Nullable
+    private Size mPreviewSize;
+    /**
+     * Scores the preview sizes of each configuration, without allocating once grown.
+     */
+    private final PreviewSizeSelector mPreviewSizeSelector = new PreviewSizeSelector();
+    private boolean mSurfaceReady;
+    private boolean mAwaitingLayout;
+    private boolean mAwaitingSurfaceSize;
+
+    /**
+     * @param screenRotation The rotation of the screen (see. {@link android.view.Display#getRotation()}).
+     */
+    CameraSession(@NonNull CameraExecutor executor, @NonNull CameraDriver driver,
+                  @NonNull CameraCapabilitiesCache capabilitiesCache, @NonNull CameraMetrics metrics,
+                  @NonNull Listener listener, int screenRotation) {
+        mExecutor = executor;
+        mDriver = driver;
+        mCapabilitiesCache = capabilitiesCache;
+        mMetrics = metrics;
+        mListener = listener;
+        mRequestedScreenRotation = screenRotation;
+        mScreenRotation = screenRotation;
+        mStillCapture = new StillCapture(driver, new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                mExecutor.execute(command);
+            }
+        });
+    }
+
+    /**
+     * Requests the given camera to be opened, or kept open if it already is.
+     */
+    void open(int cameraId, int targetWidth, int targetHeight, @NonNull PreviewSizeScorer scorer) {
+        synchronized (mLock) {
+            if (!mOpenRequested) {
+                mOpenRequestedAtNs = System.nanoTime();
+            }
+            mOpenRequested = true;
+            mRequestedCameraId = cameraId;
+            mTargetWidth = targetWidth;
+            mTargetHeight = targetHeight;
+            mScorer = scorer;
+            scheduleUpdate();
+        }
+    }
+
+    /**
+     * Measures the time to first frame from the given time, eg. when the view showing a camera
+     * opened ahead of it resumes, unless the preview is already started.
+     *
+     * @param requestedAtNs When the camera was requested, see {@link System#nanoTime()}.
+     */
+    void measureTimeToFirstFrame(long requestedAtNs) {
+        synchronized (mLock) {
+            mOpenRequestedAtNs = requestedAtNs;
+            scheduleUpdate();
+        }
+    }
+
+    /**
+     * Requests the camera to be released.
+     */
+    void close() {
+        synchronized (mLock) {
+            mOpenRequested = false;
+            mSwitchRequestedAtNs = NONE;
+            mOpenRequestedAtNs = NONE;
+            scheduleUpdate();
+        }
+    }
+
+    /**
+     * Requests the given camera to replace the opened one.
+     *
+     * @param requestedAtNs When the switch was requested, see {@link System#nanoTime()}.
+     */
+    void switchCamera(int cameraId, long requestedAtNs) {
+        synchronized (mLock) {
+            mRequestedCameraId = cameraId;
+            if (mSwitchRequestedAtNs == NONE) {
+                mSwitchRequestedAtNs = requestedAtNs;
+            }
+            scheduleUpdate();
+        }
+    }
+
+    /**
+     * Requests the preview size closest to the given one, according to the given scorer.
+     */
+    void setTargetPreviewSize(int width, int height, @NonNull PreviewSizeScorer scorer) {
+        synchronized (mLock) {
+            mTargetWidth = width;
+            mTargetHeight = height;
+            mScorer = scorer;
+            scheduleUpdate();
+        }
+    }
+
+    /**
+     * Requests the given frame rate, see {@link CameraConfiguration#create}.
+     *
+     * @param fps   The frame rate, scaled by 1000, 0 for the default frame rate of the camera.
+     * @param fixed Whether the frame rate must stay constant.
+     */
+    void setTargetFrameRate(int fps, boolean fixed) {
+        synchronized (mLock) {
+            mTargetFps = fps;
+            mFixedFps = fixed;
+            scheduleUpdate();
+        }
+    }
+
+    /**
+     * Requests the given settings, applied while previewing.
+     */
+    void setSettings(@NonNull CameraSettings settings) {
+        synchronized (mLock) {
+            mSettings = settings;
+            scheduleUpdate();
+        }
+    }
+
+    /**
+     * Requests all of the given parameters at once, applied by a single update of the camera: the
+     * preview is only restarted if the preview size or frame rate change. See
+     * {@link #setTargetPreviewSize(int, int, PreviewSizeScorer)}, {@link #setTargetFrameRate(int, boolean)}
+     * and {@link #setSettings(CameraSettings)}.
+     */
+    void setParameters(int width, int height, @NonNull PreviewSizeScorer scorer, int fps, boolean fixed,
+                       @NonNull CameraSettings settings) {
+        synchronized (mLock) {
+            mTargetWidth = width;
+            mTargetHeight = height;
+            mScorer = scorer;
+            mTargetFps = fps;
+            mFixedFps = fixed;
+            mSettings = settings;
+            scheduleUpdate();
+        }
+    }
+
+    /**
+     * Requests the preview to be rotated for the given rotation of the screen.
+     *
+     * @param screenRotation The rotation of the screen (see. {@link android.view.Display#getRotation()}).
+     */
+    void setScreenRotation(int screenRotation) {
+        synchronized (mLock) {
+            mRequestedScreenRotation = screenRotation;
+            scheduleUpdate();
+        }
+    }
+
+    private void scheduleUpdate() {
+        if (!mUpdateScheduled) {
+            mUpdateScheduled = true;
+            mExecutor.execute(mUpdate);
+        }
+    }
+
+    /**
+     * Brings the camera to the last requested state. Camera thread only.
+     */
+    private void update() {
+        final boolean open;
+        final int cameraId;
+        final int targetWidth;
+        final int targetHeight;
+        final PreviewSizeScorer scorer;
+        final int targetFps;
+        final boolean fixedFps;
+        final CameraSettings settings;
+        final int screenRotation;
+        final long switchRequestedAtNs;
+        final long openRequestedAtNs;
+        synchronized (mLock) {
+            mUpdateScheduled = false;
+            open = mOpenRequested;
+            cameraId = mRequestedCameraId;
+            targetWidth = mTargetWidth;
+            targetHeight = mTargetHeight;
+            scorer = mScorer;
+            targetFps = mTargetFps;
+            fixedFps = mFixedFps;
+            settings = mSettings;
+            screenRotation = mRequestedScreenRotation;
+            switchRequestedAtNs = mSwitchRequestedAtNs;
+            mSwitchRequestedAtNs = NONE;
+            openRequestedAtNs = mOpenRequestedAtNs;
+            mOpenRequestedAtNs = NONE;
+        }
+
+        mScreenRotation = screenRotation;
+        if (!open) {
+            release();
+            mStillCapture.cancelPending();
+            mMetrics.onSwitchCancelled();
+            mMetrics.onOpenCancelled();
+            return;
+        }
+        if (openRequestedAtNs != NONE && (mState == State.CLOSED || cameraId != mCameraId)) {
+            mMetrics.onOpenRequested(openRequestedAtNs);
+        } else if (openRequestedAtNs != NONE && mState != State.PREVIEWING) {
+            // Eg. prewarmed: only the preview is left to start.
+            mMetrics.onWarmStartRequested(openRequestedAtNs);
+        }
+        if (switchRequestedAtNs != NONE && (mState == State.CLOSED || cameraId != mCameraId)) {
+            mMetrics.onSwitchRequested(switchRequestedAtNs);
+        }
+
+        // Prepared before releasing the current camera, if the capabilities are known.
+        CameraCapabilities capabilities = mCapabilitiesCache.getIfPresent(cameraId);
+        CameraConfiguration configuration = capabilities == null ? null :
+                CameraConfiguration.create(capabilities, mScreenRotation, targetWidth, targetHeight, scorer,
+                        targetFps, fixedFps, settings, mPreviewSizeSelector);
+
+        if (mState != State.CLOSED && cameraId == mCameraId) {
+            if (configuration == null) {
+                // Capabilities invalidated since the camera was opened.
+                capabilities = mCapabilitiesCache.get(cameraId, mCapabilitiesLoader);
+                configuration = CameraConfiguration.create(capabilities, mScreenRotation, targetWidth, targetHeight, scorer,
+                        targetFps, fixedFps, settings, mPreviewSizeSelector);
+            }
+            final int changes = configuration.diff(mConfiguration);
+            if (changes == 0) {
+                // Nothing changed.
+                return;
+            }
+            if ((changes & CameraConfiguration.CHANGES_STOPPING_PREVIEW) == 0) {
+                // Eg. the screen rotated or the zoom changed: no need to stop the preview.
+                if ((changes & CameraConfiguration.CHANGED_DISPLAY_ORIENTATION) != 0) {
+                    mDriver.setDisplayOrientation(configuration.displayOrientation);
+                }
+                if ((changes & CameraConfiguration.CHANGED_SETTINGS) != 0) {
+                    mDriver.applySettings(configuration.settings);
+                }
+                mConfiguration = configuration;
+                if ((changes & CameraConfiguration.CHANGED_DISPLAY_ORIENTATION) != 0) {
+                    updatePictureRotation(configuration);
+                }
+                return;
+            }
+            if (mState == State.PREVIEWING) {
+                // SetPreviewSize: "if the preview has already started, applications should stop the preview first before changing preview size."
+                mStillCapture.setPreviewing(false);
+                mDriver.stopPreview();
+            }
+            mState = State.RECONFIGURING;
+            configure(configuration);
+            return;
+        }
+
+        release();
+        mState = State.OPENING;
+        final long openStartNs = System.nanoTime();
+        if (!mDriver.open(cameraId)) {
+            mState = State.CLOSED;
+            mMetrics.onSwitchCancelled();
+            mMetrics.onOpenCancelled();
+            return;
+        }
+        mMetrics.onOpened(System.nanoTime() - openStartNs);
+        mCameraId = cameraId;
+        if (configuration == null) {
+            // First time this camera is opened.
+            capabilities = mCapabilitiesCache.get(cameraId, mCapabilitiesLoader);
+            configuration = CameraConfiguration.create(capabilities, mScreenRotation, targetWidth, targetHeight, scorer,
+                    targetFps, fixedFps, settings, mPreviewSizeSelector);
+        }
+        configure(configuration);
+    }
+
+    private void configure(@NonNull CameraConfiguration configuration) {
+        Size previewSize = configuration.previewSize;
+        boolean relayout = mPreviewSize == null || !previewSize.hasSameRatio(mPreviewSize); // ratio did change
+        boolean resizeSurface = mDriver.isSurfaceSizedToPreview() && !previewSize.equals(mPreviewSize);
+        final long configureStartNs = System.nanoTime();
+        mDriver.configure(configuration);
+        mMetrics.onConfigured(System.nanoTime() - configureStartNs);
+        mConfiguration = configuration;
+        mPreviewSize = previewSize;
+        mState = State.CONFIGURED;
+        updatePictureRotation(configuration);
+        if (relayout) {
+            CameraLog.v(TAG, "Invalidate layout.");
+            mAwaitingLayout = true;
+        }
+        if (resizeSurface) {
+            mAwaitingSurfaceSize = true;
+        }
+        mListener.onConfigured(previewSize, relayout, resizeSurface);
+        startPreviewIfReady();
+    }
+
+    private void updatePictureRotation(@NonNull CameraConfiguration configuration) {
+        CameraCapabilities capabilities = mCapabilitiesCache.getIfPresent(configuration.cameraId);
+        if (capabilities != null) {
+            mStillCapture.setRotation(PreviewGeometry.getRecordingOrientation(mScreenRotation,
+                    capabilities.facing == Camera.CameraInfo.CAMERA_FACING_FRONT, capabilities.orientation));
+        }
+    }
+
+    private void release() {
+        if (mState != State.CLOSED) {
+            mStillCapture.setPreviewing(false);
+            mDriver.release();
+            mState = State.CLOSED;
+            mCameraId = Integer.MIN_VALUE;
+            mConfiguration = null;
+        }
+    }
+
+    private void startPreviewIfReady() {
+        if (mState == State.CONFIGURED && mSurfaceReady && !mAwaitingLayout && !mAwaitingSurfaceSize) {
+            mDriver.startPreview();
+            mState = State.PREVIEWING;
+            mStillCapture.setPreviewing(true);
+        }
+    }
+
+    /**
+     * The surface has its size. Camera thread only.
+     */
+    void onSurfaceChanged() {
+        mSurfaceReady = true;
+        mAwaitingLayout = false;
+        mAwaitingSurfaceSize = false;
+        startPreviewIfReady();
+    }
+
+    /**
+     * The surface has been laid out again but kept its size. Camera thread only.
+     */
+    void onLayoutDone() {
+        mAwaitingLayout = false;
+        startPreviewIfReady();
+    }
+
+    /**
+     * The surface is about to be destroyed. Camera thread only.
+     */
+    void onSurfaceDestroyed() {
+        mSurfaceReady = false;
+        if (mState == State.PREVIEWING) {
+            mStillCapture.setPreviewing(false);
+            mDriver.stopPreview();
+            mState = State.CONFIGURED;
+        }
+    }
+
+    /**
+     * The camera is now shown by another view, eg. recreated after a configuration change, whose
+     * surface is not ready yet. Camera thread only.
+     * <p/>
+     * The camera stays opened and configured: the listener is told the preview size again, and the
+     * preview starts once the surface of the view is laid out to it.
+     */
+    void onViewChanged() {
+        if (mState == State.PREVIEWING) {
+            // The previous surface should have been destroyed first.
+            mStillCapture.setPreviewing(false);
+            mDriver.stopPreview();
+            mState = State.CONFIGURED;
+        }
+        mSurfaceReady = false;
+        final Size previewSize = mPreviewSize;
+        if (previewSize == null || mState == State.CLOSED) {
+            return;
+        }
+        final boolean resizeSurface = mDriver.isSurfaceSizedToPreview();
+        mAwaitingLayout = true;
+        mAwaitingSurfaceSize = resizeSurface;
+        mListener.onConfigured(previewSize, true, resizeSurface);
+    }
+
+    /**
+     * Camera thread only.
+     */
+    void setFrameDelivery(boolean enabled) {
+        mDriver.setFrameDelivery(enabled);
+    }
+
+    /**
+     * Any thread, see {@link CameraDriver#isRecordingSurfaceSupported()}.
+     */
+    boolean isRecordingSurfaceSupported() {
+        return mDriver.isRecordingSurfaceSupported();
+    }
+
+    /**
+     * Camera thread only, see {@link CameraDriver#setRecordingSurface(Surface)}. Kept across
+     * reconfigurations and switches.
+     */
+    void setRecordingSurface(@Nullable Surface surface) {
+        mDriver.setRecordingSurface(surface);
+    }
+
+    /**
+     * Camera thread only. Queues a picture, taken once the preview runs, see {@link StillCapture}.
+     * Pending pictures are kept across reconfigurations and switches, and failed when the camera
+     * is closed.
+     */
+    void takePicture(@NonNull StillCapture.Request request) {
+        mStillCapture.request(request);
+    }
+
+    /**
+     * Camera thread only, see {@link StillCapture#setMaxInFlight(int)}.
+     */
+    void setMaxPicturesInFlight(int maxInFlight) {
+        mStillCapture.setMaxInFlight(maxInFlight);
+    }
+
+    /**
+     * Camera thread only.
+     *
+     * @return The clockwise rotation of the frames of the configured camera to record them
+     * upright, see {@link PreviewGeometry#getRecordingOrientation(int, boolean, int)}.
+     */
+    int getRecordingOrientation() {
+        CameraConfiguration configuration = mConfiguration;
+        CameraCapabilities capabilities = configuration == null ? null :
+                mCapabilitiesCache.getIfPresent(configuration.cameraId);
+        if (capabilities == null) {
+            throw new IllegalStateException("Not configured.");
+        }
+        return PreviewGeometry.getRecordingOrientation(mScreenRotation,
+                capabilities.facing == Camera.CameraInfo.CAMERA_FACING_FRONT, capabilities.orientation);
+    }
+
+    /**
+     * Camera thread only.
+     *
+     * @return The configuration of the opened camera, {@code null} until configured.
+     */
+    @Nullable
+    CameraConfiguration getConfiguration() {
+        return mConfiguration;
+    }
+
+    /**
+     * Camera thread only.
+     */
+    @NonNull
+    State getState() {
+        return mState;
+    }
+
+    /**
+     * Camera thread only.
+     */
+    int getCameraId() {
+        return mCameraId;
+    }
+}
@@ -0,0 +1,84 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+/**
+ * The settings of a camera that can change while it previews, eg. the zoom, as requested with
+ * {@link CameraView.Transaction}. Each driver maps them to what its camera supports, ignoring the
+ * others.
+ */
+final class CameraSettings {
+
+    /**
+     * No zoom, 1x.
+     */
+    static final int NO_ZOOM = 100;
+
+    static final CameraSettings DEFAULT = new CameraSettings(NO_ZOOM, FocusMode.DEFAULT, FlashMode.OFF, 0);
+
+    static final int CHANGED_ZOOM = 1;
+    static final int CHANGED_FOCUS_MODE = 1 << 1;
+    static final int CHANGED_FLASH_MODE = 1 << 2;
+    static final int CHANGED_EXPOSURE_COMPENSATION = 1 << 3;
+
+    /**
+     * The zoom ratio, scaled by 100 as {@link android.hardware.Camera.Parameters#getZoomRatios()}.
+     */
+    final int zoom;
+    @NonNull
+    final FocusMode focusMode;
+    @NonNull
+    final FlashMode flashMode;
+    /**
+     * In steps of the camera, see {@link android.hardware.Camera.Parameters#getExposureCompensationStep()}.
+     */
+    final int exposureCompensation;
+
+    CameraSettings(int zoom, @NonNull FocusMode focusMode, @NonNull FlashMode flashMode, int exposureCompensation) {
+        if (zoom < NO_ZOOM) {
+            throw new IllegalArgumentException("Zoom ratio below 1x: " + zoom / 100f);
+        }
+        this.zoom = zoom;
+        this.focusMode = focusMode;
+        this.flashMode = flashMode;
+        this.exposureCompensation = exposureCompensation;
+    }
+
+    /**
+     * @return The settings changed from the given ones, as {@code CHANGED_} flags, 0 if none.
+     */
+    int diff(@NonNull CameraSettings previous) {
+        int changes = 0;
+        if (zoom != previous.zoom) {
+            changes |= CHANGED_ZOOM;
+        }
+        if (focusMode != previous.focusMode) {
+            changes |= CHANGED_FOCUS_MODE;
+        }
+        if (flashMode != previous.flashMode) {
+            changes |= CHANGED_FLASH_MODE;
+        }
+        if (exposureCompensation != previous.exposureCompensation) {
+            changes |= CHANGED_EXPOSURE_COMPENSATION;
+        }
+        return changes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CameraSettings)) return false;
+        return diff((CameraSettings) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 31 * zoom + focusMode.hashCode();
+        return 31 * (31 * result + flashMode.hashCode()) + exposureCompensation;
+    }
+
+    @Override
+    public String toString() {
+        return "zoom " + zoom + ", " + focusMode + ", flash " + flashMode + ", exposure " + exposureCompensation;
+    }
+}
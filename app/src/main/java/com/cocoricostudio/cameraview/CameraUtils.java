@@ -2,12 +2,11 @@ package com.cocoricostudio.cameraview;
 
 import android.hardware.Camera;
 import android.support.annotation.NonNull;
-import android.util.Log;
+import android.support.annotation.Nullable;
 import android.view.Display;
 import android.view.Surface;
 
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
@@ -17,86 +16,137 @@ class CameraUtils {
 
     /**
      * @param screenRotation The rotation of the screen (see. {@link Display#getRotation()}).
-     * @param cameraId       The id of the camera.
+     * @param capabilities   The capabilities of the camera.
      * @return The angle that the camera preview should be rotated clockwise. Valid values are 0, 90, 180, and 270.
      */
-    static int getDisplayOrientation(int screenRotation, int cameraId) {
-        Camera.CameraInfo info = new Camera.CameraInfo();
-        Camera.getCameraInfo(cameraId, info);
-        int degrees = 0;
-        switch (screenRotation) {
-            case Surface.ROTATION_0:
-                degrees = 0;
-                break;
-            case Surface.ROTATION_90:
-                degrees = 90;
-                break;
-            case Surface.ROTATION_180:
-                degrees = 180;
-                break;
-            case Surface.ROTATION_270:
-                degrees = 270;
-                break;
+    static int getDisplayOrientation(int screenRotation, @NonNull CameraCapabilities capabilities) {
+        return getDisplayOrientation(screenRotation, capabilities.facing, capabilities.orientation);
+    }
+
+    /**
+     * @param screenRotation    The rotation of the screen (see. {@link Display#getRotation()}).
+     * @param facing            The direction the camera faces (see. {@link Camera.CameraInfo#facing}).
+     * @param sensorOrientation The orientation of the camera sensor (see. {@link Camera.CameraInfo#orientation}).
+     * @return The angle that the camera preview should be rotated clockwise. Valid values are 0, 90, 180, and 270.
+     */
+    static int getDisplayOrientation(int screenRotation, int facing, int sensorOrientation) {
+        return PreviewGeometry.getDisplayOrientation(screenRotation,
+                facing == Camera.CameraInfo.CAMERA_FACING_FRONT, sensorOrientation);
+    }
+
+    @NonNull
+    static Size getOptimalPreviewSize(List<Size> sizes, int w, int h) {
+        Size optimalSize = PreviewGeometry.getOptimalPreviewSize(sizes, w, h);
+        if (CameraLog.isVerbose()) {
+            CameraLog.v(TAG, "Optimal preview size for " + w + "x" + h + " is: " + optimalSize.width + "x"
+                    + optimalSize.height);
         }
+        return optimalSize;
+    }
 
-        int result;
-        if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-            result = (info.orientation + degrees) % 360;
-            result = (360 - result) % 360;  // compensate the mirror
-        } else {  // back-facing
-            result = (info.orientation - degrees + 360) % 360;
+    /**
+     * @param sizes    The supported sizes, left untouched.
+     * @param w        The width of the target.
+     * @param h        The height of the target.
+     * @param scorer   How sizes are compared to the target.
+     * @param selector Scores the sizes, owned by the calling thread.
+     * @return The size with the lowest score.
+     */
+    @NonNull
+    static Size getClosestPreviewSize(List<Size> sizes, int w, int h, @NonNull PreviewSizeScorer scorer,
+                                      @NonNull PreviewSizeSelector selector) {
+        Size closest = PreviewGeometry.getClosestPreviewSize(sizes, w, h, scorer, selector);
+        if (CameraLog.isVerbose()) {
+            CameraLog.v(TAG, "Closest preview size of " + w + "x" + h + " is: " + closest.width + "x" + closest.height);
         }
-        return result;
+        return closest;
     }
 
+    /**
+     * @param sizes    The supported sizes, left untouched.
+     * @param maxFps   The highest frame rate of each size, in the same order.
+     * @param minFps   The frame rate to reach, scaled by 1000, 0 for any.
+     * @param w        The width of the target, {@link Integer#MIN_VALUE} if none.
+     * @param h        The height of the target, {@link Integer#MIN_VALUE} if none.
+     * @param scorer   How sizes are compared to the target.
+     * @param selector Scores the sizes, owned by the calling thread.
+     * @return The size with the lowest score among the ones fast enough, or the first one fast
+     * enough without target.
+     */
     @NonNull
-    static Camera.Size getOptimalPreviewSize(List<Camera.Size> sizes, int w, int h) {
-        final double ASPECT_TOLERANCE = 0.1;
-        double targetRatio = (double) w / h;
-        if (sizes == null) return null;
-
-        Camera.Size optimalSize = null;
-        double minDiff = Double.MAX_VALUE;
-
-        int targetHeight = h;
-
-        // Try to find an size match aspect ratio and size
-        for (Camera.Size size : sizes) {
-            double ratio = (double) size.width / size.height;
-            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
-            if (Math.abs(size.height - targetHeight) < minDiff) {
-                optimalSize = size;
-                minDiff = Math.abs(size.height - targetHeight);
-            }
+    static Size getClosestPreviewSize(List<Size> sizes, List<Integer> maxFps, int minFps, int w, int h,
+                                      @NonNull PreviewSizeScorer scorer, @NonNull PreviewSizeSelector selector) {
+        Size closest = PreviewGeometry.getClosestPreviewSize(sizes, maxFps, minFps, w, h, scorer, selector);
+        if (CameraLog.isVerbose()) {
+            CameraLog.v(TAG, "Closest preview size of " + w + "x" + h + " at " + logFps(minFps) + " fps is: "
+                    + closest.width + "x" + closest.height);
         }
+        return closest;
+    }
 
-        // Cannot find the one match the aspect ratio, ignore the requirement
-        if (optimalSize == null) {
-            minDiff = Double.MAX_VALUE;
-            for (Camera.Size size : sizes) {
-                if (Math.abs(size.height - targetHeight) < minDiff) {
-                    optimalSize = size;
-                    minDiff = Math.abs(size.height - targetHeight);
-                }
-            }
+    /**
+     * @param fpsRanges The supported frame rate ranges, scaled by 1000.
+     * @param maxFps    The highest frame rate of the preview size, scaled by 1000.
+     * @param targetFps The wanted frame rate, scaled by 1000.
+     * @param fixed     Whether the frame rate must stay constant.
+     * @return The chosen range, or {@code null} if the camera supports none.
+     */
+    @Nullable
+    static int[] getPreviewFpsRange(@NonNull List<int[]> fpsRanges, int maxFps, int targetFps, boolean fixed) {
+        int index = PreviewGeometry.selectFpsRange(fpsRanges, maxFps, targetFps, fixed);
+        if (index < 0) {
+            return null;
         }
-        Log.v(TAG, "Optimal preview size for " + w + "x" + h + " is: " + optimalSize.width + "x" + optimalSize.height);
-        return optimalSize;
+        int[] range = fpsRanges.get(index);
+        if (CameraLog.isVerbose()) {
+            CameraLog.v(TAG, "Preview fps range for " + (fixed ? "fixed " : "") + logFps(targetFps) + " fps is: "
+                    + logFps(range[0]) + "-" + logFps(range[1]));
+        }
+        return range;
     }
 
     @NonNull
-    static Camera.Size getClosestPreviewSize(List<Camera.Size> sizes, int w, int h) {
-        Collections.sort(sizes, new CameraSizeComparator(w, h));
-        logSizes("Sorted to closest of " + w + "x" + h + ":", sizes);
-        Camera.Size closest = sizes.get(0);
-        Log.v(TAG, "Closest preview size of " + w + "x" + h + " is: " + closest.width + "x" + closest.height);
-        return closest;
+    static List<Size> toSizes(@NonNull List<Camera.Size> cameraSizes) {
+        List<Size> sizes = new ArrayList<>(cameraSizes.size());
+        for (Camera.Size size : cameraSizes) {
+            sizes.add(new Size(size.width, size.height));
+        }
+        return sizes;
     }
 
-    static void logSizes(String message, List<Camera.Size> sizes) {
-        Log.v(TAG, message);
-        for (Camera.Size size : sizes) {
-            Log.v(TAG, "- " + size.width + "x" + size.height + ", r: " + logRatio(size.width, size.height));
+    /**
+     * Lays the preview out in the parent, centered.
+     *
+     * @param width          The width of the parent.
+     * @param height         The height of the parent.
+     * @param previewSize    The size of the camera preview, null to fill the parent.
+     * @param screenRotation The rotation of the screen (see. {@link Display#getRotation()}).
+     * @param scaleMode      How the preview is scaled.
+     * @param outBounds      Receives the left, top, right and bottom of the preview in the parent.
+     */
+    static void layoutPreview(int width, int height, @Nullable Size previewSize, int screenRotation,
+                              @NonNull ScaleMode scaleMode, @NonNull int[] outBounds) {
+        int previewWidth = width;
+        int previewHeight = height;
+        if (previewSize != null) {
+            boolean isCameraLandscape = PreviewGeometry.isLandscape(screenRotation);
+            previewWidth = isCameraLandscape ? previewSize.width : previewSize.height;
+            previewHeight = isCameraLandscape ? previewSize.height : previewSize.width;
+        }
+
+        boolean parentWider = PreviewGeometry.scalePreview(width, height, previewWidth, previewHeight, scaleMode, outBounds);
+        if (CameraLog.isVerbose()) {
+            CameraLog.v(TAG, "onLayout " + scaleMode + " case " + (parentWider ? "L1" : "L2") + ". Putting preview " + previewWidth + "x" + previewHeight + " (r" + logRatio(previewWidth, previewHeight) + ") inside " + width + "x" + height + " (r" + logRatio(width, height) + ")");
+        }
+    }
+
+    static void logSizes(String message, List<Size> sizes) {
+        if (!CameraLog.isVerbose()) {
+            return;
+        }
+        CameraLog.v(TAG, message);
+        for (Size size : sizes) {
+            CameraLog.v(TAG, "- " + size.width + "x" + size.height + ", r: " + logRatio(size.width, size.height));
         }
     }
 
@@ -104,6 +154,10 @@ class CameraUtils {
         return String.format(Locale.US, "%.2f", (double) width / height);
     }
 
+    public static String logFps(int fps) {
+        return String.format(Locale.US, "%.1f", fps / 1000f);
+    }
+
     public static String logScreenRotation(int screenRotation) {
         switch (screenRotation) {
             case Surface.ROTATION_0:
@@ -117,68 +171,4 @@ class CameraUtils {
         }
         return "Unknown";
     }
-
-    static class CameraSizeComparator implements Comparator<Camera.Size> {
-
-        private final int mTargetWidth;
-        private final int mTargetHeight;
-        private final double mArea;
-        private final double mRatio;
-
-        CameraSizeComparator(int width, int height) {
-            mTargetWidth = width;
-            mTargetHeight = height;
-            mArea = computeArea(width, height);
-            mRatio = computeRatio(width, height);
-        }
-
-        @Override
-        public int compare(Camera.Size lhs, Camera.Size rhs) {
-            if (lhs.width == rhs.width && lhs.height == rhs.height) return 0; // equals
-            if (lhs.width == mTargetWidth && lhs.height == mTargetHeight) {
-//                Log.v(TAG, lhs.width + "x" + lhs.height + " is exact match. So greater than " + rhs.width + "x" + rhs.height);
-                return -1; // exact match => greater
-            }
-            if (rhs.width == mTargetWidth && rhs.height == mTargetHeight) {
-//                Log.v(TAG, rhs.width + "x" + rhs.height + " is exact match. So greater than " + lhs.width + "x" + lhs.height);
-                return 1; // exact match => greater
-            }
-
-            double lhsArea = getArea(lhs) / mArea;
-            double lhsRatio = getRatio(lhs) / mRatio;
-            // how far lhs is from target:
-            double lhsTargetDistance = (Math.abs(1 - lhsArea) + Math.abs(1 - lhsRatio)) * 0.5;
-
-            double rhsArea = getArea(rhs) / mArea;
-            double rhsRatio = getRatio(rhs) / mRatio;
-            double rhsTargetDistance = (Math.abs(1 - rhsArea) + Math.abs(1 - rhsRatio)) * 0.5;
-
-//            Log.v(TAG, rhs.width + "x" + rhs.height + " is " + (rhsTargetDistance < lhsTargetDistance ? "better" : "lower") + " than " + lhs.width + "x" + lhs.height + " " +
-//                    "(dArea: " + format(1 - rhsArea) + " vs " + format(1 - lhsArea) +
-//                    ",dRatio: " + format(1 - rhsRatio) + " vs " + format(1 - lhsRatio) +
-//                    " => distance: " + format(rhsTargetDistance) + " vs " + format(lhsTargetDistance) + ")");
-            return rhsTargetDistance < lhsTargetDistance ? 1 : -1; // The closer to 1 (ie. to target), the greater
-        }
-
-//        private String format(double number) {
-//            return String.format(Locale.US, "%.2f", number);
-//        }
-
-        private double computeArea(int width, int height) {
-            return width * height;
-        }
-
-        private double computeRatio(int width, int height) {
-            return (double) width / height;
-        }
-
-        private double getArea(Camera.Size size) {
-            return computeArea(size.width, size.height);
-        }
-
-        private double getRatio(Camera.Size size) {
-            return computeRatio(size.width, size.height);
-        }
-    }
 }
-
@@ -1,50 +1,317 @@
 package com.cocoricostudio.cameraview;
 
+import android.app.Activity;
 import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.Configuration;
+import android.content.res.TypedArray;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
+import android.view.TextureView;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.WindowManager;
 
-import java.io.IOException;
-import java.util.List;
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A simple wrapper around a Camera and a SurfaceView that renders a centered preview of the Camera
  * to the surface. We need to center the SurfaceView because not all devices have cameras that
  * support preview sizes at the same aspect ratio as the device's display.
+ * <p/>
+ * With the {@code previewMode="textureView"} attribute, the preview is rendered by a TextureView
+ * filling the view instead, centered by the transform of its texture.
+ * <p/>
+ * A view with an id keeps its camera opened across the configuration changes of its activity, eg. a
+ * rotation: the view recreated with the same id takes the camera over, see {@link CameraHost}.
+ * <p/>
+ * Views can also show a camera shared with other views and frame consumers, see
+ * {@link #setSharedCamera(SharedCamera)}.
  */
 public class CameraView extends ViewGroup implements SurfaceHolder.Callback {
-    private final String TAG = CameraView.class.getSimpleName();
+    private static final String TAG = CameraView.class.getSimpleName();
+
+    /**
+     * Receives the preview frames, see {@link #setPreviewFrameListener(PreviewFrameListener)}.
+     */
+    public interface PreviewFrameListener {
+
+        /**
+         * Called on the camera thread for each preview frame.
+         * <p/>
+         * The buffer is given back to the camera as soon as this method returns, it must not be
+         * kept nor modified.
+         *
+         * @param data   The frame, in the given format (NV21 by default).
+         * @param width  The width of the frame.
+         * @param height The height of the frame.
+         * @param format The format of the frame, see {@link android.graphics.ImageFormat}.
+         */
+        void onPreviewFrame(@NonNull byte[] data, int width, int height, int format);
+    }
 
     /**
      * The returned value may be {@link Surface#ROTATION_0} (no rotation),
      * {@link Surface#ROTATION_90},
      * {@link Surface#ROTATION_180},
-     * or {@link Surface#ROTATION_270}.
+     * or {@link Surface#ROTATION_270}. UI thread only.
      */
-    private final int mScreenRotation;
+    private int mScreenRotation;
+
+    private static final int PREVIEW_MODE_SURFACE_VIEW = 0;
+    private static final int PREVIEW_MODE_TEXTURE_VIEW = 1;
 
+    // Set in surface view mode.
     SurfaceView mSurfaceView;
     SurfaceHolder mHolder;
-    Camera.Size mPreviewSize;
+    // Set in texture view mode.
+    @Nullable
+    private final TextureView mTextureView;
+    @Nullable
+    private final PreviewTarget.Texture mTextureTarget;
+    private final PreviewTarget mPreviewTarget;
+    /**
+     * The camera of this view, created on first {@link #onResume()} or taken over from the view
+     * this one replaces. UI thread only.
+     */
+    @Nullable
+    private CameraHost mHost;
+    /**
+     * Whether {@link #mHost} waits for the view replacing this one. UI thread only.
+     */
+    private boolean mParked;
+    /**
+     * The driver of the current session. UI thread only.
+     */
+    @Nullable
+    private CameraDriver mDriver;
+    volatile Size mPreviewSize;
     HostLifecycle mHostLifeCycle = new HostLifecycle();
 
+    /**
+     * Runs every camera operation off the UI thread. Created on first {@link #onResume()} and quit
+     * once detached from window.
+     */
+    @Nullable
+    volatile CameraExecutor mCameraExecutor;
+    /**
+     * The state of the camera, driven on the thread of {@link #mCameraExecutor}, created with it.
+     */
+    @Nullable
+    volatile CameraSession mSession;
+
+    private final CameraDriver.FrameCallback mFrameCallback = new CameraDriver.FrameCallback() {
+        @Override
+        public void onFrame(@NonNull byte[] data) {
+            final long timestampNs = System.nanoTime();
+            mMetrics.onPreviewFrame(timestampNs);
+            Frame frame = mFramePipeline.obtain(data, timestampNs);
+            if (frame == null) {
+                // Stale buffer from a previous configuration.
+                return;
+            }
+            PreviewFrameListener listener = mPreviewFrameListener;
+            if (listener != null) {
+                listener.onPreviewFrame(data, frame.getWidth(), frame.getHeight(), frame.getFormat());
+            }
+            mFramePipeline.dispatch(frame);
+        }
+    };
+
+    private final CameraSession.Listener mSessionListener = new CameraSession.Listener() {
+        @Override
+        public void onConfigured(@NonNull final Size previewSize, final boolean relayout, final boolean resizeSurface) {
+            mPreviewSize = previewSize;
+            if (relayout || resizeSurface) {
+                mCameraExecutor.postToUi(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (resizeSurface) {
+                            resizeSurface(previewSize);
+                        }
+                        if (relayout && !layoutPreview(getWidth(), getHeight())) {
+                            // The surface keeps its size so surfaceChanged won't be called: start preview now.
+                            postLayoutDone();
+                        }
+                    }
+                });
+            }
+        }
+    };
+
+    private final TextureView.SurfaceTextureListener mSurfaceTextureListener = new TextureView.SurfaceTextureListener() {
+        @Override
+        public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+            CameraLog.v(TAG, "onSurfaceTextureAvailable.");
+            mTextureTarget.setSurfaceTexture(surface);
+            onSurfaceReady();
+        }
+
+        @Override
+        public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
+            // The buffers keep the size of the preview, the transform is updated on layout.
+        }
+
+        @Override
+        public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+            CameraLog.v(TAG, "onSurfaceTextureDestroyed.");
+            onSurfaceDestroyed();
+            mTextureTarget.setSurfaceTexture(null);
+            return true;
+        }
+
+        @Override
+        public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+        }
+    };
+
+    /**
+     * The pipeline and metrics of the camera of this view, replaced by those of the shared camera
+     * before it is opened, see {@link #setSharedCamera(SharedCamera)}.
+     */
+    FramePipeline mFramePipeline;
+    CameraMetrics mMetrics;
+    /**
+     * The camera shown instead of a camera of this view only, if any. UI thread only.
+     */
+    @Nullable
+    private SharedCamera mSharedCamera;
+
+    /**
+     * Shows the preview of the shared camera when told to.
+     */
+    private final SharedCamera.Viewer mViewer = new SharedCamera.Viewer() {
+        @Override
+        public void onPreviewAttached(@NonNull CameraHost host) {
+            bindHost(host);
+            if (mSurfaceReady) {
+                postSurfaceChanged();
+            }
+        }
+
+        @Override
+        public void onPreviewDetached() {
+            clearHost();
+        }
+    };
+
     @Nullable
-    Camera mCamera;
-    int mCameraId;
+    private volatile PreviewFrameListener mPreviewFrameListener;
 
+    private volatile PreviewSizeScorer mPreviewSizeScorer = PreviewSizeScorer.BALANCED;
     private int mTargetPreviewSizeWidth = Integer.MIN_VALUE;
     private int mTargetPreviewSizeHeight = Integer.MIN_VALUE;
-    private boolean mForceLayoutSurface;
+    private int mTargetFrameRate;
+    private boolean mFixedFrameRate;
+    /**
+     * The settings last committed, see {@link #beginTransaction()}. UI thread only.
+     */
+    @NonNull
+    private CameraSettings mSettings = CameraSettings.DEFAULT;
+    /**
+     * Whether the app counts the frame rate, see {@link #setFrameRateCounterEnabled(boolean)}.
+     */
+    private boolean mFrameRateCounterEnabled;
+    /**
+     * Steps the preview size through a ladder below the target, see
+     * {@link #setAdaptiveResolutionEnabled(boolean)}. UI thread only.
+     */
+    private final AdaptiveResolutionController mAdaptiveResolution = new AdaptiveResolutionController();
+    /**
+     * Scores the preview sizes of the adaptive resolution ladder. UI thread only.
+     */
+    private final PreviewSizeSelector mPreviewSizeSelector = new PreviewSizeSelector();
+    private boolean mAdaptiveResolutionEnabled;
+    private long mLastDeliveredCount;
+    private long mLastDroppedCount;
+    private final Runnable mAdaptiveResolutionSampler = new Runnable() {
+        @Override
+        public void run() {
+            sampleAdaptiveResolution();
+            getMainHandler().postDelayed(this, ADAPTIVE_RESOLUTION_SAMPLE_INTERVAL_MS);
+        }
+    };
+    private volatile int mMaxPicturesInFlight = StillCapture.DEFAULT_MAX_IN_FLIGHT;
+    /**
+     * The recording in progress, or starting. UI thread only.
+     */
+    private final RecordingController mRecording = new RecordingController(new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            // Not through the camera executor, whose UI callbacks are dropped once paused.
+            getMainHandler().post(command);
+        }
+    }, sRecordingThread, RecordingController.Factory.DEFAULT, new RecordingController.Listener() {
+        @Override
+        public void onBufferRecordingChanged(@NonNull VideoRecording recording, boolean started) {
+            if (started) {
+                recording.subscribe(mFramePipeline);
+            } else {
+                recording.unsubscribe(mFramePipeline);
+            }
+            reinstallPreviewCallback();
+        }
+    });
+    /**
+     * UI thread only.
+     */
+    @NonNull
+    private ScaleMode mScaleMode = ScaleMode.FIT;
+    /**
+     * Whether the surface has been created and has its size. UI thread only.
+     */
+    private boolean mSurfaceReady;
+    /**
+     * The geometry of the preview computed in {@link #layoutPreview(int, int)}.
+     */
+    private final PreviewLayout mPreviewLayout = new PreviewLayout();
+    private final Matrix mTransform = new Matrix();
+
+    private static final long SURFACE_DESTROYED_TIMEOUT_MS = 2000;
+    static final long DEFAULT_BLOCK_TIMEOUT_MS = 100;
+    private static final int DEFAULT_RECORDING_FRAME_RATE = 30;
+    private static final String CAPABILITY_STORE_FILE = "cameraview-capabilities.bin";
+    /**
+     * How long the camera of a view stays opened for the view recreated after a configuration
+     * change.
+     */
+    private static final long RETAIN_TIMEOUT_MS = 5000;
+    /**
+     * How long a prewarmed camera stays opened for the view showing it.
+     */
+    private static final long PREWARM_TIMEOUT_MS = 10000;
+    private static final long ADAPTIVE_RESOLUTION_SAMPLE_INTERVAL_MS = 1000;
+
+    @Nullable
+    private static Handler sMainHandler;
+
+    /**
+     * Writes the capability store, one snapshot at a time, on a thread only alive while writing.
+     */
+    private static final Executor sCapabilityWriter = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+    /**
+     * Creates and stops the encoders of the recordings, one at a time, on a thread only alive
+     * while doing so.
+     */
+    private static final Executor sRecordingThread = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
 
     public CameraView(Context context) {
         this(context, null);
@@ -53,85 +320,294 @@ public class CameraView extends ViewGroup implements SurfaceHolder.Callback {
     public CameraView(Context context, AttributeSet attrs) {
         super(context, attrs);
 
-        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
-        mScreenRotation = windowManager != null ? windowManager.getDefaultDisplay().getRotation() : Surface.ROTATION_0;
-        Log.v(TAG, "init - with screen rotation: " + CameraUtils.logScreenRotation(mScreenRotation));
-
-        mSurfaceView = new SurfaceView(context);
-        addView(mSurfaceView);
-
-        // Install a SurfaceHolder.Callback so we get notified when the
-        // underlying surface is created and destroyed.
-        mHolder = mSurfaceView.getHolder();
-        mHolder.addCallback(this);
-        mHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
-    }
+        // The camera of the view this one replaces, eg. before a rotation, is still opened.
+        CameraHost retained = getId() != NO_ID ? CameraHost.adopt(getId()) : null;
+        if (retained == null) {
+            // Or the camera was opened ahead of the view.
+            retained = CameraHost.adoptPrewarmed();
+        }
+        mFramePipeline = retained != null ? retained.framePipeline : new FramePipeline();
+        mMetrics = retained != null ? retained.metrics : new CameraMetrics();
 
-    private void setCamera(@NonNull Camera camera, int cameraId) {
-        Log.v(TAG, "setCamera");
-        Camera.Parameters parameters = camera.getParameters();
+        mScreenRotation = getScreenRotation(context);
+        if (CameraLog.isVerbose()) {
+            CameraLog.v(TAG, "init - with screen rotation: " + CameraUtils.logScreenRotation(mScreenRotation));
+        }
 
-        List<Camera.Size> supportedPreviewSizes = camera.getParameters().getSupportedPreviewSizes();
-        CameraUtils.logSizes("Supported Preview Sizes:", supportedPreviewSizes);
-        Camera.Size previewSize = mTargetPreviewSizeWidth == Integer.MIN_VALUE || mTargetPreviewSizeHeight == Integer.MIN_VALUE ?
-                supportedPreviewSizes.get(0) :
-                CameraUtils.getClosestPreviewSize(supportedPreviewSizes, mTargetPreviewSizeWidth, mTargetPreviewSizeHeight);
-        boolean invalidateLayout = mPreviewSize == null || (previewSize.width * mPreviewSize.height != previewSize.height * mPreviewSize.width); // ratio did change
-        mForceLayoutSurface = invalidateLayout;
-        parameters.setPreviewSize(previewSize.width, previewSize.height);
+        TypedArray attributes = context.obtainStyledAttributes(attrs, R.styleable.CameraView, 0, 0);
+        final int previewMode;
+        try {
+            previewMode = attributes.getInt(R.styleable.CameraView_previewMode, PREVIEW_MODE_SURFACE_VIEW);
+            mScaleMode = ScaleMode.values()[attributes.getInt(R.styleable.CameraView_scaleMode, ScaleMode.FIT.ordinal())];
+        } finally {
+            attributes.recycle();
+        }
 
-        mPreviewSize = previewSize;
+        if (previewMode == PREVIEW_MODE_TEXTURE_VIEW) {
+            mTextureView = new TextureView(context);
+            mTextureView.setSurfaceTextureListener(mSurfaceTextureListener);
+            addView(mTextureView);
+            mTextureTarget = new PreviewTarget.Texture();
+            mPreviewTarget = mTextureTarget;
+        } else {
+            mTextureView = null;
+            mTextureTarget = null;
+            mSurfaceView = new SurfaceView(context);
+            addView(mSurfaceView);
 
-        camera.setDisplayOrientation(CameraUtils.getDisplayOrientation(mScreenRotation, cameraId));
-        camera.setParameters(parameters);
+            // Install a SurfaceHolder.Callback so we get notified when the
+            // underlying surface is created and destroyed.
+            mHolder = mSurfaceView.getHolder();
+            mHolder.addCallback(this);
+            mHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
+            mPreviewTarget = new PreviewTarget.Holder(mHolder);
+        }
 
-        if (invalidateLayout) {
-            Log.v(TAG, "Invalidate layout.");
-            requestLayout(); // start preview will be done in onSurfaceChange
-        } else {
-            setPreviewDisplay(camera, mHolder);
-            camera.startPreview();
+        if (retained != null) {
+            if (CameraLog.isVerbose()) {
+                CameraLog.v(TAG, "init - camera already opened.");
+            }
+            bindHost(retained);
         }
     }
 
+    private static int getScreenRotation(@NonNull Context context) {
+        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        return windowManager != null ? windowManager.getDefaultDisplay().getRotation() : Surface.ROTATION_0;
+    }
+
     public void switchCamera() {
         // check for availability of multiple cameras
         if (Camera.getNumberOfCameras() <= 1) {
             return;
         }
-        if (mCamera == null) {
+        if (mSession == null || !mHostLifeCycle.isResumed()) {
             throw new IllegalStateException("onResume() must be called first, before any other camera interaction.");
         }
 
-        Log.v(TAG, "Switch camera.");
+        CameraLog.v(TAG, "Switch camera.");
+        // The recording is of one camera, with its size and orientation.
+        stopRecording();
 
         // OK, we have multiple cameras.
-        // Release this camera
-        mCamera.stopPreview();
-        mCamera.release();
+        // The session releases this camera, acquires the next one and reconfigures parameters.
+        final int nextCameraId = (mHostLifeCycle.getCameraId() + 1) % Camera.getNumberOfCameras();
+        if (mAdaptiveResolution.isReset()) {
+            // Stepped again from the target, through the sizes of the next camera.
+            mAdaptiveResolution.clear();
+            reconfigure();
+        }
+        mSession.switchCamera(nextCameraId, System.nanoTime());
 
-        // Acquire the next camera and request Preview to reconfigure parameters.
-        int nextCameraId = (mCameraId + 1) % Camera.getNumberOfCameras();
-        mCamera = Camera.open(nextCameraId);
-        mCameraId = nextCameraId;
+        mHostLifeCycle.handleSwitch(nextCameraId);
+    }
 
-        setCamera(mCamera, mCameraId);
+    /**
+     * Sets the listener receiving the preview frames, or {@code null} to stop receiving them.
+     * <p/>
+     * Frames are delivered through a bounded pool of recycled buffers, so that no memory is
+     * allocated per frame.
+     */
+    public void setPreviewFrameListener(@Nullable PreviewFrameListener listener) {
+        mPreviewFrameListener = listener;
+        reinstallPreviewCallback();
+    }
 
-        mHostLifeCycle.handleSwitch(mCameraId);
+    /**
+     * Same as {@link #addFrameConsumer(FrameConsumer, Executor, int, FrameConsumer.OverflowPolicy)}
+     * with a queue of one frame, always holding the latest one.
+     */
+    @NonNull
+    public FrameSubscription addFrameConsumer(@NonNull FrameConsumer consumer, @NonNull Executor executor) {
+        return addFrameConsumer(consumer, executor, 1, FrameConsumer.OverflowPolicy.DROP_OLDEST);
     }
 
-    private void setPreviewDisplay(@NonNull Camera camera, @NonNull SurfaceHolder holder) {
-        try {
-            camera.setPreviewDisplay(holder);
-        } catch (IOException exception) {
-            Log.e(TAG, "IOException caused by setPreviewDisplay()", exception);
+    /**
+     * Same as {@link #addFrameConsumer(FrameConsumer, Executor, int, FrameConsumer.OverflowPolicy, long)}
+     * with a timeout of {@value #DEFAULT_BLOCK_TIMEOUT_MS} ms for the {@link FrameConsumer.OverflowPolicy#BLOCK BLOCK}
+     * policy.
+     */
+    @NonNull
+    public FrameSubscription addFrameConsumer(@NonNull FrameConsumer consumer, @NonNull Executor executor,
+                                              int queueCapacity, @NonNull FrameConsumer.OverflowPolicy policy) {
+        return addFrameConsumer(consumer, executor, queueCapacity, policy, DEFAULT_BLOCK_TIMEOUT_MS);
+    }
+
+    /**
+     * Registers a consumer of the preview frames.
+     * <p/>
+     * Frames are handed from the camera thread to the given executor through a bounded queue. When
+     * the consumer is slower than the camera and its queue is full, frames are dropped or the
+     * camera thread waits, depending on the given policy. Frames are shared by every consumer, never
+     * copied.
+     *
+     * @param consumer       The consumer.
+     * @param executor       The executor the consumer is called on, eg. a single thread executor.
+     * @param queueCapacity  The number of frames that can wait for the consumer.
+     * @param policy         What to do with frames coming while the queue is full.
+     * @param blockTimeoutMs How long the camera thread may wait with the {@link FrameConsumer.OverflowPolicy#BLOCK BLOCK}
+     *                       policy before dropping the frame.
+     * @return The subscription, giving the number of delivered and dropped frames, to be given to
+     * {@link #removeFrameConsumer(FrameSubscription)}.
+     */
+    @NonNull
+    public FrameSubscription addFrameConsumer(@NonNull FrameConsumer consumer, @NonNull Executor executor,
+                                              int queueCapacity, @NonNull FrameConsumer.OverflowPolicy policy,
+                                              long blockTimeoutMs) {
+        FrameSubscription subscription = mFramePipeline.subscribe(consumer, executor, queueCapacity, policy, blockTimeoutMs);
+        reinstallPreviewCallback();
+        return subscription;
+    }
+
+    public void removeFrameConsumer(@NonNull FrameSubscription subscription) {
+        mFramePipeline.unsubscribe(subscription);
+        reinstallPreviewCallback();
+    }
+
+    /**
+     * Registers a consumer of analysis frames: the preview frames cropped to a region of interest,
+     * see {@link AnalysisStream#setRegionOfInterest(float, float, float, float)}, and scaled to the
+     * given size, whatever the preview size chosen with {@link #setTargetPreviewSize(int, int)}.
+     * <p/>
+     * Frames are scaled on the given executor, the latest preview frame being analyzed once the
+     * consumer is done with the previous one.
+     *
+     * @param consumer The consumer of the NV21 analysis frames.
+     * @param executor The executor the frames are scaled and consumed on, eg. a single thread executor.
+     * @param width    The width of the analysis frames, even.
+     * @param height   The height of the analysis frames, even.
+     * @return The stream, to be given to {@link #removeAnalysisConsumer(AnalysisStream)}.
+     */
+    @NonNull
+    public AnalysisStream addAnalysisConsumer(@NonNull FrameConsumer consumer, @NonNull Executor executor,
+                                              int width, int height) {
+        AnalysisStream stream = new AnalysisStream(consumer, width, height);
+        stream.setSubscription(addFrameConsumer(stream.getPreviewConsumer(), executor));
+        return stream;
+    }
+
+    public void removeAnalysisConsumer(@NonNull AnalysisStream stream) {
+        FrameSubscription subscription = stream.getSubscription();
+        if (subscription != null) {
+            removeFrameConsumer(subscription);
         }
     }
 
-    public void setTargetPreviewSize(int width, int height) {
-        Log.v(TAG, "setTargetPreviewSize(" + width + "x" + height + ")," +
-                " current target: " + mTargetPreviewSizeWidth + "x" + mTargetPreviewSizeHeight + "," +
-                " current camera: " + mCamera);
+    /**
+     * Starts recording the preview to H.264 at its current size, at the frame rate set with
+     * {@link #setTargetFrameRate(int, boolean)}, or 30 fps. Returns immediately: the encoder is
+     * created on a background thread, then the callback is called once the camera feeds it.
+     * <p/>
+     * The camera draws on the input surface of the encoder when it can, on the camera2 API. On the
+     * {@link Camera} API, the preview frames are delivered and copied into the encoder. The
+     * recording stops with {@link #stopRecording()}, {@link #onPause()} or {@link #switchCamera()}.
+     *
+     * @param sink     Where the encoded video is written, eg. a {@link MuxerSink}.
+     * @param bitRate  The target bit rate, in bits per second.
+     * @param executor Calls the callback.
+     * @param callback Told once the recording started, or failed to, eg. no encoder supports the
+     *                 preview size, and once stopped.
+     */
+    public void startRecording(@NonNull EncodedSink sink, int bitRate, @NonNull Executor executor,
+                               @NonNull RecordingCallback callback) {
+        final CameraSession session = mSession;
+        if (session == null || !mHostLifeCycle.isResumed()) {
+            throw new IllegalStateException("onResume() must be called first, before any other camera interaction.");
+        }
+        final int frameRate = mTargetFrameRate != 0 ? mTargetFrameRate : DEFAULT_RECORDING_FRAME_RATE;
+        mRecording.start(session, mCameraExecutor, sink, bitRate, frameRate, executor, callback);
+    }
+
+    /**
+     * Stops the recording in progress, or starting, if any. Returns immediately: the camera stops
+     * feeding the encoder, then the sink is stopped on a background thread, before
+     * {@link RecordingCallback#onRecordingStopped(VideoRecording)} is called.
+     */
+    public void stopRecording() {
+        mRecording.stop();
+    }
+
+    /**
+     * @return The recording in progress, {@code null} if none or not started yet.
+     */
+    @Nullable
+    public VideoRecording getRecording() {
+        return mRecording.getRecording();
+    }
+
+    /**
+     * Takes a picture without pausing the preview longer than the camera needs, see
+     * {@link #takePicture(File, Executor, PictureCallback)}.
+     */
+    public void takePicture(@NonNull Executor executor, @NonNull PictureCallback callback) {
+        takePicture(null, executor, callback);
+    }
+
+    /**
+     * Takes a picture, as soon as the preview runs. Returns immediately: the picture is taken on
+     * the camera thread, then written to the given file, if any, on the given executor, before the
+     * callback is called on it. The preview goes on meanwhile.
+     * <p/>
+     * Bursts are taken by calling this method repeatedly: pictures are taken one after the other,
+     * with at most {@link #setMaxPicturesInFlight(int) a few} not handed to their callback yet.
+     * Pictures not taken yet when the camera is closed, eg. by {@link #onPause()}, are failed.
+     *
+     * @param file     Where to write the JPEG image, {@code null} to only hand it to the callback.
+     * @param executor Writes the image and calls the callback, eg. a background executor.
+     */
+    public void takePicture(@Nullable File file, @NonNull Executor executor, @NonNull PictureCallback callback) {
+        final CameraSession session = mSession;
+        if (session == null || !mHostLifeCycle.isResumed()) {
+            throw new IllegalStateException("onResume() must be called first, before any other camera interaction.");
+        }
+        final StillCapture.Request request = new StillCapture.Request(file, executor, callback);
+        mCameraExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                session.takePicture(request);
+            }
+        });
+    }
+
+    /**
+     * @param maxPicturesInFlight The number of pictures that can be taken but not written and
+     *                            handed to their callback yet, 3 by default. Lower it to bound the
+     *                            memory held by bursts of large pictures.
+     */
+    public void setMaxPicturesInFlight(final int maxPicturesInFlight) {
+        if (maxPicturesInFlight <= 0) {
+            throw new IllegalArgumentException("Max pictures in flight must be positive: " + maxPicturesInFlight);
+        }
+        mMaxPicturesInFlight = maxPicturesInFlight;
+        final CameraSession session = mSession;
+        if (session != null) {
+            mCameraExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    session.setMaxPicturesInFlight(maxPicturesInFlight);
+                }
+            });
+        }
+    }
+
+    private void reinstallPreviewCallback() {
+        final CameraHost host = mHost;
+        if (host == null) {
+            // Will be installed once the camera is opened.
+            return;
+        }
+        host.setPreviewFramesWanted(mPreviewFrameListener != null);
+    }
+
+    public void setTargetPreviewSize(final int width, final int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid target preview size: " + width + "x" + height);
+        }
+        if (CameraLog.isVerbose()) {
+            CameraLog.v(TAG, "setTargetPreviewSize(" + width + "x" + height + ")," +
+                    " current target: " + mTargetPreviewSizeWidth + "x" + mTargetPreviewSizeHeight + "," +
+                    " resumed: " + mHostLifeCycle.isResumed());
+        }
 
         if (mTargetPreviewSizeWidth == width && mTargetPreviewSizeHeight == height) {
             // Target already set.
@@ -140,15 +616,330 @@ public class CameraView extends ViewGroup implements SurfaceHolder.Callback {
 
         mTargetPreviewSizeWidth = width;
         mTargetPreviewSizeHeight = height;
+        // Stepped down from the new target.
+        mAdaptiveResolution.clear();
+        reconfigure();
+    }
+
+    /**
+     * Sets how the supported preview sizes are compared to the target set with
+     * {@link #setTargetPreviewSize(int, int)}. Defaults to {@link PreviewSizeScorer#BALANCED}.
+     */
+    public void setPreviewSizeScorer(@NonNull PreviewSizeScorer scorer) {
+        if (mPreviewSizeScorer == scorer) {
+            return;
+        }
+        mPreviewSizeScorer = scorer;
+        mAdaptiveResolution.clear();
+        if (mTargetPreviewSizeWidth != Integer.MIN_VALUE && mTargetPreviewSizeHeight != Integer.MIN_VALUE) {
+            reconfigure();
+        }
+    }
+
+    /**
+     * Sets the frame rate the preview must be streamed at. Preview sizes that can't be streamed at
+     * that rate are only chosen if no other size can, whatever their distance to the target set
+     * with {@link #setTargetPreviewSize(int, int)}.
+     *
+     * @param framesPerSecond The frame rate, 0 for the default frame rate of the camera.
+     * @param fixed           Whether the frame rate must stay constant, eg. for streaming, rather
+     *                        than be lowered by the auto exposure in low light.
+     */
+    public void setTargetFrameRate(int framesPerSecond, boolean fixed) {
+        if (framesPerSecond < 0) {
+            throw new IllegalArgumentException("Negative frame rate: " + framesPerSecond);
+        }
+        if (mTargetFrameRate == framesPerSecond && mFixedFrameRate == fixed) {
+            return;
+        }
+        mTargetFrameRate = framesPerSecond;
+        mFixedFrameRate = fixed;
+        mAdaptiveResolution.clear();
+        if (mSession != null) {
+            // Otherwise set once the session is created.
+            mSession.setTargetFrameRate(framesPerSecond * 1000, fixed);
+        }
+    }
+
+    /**
+     * Starts a batch of changes to the camera parameters, applied together by
+     * {@link Transaction#commit()}: the camera is updated once, and the preview only restarted if
+     * the preview size or frame rate change. Eg. zooming while turning the torch on:
+     * <pre>
+     * cameraView.beginTransaction()
+     *         .setZoom(2f)
+     *         .setFlashMode(FlashMode.TORCH)
+     *         .commit();
+     * </pre>
+     * UI thread only.
+     */
+    @NonNull
+    public Transaction beginTransaction() {
+        return new Transaction();
+    }
+
+    /**
+     * Changes of the camera parameters, applied on top of the current ones, see
+     * {@link #beginTransaction()}. Values the camera does not support are ignored, or clamped to
+     * the supported range.
+     */
+    public final class Transaction {
+
+        private final ParameterChanges mChanges = new ParameterChanges();
+
+        private Transaction() {
+        }
 
-        if (mCamera == null) {
+        /**
+         * See {@link CameraView#setTargetPreviewSize(int, int)}.
+         */
+        @NonNull
+        public Transaction setTargetPreviewSize(int width, int height) {
+            mChanges.setTargetPreviewSize(width, height);
+            return this;
+        }
+
+        /**
+         * See {@link CameraView#setTargetFrameRate(int, boolean)}.
+         */
+        @NonNull
+        public Transaction setTargetFrameRate(int framesPerSecond, boolean fixed) {
+            mChanges.setTargetFrameRate(framesPerSecond, fixed);
+            return this;
+        }
+
+        /**
+         * @param ratio The zoom ratio, 1 for no zoom, lowered to the closest one supported.
+         */
+        @NonNull
+        public Transaction setZoom(float ratio) {
+            mChanges.setZoom(ratio);
+            return this;
+        }
+
+        /**
+         * Defaults to {@link FocusMode#DEFAULT}.
+         */
+        @NonNull
+        public Transaction setFocusMode(@NonNull FocusMode focusMode) {
+            mChanges.setFocusMode(focusMode);
+            return this;
+        }
+
+        /**
+         * Defaults to {@link FlashMode#OFF}.
+         */
+        @NonNull
+        public Transaction setFlashMode(@NonNull FlashMode flashMode) {
+            mChanges.setFlashMode(flashMode);
+            return this;
+        }
+
+        /**
+         * @param steps The exposure compensation in steps of the camera, 0 for none, the default.
+         */
+        @NonNull
+        public Transaction setExposureCompensation(int steps) {
+            mChanges.setExposureCompensation(steps);
+            return this;
+        }
+
+        /**
+         * Applies the changes, on top of any made since this transaction began: the parameters not
+         * set in this transaction are left as they are. A transaction is committed once.
+         */
+        public void commit() {
+            mChanges.commit();
+            commitTransaction(mChanges);
+        }
+    }
+
+    private void commitTransaction(@NonNull ParameterChanges changes) {
+        final int width = changes.getWidth(mTargetPreviewSizeWidth);
+        final int height = changes.getHeight(mTargetPreviewSizeHeight);
+        final int frameRate = changes.getFrameRate(mTargetFrameRate);
+        final boolean fixed = changes.isFixedFrameRate(mFixedFrameRate);
+        final CameraSettings settings = changes.applyTo(mSettings);
+        final boolean sizeChanged = mTargetPreviewSizeWidth != width || mTargetPreviewSizeHeight != height;
+        final boolean frameRateChanged = mTargetFrameRate != frameRate || mFixedFrameRate != fixed;
+        final boolean settingsChanged = !mSettings.equals(settings);
+        if (CameraLog.isVerbose()) {
+            CameraLog.v(TAG, "commitTransaction(), size changed: " + sizeChanged + ", frame rate changed: "
+                    + frameRateChanged + ", settings: " + settings);
+        }
+        if (!sizeChanged && !frameRateChanged && !settingsChanged) {
+            return;
+        }
+        mTargetPreviewSizeWidth = width;
+        mTargetPreviewSizeHeight = height;
+        mTargetFrameRate = frameRate;
+        mFixedFrameRate = fixed;
+        mSettings = settings;
+        if (sizeChanged || frameRateChanged) {
+            mAdaptiveResolution.clear();
+        }
+        if (mSession == null) {
+            // Set once the session is created.
+            return;
+        }
+        if (!sizeChanged && !frameRateChanged) {
+            // Keeps the preview size, eg. stepped down by the adaptive resolution.
+            mSession.setSettings(settings);
+        } else if (mHostLifeCycle.isResumed()) {
+            // All the changes in one update of the camera.
+            mSession.setParameters(mTargetPreviewSizeWidth, mTargetPreviewSizeHeight, mPreviewSizeScorer,
+                    mTargetFrameRate * 1000, mFixedFrameRate, settings);
+        } else {
+            // The target size is given when the camera is opened.
+            mSession.setTargetFrameRate(mTargetFrameRate * 1000, mFixedFrameRate);
+            mSession.setSettings(settings);
+        }
+    }
+
+    /**
+     * Counts the frames the camera delivers, see {@link #getFrameRate()}. On the {@link Camera}
+     * API, frames are then received even without frame listener nor consumer.
+     */
+    public void setFrameRateCounterEnabled(boolean enabled) {
+        mFrameRateCounterEnabled = enabled;
+        updateFrameRateCounter();
+    }
+
+    private void updateFrameRateCounter() {
+        final boolean counted = mFrameRateCounterEnabled || mAdaptiveResolutionEnabled;
+        if (mMetrics.isFrameRateCounted() == counted) {
+            return;
+        }
+        mMetrics.setFrameRateCounted(counted);
+        reinstallPreviewCallback();
+    }
+
+    /**
+     * Lowers the preview size while the camera can't stream at the target frame rate or the frame
+     * consumers drop frames, and raises it back once they keep up again. The sizes are stepped
+     * through from the target set with {@link #setTargetPreviewSize(int, int)}, or the default
+     * size, down the sizes supported with its aspect ratio. Disabled by default.
+     * <p/>
+     * The frame rate is counted while enabled, see {@link #setFrameRateCounterEnabled(boolean)}.
+     * Setting another target starts again from it. UI thread only.
+     */
+    public void setAdaptiveResolutionEnabled(boolean enabled) {
+        if (mAdaptiveResolutionEnabled == enabled) {
+            return;
+        }
+        mAdaptiveResolutionEnabled = enabled;
+        updateFrameRateCounter();
+        if (enabled) {
+            startAdaptiveResolution();
+            return;
+        }
+        stopAdaptiveResolution();
+        // Back to the target.
+        reconfigure();
+    }
+
+    public boolean isAdaptiveResolutionEnabled() {
+        return mAdaptiveResolutionEnabled;
+    }
+
+    private void startAdaptiveResolution() {
+        if (!mAdaptiveResolutionEnabled || !mHostLifeCycle.isResumed()) {
+            // Started once resumed.
+            return;
+        }
+        mAdaptiveResolution.clear();
+        mLastDeliveredCount = mFramePipeline.getDeliveredCount();
+        mLastDroppedCount = mFramePipeline.getDroppedCount();
+        getMainHandler().removeCallbacks(mAdaptiveResolutionSampler);
+        getMainHandler().postDelayed(mAdaptiveResolutionSampler, ADAPTIVE_RESOLUTION_SAMPLE_INTERVAL_MS);
+    }
+
+    private void stopAdaptiveResolution() {
+        getMainHandler().removeCallbacks(mAdaptiveResolutionSampler);
+        mAdaptiveResolution.clear();
+    }
+
+    /**
+     * Feeds the frame rate and drop rate of the last interval to the controller, and applies the
+     * preview size it decides, if any.
+     */
+    private void sampleAdaptiveResolution() {
+        final CameraSession session = mSession;
+        if (session == null || !mHostLifeCycle.isResumed()) {
+            return;
+        }
+        final long deliveredCount = mFramePipeline.getDeliveredCount();
+        final long droppedCount = mFramePipeline.getDroppedCount();
+        // Lower once consumers are removed.
+        final long delivered = Math.max(deliveredCount - mLastDeliveredCount, 0);
+        final long dropped = Math.max(droppedCount - mLastDroppedCount, 0);
+        mLastDeliveredCount = deliveredCount;
+        mLastDroppedCount = droppedCount;
+
+        if (!mAdaptiveResolution.isReset()) {
+            CameraCapabilities capabilities = CameraCapabilitiesCache.getInstance()
+                    .getIfPresent(mHostLifeCycle.getCameraId());
+            if (capabilities == null) {
+                // Not opened yet.
+                return;
+            }
+            final Size ceiling = mTargetPreviewSizeWidth != Integer.MIN_VALUE && mTargetPreviewSizeHeight != Integer.MIN_VALUE ?
+                    CameraUtils.getClosestPreviewSize(capabilities.previewSizes, mTargetPreviewSizeWidth,
+                            mTargetPreviewSizeHeight, mPreviewSizeScorer, mPreviewSizeSelector) :
+                    capabilities.previewSizes.get(0);
+            mAdaptiveResolution.reset(AdaptiveResolutionController.createLadder(capabilities.previewSizes, ceiling,
+                    mPreviewSizeScorer, mPreviewSizeSelector),
+                    mTargetFrameRate != 0 ? mTargetFrameRate : DEFAULT_RECORDING_FRAME_RATE);
+        }
+        final float frameRate = mMetrics.getFrameRate();
+        if (frameRate == 0) {
+            // Not measured yet, eg. the preview is starting.
+            return;
+        }
+        final float dropRate = delivered + dropped == 0 ? 0 : (float) dropped / (delivered + dropped);
+        final Size size = mAdaptiveResolution.onSample(frameRate, dropRate);
+        if (size != null) {
+            if (CameraLog.isVerbose()) {
+                CameraLog.v(TAG, "Adaptive resolution: " + size + " at " + frameRate + " fps, dropping " + dropRate);
+            }
+            session.setTargetPreviewSize(size.width, size.height, mPreviewSizeScorer);
+        }
+    }
+
+    /**
+     * @return The frame rate the camera delivered over the last second, 0 until measured or if
+     * not counted, see {@link #setFrameRateCounterEnabled(boolean)}.
+     */
+    public float getFrameRate() {
+        return mMetrics.getFrameRate();
+    }
+
+    private void reconfigure() {
+        if (mSession == null || !mHostLifeCycle.isResumed()) {
             // The camera is not opened yet.
             return;
         }
+        // Bursts of calls, eg. from a spinner, are coalesced into a single reconfiguration.
+        mSession.setTargetPreviewSize(mTargetPreviewSizeWidth, mTargetPreviewSizeHeight, mPreviewSizeScorer);
+    }
 
-        // SetPreviewSize: "if the preview has already started, applications should stop the preview first before changing preview size."
-        mCamera.stopPreview();
-        setCamera(mCamera, mCameraId);
+    /**
+     * Sets how the preview is scaled into this view. Defaults to {@link ScaleMode#FIT}, see also the
+     * {@code scaleMode} attribute.
+     * <p/>
+     * The preview is placed again right away, without a layout pass.
+     */
+    public void setScaleMode(@NonNull ScaleMode scaleMode) {
+        if (mScaleMode == scaleMode) {
+            return;
+        }
+        mScaleMode = scaleMode;
+        layoutPreview(getWidth(), getHeight());
+    }
+
+    @NonNull
+    public ScaleMode getScaleMode() {
+        return mScaleMode;
     }
 
     @Override
@@ -160,70 +951,201 @@ public class CameraView extends ViewGroup implements SurfaceHolder.Callback {
         final int height = resolveSize(getSuggestedMinimumHeight(), heightMeasureSpec);
         setMeasuredDimension(width, height);
 
-        Log.v(TAG, "onMeasure " + width + "x" + height);
+        if (CameraLog.isVerbose()) {
+            CameraLog.v(TAG, "onMeasure " + width + "x" + height);
+        }
     }
 
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
         final int width = r - l;
         final int height = b - t;
-        Log.v(TAG, "onLayout changed: " + changed + ", size: " + width + "x" + height + ", force: " + mForceLayoutSurface);
-
-        if ((mForceLayoutSurface || changed) && getChildCount() > 0) {
-            final View child = getChildAt(0);
-            if (mForceLayoutSurface) mForceLayoutSurface = false;
-
-            int previewWidth = width;
-            int previewHeight = height;
-            if (mPreviewSize != null) {
-                boolean isCameraLandscape = mScreenRotation == Surface.ROTATION_90 || mScreenRotation == Surface.ROTATION_270;
-                previewWidth = isCameraLandscape ? mPreviewSize.width : mPreviewSize.height;
-                previewHeight = isCameraLandscape ? mPreviewSize.height : mPreviewSize.width;
-            }
+        if (CameraLog.isVerbose()) {
+            CameraLog.v(TAG, "onLayout changed: " + changed + ", size: " + width + "x" + height);
+        }
 
-            // Center the child SurfaceView within the parent.
-            if (width * previewHeight > height * previewWidth) {
-                Log.v(TAG, "onLayout case L1. Putting preview " + previewWidth + "x" + previewHeight + " (r" + CameraUtils.logRatio(previewWidth, previewHeight) + ") inside " + width + "x" + height + " (r" + CameraUtils.logRatio(width, height) + ")");
-                final int scaledChildWidth = previewWidth * height / previewHeight;
-                child.layout((width - scaledChildWidth) / 2, 0,
-                        (width + scaledChildWidth) / 2, height);
-            } else {
-                Log.v(TAG, "onLayout case L2. Putting preview " + previewWidth + "x" + previewHeight + " (r" + CameraUtils.logRatio(previewWidth, previewHeight) + ") inside " + width + "x" + height + " (r" + CameraUtils.logRatio(width, height) + ")");
-                final int scaledChildHeight = previewHeight * width / previewWidth;
-                child.layout(0, (height - scaledChildHeight) / 2,
-                        width, (height + scaledChildHeight) / 2);
+        layoutPreview(width, height);
+    }
+
+    /**
+     * Places the preview in this view, of the given size. The child is laid out directly, without
+     * a layout pass of the hierarchy, or the transform of the texture is updated.
+     *
+     * @return Whether the child changed size, in which case surfaceChanged will be called.
+     */
+    private boolean layoutPreview(int width, int height) {
+        if (width == 0 || height == 0 || getChildCount() == 0) {
+            return false;
+        }
+        final int textureRotation = mDriver != null ? mDriver.getTextureRotation(mScreenRotation) : 0;
+        final boolean changed = mPreviewLayout.update(width, height, mPreviewSize, mScreenRotation, mScaleMode, textureRotation);
+
+        if (mTextureView != null) {
+            // The texture fills the view, the preview is placed by its transform.
+            mTextureView.layout(0, 0, width, height);
+            if (changed) {
+                mTransform.setValues(mPreviewLayout.getTransform());
+                mTextureView.setTransform(mTransform);
             }
+            return false;
         }
+
+        final View child = getChildAt(0);
+        final int childWidth = child.getWidth();
+        final int childHeight = child.getHeight();
+        final int[] bounds = mPreviewLayout.getBounds();
+        child.layout(bounds[PreviewGeometry.LEFT], bounds[PreviewGeometry.TOP],
+                bounds[PreviewGeometry.RIGHT], bounds[PreviewGeometry.BOTTOM]);
+        return child.getWidth() != childWidth || child.getHeight() != childHeight;
     }
 
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
-        Log.v(TAG, "surfaceCreated.");
-        // The Surface has been created, acquire the camera and tell it where
-        // to draw.
-        if (mCamera != null) {
-            setPreviewDisplay(mCamera, holder);
-        }
+        CameraLog.v(TAG, "surfaceCreated.");
+        // The camera is told where to draw when the preview starts, once the surface has its size.
     }
 
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
-        Log.v(TAG, "surfaceDestroyed.");
-        // Surface will be destroyed when we return, so stop the preview.
-        if (mCamera != null) {
-            mCamera.stopPreview();
+        CameraLog.v(TAG, "surfaceDestroyed.");
+        onSurfaceDestroyed();
+    }
+
+    private void onSurfaceDestroyed() {
+        mSurfaceReady = false;
+        final CameraSession session = mSession;
+        if (session == null || (mParked && !CameraHost.isParked(getId(), mHost))) {
+            // The camera is not shown by this view anymore.
+            return;
+        }
+        // Surface will be destroyed when we return, so stop the preview and wait for it.
+        boolean stopped = mCameraExecutor.executeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                session.onSurfaceDestroyed();
+            }
+        }, SURFACE_DESTROYED_TIMEOUT_MS);
+        if (!stopped) {
+            CameraLog.w(TAG, "Camera thread did not stop the preview in time.");
         }
     }
 
     @Override
     public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) {
-        Log.v(TAG, "surfaceChanged.");
+        CameraLog.v(TAG, "surfaceChanged.");
+        onSurfaceReady();
+    }
+
+    private void onSurfaceReady() {
+        mSurfaceReady = true;
+        // Now that surface is the good size, begin the preview.
+        postSurfaceChanged();
+    }
+
+    /**
+     * Sizes the buffers of the surface to the preview, see {@link CameraDriver#isSurfaceSizedToPreview()}.
+     */
+    private void resizeSurface(@NonNull Size previewSize) {
+        mHolder.setFixedSize(previewSize.width, previewSize.height);
+        Rect frame = mHolder.getSurfaceFrame();
+        if (mSurfaceReady && frame.width() == previewSize.width && frame.height() == previewSize.height) {
+            // Already of that size, surfaceChanged won't be called.
+            postSurfaceChanged();
+        }
+    }
+
+    private void postSurfaceChanged() {
+        final CameraSession session = mSession;
+        if (session == null) {
+            return;
+        }
+        mCameraExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                session.onSurfaceChanged();
+            }
+        });
+    }
+
+    private void postLayoutDone() {
+        final CameraSession session = mSession;
+        if (session == null) {
+            return;
+        }
+        mCameraExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                session.onLayoutDone();
+            }
+        });
+    }
 
-        if (mCamera != null) {
-            // Now that surface is the good size, begin the preview.
-            setPreviewDisplay(mCamera, holder);
-            mCamera.startPreview();
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (mSharedCamera != null) {
+            // Released by the shared camera once nothing else uses it.
+            mHostLifeCycle.onPause();
+        } else if (mCameraExecutor != null) {
+            mHostLifeCycle.onPause();
+            if (!mParked) {
+                mCameraExecutor.quit();
+            }
+        }
+    }
+
+    /**
+     * Only called if the activity handles the configuration change itself, otherwise it is
+     * recreated with a new view taking the camera over.
+     */
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        final int screenRotation = getScreenRotation(getContext());
+        if (screenRotation == mScreenRotation) {
+            return;
+        }
+        if (CameraLog.isVerbose()) {
+            CameraLog.v(TAG, "onConfigurationChanged - screen rotation: "
+                    + CameraUtils.logScreenRotation(screenRotation));
+        }
+        mScreenRotation = screenRotation;
+        if (mSession != null) {
+            // The preview is rotated without being stopped.
+            mSession.setScreenRotation(screenRotation);
         }
+        requestLayout();
+    }
+
+    /**
+     * @return The performance metrics of this view, eg. the latency of {@link #switchCamera()},
+     * read one by one, at once with {@link CameraMetrics#snapshot()} or as measured with
+     * {@link CameraMetrics#setListener(CameraMetrics.Listener)}.
+     */
+    @NonNull
+    public CameraMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Sets where every camera view of the process logs, by default logcat in debug builds and
+     * nowhere in release builds.
+     *
+     * @param logger The logger, eg. {@link CameraLogger#NONE} to disable logging.
+     */
+    public static void setLogger(@NonNull CameraLogger logger) {
+        CameraLog.setLogger(logger);
+    }
+
+    /**
+     * Forgets what the cameras of the device support, as cached on first use of each camera and
+     * stored for the next processes.
+     * <p/>
+     * To be called if the set of cameras changes during the lifetime of the process, eg. an
+     * external camera has been plugged.
+     */
+    public static void invalidateCameraCapabilities() {
+        CameraCapabilitiesCache.getInstance().invalidate();
     }
 
     /**
@@ -236,6 +1158,7 @@ public class CameraView extends ViewGroup implements SurfaceHolder.Callback {
      */
     public void onResume() {
         mHostLifeCycle.onResume();
+        startAdaptiveResolution();
     }
 
     /**
@@ -247,6 +1170,7 @@ public class CameraView extends ViewGroup implements SurfaceHolder.Callback {
      * or {@link android.app.Fragment#onPause() Fragment.onPause()}.
      */
     public void onPause() {
+        stopAdaptiveResolution();
         mHostLifeCycle.onPause();
     }
 
@@ -272,47 +1196,298 @@ public class CameraView extends ViewGroup implements SurfaceHolder.Callback {
         mHostLifeCycle.onSaveInstanceState(outState);
     }
 
+    /**
+     * Opens and configures the given camera on a background thread, ahead of the camera view showing
+     * it, eg. while the app starts or on the previous screen. The next camera view created takes the
+     * camera over, and only has to start the preview once its surface is laid out.
+     * <p/>
+     * The camera is closed if no camera view is created within 10 seconds. UI thread only. The
+     * camera permission must have been granted.
+     *
+     * @param cameraId     The camera the view will show, see {@link #onRestoreEventually(Bundle)}.
+     * @param targetWidth  The preview width the view will target, see {@link #setTargetPreviewSize(int, int)}.
+     * @param targetHeight The preview height the view will target.
+     */
+    public static void prewarm(@NonNull Context context, int cameraId, int targetWidth, int targetHeight) {
+        final CameraHost host = createHost(context, new FramePipeline(), new CameraMetrics(), getScreenRotation(context));
+        host.session.open(cameraId, targetWidth, targetHeight, PreviewSizeScorer.BALANCED);
+        CameraHost.prewarm(host);
+        getMainHandler().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (CameraHost.closeIfPrewarmed(host)) {
+                    CameraLog.w(TAG, "No view took the prewarmed camera over, closed.");
+                }
+            }
+        }, PREWARM_TIMEOUT_MS);
+    }
+
+    /**
+     * Prewarms the default camera at the default preview size, see
+     * {@link #prewarm(Context, int, int, int)}.
+     */
+    public static void prewarm(@NonNull Context context) {
+        prewarm(context, 0, Integer.MIN_VALUE, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Closes the camera prewarmed, if no view took it over yet. UI thread only.
+     */
+    public static void cancelPrewarm() {
+        CameraHost host = CameraHost.adoptPrewarmed();
+        if (host != null) {
+            host.close();
+        }
+    }
+
+    /**
+     * Shows the given camera, shared with other views and frame consumers, instead of opening a
+     * camera for this view only. The camera is opened once any of them is resumed and released
+     * once none is, see {@link SharedCamera}.
+     * <p/>
+     * The preview is shown by one view at a time: the first one resumed, then the next one once
+     * it is paused. To be called before {@link #onResume()} and before adding frame consumers to
+     * this view, which are then consumers of the shared camera.
+     */
+    public void setSharedCamera(@NonNull SharedCamera camera) {
+        if (mHostLifeCycle.isResumed()) {
+            throw new IllegalStateException("The shared camera must be set before onResume().");
+        }
+        if (mFramePipeline.hasSubscriptions()) {
+            throw new IllegalStateException("The shared camera must be set before adding frame consumers.");
+        }
+        if (mHost != null && !mParked) {
+            // Eg. prewarmed: the shared camera is opened instead.
+            CameraLog.w(TAG, "Closing the camera opened for this view only.");
+            mHost.close();
+            clearHost();
+        }
+        mSharedCamera = camera;
+        mFramePipeline = camera.framePipeline;
+        mMetrics = camera.metrics;
+    }
+
+    /**
+     * @return A new host, whose capabilities are stored for the next processes, its camera not
+     * opened yet.
+     */
+    @NonNull
+    static CameraHost createHost(@NonNull Context context, @NonNull FramePipeline framePipeline,
+                                 @NonNull CameraMetrics metrics, int screenRotation) {
+        final Context applicationContext = context.getApplicationContext();
+        CameraHost host = new CameraHost(CameraExecutor.create(), framePipeline, metrics,
+                createDriverFactory(applicationContext), CameraCapabilitiesCache.getInstance(), screenRotation);
+        // Capabilities stored by a previous process, read on first use by the camera thread.
+        CameraCapabilitiesCache.getInstance().setStoreIfAbsent(createCapabilityStore(applicationContext, host.driver),
+                sCapabilityWriter);
+        return host;
+    }
+
+    /**
+     * @return A factory of the driver of the camera2 API on devices implementing it natively, of
+     * the Camera API otherwise.
+     */
+    @NonNull
+    private static CameraHost.DriverFactory createDriverFactory(@NonNull Context context) {
+        final Context applicationContext = context.getApplicationContext();
+        return new CameraHost.DriverFactory() {
+            @NonNull
+            @Override
+            public CameraDriver create(@NonNull PreviewTarget previewTarget, @NonNull FramePipeline framePipeline,
+                                       @NonNull CameraDriver.FrameCallback frameCallback, @NonNull CameraMetrics metrics) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && Camera2Driver.isSupported(applicationContext)) {
+                    return new Camera2Driver(applicationContext, previewTarget, framePipeline, frameCallback, metrics);
+                }
+                return new Camera1Driver(previewTarget, framePipeline, frameCallback, metrics);
+            }
+        };
+    }
+
+    @NonNull
+    private static Handler getMainHandler() {
+        if (sMainHandler == null) {
+            sMainHandler = new Handler(Looper.getMainLooper());
+        }
+        return sMainHandler;
+    }
+
+    /**
+     * Shows the camera of the given host in this view.
+     */
+    private void bindHost(@NonNull CameraHost host) {
+        mHost = host;
+        mCameraExecutor = host.executor;
+        mDriver = host.driver;
+        final CameraSession session = host.session;
+        mSession = session;
+        host.bind(mPreviewTarget, mFrameCallback, mSessionListener);
+        session.setScreenRotation(mScreenRotation);
+        session.setTargetFrameRate(mTargetFrameRate * 1000, mFixedFrameRate);
+        session.setSettings(mSettings);
+        final int maxPicturesInFlight = mMaxPicturesInFlight;
+        host.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                session.setMaxPicturesInFlight(maxPicturesInFlight);
+            }
+        });
+        reinstallPreviewCallback();
+    }
+
+    /**
+     * Forgets the camera, shown by another view now or closed.
+     */
+    private void clearHost() {
+        mHost = null;
+        mCameraExecutor = null;
+        mSession = null;
+        mDriver = null;
+    }
+
+    /**
+     * Keeps the camera opened for the view recreated after the configuration change of the
+     * activity, or closes it if none takes it over in time.
+     */
+    private void parkHost() {
+        final CameraHost host = mHost;
+        final int viewId = getId();
+        host.unbind();
+        CameraHost.park(viewId, host);
+        mParked = true;
+        getMainHandler().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (CameraHost.closeIfParked(viewId, host)) {
+                    CameraLog.w(TAG, "No view took the camera over, closed.");
+                }
+            }
+        }, RETAIN_TIMEOUT_MS);
+    }
+
+    /**
+     * @return Whether the activity of this view is being recreated for a configuration change.
+     */
+    private boolean isChangingConfigurations() {
+        Context context = getContext();
+        while (context instanceof ContextWrapper) {
+            if (context instanceof Activity) {
+                return ((Activity) context).isChangingConfigurations();
+            }
+            context = ((ContextWrapper) context).getBaseContext();
+        }
+        return false;
+    }
+
+    /**
+     * @return The store of the capabilities of the given driver, valid for the current build only:
+     * an update of the system may change what the cameras support.
+     */
+    @NonNull
+    private static CapabilityStore createCapabilityStore(@NonNull Context context, @NonNull CameraDriver driver) {
+        final String api = driver instanceof Camera1Driver ? "camera1" : "camera2";
+        return new CapabilityStore(new File(context.getCacheDir(), CAPABILITY_STORE_FILE),
+                Build.FINGERPRINT + "/" + api);
+    }
+
     class HostLifecycle {
 
         private static final String CAMERA_ID = "firekast_restore-camera-id";
         private static final String CAMERA_PREVIEW_SIZE_WIDTH = "firekast_restore-width";
         private static final String CAMERA_PREVIEW_SIZE_HEIGHT = "firekast_restore-height";
         private int cameraCurrentlyLocked;
+        private boolean resumed;
 
         HostLifecycle() {
             cameraCurrentlyLocked = 0;
         }
 
         /**
-         * This is the entry point, the only way to open the camera for the first time.
+         * This is the entry point, the only way to open the camera for the first time, unless it
+         * was opened ahead of the view, see {@link #prewarm(Context, int, int, int)}.
          * <p/>
-         * The other {@link Camera#open()} is called in {@link #switchCamera()} which throws
-         * {@link IllegalStateException} in case {@link #mCamera} is {@code null}.
+         * The camera is opened asynchronously on the camera thread. The other {@link Camera#open()}
+         * is done by {@link #switchCamera()} which throws {@link IllegalStateException} in case
+         * the host is not resumed.
          */
         void onResume() {
+            final long resumedAtNs = System.nanoTime();
             if (Camera.getNumberOfCameras() == 0) {
-                Log.e(TAG, "Current device has no camera.");
+                CameraLog.e(TAG, "Current device has no camera.");
+                return;
+            }
+            if (resumed) {
+                CameraLog.w(TAG, "onResume should be called once, in your host corresponding lifecycle.");
                 return;
             }
-            if (mCamera != null) {
-                Log.w(TAG, "onResume should be called once, in your host corresponding lifecycle.");
+            resumed = true;
+            if (mSharedCamera != null) {
+                mSharedCamera.attach(mViewer);
+                if (mSession == null) {
+                    // Another view shows the preview, this one takes it over once that one pauses.
+                    return;
+                }
+                mSession.open(cameraCurrentlyLocked, mTargetPreviewSizeWidth, mTargetPreviewSizeHeight, mPreviewSizeScorer);
+                mSession.measureTimeToFirstFrame(resumedAtNs);
                 return;
             }
-            // Open the default camera.
-            mCamera = Camera.open(cameraCurrentlyLocked);
-            mCameraId = cameraCurrentlyLocked;
-            setCamera(mCamera, mCameraId);
-            // Start preview will be done in onSurfaceChanged.
+            if (mParked) {
+                // Resumed again without being recreated: take the camera back, if still parked.
+                mParked = false;
+                CameraHost host = CameraHost.adopt(getId());
+                if (host != null) {
+                    bindHost(host);
+                } else {
+                    clearHost();
+                }
+                if (host != null && mSurfaceReady) {
+                    postSurfaceChanged();
+                }
+            }
+            if (mCameraExecutor == null || mCameraExecutor.isQuit()) {
+                bindHost(createHost(getContext(), mFramePipeline, mMetrics, mScreenRotation));
+                if (mSurfaceReady) {
+                    postSurfaceChanged();
+                }
+            }
+            // Open the default camera, start preview will be done once the surface is ready.
+            mSession.open(cameraCurrentlyLocked, mTargetPreviewSizeWidth, mTargetPreviewSizeHeight, mPreviewSizeScorer);
+            // Measured from now even if the camera was opened ahead of the view, eg. prewarmed.
+            mSession.measureTimeToFirstFrame(resumedAtNs);
         }
 
         void onPause() {
+            resumed = false;
+            if (mSharedCamera != null) {
+                if (mSession != null) {
+                    stopRecording();
+                    mCameraExecutor.invalidate();
+                }
+                // The next view resumed, if any, shows the preview.
+                mSharedCamera.detach(mViewer);
+                return;
+            }
+            if (mSession == null || mParked) {
+                return;
+            }
+            stopRecording();
+            // Drop UI callbacks of pending operations, they belong to the session we are closing.
+            mCameraExecutor.invalidate();
+            if (getId() != NO_ID && isChangingConfigurations()) {
+                // Recreated right away, eg. rotated: the new view takes the camera over.
+                parkHost();
+                return;
+            }
             // Because the Camera object is a shared resource, it's very
             // important to release it when the activity is paused.
-            if (mCamera != null) {
-                mCamera.release();
-                mCamera = null;
-                mCameraId = Integer.MIN_VALUE;
-            }
+            mSession.close();
+        }
+
+        boolean isResumed() {
+            return resumed;
+        }
+
+        int getCameraId() {
+            return cameraCurrentlyLocked;
         }
 
         void handleSwitch(int cameraId) {
@@ -333,8 +1508,15 @@ public class CameraView extends ViewGroup implements SurfaceHolder.Callback {
 
         void onSaveInstanceState(Bundle outState) {
             outState.putInt(CAMERA_ID, cameraCurrentlyLocked);
-            outState.putInt(CAMERA_PREVIEW_SIZE_WIDTH, mTargetPreviewSizeWidth != Integer.MIN_VALUE ? mTargetPreviewSizeWidth : mPreviewSize.width);
-            outState.putInt(CAMERA_PREVIEW_SIZE_HEIGHT, mTargetPreviewSizeHeight != Integer.MIN_VALUE ? mTargetPreviewSizeHeight : mPreviewSize.height);
+            Size previewSize = mPreviewSize;
+            if (mTargetPreviewSizeWidth != Integer.MIN_VALUE && mTargetPreviewSizeHeight != Integer.MIN_VALUE) {
+                outState.putInt(CAMERA_PREVIEW_SIZE_WIDTH, mTargetPreviewSizeWidth);
+                outState.putInt(CAMERA_PREVIEW_SIZE_HEIGHT, mTargetPreviewSizeHeight);
+            } else if (previewSize != null) {
+                // The camera may not be opened yet.
+                outState.putInt(CAMERA_PREVIEW_SIZE_WIDTH, previewSize.width);
+                outState.putInt(CAMERA_PREVIEW_SIZE_HEIGHT, previewSize.height);
+            }
         }
     }
 }
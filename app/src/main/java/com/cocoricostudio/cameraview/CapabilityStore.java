@@ -0,0 +1,249 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Persists the {@link CameraCapabilities} of every camera used across processes, so a cold start
+ * configures the camera without querying it, see {@link CameraCapabilitiesCache}.
+ * <p/>
+ * The file is a compact binary snapshot, valid for one key only, eg. the build fingerprint and the
+ * camera API: capabilities of another build are ignored. A file of another format version, or
+ * corrupted, is ignored and deleted, the capabilities are then queried again. Files are replaced
+ * atomically, so a process killed while saving leaves the previous snapshot.
+ * <p/>
+ * Not thread safe: loads and saves must be serialized.
+ */
+final class CapabilityStore {
+
+    private static final String TAG = CapabilityStore.class.getSimpleName();
+
+    /**
+     * "CVCS", for camera view capability store.
+     */
+    static final int MAGIC = 0x43564353;
+    /**
+     * To be increased on any change of the format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Magic, version, payload length and checksum.
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+    /**
+     * A few cameras of a few dozen sizes take about a kilobyte: anything much larger is corrupted.
+     */
+    private static final int MAX_PAYLOAD_SIZE = 64 * 1024;
+
+    private final File mFile;
+    private final String mKey;
+
+    /**
+     * @param file Where the capabilities are stored, eg. in the cache directory of the app.
+     * @param key  What the capabilities are valid for, eg. the build fingerprint and camera API.
+     */
+    CapabilityStore(@NonNull File file, @NonNull String key) {
+        mFile = file;
+        mKey = key;
+    }
+
+    /**
+     * @return The capabilities stored for the key of this store, per camera id, empty if none is.
+     */
+    @NonNull
+    Map<Integer, CameraCapabilities> load() {
+        if (!mFile.exists()) {
+            return Collections.emptyMap();
+        }
+        try {
+            Map<Integer, CameraCapabilities> capabilities = deserialize(read(mFile), mKey);
+            if (capabilities == null) {
+                CameraLog.w(TAG, "Ignoring capabilities stored by another build or version.");
+                return Collections.emptyMap();
+            }
+            return capabilities;
+        } catch (IOException exception) {
+            CameraLog.w(TAG, "Deleting corrupted capabilities: " + exception);
+            delete();
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Replaces the stored capabilities with the given ones.
+     *
+     * @return {@code false} if they could not be written, the previous ones are then kept.
+     */
+    boolean save(@NonNull Collection<CameraCapabilities> capabilities) {
+        File temporary = new File(mFile.getPath() + ".tmp");
+        try {
+            FileOutputStream output = new FileOutputStream(temporary);
+            try {
+                output.write(serialize(capabilities, mKey));
+            } finally {
+                output.close();
+            }
+            if (!temporary.renameTo(mFile)) {
+                throw new IOException("Failed to rename " + temporary + " to " + mFile);
+            }
+            return true;
+        } catch (IOException exception) {
+            CameraLog.e(TAG, "Failed to save the capabilities", exception);
+            temporary.delete();
+            return false;
+        }
+    }
+
+    void delete() {
+        if (mFile.exists() && !mFile.delete()) {
+            CameraLog.w(TAG, "Failed to delete " + mFile);
+        }
+    }
+
+    @NonNull
+    static byte[] serialize(@NonNull Collection<CameraCapabilities> capabilities, @NonNull String key) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(1024);
+        try {
+            DataOutputStream output = new DataOutputStream(payload);
+            output.writeUTF(key);
+            output.writeShort(capabilities.size());
+            for (CameraCapabilities camera : capabilities) {
+                output.writeShort(camera.cameraId);
+                output.writeByte(camera.facing);
+                output.writeShort(camera.orientation);
+                output.writeShort(camera.previewSizes.size());
+                for (int i = 0; i < camera.previewSizes.size(); i++) {
+                    Size size = camera.previewSizes.get(i);
+                    output.writeShort(size.width);
+                    output.writeShort(size.height);
+                    output.writeInt(camera.previewMaxFps.get(i));
+                }
+                output.writeShort(camera.previewFormats.size());
+                for (int format : camera.previewFormats) {
+                    output.writeInt(format);
+                }
+                output.writeShort(camera.previewFpsRanges.size());
+                for (int[] range : camera.previewFpsRanges) {
+                    output.writeInt(range[0]);
+                    output.writeInt(range[1]);
+                }
+            }
+            output.flush();
+        } catch (IOException exception) {
+            // Not thrown by a byte array.
+            throw new IllegalStateException(exception);
+        }
+        byte[] data = payload.toByteArray();
+        CRC32 checksum = new CRC32();
+        checksum.update(data, 0, data.length);
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream(HEADER_SIZE + data.length);
+        try {
+            DataOutputStream output = new DataOutputStream(file);
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(data.length);
+            output.writeLong(checksum.getValue());
+            output.write(data);
+            output.flush();
+        } catch (IOException exception) {
+            throw new IllegalStateException(exception);
+        }
+        return file.toByteArray();
+    }
+
+    /**
+     * @return The capabilities stored per camera id, {@code null} if they were stored with another
+     * format version or key.
+     * @throws IOException If the data is corrupted.
+     */
+    static Map<Integer, CameraCapabilities> deserialize(@NonNull byte[] data, @NonNull String key) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Not a capability store.");
+            }
+            if (input.readInt() != VERSION) {
+                return null;
+            }
+            final int length = input.readInt();
+            final long expectedChecksum = input.readLong();
+            if (length < 0 || length != data.length - HEADER_SIZE) {
+                throw new IOException("Truncated: " + data.length + " bytes for a payload of " + length);
+            }
+            CRC32 checksum = new CRC32();
+            checksum.update(data, HEADER_SIZE, length);
+            if (checksum.getValue() != expectedChecksum) {
+                throw new IOException("Checksum mismatch.");
+            }
+            if (!key.equals(input.readUTF())) {
+                return null;
+            }
+            final int cameraCount = input.readUnsignedShort();
+            Map<Integer, CameraCapabilities> capabilities = new HashMap<>(cameraCount * 2);
+            for (int c = 0; c < cameraCount; c++) {
+                final int cameraId = input.readUnsignedShort();
+                final int facing = input.readByte();
+                final int orientation = input.readUnsignedShort();
+                final int sizeCount = input.readUnsignedShort();
+                List<Size> previewSizes = new ArrayList<>(sizeCount);
+                List<Integer> previewMaxFps = new ArrayList<>(sizeCount);
+                for (int i = 0; i < sizeCount; i++) {
+                    previewSizes.add(new Size(input.readUnsignedShort(), input.readUnsignedShort()));
+                    previewMaxFps.add(input.readInt());
+                }
+                final int formatCount = input.readUnsignedShort();
+                List<Integer> previewFormats = new ArrayList<>(formatCount);
+                for (int i = 0; i < formatCount; i++) {
+                    previewFormats.add(input.readInt());
+                }
+                final int rangeCount = input.readUnsignedShort();
+                List<int[]> previewFpsRanges = new ArrayList<>(rangeCount);
+                for (int i = 0; i < rangeCount; i++) {
+                    previewFpsRanges.add(new int[]{input.readInt(), input.readInt()});
+                }
+                capabilities.put(cameraId, new CameraCapabilities(cameraId, facing, orientation, previewSizes,
+                        previewFormats, previewFpsRanges, previewMaxFps));
+            }
+            if (input.read() != -1) {
+                throw new IOException("Trailing data.");
+            }
+            return capabilities;
+        } catch (EOFException exception) {
+            throw new IOException("Truncated.", exception);
+        }
+    }
+
+    @NonNull
+    private static byte[] read(@NonNull File file) throws IOException {
+        final long length = file.length();
+        if (length > HEADER_SIZE + MAX_PAYLOAD_SIZE) {
+            throw new IOException("Too large: " + length + " bytes.");
+        }
+        byte[] data = new byte[(int) length];
+        DataInputStream input = new DataInputStream(new FileInputStream(file));
+        try {
+            input.readFully(data);
+        } finally {
+            input.close();
+        }
+        return data;
+    }
+}
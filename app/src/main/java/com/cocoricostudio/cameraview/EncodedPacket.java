@@ -0,0 +1,72 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+/**
+ * An access unit produced by the video encoder, handed to an {@link EncodedSink}.
+ * <p/>
+ * Packets and their buffers are recycled: a packet must not be kept once
+ * {@link EncodedSink#onPacket(EncodedPacket)} returns.
+ */
+public final class EncodedPacket {
+
+    /**
+     * The packet can be decoded on its own, see {@code MediaCodec.BUFFER_FLAG_KEY_FRAME}.
+     */
+    public static final int FLAG_KEY_FRAME = 1;
+    /**
+     * The packet holds the codec configuration, the SPS and PPS of H.264, rather than a frame, see
+     * {@code MediaCodec.BUFFER_FLAG_CODEC_CONFIG}.
+     */
+    public static final int FLAG_CODEC_CONFIG = 2;
+
+    byte[] mData;
+    int mSize;
+    long mPresentationTimeUs;
+    int mFlags;
+
+    EncodedPacket(int capacity) {
+        mData = new byte[capacity];
+    }
+
+    /**
+     * @return The buffer of the packet, H.264 in Annex B format, valid up to {@link #getSize()}.
+     * Must not be modified.
+     */
+    @NonNull
+    public byte[] getData() {
+        return mData;
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    public long getPresentationTimeUs() {
+        return mPresentationTimeUs;
+    }
+
+    /**
+     * @return A combination of {@link #FLAG_KEY_FRAME} and {@link #FLAG_CODEC_CONFIG}.
+     */
+    public int getFlags() {
+        return mFlags;
+    }
+
+    public boolean isKeyFrame() {
+        return (mFlags & FLAG_KEY_FRAME) != 0;
+    }
+
+    public boolean isCodecConfig() {
+        return (mFlags & FLAG_CODEC_CONFIG) != 0;
+    }
+
+    /**
+     * Makes room for the given size, the content is lost.
+     */
+    void ensureCapacity(int capacity) {
+        if (mData.length < capacity) {
+            mData = new byte[capacity];
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Where a recording writes the encoded video, eg. a file with {@link MuxerSink} or
+ * {@link AnnexBFileSink}, or a packetizer streaming it over the network.
+ * <p/>
+ * Called on a thread of the recording, one call at a time. An {@link IOException} stops the
+ * writing: the following packets are dropped and {@link #onStop()} is still called.
+ */
+public interface EncodedSink {
+
+    /**
+     * Called before any packet.
+     *
+     * @param width    The width of the video.
+     * @param height   The height of the video.
+     * @param rotation The clockwise rotation, in degrees, to display the video upright with.
+     */
+    void onStart(int width, int height, int rotation) throws IOException;
+
+    /**
+     * Called for each packet, the codec configuration first.
+     *
+     * @param packet The packet, recycled once this method returns.
+     */
+    void onPacket(@NonNull EncodedPacket packet) throws IOException;
+
+    /**
+     * Called once, after the last packet.
+     */
+    void onStop() throws IOException;
+}
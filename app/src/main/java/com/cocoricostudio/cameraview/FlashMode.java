@@ -0,0 +1,24 @@
+package com.cocoricostudio.cameraview;
+
+/**
+ * When the flash fires, see {@link CameraView.Transaction#setFlashMode(FlashMode)}. Modes the
+ * camera does not support are ignored.
+ */
+public enum FlashMode {
+    /**
+     * Never. The default.
+     */
+    OFF,
+    /**
+     * When taking pictures in the dark.
+     */
+    AUTO,
+    /**
+     * When taking pictures.
+     */
+    ON,
+    /**
+     * Continuously, while previewing.
+     */
+    TORCH
+}
@@ -0,0 +1,24 @@
+package com.cocoricostudio.cameraview;
+
+/**
+ * How the camera focuses, see {@link CameraView.Transaction#setFocusMode(FocusMode)}. Modes the
+ * camera does not support are ignored.
+ */
+public enum FocusMode {
+    /**
+     * The default mode of the camera.
+     */
+    DEFAULT,
+    /**
+     * Focuses continuously, quickly, for pictures.
+     */
+    CONTINUOUS_PICTURE,
+    /**
+     * Focuses continuously, smoothly, for videos.
+     */
+    CONTINUOUS_VIDEO,
+    /**
+     * Focuses at infinity, eg. for landscapes.
+     */
+    INFINITY
+}
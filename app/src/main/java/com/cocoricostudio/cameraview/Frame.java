@@ -0,0 +1,115 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A preview frame handed to a {@link FrameConsumer}.
+ * <p/>
+ * The same frame, and the same buffer, is shared by every consumer: it is never copied. The
+ * underlying buffer belongs to the camera and is given back to it once every holder released the
+ * frame. Frames and their buffers are recycled, so a frame must not be accessed once released.
+ */
+public final class Frame {
+
+    interface Recycler {
+        void recycle(@NonNull Frame frame);
+    }
+
+    private final byte[] mData;
+    private final Recycler mRecycler;
+    private final AtomicInteger mReferences = new AtomicInteger();
+
+    int mWidth;
+    int mHeight;
+    int mFormat;
+    long mTimestampNs;
+
+    /**
+     * Whether the buffer is queued in the camera. Guarded by the lock of the {@link FramePipeline}.
+     */
+    boolean mQueued;
+
+    Frame(@NonNull byte[] data, @NonNull Recycler recycler) {
+        mData = data;
+        mRecycler = recycler;
+    }
+
+    /**
+     * @return The frame, in the format given by {@link #getFormat()}. Must not be modified.
+     */
+    @NonNull
+    public byte[] getData() {
+        return mData;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return The format of the frame, see {@link android.graphics.ImageFormat}.
+     */
+    public int getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * @return The time the frame was received from the camera, in nanoseconds.
+     */
+    public long getTimestampNs() {
+        return mTimestampNs;
+    }
+
+    /**
+     * Keeps the frame beyond {@link FrameConsumer#onFrame(Frame)}, eg. to process it on another
+     * thread. Each call must be balanced by a call to {@link #release()}.
+     *
+     * @throws IllegalStateException If the frame has already been released by every holder.
+     */
+    public void retain() {
+        int references;
+        do {
+            references = mReferences.get();
+            if (references <= 0) {
+                throw new IllegalStateException("Frame already recycled.");
+            }
+        } while (!mReferences.compareAndSet(references, references + 1));
+    }
+
+    /**
+     * Gives back the frame. Once every holder released it, its buffer returns to the camera.
+     *
+     * @throws IllegalStateException If the frame is released more times than retained.
+     */
+    public void release() {
+        int references;
+        do {
+            references = mReferences.get();
+            if (references <= 0) {
+                throw new IllegalStateException("Frame released more times than retained.");
+            }
+        } while (!mReferences.compareAndSet(references, references - 1));
+        if (references == 1) {
+            mRecycler.recycle(this);
+        }
+    }
+
+    /**
+     * Takes the first reference of a frame just filled by the camera.
+     */
+    void acquire() {
+        if (!mReferences.compareAndSet(0, 1)) {
+            throw new IllegalStateException("Frame still in use.");
+        }
+    }
+
+    int getReferenceCount() {
+        return mReferences.get();
+    }
+}
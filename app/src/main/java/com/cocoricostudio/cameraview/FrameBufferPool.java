@@ -0,0 +1,167 @@
+package com.cocoricostudio.cameraview;
+
+import android.graphics.ImageFormat;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A bounded pool of preview frame buffers to be used with
+ * {@link android.hardware.Camera#setPreviewCallbackWithBuffer(android.hardware.Camera.PreviewCallback)}.
+ * <p/>
+ * Buffers are allocated lazily, up to the capacity, and only reallocated when the buffer size
+ * changes, ie. when a preview size or format with a different footprint is chosen. Once every
+ * buffer has been allocated, acquiring and releasing buffers does not allocate anything.
+ * <p/>
+ * Not thread safe: access must be synchronized by the caller, see {@link FramePipeline}.
+ */
+class FrameBufferPool {
+
+    private byte[][] mBuffers;
+    private byte[][] mFree;
+    private int mAllocated;
+    private int mFreeCount;
+    private int mBufferSize;
+    private int mAllocationCount;
+
+    FrameBufferPool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        mBuffers = new byte[capacity][];
+        mFree = new byte[capacity][];
+    }
+
+    /**
+     * @param width  The preview width.
+     * @param height The preview height.
+     * @param format The preview format, see {@link ImageFormat}.
+     * @return The size of a buffer able to hold a preview frame of the given size and format.
+     */
+    static int getBufferSize(int width, int height, int format) {
+        switch (format) {
+            case ImageFormat.NV21:
+                return width * height * 3 / 2;
+            case ImageFormat.YV12:
+                // See Camera.Parameters#setPreviewFormat(int): strides are aligned on 16 bytes.
+                int yStride = (int) Math.ceil(width / 16.0) * 16;
+                int uvStride = (int) Math.ceil((yStride / 2) / 16.0) * 16;
+                return yStride * height + uvStride * height / 2 * 2;
+            default:
+                return width * height * ImageFormat.getBitsPerPixel(format) / 8;
+        }
+    }
+
+    /**
+     * Sets the size of the buffers. Buffers of a different size are dropped, even if they have not
+     * been released yet.
+     *
+     * @return {@code true} if the buffers will have to be reallocated.
+     */
+    boolean setBufferSize(int bufferSize) {
+        if (bufferSize == mBufferSize) {
+            return false;
+        }
+        mBufferSize = bufferSize;
+        for (int i = 0; i < mAllocated; i++) {
+            mBuffers[i] = null;
+        }
+        for (int i = 0; i < mFreeCount; i++) {
+            mFree[i] = null;
+        }
+        mAllocated = 0;
+        mFreeCount = 0;
+        return true;
+    }
+
+    int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * Grows the pool so that it can hold at least the given number of buffers.
+     */
+    void ensureCapacity(int capacity) {
+        if (capacity <= mBuffers.length) {
+            return;
+        }
+        byte[][] buffers = new byte[capacity][];
+        byte[][] free = new byte[capacity][];
+        System.arraycopy(mBuffers, 0, buffers, 0, mAllocated);
+        System.arraycopy(mFree, 0, free, 0, mFreeCount);
+        mBuffers = buffers;
+        mFree = free;
+    }
+
+    /**
+     * @return A free buffer, allocated if needed, or {@code null} if every buffer is in use.
+     */
+    @Nullable
+    byte[] acquire() {
+        if (mFreeCount > 0) {
+            byte[] buffer = mFree[--mFreeCount];
+            mFree[mFreeCount] = null;
+            return buffer;
+        }
+        if (mAllocated < mBuffers.length && mBufferSize > 0) {
+            byte[] buffer = new byte[mBufferSize];
+            mBuffers[mAllocated++] = buffer;
+            mAllocationCount++;
+            return buffer;
+        }
+        return null;
+    }
+
+    /**
+     * Gives back a buffer previously {@link #acquire() acquired}. Buffers that do not belong to the
+     * pool anymore, because the buffer size changed, are ignored.
+     *
+     * @return {@code true} if the buffer returned to the pool.
+     */
+    boolean release(@NonNull byte[] buffer) {
+        if (!owns(buffer)) {
+            return false;
+        }
+        for (int i = 0; i < mFreeCount; i++) {
+            if (mFree[i] == buffer) {
+                throw new IllegalStateException("Buffer released twice.");
+            }
+        }
+        mFree[mFreeCount++] = buffer;
+        return true;
+    }
+
+    /**
+     * Makes every allocated buffer free again, eg. when the camera that held them has been released.
+     */
+    void reclaimAll() {
+        System.arraycopy(mBuffers, 0, mFree, 0, mAllocated);
+        mFreeCount = mAllocated;
+    }
+
+    boolean owns(@NonNull byte[] buffer) {
+        if (buffer.length != mBufferSize) {
+            return false;
+        }
+        for (int i = 0; i < mAllocated; i++) {
+            if (mBuffers[i] == buffer) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int getCapacity() {
+        return mBuffers.length;
+    }
+
+    int getFreeCount() {
+        return mFreeCount;
+    }
+
+    /**
+     * @return The total number of buffers allocated since this pool was created.
+     */
+    int getAllocationCount() {
+        return mAllocationCount;
+    }
+}
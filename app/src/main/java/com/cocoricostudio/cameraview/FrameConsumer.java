@@ -0,0 +1,37 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Receives preview frames on its own executor, see
+ * {@link CameraView#addFrameConsumer(FrameConsumer, java.util.concurrent.Executor, int, OverflowPolicy)}.
+ */
+public interface FrameConsumer {
+
+    /**
+     * What happens to a frame coming from the camera while the queue of a consumer is full.
+     */
+    enum OverflowPolicy {
+        /**
+         * The oldest queued frame is dropped to make room for the new one. Best for analyzers that
+         * only care about the latest frame.
+         */
+        DROP_OLDEST,
+        /**
+         * The new frame is dropped.
+         */
+        DROP_NEWEST,
+        /**
+         * The camera thread waits for room in the queue, up to a timeout after which the new frame
+         * is dropped. Best for encoders that should not lose frames.
+         */
+        BLOCK
+    }
+
+    /**
+     * Called on the executor of the consumer for each frame it accepted. The frame is shared with
+     * the other consumers and released when this method returns, unless {@link Frame#retain()
+     * retained}.
+     */
+    void onFrame(@NonNull Frame frame);
+}
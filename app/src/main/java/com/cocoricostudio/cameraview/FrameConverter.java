@@ -0,0 +1,282 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Converts NV21 preview frames for analysis: to ARGB_8888, downscaled by 2 or 4, or rotated
+ * upright. The luma plane is available as a grayscale image without any copy, see
+ * {@link #getLuma(Frame)}.
+ * <p/>
+ * Conversions run on the calling thread, or split into stripes of rows run in parallel on an
+ * executor, the calling thread converting the last stripe. They don't allocate: a converter is
+ * meant to be reused for every frame, by one thread at a time.
+ */
+public final class FrameConverter {
+
+    /**
+     * {@code ImageFormat.NV21}, without depending on the framework.
+     */
+    private static final int NV21 = 0x11;
+
+    private static final int TO_ARGB = 0;
+    private static final int DOWNSCALE = 1;
+    private static final int ROTATE = 2;
+
+    @Nullable
+    private final Executor mExecutor;
+    private final Stripe[] mStripes;
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mDone = mLock.newCondition();
+    private int mPendingStripes;
+    @Nullable
+    private RuntimeException mStripeError;
+
+    // The conversion in progress, read by the stripes.
+    private int mOperation;
+    private byte[] mIn;
+    private int mWidth;
+    private int mHeight;
+    private int mArgument;
+    private byte[] mOut;
+    private int[] mArgbOut;
+
+    /**
+     * A converter running on the calling thread.
+     */
+    public FrameConverter() {
+        mExecutor = null;
+        mStripes = new Stripe[0];
+    }
+
+    /**
+     * A converter splitting the rows of each conversion into the given number of stripes.
+     *
+     * @param executor The executor the stripes but the last one run on, eg. a fixed thread pool.
+     * @param stripes  The number of stripes, eg. the number of cores.
+     */
+    public FrameConverter(@NonNull Executor executor, int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("Stripes must be positive: " + stripes);
+        }
+        mExecutor = executor;
+        mStripes = new Stripe[stripes - 1];
+        for (int i = 0; i < mStripes.length; i++) {
+            mStripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @return A read-only view of the luma plane of the frame, a grayscale image of
+     * {@code width x height} bytes. Valid until the frame is released.
+     */
+    @NonNull
+    public static ByteBuffer getLuma(@NonNull Frame frame) {
+        requireNv21(frame);
+        return ByteBuffer.wrap(frame.getData(), 0, frame.getWidth() * frame.getHeight()).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Converts the frame to ARGB_8888, eg. for {@code Bitmap.setPixels}.
+     *
+     * @param out The pixels, at least {@code width * height} long.
+     */
+    public void toArgb(@NonNull Frame frame, @NonNull int[] out) {
+        requireNv21(frame);
+        toArgb(frame.getData(), frame.getWidth(), frame.getHeight(), out);
+    }
+
+    /**
+     * Converts an NV21 image to ARGB_8888.
+     *
+     * @param width  The width of the image, even.
+     * @param height The height of the image, even.
+     * @param out    The pixels, at least {@code width * height} long.
+     */
+    public void toArgb(@NonNull byte[] nv21, int width, int height, @NonNull int[] out) {
+        requireEven(width, height);
+        requireLength(out.length, width * height);
+        mArgbOut = out;
+        run(TO_ARGB, nv21, width, height, 0, null, height);
+    }
+
+    /**
+     * Downscales an NV21 image, averaging boxes of pixels, to an NV21 image of
+     * {@code width / factor x height / factor}.
+     *
+     * @param width  The width of the image, a multiple of {@code 2 * factor}.
+     * @param height The height of the image, a multiple of {@code 2 * factor}.
+     * @param factor 2 or 4.
+     * @param out    The downscaled image, at least {@code (width / factor) * (height / factor) * 3 / 2} long.
+     */
+    public void downscale(@NonNull byte[] nv21, int width, int height, int factor, @NonNull byte[] out) {
+        if (factor != 2 && factor != 4) {
+            throw new IllegalArgumentException("Factor must be 2 or 4: " + factor);
+        }
+        if (width % (2 * factor) != 0 || height % (2 * factor) != 0) {
+            throw new IllegalArgumentException(width + "x" + height + " not a multiple of " + 2 * factor);
+        }
+        requireLength(out.length, (width / factor) * (height / factor) * 3 / 2);
+        run(DOWNSCALE, nv21, width, height, factor, out, height / factor);
+    }
+
+    /**
+     * Rotates an NV21 image clockwise, eg. by {@link CameraUtils#getDisplayOrientation} to get it
+     * upright, to an NV21 image of {@code height x width} for 90 and 270 degrees.
+     *
+     * @param width   The width of the image, even.
+     * @param height  The height of the image, even.
+     * @param degrees 0, 90, 180 or 270.
+     * @param out     The rotated image, at least {@code width * height * 3 / 2} long, not the source.
+     */
+    public void rotate(@NonNull byte[] nv21, int width, int height, int degrees, @NonNull byte[] out) {
+        if (degrees != 0 && degrees != 90 && degrees != 180 && degrees != 270) {
+            throw new IllegalArgumentException("Rotation not a multiple of 90 degrees: " + degrees);
+        }
+        if (out == nv21) {
+            throw new IllegalArgumentException("Can't rotate in place.");
+        }
+        requireEven(width, height);
+        requireLength(out.length, width * height * 3 / 2);
+        run(ROTATE, nv21, width, height, degrees, out, height);
+    }
+
+    /**
+     * Runs the operation over the given rows, split into stripes of an even number of rows.
+     */
+    private void run(int operation, @NonNull byte[] in, int width, int height, int argument, @Nullable byte[] out,
+                     int rows) {
+        mOperation = operation;
+        mIn = in;
+        mWidth = width;
+        mHeight = height;
+        mArgument = argument;
+        mOut = out;
+        final int stripes = Math.min(mStripes.length + 1, rows / 2);
+        if (stripes <= 1) {
+            runRows(0, rows);
+            return;
+        }
+        final int stripeRows = (rows / stripes) & ~1;
+        mLock.lock();
+        try {
+            mPendingStripes = stripes - 1;
+            mStripeError = null;
+        } finally {
+            mLock.unlock();
+        }
+        try {
+            for (int i = 0; i < stripes - 1; i++) {
+                Stripe stripe = mStripes[i];
+                stripe.mFirstRow = i * stripeRows;
+                stripe.mEndRow = (i + 1) * stripeRows;
+                try {
+                    mExecutor.execute(stripe);
+                } catch (RejectedExecutionException exception) {
+                    // Eg. shut down: convert it here.
+                    stripe.run();
+                }
+            }
+            runRows((stripes - 1) * stripeRows, rows);
+        } finally {
+            awaitStripes();
+        }
+    }
+
+    private void runRows(int firstRow, int endRow) {
+        switch (mOperation) {
+            case TO_ARGB:
+                Nv21.toArgb(mIn, mWidth, mHeight, mArgbOut, firstRow, endRow);
+                break;
+            case DOWNSCALE:
+                Nv21.downscale(mIn, mWidth, mHeight, mArgument, mOut, firstRow, endRow);
+                break;
+            case ROTATE:
+                Nv21.rotate(mIn, mWidth, mHeight, mArgument, mOut, firstRow, endRow);
+                break;
+            default:
+                throw new IllegalStateException("Unknown operation: " + mOperation);
+        }
+    }
+
+    private void awaitStripes() {
+        boolean interrupted = false;
+        RuntimeException error;
+        mLock.lock();
+        try {
+            while (mPendingStripes > 0) {
+                try {
+                    mDone.await();
+                } catch (InterruptedException exception) {
+                    // The stripes write to the output: wait for them anyway.
+                    interrupted = true;
+                }
+            }
+            error = mStripeError;
+        } finally {
+            mLock.unlock();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void onStripeDone(@Nullable RuntimeException error) {
+        mLock.lock();
+        try {
+            if (error != null && mStripeError == null) {
+                mStripeError = error;
+            }
+            if (--mPendingStripes == 0) {
+                mDone.signal();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private static void requireNv21(@NonNull Frame frame) {
+        if (frame.getFormat() != NV21) {
+            throw new IllegalArgumentException("Not an NV21 frame: " + frame.getFormat());
+        }
+    }
+
+    private static void requireEven(int width, int height) {
+        if ((width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("Odd size: " + width + "x" + height);
+        }
+    }
+
+    private static void requireLength(int length, int required) {
+        if (length < required) {
+            throw new IllegalArgumentException("Output of " + length + " for " + required);
+        }
+    }
+
+    private final class Stripe implements Runnable {
+
+        int mFirstRow;
+        int mEndRow;
+
+        @Override
+        public void run() {
+            RuntimeException error = null;
+            try {
+                runRows(mFirstRow, mEndRow);
+            } catch (RuntimeException exception) {
+                error = exception;
+            } finally {
+                onStripeDone(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Crops a region of NV21 images and scales it to another size in a single pass, each output sample
+ * averaging the box of input samples it covers.
+ * <p/>
+ * The boxes are computed once per configuration, so scaling frames of the same size does not
+ * allocate. The region is cropped further, around its center, to the aspect ratio of the output,
+ * so the image is never stretched. Not thread safe.
+ */
+final class FrameCropScaler {
+
+    private int mInWidth;
+    private int mInHeight;
+    private float mLeft;
+    private float mTop;
+    private float mRight;
+    private float mBottom;
+    private int mOutWidth;
+    private int mOutHeight;
+
+    // The crop, in pixels of the input, even.
+    private int mCropLeft;
+    private int mCropTop;
+    private int mCropWidth;
+    private int mCropHeight;
+
+    // The first column and row of the box of each output sample, and their number.
+    private int[] mColumns = new int[0];
+    private int[] mColumnCounts = new int[0];
+    private int[] mRows = new int[0];
+    private int[] mRowCounts = new int[0];
+    private int[] mChromaColumns = new int[0];
+    private int[] mChromaColumnCounts = new int[0];
+    private int[] mChromaRows = new int[0];
+    private int[] mChromaRowCounts = new int[0];
+
+    /**
+     * Computes the boxes, unless already configured so.
+     *
+     * @param inWidth   The width of the input images, even.
+     * @param inHeight  The height of the input images, even.
+     * @param left      The left of the region, from 0 to 1 of the input width.
+     * @param top       The top of the region, from 0 to 1 of the input height.
+     * @param right     The right of the region, greater than left, at most 1.
+     * @param bottom    The bottom of the region, greater than top, at most 1.
+     * @param outWidth  The width of the output images, even.
+     * @param outHeight The height of the output images, even.
+     */
+    void configure(int inWidth, int inHeight, float left, float top, float right, float bottom,
+                   int outWidth, int outHeight) {
+        if (inWidth == mInWidth && inHeight == mInHeight && left == mLeft && top == mTop && right == mRight
+                && bottom == mBottom && outWidth == mOutWidth && outHeight == mOutHeight) {
+            return;
+        }
+        if (!(0 <= left && left < right && right <= 1 && 0 <= top && top < bottom && bottom <= 1)) {
+            throw new IllegalArgumentException("Invalid region: " + left + ", " + top + ", " + right + ", " + bottom);
+        }
+        if ((inWidth & 1) != 0 || (inHeight & 1) != 0 || (outWidth & 1) != 0 || (outHeight & 1) != 0
+                || inWidth <= 0 || inHeight <= 0 || outWidth <= 0 || outHeight <= 0) {
+            throw new IllegalArgumentException("Invalid sizes: " + inWidth + "x" + inHeight
+                    + " to " + outWidth + "x" + outHeight);
+        }
+        mInWidth = inWidth;
+        mInHeight = inHeight;
+        mLeft = left;
+        mTop = top;
+        mRight = right;
+        mBottom = bottom;
+        mOutWidth = outWidth;
+        mOutHeight = outHeight;
+
+        // The region in pixels, cropped to the aspect ratio of the output around its center.
+        final float regionLeft = left * inWidth;
+        final float regionTop = top * inHeight;
+        float width = (right - left) * inWidth;
+        float height = (bottom - top) * inHeight;
+        final float centerX = regionLeft + width / 2;
+        final float centerY = regionTop + height / 2;
+        if (width * outHeight > height * outWidth) {
+            width = height * outWidth / outHeight;
+        } else {
+            height = width * outHeight / outWidth;
+        }
+        mCropWidth = Math.max(2, Math.round(width / 2) * 2);
+        mCropHeight = Math.max(2, Math.round(height / 2) * 2);
+        mCropLeft = clamp(Math.round((centerX - mCropWidth / 2f) / 2) * 2, inWidth - mCropWidth);
+        mCropTop = clamp(Math.round((centerY - mCropHeight / 2f) / 2) * 2, inHeight - mCropHeight);
+
+        if (mColumns.length < outWidth) {
+            mColumns = new int[outWidth];
+            mColumnCounts = new int[outWidth];
+            mChromaColumns = new int[outWidth / 2];
+            mChromaColumnCounts = new int[outWidth / 2];
+        }
+        if (mRows.length < outHeight) {
+            mRows = new int[outHeight];
+            mRowCounts = new int[outHeight];
+            mChromaRows = new int[outHeight / 2];
+            mChromaRowCounts = new int[outHeight / 2];
+        }
+        computeBoxes(mCropLeft, mCropWidth, outWidth, mColumns, mColumnCounts);
+        computeBoxes(mCropTop, mCropHeight, outHeight, mRows, mRowCounts);
+        computeBoxes(mCropLeft / 2, mCropWidth / 2, outWidth / 2, mChromaColumns, mChromaColumnCounts);
+        computeBoxes(mCropTop / 2, mCropHeight / 2, outHeight / 2, mChromaRows, mChromaRowCounts);
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+
+    /**
+     * Splits the given input range into as many boxes as output samples, of at least one sample
+     * when upscaling.
+     */
+    private static void computeBoxes(int start, int length, int count, @NonNull int[] starts, @NonNull int[] counts) {
+        for (int i = 0; i < count; i++) {
+            final int first = start + (int) ((long) i * length / count);
+            final int end = start + (int) ((long) (i + 1) * length / count);
+            starts[i] = first;
+            counts[i] = Math.max(1, end - first);
+        }
+    }
+
+    /**
+     * @param in  An NV21 image of the configured input size.
+     * @param out The NV21 output, at least {@code outWidth * outHeight * 3 / 2} long.
+     */
+    void scale(@NonNull byte[] in, @NonNull byte[] out) {
+        final int inWidth = mInWidth;
+        final int outWidth = mOutWidth;
+        final int outHeight = mOutHeight;
+        int o = 0;
+        for (int row = 0; row < outHeight; row++) {
+            final int rowStart = mRows[row] * inWidth;
+            final int rowCount = mRowCounts[row];
+            for (int col = 0; col < outWidth; col++) {
+                final int columnStart = mColumns[col];
+                final int columnCount = mColumnCounts[col];
+                int sum = 0;
+                for (int line = rowStart, end = rowStart + rowCount * inWidth; line < end; line += inWidth) {
+                    for (int i = line + columnStart, lineEnd = i + columnCount; i < lineEnd; i++) {
+                        sum += in[i] & 0xff;
+                    }
+                }
+                final int samples = rowCount * columnCount;
+                out[o++] = (byte) ((sum + samples / 2) / samples);
+            }
+        }
+        // Chroma, by pairs of V and U samples, rows of inWidth bytes.
+        final int lumaSize = inWidth * mInHeight;
+        for (int row = 0, chromaHeight = outHeight / 2; row < chromaHeight; row++) {
+            final int rowStart = lumaSize + mChromaRows[row] * inWidth;
+            final int rowCount = mChromaRowCounts[row];
+            for (int col = 0, chromaWidth = outWidth / 2; col < chromaWidth; col++) {
+                final int columnStart = 2 * mChromaColumns[col];
+                final int columnEnd = columnStart + 2 * mChromaColumnCounts[col];
+                int v = 0;
+                int u = 0;
+                for (int line = rowStart, end = rowStart + rowCount * inWidth; line < end; line += inWidth) {
+                    for (int i = line + columnStart, lineEnd = line + columnEnd; i < lineEnd; i += 2) {
+                        v += in[i] & 0xff;
+                        u += in[i + 1] & 0xff;
+                    }
+                }
+                final int samples = rowCount * mChromaColumnCounts[col];
+                out[o++] = (byte) ((v + samples / 2) / samples);
+                out[o++] = (byte) ((u + samples / 2) / samples);
+            }
+        }
+    }
+
+    int getOutputWidth() {
+        return mOutWidth;
+    }
+
+    int getOutputHeight() {
+        return mOutHeight;
+    }
+
+    /**
+     * @return The left of the crop, in pixels of the input.
+     */
+    int getCropLeft() {
+        return mCropLeft;
+    }
+
+    int getCropTop() {
+        return mCropTop;
+    }
+
+    int getCropWidth() {
+        return mCropWidth;
+    }
+
+    int getCropHeight() {
+        return mCropHeight;
+    }
+}
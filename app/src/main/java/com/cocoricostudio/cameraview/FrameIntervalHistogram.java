@@ -0,0 +1,138 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of the intervals between preview frames, in microseconds, in the manner of
+ * HdrHistogram: each power of two is split into {@link #SUB_BUCKET_COUNT} linear sub-buckets, so
+ * any interval is counted within about 3% of its value in a fixed array.
+ * <p/>
+ * Recording is lock-free and allocation-free, and can run concurrently with
+ * {@link #copyCounts(long[])} from any thread: a copy may then miss the intervals recorded
+ * meanwhile, but never counts one twice.
+ */
+final class FrameIntervalHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /**
+     * Longer intervals are counted as that one, about 35 minutes.
+     */
+    static final long MAX_VALUE_US = (1L << 31) - 1;
+    /**
+     * Length of the array of counts, see {@link #copyCounts(long[])}.
+     */
+    static final int COUNTS_LENGTH = getIndex(MAX_VALUE_US) + 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(COUNTS_LENGTH);
+    private final AtomicLong mTotalUs = new AtomicLong();
+    private final AtomicLong mMaxUs = new AtomicLong();
+
+    /**
+     * @param intervalNs The interval between two frames, in nanoseconds.
+     */
+    void record(long intervalNs) {
+        final long intervalUs = Math.max(0, Math.min(intervalNs / 1000, MAX_VALUE_US));
+        mCounts.getAndIncrement(getIndex(intervalUs));
+        mTotalUs.addAndGet(intervalUs);
+        long max;
+        while (intervalUs > (max = mMaxUs.get())) {
+            if (mMaxUs.compareAndSet(max, intervalUs)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Forgets every interval recorded. Intervals recorded concurrently may be kept.
+     */
+    void reset() {
+        for (int i = 0; i < COUNTS_LENGTH; i++) {
+            mCounts.set(i, 0);
+        }
+        mTotalUs.set(0);
+        mMaxUs.set(0);
+    }
+
+    /**
+     * @param outCounts Receives the count of each bucket, of length {@link #COUNTS_LENGTH}.
+     */
+    void copyCounts(@NonNull long[] outCounts) {
+        for (int i = 0; i < COUNTS_LENGTH; i++) {
+            outCounts[i] = mCounts.get(i);
+        }
+    }
+
+    /**
+     * @return The sum of the intervals recorded, in microseconds.
+     */
+    long getTotalUs() {
+        return mTotalUs.get();
+    }
+
+    /**
+     * @return The longest interval recorded, in microseconds, 0 if none.
+     */
+    long getMaxUs() {
+        return mMaxUs.get();
+    }
+
+    /**
+     * @return The index of the bucket counting the given value: values below
+     * {@code 2 * SUB_BUCKET_COUNT} have their own bucket, then each power of two is split into
+     * {@link #SUB_BUCKET_COUNT} buckets.
+     */
+    static int getIndex(long valueUs) {
+        final int bucket = Math.max(0, 63 - Long.numberOfLeadingZeros(valueUs) - SUB_BUCKET_BITS);
+        return (bucket << SUB_BUCKET_BITS) + (int) (valueUs >>> bucket);
+    }
+
+    /**
+     * @return The lowest value counted in the given bucket.
+     */
+    static long getLowestValue(int index) {
+        final int bucket = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+        return (long) (index - (bucket << SUB_BUCKET_BITS)) << bucket;
+    }
+
+    /**
+     * @return The highest value counted in the given bucket.
+     */
+    static long getHighestValue(int index) {
+        final int bucket = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+        return getLowestValue(index) + (1L << bucket) - 1;
+    }
+
+    static long getTotalCount(@NonNull long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @param counts     The counts of each bucket, see {@link #copyCounts(long[])}.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The highest value of the bucket of the given percentile, that is the value at least
+     * that percentage of the intervals are below or equivalent to, 0 if none was recorded.
+     */
+    static long getValueAtPercentile(@NonNull long[] counts, double percentile) {
+        final long total = getTotalCount(counts);
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return getHighestValue(i);
+            }
+        }
+        return getHighestValue(counts.length - 1);
+    }
+}
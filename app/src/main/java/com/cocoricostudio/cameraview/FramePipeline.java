@@ -0,0 +1,281 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Cycles the preview buffers between the camera and the {@link FrameConsumer consumers}.
+ * <p/>
+ * Each buffer is wrapped once in a {@link Frame}. A buffer is either queued in the camera, free in
+ * the pool, or held by the consumers, in which case it goes back to the camera when the frame is
+ * released. Enough buffers are allocated for every consumer queue to be full while the camera
+ * still has some to fill, so the camera never starves with dropping overflow policies.
+ * <p/>
+ * Once warmed up, cycling frames does not allocate anything.
+ */
+class FramePipeline implements Frame.Recycler {
+
+    /**
+     * Where free buffers go to be filled, ie. {@link android.hardware.Camera#addCallbackBuffer(byte[])}.
+     */
+    interface BufferQueue {
+        void queueBuffer(@NonNull byte[] buffer);
+    }
+
+    /**
+     * Number of buffers always available to the camera, on top of those held by the consumers.
+     */
+    static final int CAMERA_BUFFER_COUNT = 3;
+
+    private final Object mLock = new Object();
+
+    // Guarded by mLock.
+    private final FrameBufferPool mPool = new FrameBufferPool(CAMERA_BUFFER_COUNT);
+    private Frame[] mFrames = new Frame[CAMERA_BUFFER_COUNT];
+    private int mFrameCount;
+    @Nullable
+    private BufferQueue mBufferQueue;
+    private int mWidth;
+    private int mHeight;
+    private int mFormat;
+
+    /**
+     * Copied on write so that dispatching does not allocate an iterator per frame.
+     */
+    private volatile FrameSubscription[] mSubscriptions = new FrameSubscription[0];
+
+    @NonNull
+    FrameSubscription subscribe(@NonNull FrameConsumer consumer, @NonNull Executor executor, int capacity,
+                                @NonNull FrameConsumer.OverflowPolicy policy, long blockTimeoutMs) {
+        FrameSubscription subscription = new FrameSubscription(consumer, executor, capacity, policy, blockTimeoutMs);
+        synchronized (mLock) {
+            FrameSubscription[] subscriptions = new FrameSubscription[mSubscriptions.length + 1];
+            System.arraycopy(mSubscriptions, 0, subscriptions, 0, mSubscriptions.length);
+            subscriptions[mSubscriptions.length] = subscription;
+            mSubscriptions = subscriptions;
+        }
+        return subscription;
+    }
+
+    /**
+     * Removes the given subscription and releases the frames it queued.
+     */
+    void unsubscribe(@NonNull FrameSubscription subscription) {
+        boolean removed = false;
+        synchronized (mLock) {
+            FrameSubscription[] subscriptions = new FrameSubscription[Math.max(mSubscriptions.length - 1, 0)];
+            int count = 0;
+            for (FrameSubscription existing : mSubscriptions) {
+                if (existing == subscription) {
+                    removed = true;
+                } else if (count < subscriptions.length) {
+                    subscriptions[count++] = existing;
+                }
+            }
+            if (removed) {
+                mSubscriptions = subscriptions;
+            }
+        }
+        if (removed) {
+            subscription.close();
+        }
+    }
+
+    /**
+     * Removes every subscription, eg. when the consumers are gone with their view.
+     */
+    void unsubscribeAll() {
+        for (FrameSubscription subscription : mSubscriptions) {
+            unsubscribe(subscription);
+        }
+    }
+
+    boolean hasSubscriptions() {
+        return mSubscriptions.length > 0;
+    }
+
+    /**
+     * @return The frames delivered to the current consumers, see {@link FrameSubscription#getDeliveredCount()}.
+     */
+    long getDeliveredCount() {
+        long count = 0;
+        for (FrameSubscription subscription : mSubscriptions) {
+            count += subscription.getDeliveredCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return The frames dropped by the current consumers, see {@link FrameSubscription#getDroppedCount()}.
+     */
+    long getDroppedCount() {
+        long count = 0;
+        for (FrameSubscription subscription : mSubscriptions) {
+            count += subscription.getDroppedCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of buffers needed so that the camera never starves.
+     */
+    int getRequiredBufferCount() {
+        int count = CAMERA_BUFFER_COUNT;
+        for (FrameSubscription subscription : mSubscriptions) {
+            // The queue can be full while the consumer processes one more frame.
+            count += subscription.getCapacity() + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Queues every free buffer to the given queue, allocating them if needed. Buffers are only
+     * reallocated if the given size and format need buffers of a different size.
+     * <p/>
+     * The pipeline must be detached and the previous queue cleared.
+     *
+     * @return {@code true} if buffers have been reallocated.
+     */
+    boolean attach(@NonNull BufferQueue queue, int width, int height, int format) {
+        synchronized (mLock) {
+            if (mBufferQueue != null) {
+                throw new IllegalStateException("Already attached, detach() first.");
+            }
+            mWidth = width;
+            mHeight = height;
+            mFormat = format;
+            boolean reallocated = mPool.setBufferSize(FrameBufferPool.getBufferSize(width, height, format));
+            if (reallocated) {
+                // Frames still held by consumers won't be recycled, see recycle(Frame).
+                for (int i = 0; i < mFrameCount; i++) {
+                    mFrames[i] = null;
+                }
+                mFrameCount = 0;
+            }
+            mPool.ensureCapacity(getRequiredBufferCount());
+            mBufferQueue = queue;
+
+            byte[] buffer;
+            while ((buffer = mPool.acquire()) != null) {
+                Frame frame = findFrame(buffer);
+                if (frame == null) {
+                    frame = addFrame(buffer);
+                }
+                frame.mQueued = true;
+                queue.queueBuffer(buffer);
+            }
+            return reallocated;
+        }
+    }
+
+    /**
+     * Takes back the buffers queued so far. The queue is expected to be cleared right after.
+     * Buffers held by consumers return to the pool once released.
+     */
+    void detach() {
+        synchronized (mLock) {
+            if (mBufferQueue == null) {
+                return;
+            }
+            mBufferQueue = null;
+            for (int i = 0; i < mFrameCount; i++) {
+                Frame frame = mFrames[i];
+                if (frame.mQueued) {
+                    frame.mQueued = false;
+                    mPool.release(frame.getData());
+                }
+            }
+        }
+    }
+
+    /**
+     * Wraps the given buffer, just filled by the camera, into its frame.
+     *
+     * @return The frame, retained once, to be given to {@link #dispatch(Frame)}, or {@code null} if
+     * the buffer does not belong to this pipeline anymore.
+     */
+    @Nullable
+    Frame obtain(@NonNull byte[] data, long timestampNs) {
+        Frame frame;
+        synchronized (mLock) {
+            frame = findFrame(data);
+            if (frame == null || !frame.mQueued) {
+                return null;
+            }
+            frame.mQueued = false;
+            frame.mWidth = mWidth;
+            frame.mHeight = mHeight;
+            frame.mFormat = mFormat;
+        }
+        frame.mTimestampNs = timestampNs;
+        frame.acquire();
+        return frame;
+    }
+
+    /**
+     * Offers the given frame to every consumer then releases it.
+     */
+    void dispatch(@NonNull Frame frame) {
+        try {
+            for (FrameSubscription subscription : mSubscriptions) {
+                subscription.offer(frame);
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Override
+    public void recycle(@NonNull Frame frame) {
+        synchronized (mLock) {
+            if (findFrame(frame.getData()) != frame) {
+                // The buffer size changed since the frame was obtained.
+                return;
+            }
+            if (mBufferQueue != null) {
+                frame.mQueued = true;
+                mBufferQueue.queueBuffer(frame.getData());
+            } else {
+                mPool.release(frame.getData());
+            }
+        }
+    }
+
+    /**
+     * @return The total number of buffers allocated so far.
+     */
+    int getAllocationCount() {
+        synchronized (mLock) {
+            return mPool.getAllocationCount();
+        }
+    }
+
+    /**
+     * Must be called with the lock held.
+     */
+    @Nullable
+    private Frame findFrame(@NonNull byte[] data) {
+        for (int i = 0; i < mFrameCount; i++) {
+            if (mFrames[i].getData() == data) {
+                return mFrames[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Must be called with the lock held.
+     */
+    private Frame addFrame(@NonNull byte[] buffer) {
+        if (mFrameCount == mFrames.length) {
+            Frame[] frames = new Frame[mFrames.length * 2];
+            System.arraycopy(mFrames, 0, frames, 0, mFrameCount);
+            mFrames = frames;
+        }
+        Frame frame = new Frame(buffer, this);
+        mFrames[mFrameCount++] = frame;
+        return frame;
+    }
+}
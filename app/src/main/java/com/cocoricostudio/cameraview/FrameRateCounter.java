@@ -0,0 +1,86 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Measures the frame rate the camera actually delivers, over windows of about a second, and the
+ * distribution of the intervals between frames.
+ * <p/>
+ * Frames are counted on the camera thread, without allocating, and the rate can be read from any
+ * thread. A pause of the preview longer than a window, eg. while switching cameras, starts a new
+ * window rather than lowering the rate measured, and is not recorded as an interval.
+ */
+final class FrameRateCounter {
+
+    static final long WINDOW_NS = 1000000000L;
+
+    private static final long NONE = -1;
+
+    private volatile boolean mEnabled;
+    private volatile float mFramesPerSecond;
+    private final FrameIntervalHistogram mIntervals = new FrameIntervalHistogram();
+
+    // Confined to the camera thread.
+    private long mWindowStartNs = NONE;
+    private long mLastFrameNs = NONE;
+    private int mFrames;
+
+    /**
+     * Any thread. Forgets the rate and intervals measured so far.
+     */
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        mFramesPerSecond = 0;
+        mIntervals.reset();
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Camera thread only.
+     *
+     * @param timestampNs When the frame was captured, see {@link System#nanoTime()}.
+     * @return Whether a window has been measured, see {@link #getFramesPerSecond()}.
+     */
+    boolean onFrame(long timestampNs) {
+        if (!mEnabled) {
+            return false;
+        }
+        final long lastFrameNs = mLastFrameNs;
+        mLastFrameNs = timestampNs;
+        if (lastFrameNs == NONE || timestampNs - lastFrameNs > WINDOW_NS) {
+            mWindowStartNs = timestampNs;
+            mFrames = 0;
+            return false;
+        }
+        mIntervals.record(timestampNs - lastFrameNs);
+        mFrames++;
+        final long elapsedNs = timestampNs - mWindowStartNs;
+        if (elapsedNs >= WINDOW_NS) {
+            mFramesPerSecond = mFrames * 1e9f / elapsedNs;
+            mWindowStartNs = timestampNs;
+            mFrames = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Any thread.
+     *
+     * @return The frame rate over the last window, 0 until a window has been measured.
+     */
+    float getFramesPerSecond() {
+        return mFramesPerSecond;
+    }
+
+    /**
+     * @return The intervals between the frames counted, any thread.
+     */
+    @NonNull
+    FrameIntervalHistogram getIntervals() {
+        return mIntervals;
+    }
+}
@@ -0,0 +1,229 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The registration of a {@link FrameConsumer}: a bounded queue between the camera thread and the
+ * executor of the consumer, applying the {@link FrameConsumer.OverflowPolicy} of the consumer when
+ * full.
+ * <p/>
+ * Frames are retained while queued and released once consumed or dropped, so that their buffers
+ * return to the camera.
+ */
+public final class FrameSubscription {
+
+    private final FrameConsumer mConsumer;
+    private final Executor mExecutor;
+    private final FrameConsumer.OverflowPolicy mPolicy;
+    private final long mBlockTimeoutNs;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotFull = mLock.newCondition();
+    private final Frame[] mQueue;
+    private int mHead;
+    private int mCount;
+    private boolean mDrainScheduled;
+    private boolean mClosed;
+
+    private final AtomicLong mDelivered = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            boolean completed = false;
+            try {
+                Frame frame;
+                while ((frame = poll()) != null) {
+                    try {
+                        mConsumer.onFrame(frame);
+                        mDelivered.incrementAndGet();
+                    } finally {
+                        frame.release();
+                    }
+                }
+                completed = true;
+            } finally {
+                if (!completed) {
+                    onDrainAborted();
+                }
+            }
+        }
+    };
+
+    FrameSubscription(@NonNull FrameConsumer consumer, @NonNull Executor executor, int capacity,
+                      @NonNull FrameConsumer.OverflowPolicy policy, long blockTimeoutMs) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        mConsumer = consumer;
+        mExecutor = executor;
+        mPolicy = policy;
+        mBlockTimeoutNs = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+        mQueue = new Frame[capacity];
+    }
+
+    /**
+     * @return The number of frames the consumer processed.
+     */
+    public long getDeliveredCount() {
+        return mDelivered.get();
+    }
+
+    /**
+     * @return The number of frames dropped because the queue was full.
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    @NonNull
+    public FrameConsumer.OverflowPolicy getOverflowPolicy() {
+        return mPolicy;
+    }
+
+    int getCapacity() {
+        return mQueue.length;
+    }
+
+    /**
+     * Queues the given frame, retaining it, or drops it according to the overflow policy. Called
+     * from the camera thread.
+     *
+     * @return {@code true} if the frame has been queued.
+     */
+    boolean offer(@NonNull Frame frame) {
+        Frame dropped = null;
+        boolean schedule = false;
+        mLock.lock();
+        try {
+            if (mClosed) {
+                return false;
+            }
+            if (mCount == mQueue.length) {
+                switch (mPolicy) {
+                    case DROP_OLDEST:
+                        dropped = removeFirst();
+                        break;
+                    case DROP_NEWEST:
+                        mDropped.incrementAndGet();
+                        return false;
+                    case BLOCK:
+                        if (!awaitNotFull() || mClosed) {
+                            if (!mClosed) mDropped.incrementAndGet();
+                            return false;
+                        }
+                        break;
+                }
+            }
+            frame.retain();
+            mQueue[(mHead + mCount) % mQueue.length] = frame;
+            mCount++;
+            if (!mDrainScheduled) {
+                mDrainScheduled = true;
+                schedule = true;
+            }
+        } finally {
+            mLock.unlock();
+        }
+        if (dropped != null) {
+            mDropped.incrementAndGet();
+            dropped.release();
+        }
+        if (schedule) {
+            mExecutor.execute(mDrain);
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting frames and releases the queued ones. A frame being consumed is released once
+     * the consumer returns.
+     */
+    void close() {
+        Frame[] pending;
+        int count;
+        mLock.lock();
+        try {
+            mClosed = true;
+            count = mCount;
+            pending = new Frame[count];
+            for (int i = 0; i < count; i++) {
+                pending[i] = removeFirst();
+            }
+            mNotFull.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+        for (int i = 0; i < count; i++) {
+            pending[i].release();
+        }
+    }
+
+    /**
+     * Must be called with the lock held.
+     */
+    private boolean awaitNotFull() {
+        long remainingNs = mBlockTimeoutNs;
+        while (mCount == mQueue.length && !mClosed) {
+            if (remainingNs <= 0) {
+                return false;
+            }
+            try {
+                remainingNs = mNotFull.awaitNanos(remainingNs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Must be called with the lock held.
+     */
+    private Frame removeFirst() {
+        Frame frame = mQueue[mHead];
+        mQueue[mHead] = null;
+        mHead = (mHead + 1) % mQueue.length;
+        mCount--;
+        return frame;
+    }
+
+    @Nullable
+    private Frame poll() {
+        mLock.lock();
+        try {
+            if (mCount == 0) {
+                mDrainScheduled = false;
+                return null;
+            }
+            Frame frame = removeFirst();
+            mNotFull.signal();
+            return frame;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void onDrainAborted() {
+        boolean schedule;
+        mLock.lock();
+        try {
+            schedule = mCount > 0;
+            mDrainScheduled = schedule;
+        } finally {
+            mLock.unlock();
+        }
+        if (schedule) {
+            mExecutor.execute(mDrain);
+        }
+    }
+}
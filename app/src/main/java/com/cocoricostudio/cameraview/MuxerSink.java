@@ -0,0 +1,129 @@
+package com.cocoricostudio.cameraview;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Writes the recorded video to an MP4 file with {@link MediaMuxer}, rotated to be displayed
+ * upright.
+ */
+public final class MuxerSink implements EncodedSink {
+
+    private static final String CSD_0 = "csd-0";
+    private static final String CSD_1 = "csd-1";
+
+    private final File mFile;
+    @Nullable
+    private MediaMuxer mMuxer;
+    private int mWidth;
+    private int mHeight;
+    private int mTrack = -1;
+    // Reused for each packet: the muxer reads from direct buffers without copying.
+    @Nullable
+    private ByteBuffer mBuffer;
+    private final MediaCodec.BufferInfo mInfo = new MediaCodec.BufferInfo();
+
+    public MuxerSink(@NonNull File file) {
+        mFile = file;
+    }
+
+    @Override
+    public void onStart(int width, int height, int rotation) throws IOException {
+        mWidth = width;
+        mHeight = height;
+        mMuxer = new MediaMuxer(mFile.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        mMuxer.setOrientationHint(rotation);
+    }
+
+    @Override
+    public void onPacket(@NonNull EncodedPacket packet) throws IOException {
+        if (mMuxer == null) {
+            throw new IOException("Not started.");
+        }
+        try {
+            if (packet.isCodecConfig()) {
+                if (mTrack == -1) {
+                    mTrack = mMuxer.addTrack(createFormat(packet));
+                    mMuxer.start();
+                }
+                return;
+            }
+            if (mTrack == -1) {
+                // The track cannot be added before the configuration.
+                return;
+            }
+            ByteBuffer buffer = mBuffer;
+            if (buffer == null || buffer.capacity() < packet.getSize()) {
+                buffer = mBuffer = ByteBuffer.allocateDirect(packet.getSize());
+            }
+            buffer.clear();
+            buffer.put(packet.getData(), 0, packet.getSize());
+            buffer.flip();
+            mInfo.set(0, packet.getSize(), packet.getPresentationTimeUs(),
+                    packet.isKeyFrame() ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+            mMuxer.writeSampleData(mTrack, buffer, mInfo);
+        } catch (IllegalStateException | IllegalArgumentException exception) {
+            throw new IOException("Failed to mux " + mFile, exception);
+        }
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        if (mMuxer == null) {
+            return;
+        }
+        try {
+            if (mTrack != -1) {
+                mMuxer.stop();
+            }
+        } catch (IllegalStateException exception) {
+            throw new IOException("Failed to finish " + mFile, exception);
+        } finally {
+            mMuxer.release();
+            mMuxer = null;
+            mTrack = -1;
+        }
+    }
+
+    /**
+     * @param config The SPS then the PPS, each after a start code.
+     */
+    @NonNull
+    private MediaFormat createFormat(@NonNull EncodedPacket config) throws IOException {
+        final byte[] data = config.getData();
+        final int size = config.getSize();
+        // Past the start code of the SPS, of at least 3 bytes.
+        final int pps = findStartCode(data, 3, size);
+        if (pps == -1) {
+            throw new IOException("No PPS in the codec configuration.");
+        }
+        MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, mWidth, mHeight);
+        // Copied: the packet is recycled.
+        format.setByteBuffer(CSD_0, ByteBuffer.wrap(Arrays.copyOfRange(data, 0, pps)));
+        format.setByteBuffer(CSD_1, ByteBuffer.wrap(Arrays.copyOfRange(data, pps, size)));
+        return format;
+    }
+
+    /**
+     * @return The index of the first {@code 00 00 01} or {@code 00 00 00 01} start code at or
+     * after the given one, -1 if none.
+     */
+    static int findStartCode(@NonNull byte[] data, int from, int size) {
+        for (int i = from; i + 2 < size; i++) {
+            if (data[i] == 0 && data[i + 1] == 0) {
+                if (data[i + 2] == 1) {
+                    return i > from && data[i - 1] == 0 ? i - 1 : i;
+                }
+            }
+        }
+        return -1;
+    }
+}
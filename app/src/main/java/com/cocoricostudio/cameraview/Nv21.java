@@ -0,0 +1,279 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Conversions from and to NV21, the default preview format of {@link android.hardware.Camera}
+ * and the format of the frames delivered by {@link CameraView}: a plane of luma samples followed
+ * by interleaved V and U samples, subsampled 2x2.
+ */
+final class Nv21 {
+
+    private Nv21() {
+    }
+
+    /**
+     * Copies a YUV 4:2:0 image, eg. the planes of an {@link android.media.Image} in
+     * {@link android.graphics.ImageFormat#YUV_420_888}, into the given NV21 buffer. Luma rows
+     * are copied in bulk. The positions of the planes are left unchanged.
+     *
+     * @param width         The width of the image, even.
+     * @param height        The height of the image, even.
+     * @param y             The luma plane.
+     * @param yRowStride    The distance between the starts of two rows of the luma plane.
+     * @param u             The U (Cb) plane.
+     * @param v             The V (Cr) plane.
+     * @param uvRowStride   The distance between the starts of two rows of the chroma planes.
+     * @param uvPixelStride The distance between two samples of a row of the chroma planes, 2 if
+     *                      they are interleaved.
+     * @param out           The NV21 buffer, at least {@code width * height * 3 / 2} long.
+     */
+    static void fromYuv420(int width, int height, @NonNull ByteBuffer y, int yRowStride,
+                           @NonNull ByteBuffer u, @NonNull ByteBuffer v, int uvRowStride, int uvPixelStride,
+                           @NonNull byte[] out) {
+        int offset = 0;
+        for (int row = 0; row < height; row++) {
+            copy(y, row * yRowStride, out, offset, width);
+            offset += width;
+        }
+        final int chromaWidth = width / 2;
+        final int chromaHeight = height / 2;
+        for (int row = 0; row < chromaHeight; row++) {
+            int index = row * uvRowStride;
+            for (int col = 0; col < chromaWidth; col++) {
+                out[offset++] = v.get(index);
+                out[offset++] = u.get(index);
+                index += uvPixelStride;
+            }
+        }
+    }
+
+    /**
+     * Converts to NV12, the {@code COLOR_FormatYUV420SemiPlanar} of video encoders: the same as
+     * NV21 with the U and V samples swapped.
+     *
+     * @param nv21   The NV21 image.
+     * @param width  The width of the image, even.
+     * @param height The height of the image, even.
+     * @param out    The NV12 buffer, at least {@code width * height * 3 / 2} long.
+     */
+    static void toNv12(@NonNull byte[] nv21, int width, int height, @NonNull byte[] out) {
+        final int lumaSize = width * height;
+        System.arraycopy(nv21, 0, out, 0, lumaSize);
+        final int end = lumaSize + lumaSize / 2;
+        for (int i = lumaSize; i < end; i += 2) {
+            out[i] = nv21[i + 1];
+            out[i + 1] = nv21[i];
+        }
+    }
+
+    /**
+     * Converts to I420, the {@code COLOR_FormatYUV420Planar} of video encoders: the luma plane
+     * followed by the U plane then the V plane.
+     *
+     * @param nv21   The NV21 image.
+     * @param width  The width of the image, even.
+     * @param height The height of the image, even.
+     * @param out    The I420 buffer, at least {@code width * height * 3 / 2} long.
+     */
+    static void toI420(@NonNull byte[] nv21, int width, int height, @NonNull byte[] out) {
+        final int lumaSize = width * height;
+        final int chromaSize = lumaSize / 4;
+        System.arraycopy(nv21, 0, out, 0, lumaSize);
+        int u = lumaSize;
+        int v = lumaSize + chromaSize;
+        for (int i = lumaSize, end = lumaSize + 2 * chromaSize; i < end; i += 2) {
+            out[v++] = nv21[i];
+            out[u++] = nv21[i + 1];
+        }
+    }
+
+    /**
+     * Converts rows of the image to ARGB_8888, eg. for {@code Bitmap.setPixels}, with the BT.601
+     * coefficients of the camera in fixed point. Each pair of pixels shares its chroma sample, read
+     * once.
+     *
+     * @param nv21     The NV21 image.
+     * @param width    The width of the image, even.
+     * @param height   The height of the image, even.
+     * @param out      The ARGB pixels, at least {@code width * height} long.
+     * @param firstRow The first row to convert.
+     * @param endRow   The row after the last one to convert.
+     */
+    static void toArgb(@NonNull byte[] nv21, int width, int height, @NonNull int[] out, int firstRow, int endRow) {
+        final int lumaSize = width * height;
+        for (int row = firstRow; row < endRow; row++) {
+            int y = row * width;
+            final int end = y + width;
+            int uv = lumaSize + (row >> 1) * width;
+            while (y < end) {
+                final int v = (nv21[uv++] & 0xff) - 128;
+                final int u = (nv21[uv++] & 0xff) - 128;
+                // Scaled by 1024: 1.596, 0.813 and 0.391, 2.018.
+                final int red = 1634 * v;
+                final int green = -833 * v - 400 * u;
+                final int blue = 2066 * u;
+                out[y] = toArgb(nv21[y], red, green, blue);
+                y++;
+                out[y] = toArgb(nv21[y], red, green, blue);
+                y++;
+            }
+        }
+    }
+
+    private static int toArgb(byte luma, int red, int green, int blue) {
+        // 1.164 scaled by 1024, from the video range, plus 0.5 to round.
+        final int y = 1192 * ((luma & 0xff) - 16) + 512;
+        final int r = clamp(y + red);
+        final int g = clamp(y + green);
+        final int b = clamp(y + blue);
+        return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+    }
+
+    /**
+     * @return The given component, scaled by 1024, within 0 and 255.
+     */
+    private static int clamp(int component) {
+        return component < 0 ? 0 : component > 262143 ? 262143 : component;
+    }
+
+    /**
+     * Downscales rows of the image, averaging boxes of {@code factor x factor} luma samples, and
+     * as many chroma samples, into an NV21 image of {@code width / factor x height / factor}.
+     *
+     * @param nv21     The NV21 image.
+     * @param width    The width of the image, a multiple of {@code 2 * factor}.
+     * @param height   The height of the image, a multiple of {@code 2 * factor}.
+     * @param factor   The factor, eg. 2 or 4.
+     * @param out      The downscaled NV21 image, at least {@code (width / factor) * (height / factor) * 3 / 2} long.
+     * @param firstRow The first row of the downscaled image to compute, even.
+     * @param endRow   The row after the last one to compute, even.
+     */
+    static void downscale(@NonNull byte[] nv21, int width, int height, int factor, @NonNull byte[] out,
+                          int firstRow, int endRow) {
+        final int outWidth = width / factor;
+        final int outHeight = height / factor;
+        final int shift = Integer.numberOfTrailingZeros(factor * factor);
+        final int round = factor * factor / 2;
+        for (int row = firstRow; row < endRow; row++) {
+            int o = row * outWidth;
+            final int end = o + outWidth;
+            int i = row * factor * width;
+            while (o < end) {
+                int sum = 0;
+                for (int dy = 0, line = i; dy < factor; dy++, line += width) {
+                    for (int dx = 0; dx < factor; dx++) {
+                        sum += nv21[line + dx] & 0xff;
+                    }
+                }
+                out[o++] = (byte) ((sum + round) >> shift);
+                i += factor;
+            }
+        }
+        // Chroma, by pairs of V and U samples.
+        final int lumaSize = width * height;
+        final int outLumaSize = outWidth * outHeight;
+        final int rowStep = factor * width;
+        for (int row = firstRow >> 1, endChromaRow = endRow >> 1; row < endChromaRow; row++) {
+            int o = outLumaSize + row * outWidth;
+            final int end = o + outWidth;
+            int i = lumaSize + row * rowStep;
+            while (o < end) {
+                int v = 0;
+                int u = 0;
+                for (int dy = 0, line = i; dy < factor; dy++, line += width) {
+                    for (int dx = 0; dx < 2 * factor; dx += 2) {
+                        v += nv21[line + dx] & 0xff;
+                        u += nv21[line + dx + 1] & 0xff;
+                    }
+                }
+                out[o++] = (byte) ((v + round) >> shift);
+                out[o++] = (byte) ((u + round) >> shift);
+                i += 2 * factor;
+            }
+        }
+    }
+
+    /**
+     * Rotates rows of the image clockwise, eg. by {@link CameraUtils#getDisplayOrientation} to get
+     * it upright, into an NV21 image of {@code height x width} for 90 and 270 degrees.
+     *
+     * @param nv21     The NV21 image.
+     * @param width    The width of the image, even.
+     * @param height   The height of the image, even.
+     * @param degrees  0, 90, 180 or 270.
+     * @param out      The rotated NV21 image, at least {@code width * height * 3 / 2} long.
+     * @param firstRow The first row of the source image to rotate, even.
+     * @param endRow   The row after the last one to rotate, even.
+     */
+    static void rotate(@NonNull byte[] nv21, int width, int height, int degrees, @NonNull byte[] out,
+                       int firstRow, int endRow) {
+        final int lumaSize = width * height;
+        rotatePlane(nv21, 0, width, height, 1, degrees, out, 0, firstRow, endRow);
+        rotatePlane(nv21, lumaSize, width / 2, height / 2, 2, degrees, out, lumaSize, firstRow >> 1, endRow >> 1);
+    }
+
+    /**
+     * Rotates the rows of a plane of samples of {@code sampleSize} bytes.
+     */
+    private static void rotatePlane(@NonNull byte[] in, int inOffset, int width, int height, int sampleSize,
+                                    int degrees, @NonNull byte[] out, int outOffset, int firstRow, int endRow) {
+        final int rowSize = width * sampleSize;
+        final int columnSize = height * sampleSize;
+        switch (degrees) {
+            case 0:
+                System.arraycopy(in, inOffset + firstRow * rowSize, out, outOffset + firstRow * rowSize,
+                        (endRow - firstRow) * rowSize);
+                break;
+            case 90:
+                // Row r becomes the column height - 1 - r, from top to bottom.
+                for (int row = firstRow; row < endRow; row++) {
+                    int i = inOffset + row * rowSize;
+                    int o = outOffset + (height - 1 - row) * sampleSize;
+                    for (int col = 0; col < width; col++, o += columnSize) {
+                        for (int b = 0; b < sampleSize; b++) {
+                            out[o + b] = in[i++];
+                        }
+                    }
+                }
+                break;
+            case 180:
+                for (int row = firstRow; row < endRow; row++) {
+                    int i = inOffset + row * rowSize;
+                    int o = outOffset + (height - row) * rowSize - sampleSize;
+                    for (int col = 0; col < width; col++, o -= 2 * sampleSize) {
+                        for (int b = 0; b < sampleSize; b++) {
+                            out[o++] = in[i++];
+                        }
+                    }
+                }
+                break;
+            case 270:
+                // Row r becomes the column r, from bottom to top.
+                for (int row = firstRow; row < endRow; row++) {
+                    int i = inOffset + row * rowSize;
+                    int o = outOffset + (width - 1) * columnSize + row * sampleSize;
+                    for (int col = 0; col < width; col++, o -= columnSize) {
+                        for (int b = 0; b < sampleSize; b++) {
+                            out[o + b] = in[i++];
+                        }
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Rotation not a multiple of 90 degrees: " + degrees);
+        }
+    }
+
+    /**
+     * Bulk get at the given index, restoring the position of the source.
+     */
+    private static void copy(@NonNull ByteBuffer source, int index, @NonNull byte[] out, int offset, int length) {
+        final int position = source.position();
+        source.position(index);
+        source.get(out, offset, length);
+        source.position(position);
+    }
+}
@@ -0,0 +1,191 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue of {@link EncodedPacket}s between the encoder and an {@link EncodedSink}, with a
+ * pool of packets so that steady recording does not allocate.
+ * <p/>
+ * When the sink falls behind and the queue is full, the new packet is dropped, and so are the
+ * following ones until a key frame: frames referencing a dropped one could not be decoded. Codec
+ * configuration packets are never dropped.
+ */
+final class PacketQueue {
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    private final EncodedPacket[] mQueue;
+    private final ArrayDeque<EncodedPacket> mPool = new ArrayDeque<>();
+    private int mHead;
+    private int mCount;
+    private boolean mClosed;
+    // Producer only.
+    private boolean mDroppingUntilKeyFrame;
+
+    private final AtomicLong mQueued = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+
+    PacketQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        mQueue = new EncodedPacket[capacity];
+    }
+
+    /**
+     * Producer only.
+     *
+     * @return A packet able to hold the given size, from the pool if possible, to be given to
+     * {@link #offer(EncodedPacket)}.
+     */
+    @NonNull
+    EncodedPacket obtain(int size) {
+        EncodedPacket packet;
+        mLock.lock();
+        try {
+            packet = mPool.pollFirst();
+        } finally {
+            mLock.unlock();
+        }
+        if (packet == null) {
+            packet = new EncodedPacket(size);
+        }
+        packet.ensureCapacity(size);
+        return packet;
+    }
+
+    /**
+     * Producer only. Queues the given packet, or drops and recycles it.
+     *
+     * @return Whether the packet was queued.
+     */
+    boolean offer(@NonNull EncodedPacket packet) {
+        final boolean config = packet.isCodecConfig();
+        if (mDroppingUntilKeyFrame && !config) {
+            if (packet.isKeyFrame()) {
+                mDroppingUntilKeyFrame = false;
+            } else {
+                drop(packet);
+                return false;
+            }
+        }
+        mLock.lock();
+        try {
+            if (mClosed) {
+                mPool.addLast(packet);
+                return false;
+            }
+            if (mCount == mQueue.length && !config) {
+                mDroppingUntilKeyFrame = true;
+                mDropped.incrementAndGet();
+                mPool.addLast(packet);
+                return false;
+            }
+            if (mCount == mQueue.length) {
+                // Configuration packets are never dropped: make room, the rest is dropped until
+                // the next key frame.
+                EncodedPacket oldest = mQueue[mHead];
+                mQueue[mHead] = null;
+                mHead = (mHead + 1) % mQueue.length;
+                mCount--;
+                mPool.addLast(oldest);
+                mDropped.incrementAndGet();
+                mDroppingUntilKeyFrame = true;
+            }
+            mQueue[(mHead + mCount) % mQueue.length] = packet;
+            mCount++;
+            mQueued.incrementAndGet();
+            mNotEmpty.signal();
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void drop(@NonNull EncodedPacket packet) {
+        mDropped.incrementAndGet();
+        recycle(packet);
+    }
+
+    /**
+     * Consumer only. Waits for a packet.
+     *
+     * @return The oldest packet, to be given back with {@link #recycle(EncodedPacket)}, or
+     * {@code null} once closed and empty, or after the timeout.
+     */
+    @Nullable
+    EncodedPacket take(long timeoutMs) throws InterruptedException {
+        long remainingNs = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        mLock.lock();
+        try {
+            while (mCount == 0) {
+                if (mClosed || remainingNs <= 0) {
+                    return null;
+                }
+                remainingNs = mNotEmpty.awaitNanos(remainingNs);
+            }
+            EncodedPacket packet = mQueue[mHead];
+            mQueue[mHead] = null;
+            mHead = (mHead + 1) % mQueue.length;
+            mCount--;
+            return packet;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gives a packet back to the pool.
+     */
+    void recycle(@NonNull EncodedPacket packet) {
+        mLock.lock();
+        try {
+            mPool.addLast(packet);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * No packet is queued anymore: the consumer takes the ones left then gets {@code null}.
+     */
+    void close() {
+        mLock.lock();
+        try {
+            mClosed = true;
+            mNotEmpty.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    boolean isClosed() {
+        mLock.lock();
+        try {
+            return mClosed;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of packets queued so far.
+     */
+    long getQueuedCount() {
+        return mQueued.get();
+    }
+
+    /**
+     * @return The number of packets dropped so far.
+     */
+    long getDroppedCount() {
+        return mDropped.get();
+    }
+}
@@ -0,0 +1,102 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the packets of a {@link PacketQueue} to an {@link EncodedSink}, on its own thread, until
+ * the queue is closed and empty.
+ */
+final class PacketWriter implements Runnable {
+
+    private static final String TAG = PacketWriter.class.getSimpleName();
+
+    /**
+     * How often the writer wakes up to check whether it was interrupted.
+     */
+    private static final long POLL_TIMEOUT_MS = 500;
+
+    private final PacketQueue mQueue;
+    private final EncodedSink mSink;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mRotation;
+
+    private final AtomicLong mWrittenPackets = new AtomicLong();
+    private final AtomicLong mWrittenBytes = new AtomicLong();
+    @Nullable
+    private volatile IOException mError;
+
+    PacketWriter(@NonNull PacketQueue queue, @NonNull EncodedSink sink, int width, int height, int rotation) {
+        mQueue = queue;
+        mSink = sink;
+        mWidth = width;
+        mHeight = height;
+        mRotation = rotation;
+    }
+
+    @Override
+    public void run() {
+        boolean writing = true;
+        try {
+            mSink.onStart(mWidth, mHeight, mRotation);
+        } catch (IOException exception) {
+            onError(exception);
+            writing = false;
+        }
+        try {
+            EncodedPacket packet;
+            while ((packet = mQueue.take(POLL_TIMEOUT_MS)) != null || !mQueue.isClosed()) {
+                if (packet == null) {
+                    continue;
+                }
+                try {
+                    if (writing) {
+                        mSink.onPacket(packet);
+                        mWrittenPackets.incrementAndGet();
+                        mWrittenBytes.addAndGet(packet.getSize());
+                    }
+                } catch (IOException exception) {
+                    onError(exception);
+                    writing = false;
+                } finally {
+                    mQueue.recycle(packet);
+                }
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                mSink.onStop();
+            } catch (IOException exception) {
+                onError(exception);
+            }
+        }
+    }
+
+    private void onError(@NonNull IOException exception) {
+        CameraLog.e(TAG, "Failed to write the recording, the following packets are dropped", exception);
+        if (mError == null) {
+            mError = exception;
+        }
+    }
+
+    long getWrittenPacketCount() {
+        return mWrittenPackets.get();
+    }
+
+    long getWrittenBytes() {
+        return mWrittenBytes.get();
+    }
+
+    /**
+     * @return The first error of the sink, {@code null} if none.
+     */
+    @Nullable
+    IOException getError() {
+        return mError;
+    }
+}
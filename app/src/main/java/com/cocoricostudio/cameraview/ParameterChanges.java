@@ -0,0 +1,132 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+/**
+ * The camera parameters set in a {@link CameraView.Transaction}, merged at commit on top of the
+ * current ones: the parameters not set keep any value given since the transaction began.
+ */
+final class ParameterChanges {
+
+    static final int CHANGED_PREVIEW_SIZE = 1;
+    static final int CHANGED_FRAME_RATE = 1 << 1;
+    static final int CHANGED_ZOOM = 1 << 2;
+    static final int CHANGED_FOCUS_MODE = 1 << 3;
+    static final int CHANGED_FLASH_MODE = 1 << 4;
+    static final int CHANGED_EXPOSURE_COMPENSATION = 1 << 5;
+
+    /**
+     * The parameters set, as {@code CHANGED_} flags.
+     */
+    private int mChanged;
+    private int mWidth;
+    private int mHeight;
+    private int mFrameRate;
+    private boolean mFixed;
+    private int mZoom;
+    private FocusMode mFocusMode;
+    private FlashMode mFlashMode;
+    private int mExposureCompensation;
+    private boolean mCommitted;
+
+    void setTargetPreviewSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid target preview size: " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mChanged |= CHANGED_PREVIEW_SIZE;
+    }
+
+    void setTargetFrameRate(int framesPerSecond, boolean fixed) {
+        if (framesPerSecond < 0) {
+            throw new IllegalArgumentException("Negative frame rate: " + framesPerSecond);
+        }
+        mFrameRate = framesPerSecond;
+        mFixed = fixed;
+        mChanged |= CHANGED_FRAME_RATE;
+    }
+
+    /**
+     * @param ratio The zoom ratio, 1 for no zoom.
+     */
+    void setZoom(float ratio) {
+        if (ratio < 1) {
+            throw new IllegalArgumentException("Zoom ratio below 1x: " + ratio);
+        }
+        mZoom = Math.round(ratio * 100);
+        mChanged |= CHANGED_ZOOM;
+    }
+
+    void setFocusMode(@NonNull FocusMode focusMode) {
+        mFocusMode = focusMode;
+        mChanged |= CHANGED_FOCUS_MODE;
+    }
+
+    void setFlashMode(@NonNull FlashMode flashMode) {
+        mFlashMode = flashMode;
+        mChanged |= CHANGED_FLASH_MODE;
+    }
+
+    void setExposureCompensation(int steps) {
+        mExposureCompensation = steps;
+        mChanged |= CHANGED_EXPOSURE_COMPENSATION;
+    }
+
+    /**
+     * @param changes {@code CHANGED_} flags.
+     * @return Whether any of the given parameters was set.
+     */
+    boolean isSet(int changes) {
+        return (mChanged & changes) != 0;
+    }
+
+    /**
+     * @return The target width set, or the given one.
+     */
+    int getWidth(int width) {
+        return isSet(CHANGED_PREVIEW_SIZE) ? mWidth : width;
+    }
+
+    /**
+     * @return The target height set, or the given one.
+     */
+    int getHeight(int height) {
+        return isSet(CHANGED_PREVIEW_SIZE) ? mHeight : height;
+    }
+
+    /**
+     * @return The frame rate set, or the given one.
+     */
+    int getFrameRate(int frameRate) {
+        return isSet(CHANGED_FRAME_RATE) ? mFrameRate : frameRate;
+    }
+
+    /**
+     * @return Whether the frame rate set must stay constant, or the given value.
+     */
+    boolean isFixedFrameRate(boolean fixed) {
+        return isSet(CHANGED_FRAME_RATE) ? mFixed : fixed;
+    }
+
+    /**
+     * @return The given settings, with the ones set replaced.
+     */
+    @NonNull
+    CameraSettings applyTo(@NonNull CameraSettings settings) {
+        return new CameraSettings(isSet(CHANGED_ZOOM) ? mZoom : settings.zoom,
+                isSet(CHANGED_FOCUS_MODE) ? mFocusMode : settings.focusMode,
+                isSet(CHANGED_FLASH_MODE) ? mFlashMode : settings.flashMode,
+                isSet(CHANGED_EXPOSURE_COMPENSATION) ? mExposureCompensation : settings.exposureCompensation);
+    }
+
+    /**
+     * @throws IllegalStateException If already committed: changes are committed once.
+     */
+    void commit() {
+        if (mCommitted) {
+            throw new IllegalStateException("Transaction already committed");
+        }
+        mCommitted = true;
+    }
+}
@@ -0,0 +1,57 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+
+/**
+ * A still picture taken by the camera, see {@link PictureCallback}.
+ */
+public final class Picture {
+
+    @NonNull
+    private final byte[] mJpeg;
+    private final int mRotation;
+    private final long mTimestampNs;
+    @Nullable
+    private final File mFile;
+
+    Picture(@NonNull byte[] jpeg, int rotation, long timestampNs, @Nullable File file) {
+        mJpeg = jpeg;
+        mRotation = rotation;
+        mTimestampNs = timestampNs;
+        mFile = file;
+    }
+
+    /**
+     * @return The JPEG image, owned by the receiver.
+     */
+    @NonNull
+    public byte[] getJpeg() {
+        return mJpeg;
+    }
+
+    /**
+     * @return The clockwise rotation, in degrees, to display the picture upright with, eg. to be
+     * written as its EXIF orientation.
+     */
+    public int getRotation() {
+        return mRotation;
+    }
+
+    /**
+     * @return The time the picture was received from the camera, see {@link System#nanoTime()}.
+     */
+    public long getTimestampNs() {
+        return mTimestampNs;
+    }
+
+    /**
+     * @return The file the picture was written to, {@code null} if none was requested.
+     */
+    @Nullable
+    public File getFile() {
+        return mFile;
+    }
+}
@@ -0,0 +1,22 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Receives the pictures taken with {@link CameraView#takePicture(java.util.concurrent.Executor, PictureCallback)},
+ * on the executor given with the request.
+ */
+public interface PictureCallback {
+
+    /**
+     * @param picture The picture, written to its file first if one was given.
+     */
+    void onPictureTaken(@NonNull Picture picture);
+
+    /**
+     * @param error Why the picture could not be taken or written, eg. the camera was closed.
+     */
+    void onPictureFailed(@NonNull IOException error);
+}
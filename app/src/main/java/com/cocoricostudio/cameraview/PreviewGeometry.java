@@ -0,0 +1,364 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * The size selection, orientation and layout math of the preview, free of Android types so it can
+ * be unit tested and benchmarked on the JVM. {@link CameraUtils} adapts it to the camera API.
+ */
+final class PreviewGeometry {
+
+    /**
+     * Indices of the bounds written by {@link #centerPreview(int, int, int, int, int[])}.
+     */
+    static final int LEFT = 0;
+    static final int TOP = 1;
+    static final int RIGHT = 2;
+    static final int BOTTOM = 3;
+
+    /**
+     * Size of the affine matrix written by {@link #getTextureTransform(int, int, int[], int, float[])},
+     * in the order of {@code android.graphics.Matrix#setValues(float[])}.
+     */
+    static final int MATRIX_SIZE = 9;
+
+    /**
+     * Added to the score of frame rate ranges the preview size can't be streamed at, above any
+     * other score.
+     */
+    private static final long UNREACHABLE_FPS_PENALTY = 1L << 56;
+    /**
+     * Added to the score of frame rate ranges below the target, above the score of any range
+     * reaching it.
+     */
+    private static final long SLOW_FPS_PENALTY = 1L << 48;
+    /**
+     * Weight of the distance of the upper bound of a range to the target, high enough for the
+     * lower bound to only break ties.
+     */
+    private static final long MAX_FPS_WEIGHT = 1L << 20;
+
+    private PreviewGeometry() {
+    }
+
+    /**
+     * @param screenRotation    The rotation of the screen, {@code Surface.ROTATION_0} to
+     *                          {@code Surface.ROTATION_270}, that is 0 to 3.
+     * @param frontFacing       Whether the camera faces the same direction as the screen.
+     * @param sensorOrientation The orientation of the camera sensor, in degrees.
+     * @return The angle that the camera preview should be rotated clockwise. Valid values are 0, 90, 180, and 270.
+     */
+    static int getDisplayOrientation(int screenRotation, boolean frontFacing, int sensorOrientation) {
+        int degrees = 0;
+        switch (screenRotation) {
+            case 0:
+                degrees = 0;
+                break;
+            case 1:
+                degrees = 90;
+                break;
+            case 2:
+                degrees = 180;
+                break;
+            case 3:
+                degrees = 270;
+                break;
+        }
+
+        int result;
+        if (frontFacing) {
+            result = (sensorOrientation + degrees) % 360;
+            result = (360 - result) % 360;  // compensate the mirror
+        } else {  // back-facing
+            result = (sensorOrientation - degrees + 360) % 360;
+        }
+        return result;
+    }
+
+    /**
+     * @param screenRotation    The rotation of the screen, {@code Surface.ROTATION_0} to
+     *                          {@code Surface.ROTATION_270}, that is 0 to 3.
+     * @param frontFacing       Whether the camera faces the same direction as the screen.
+     * @param sensorOrientation The orientation of the camera sensor, in degrees.
+     * @return The angle that the frames of the camera, unmirrored, should be rotated clockwise to
+     * be upright on the screen, eg. for {@link android.media.MediaMuxer#setOrientationHint(int)}.
+     */
+    static int getRecordingOrientation(int screenRotation, boolean frontFacing, int sensorOrientation) {
+        // Unknown rotations are ignored, as by getDisplayOrientation.
+        final int degrees = screenRotation >= 0 && screenRotation <= 3 ? screenRotation * 90 : 0;
+        if (frontFacing) {
+            return (sensorOrientation + degrees) % 360;
+        }
+        return (sensorOrientation - degrees + 360) % 360;
+    }
+
+    /**
+     * @return The size whose height is the closest to the target among the sizes of about the
+     * same aspect ratio, or among all sizes if none has that aspect ratio.
+     */
+    static Size getOptimalPreviewSize(List<Size> sizes, int w, int h) {
+        final double ASPECT_TOLERANCE = 0.1;
+        double targetRatio = (double) w / h;
+        if (sizes == null) return null;
+
+        Size optimalSize = null;
+        double minDiff = Double.MAX_VALUE;
+
+        int targetHeight = h;
+
+        // Try to find an size match aspect ratio and size
+        for (int i = 0, count = sizes.size(); i < count; i++) {
+            Size size = sizes.get(i);
+            double ratio = (double) size.width / size.height;
+            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
+            if (Math.abs(size.height - targetHeight) < minDiff) {
+                optimalSize = size;
+                minDiff = Math.abs(size.height - targetHeight);
+            }
+        }
+
+        // Cannot find the one match the aspect ratio, ignore the requirement
+        if (optimalSize == null) {
+            minDiff = Double.MAX_VALUE;
+            for (int i = 0, count = sizes.size(); i < count; i++) {
+                Size size = sizes.get(i);
+                if (Math.abs(size.height - targetHeight) < minDiff) {
+                    optimalSize = size;
+                    minDiff = Math.abs(size.height - targetHeight);
+                }
+            }
+        }
+        return optimalSize;
+    }
+
+    /**
+     * @param sizes    The supported sizes, left untouched, not empty.
+     * @param w        The width of the target.
+     * @param h        The height of the target.
+     * @param scorer   How sizes are compared to the target.
+     * @param selector The selector to score the sizes with.
+     * @return The size with the lowest score.
+     */
+    @NonNull
+    static Size getClosestPreviewSize(@NonNull List<Size> sizes, int w, int h, @NonNull PreviewSizeScorer scorer,
+                                      @NonNull PreviewSizeSelector selector) {
+        requireSizes(sizes);
+        return sizes.get(selector.select(sizes, w, h, scorer));
+    }
+
+    /**
+     * @param sizes    The supported sizes, left untouched, not empty.
+     * @param maxFps   The highest frame rate of each size, in the same order.
+     * @param minFps   The frame rate the size must be streamed at, in the unit of {@code maxFps}.
+     *                 Sizes are only chosen slower than that if none is fast enough, the fastest
+     *                 ones then.
+     * @param w        The width of the target, {@link Integer#MIN_VALUE} if none.
+     * @param h        The height of the target, {@link Integer#MIN_VALUE} if none.
+     * @param scorer   How sizes are compared to the target.
+     * @param selector The selector to score the sizes with.
+     * @return The size with the lowest score, or the first one without target.
+     */
+    @NonNull
+    static Size getClosestPreviewSize(@NonNull List<Size> sizes, @NonNull List<Integer> maxFps, int minFps,
+                                      int w, int h, @NonNull PreviewSizeScorer scorer,
+                                      @NonNull PreviewSizeSelector selector) {
+        requireSizes(sizes);
+        if (w == Integer.MIN_VALUE || h == Integer.MIN_VALUE) {
+            int threshold = Math.min(minFps, getMax(maxFps));
+            for (int i = 0, count = sizes.size(); i < count; i++) {
+                if (maxFps.get(i) >= threshold) {
+                    return sizes.get(i);
+                }
+            }
+        }
+        return sizes.get(selector.select(sizes, maxFps, minFps, w, h, scorer));
+    }
+
+    private static void requireSizes(@NonNull List<Size> sizes) {
+        if (sizes.isEmpty()) {
+            throw new IllegalArgumentException("No preview size to choose from.");
+        }
+    }
+
+    /**
+     * @param fpsRanges The supported frame rate ranges, {min, max}.
+     * @param maxFps    The highest frame rate of the preview size: ranges above it are only chosen
+     *                  if no other one is supported.
+     * @param targetFps The wanted frame rate. Ranges below it are only chosen if no other one is
+     *                  supported, the closest then.
+     * @param fixed     Whether the frame rate must stay constant, eg. for streaming: the range
+     *                  the closest to the target on both bounds is chosen. Otherwise the range
+     *                  whose upper bound is the closest to the target is chosen, the widest in
+     *                  case of a tie, so the auto exposure can lower the frame rate in low light.
+     * @return The index of the chosen range, the first one in case of a tie, or -1 if there is
+     * none.
+     */
+    static int selectFpsRange(@NonNull List<int[]> fpsRanges, int maxFps, int targetFps, boolean fixed) {
+        int best = -1;
+        long bestScore = Long.MAX_VALUE;
+        for (int i = 0, count = fpsRanges.size(); i < count; i++) {
+            int[] range = fpsRanges.get(i);
+            final int lower = range[0];
+            final int upper = range[1];
+            long score = (long) Math.abs(upper - targetFps) * MAX_FPS_WEIGHT
+                    + (fixed ? Math.abs(targetFps - lower) : lower);
+            if (upper > maxFps) {
+                score += UNREACHABLE_FPS_PENALTY;
+            }
+            if (upper < targetFps) {
+                score += SLOW_FPS_PENALTY;
+            }
+            if (score < bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    static int getMax(@NonNull List<Integer> values) {
+        int max = Integer.MIN_VALUE;
+        for (int i = 0, count = values.size(); i < count; i++) {
+            max = Math.max(max, values.get(i));
+        }
+        return max;
+    }
+
+    /**
+     * @return Whether the preview is displayed with its width along the width of the screen, that
+     * is the screen is rotated by 90 or 270 degrees (the sensors are mounted landscape).
+     */
+    static boolean isLandscape(int screenRotation) {
+        return screenRotation == 1 || screenRotation == 3;
+    }
+
+    /**
+     * Fits the preview in the parent, centered, keeping its aspect ratio.
+     *
+     * @param width         The width of the parent.
+     * @param height        The height of the parent.
+     * @param previewWidth  The width of the preview, as displayed.
+     * @param previewHeight The height of the preview, as displayed.
+     * @param outBounds     Receives the left, top, right and bottom of the preview in the parent.
+     * @return Whether the preview is letterboxed on the left and right (case L1), rather than on
+     * the top and bottom (case L2).
+     */
+    static boolean centerPreview(int width, int height, int previewWidth, int previewHeight, @NonNull int[] outBounds) {
+        if (width * previewHeight > height * previewWidth) {
+            final int scaledChildWidth = previewWidth * height / previewHeight;
+            outBounds[LEFT] = (width - scaledChildWidth) / 2;
+            outBounds[TOP] = 0;
+            outBounds[RIGHT] = (width + scaledChildWidth) / 2;
+            outBounds[BOTTOM] = height;
+            return true;
+        } else {
+            final int scaledChildHeight = previewHeight * width / previewWidth;
+            outBounds[LEFT] = 0;
+            outBounds[TOP] = (height - scaledChildHeight) / 2;
+            outBounds[RIGHT] = width;
+            outBounds[BOTTOM] = (height + scaledChildHeight) / 2;
+            return false;
+        }
+    }
+
+    /**
+     * Scales the preview into the parent, centered.
+     *
+     * @param width         The width of the parent.
+     * @param height        The height of the parent.
+     * @param previewWidth  The width of the preview, as displayed.
+     * @param previewHeight The height of the preview, as displayed.
+     * @param scaleMode     How the preview is scaled.
+     * @param outBounds     Receives the left, top, right and bottom of the preview in the parent,
+     *                      outside of the parent when cropped.
+     * @return Whether the parent is wider than the preview (case L1), the preview then being
+     * letterboxed on the left and right when fit, cropped on the top and bottom when cropped.
+     */
+    static boolean scalePreview(int width, int height, int previewWidth, int previewHeight,
+                                @NonNull ScaleMode scaleMode, @NonNull int[] outBounds) {
+        switch (scaleMode) {
+            case CENTER_CROP:
+                if (width * previewHeight > height * previewWidth) {
+                    final int scaledChildHeight = previewHeight * width / previewWidth;
+                    outBounds[LEFT] = 0;
+                    outBounds[TOP] = (height - scaledChildHeight) / 2;
+                    outBounds[RIGHT] = width;
+                    outBounds[BOTTOM] = (height + scaledChildHeight) / 2;
+                    return true;
+                } else {
+                    final int scaledChildWidth = previewWidth * height / previewHeight;
+                    outBounds[LEFT] = (width - scaledChildWidth) / 2;
+                    outBounds[TOP] = 0;
+                    outBounds[RIGHT] = (width + scaledChildWidth) / 2;
+                    outBounds[BOTTOM] = height;
+                    return false;
+                }
+            case FILL:
+                outBounds[LEFT] = 0;
+                outBounds[TOP] = 0;
+                outBounds[RIGHT] = width;
+                outBounds[BOTTOM] = height;
+                return width * previewHeight > height * previewWidth;
+            default:
+                return centerPreview(width, height, previewWidth, previewHeight, outBounds);
+        }
+    }
+
+    /**
+     * Maps the content of a texture, stretched by a {@code TextureView} over the whole view, to
+     * the given bounds, eg. computed by {@link #centerPreview(int, int, int, int, int[])}, rotated.
+     *
+     * @param width     The width of the view.
+     * @param height    The height of the view.
+     * @param bounds    The left, top, right and bottom of the content in the view.
+     * @param rotation  The clockwise rotation of the content within its bounds: 0, 90, 180 or 270
+     *                  degrees.
+     * @param outValues Receives the affine matrix, see {@link #MATRIX_SIZE}.
+     */
+    static void getTextureTransform(int width, int height, @NonNull int[] bounds, int rotation, @NonNull float[] outValues) {
+        final float left = bounds[LEFT];
+        final float top = bounds[TOP];
+        final float boundsWidth = bounds[RIGHT] - bounds[LEFT];
+        final float boundsHeight = bounds[BOTTOM] - bounds[TOP];
+        // x' = a * x + b * y + c, y' = d * x + e * y + f, with (x / width, y / height) the
+        // position in the content, rotated into the bounds.
+        float a = 0, b = 0, c, d = 0, e = 0, f;
+        switch (rotation) {
+            case 90:
+                b = -boundsWidth / height;
+                c = left + boundsWidth;
+                d = boundsHeight / width;
+                f = top;
+                break;
+            case 180:
+                a = -boundsWidth / width;
+                c = left + boundsWidth;
+                e = -boundsHeight / height;
+                f = top + boundsHeight;
+                break;
+            case 270:
+                b = boundsWidth / height;
+                c = left;
+                d = -boundsHeight / width;
+                f = top + boundsHeight;
+                break;
+            default:
+                a = boundsWidth / width;
+                c = left;
+                e = boundsHeight / height;
+                f = top;
+                break;
+        }
+        outValues[0] = a;
+        outValues[1] = b;
+        outValues[2] = c;
+        outValues[3] = d;
+        outValues[4] = e;
+        outValues[5] = f;
+        outValues[6] = 0;
+        outValues[7] = 0;
+        outValues[8] = 1;
+    }
+}
@@ -0,0 +1,73 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * The geometry of the preview in a {@link CameraView}: the bounds of the preview and the transform
+ * of a texture filling the view.
+ * <p/>
+ * Computed once per view size, preview size, rotation and scale mode: layout passes and
+ * configurations leaving them unchanged cost nothing. UI thread only.
+ */
+final class PreviewLayout {
+
+    private final int[] mBounds = new int[4];
+    private final float[] mTransform = new float[PreviewGeometry.MATRIX_SIZE];
+
+    private boolean mComputed;
+    private int mWidth;
+    private int mHeight;
+    @Nullable
+    private Size mPreviewSize;
+    private int mScreenRotation;
+    @NonNull
+    private ScaleMode mScaleMode = ScaleMode.FIT;
+    private int mTextureRotation;
+
+    /**
+     * @param width           The width of the view.
+     * @param height          The height of the view.
+     * @param previewSize     The size of the camera preview, null to fill the view.
+     * @param screenRotation  The rotation of the screen (see. {@link android.view.Display#getRotation()}).
+     * @param scaleMode       How the preview is scaled.
+     * @param textureRotation See {@link CameraDriver#getTextureRotation(int)}.
+     * @return Whether the geometry changed.
+     */
+    boolean update(int width, int height, @Nullable Size previewSize, int screenRotation,
+                   @NonNull ScaleMode scaleMode, int textureRotation) {
+        if (mComputed && width == mWidth && height == mHeight && screenRotation == mScreenRotation
+                && scaleMode == mScaleMode && textureRotation == mTextureRotation
+                && (previewSize == null ? mPreviewSize == null : previewSize.equals(mPreviewSize))) {
+            return false;
+        }
+        mComputed = true;
+        mWidth = width;
+        mHeight = height;
+        mPreviewSize = previewSize;
+        mScreenRotation = screenRotation;
+        mScaleMode = scaleMode;
+        mTextureRotation = textureRotation;
+        CameraUtils.layoutPreview(width, height, previewSize, screenRotation, scaleMode, mBounds);
+        PreviewGeometry.getTextureTransform(width, height, mBounds, textureRotation, mTransform);
+        return true;
+    }
+
+    /**
+     * @return The left, top, right and bottom of the preview in the view, see
+     * {@link PreviewGeometry#LEFT}. Not to be modified.
+     */
+    @NonNull
+    int[] getBounds() {
+        return mBounds;
+    }
+
+    /**
+     * @return The transform of a texture filling the view, see {@link PreviewGeometry#MATRIX_SIZE}.
+     * Not to be modified.
+     */
+    @NonNull
+    float[] getTransform() {
+        return mTransform;
+    }
+}
@@ -0,0 +1,101 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Scores how far a preview size is from the target set with {@link CameraView#setTargetPreviewSize(int, int)}.
+ * The supported size with the lowest score is chosen, the first one listed by the camera in case
+ * of a tie. The built-in scorers give an exact match a score of zero.
+ */
+public abstract class PreviewSizeScorer {
+
+    /**
+     * Aspect ratios, or areas, within that relative distance are considered equal by the
+     * {@link #RATIO_FIRST} and {@link #AREA_FIRST} scorers.
+     */
+    private static final double TOLERANCE = 0.001;
+
+    /**
+     * Weight of the primary criterion of {@link #RATIO_FIRST} and {@link #AREA_FIRST}, high enough
+     * for the secondary criterion to only break ties.
+     */
+    private static final double PRIMARY_WEIGHT = 1e6;
+
+    /**
+     * Added to the score of sizes out of the area of {@link #withinArea(int, PreviewSizeScorer)},
+     * above any score of the built-in scorers while keeping their order.
+     */
+    private static final double OUT_OF_AREA_PENALTY = 1e12;
+
+    /**
+     * The average of the relative distances to the target area and to the target aspect ratio.
+     */
+    public static final PreviewSizeScorer BALANCED = new PreviewSizeScorer() {
+        @Override
+        public double score(int width, int height, int targetWidth, int targetHeight) {
+            return (areaDistance(width, height, targetWidth, targetHeight)
+                    + ratioDistance(width, height, targetWidth, targetHeight)) * 0.5;
+        }
+    };
+
+    /**
+     * The closest aspect ratio, then the closest area. Avoids cropping or letterboxing more than
+     * needed.
+     */
+    public static final PreviewSizeScorer RATIO_FIRST = new PreviewSizeScorer() {
+        @Override
+        public double score(int width, int height, int targetWidth, int targetHeight) {
+            return quantize(ratioDistance(width, height, targetWidth, targetHeight)) * PRIMARY_WEIGHT
+                    + areaDistance(width, height, targetWidth, targetHeight);
+        }
+    };
+
+    /**
+     * The closest area, then the closest aspect ratio. Keeps the cost of processing frames as
+     * expected.
+     */
+    public static final PreviewSizeScorer AREA_FIRST = new PreviewSizeScorer() {
+        @Override
+        public double score(int width, int height, int targetWidth, int targetHeight) {
+            return quantize(areaDistance(width, height, targetWidth, targetHeight)) * PRIMARY_WEIGHT
+                    + ratioDistance(width, height, targetWidth, targetHeight);
+        }
+    };
+
+    /**
+     * @param width        The width of the candidate size.
+     * @param height       The height of the candidate size.
+     * @param targetWidth  The width of the target.
+     * @param targetHeight The height of the target.
+     * @return The distance of the candidate to the target, zero or more, the lower the better.
+     */
+    public abstract double score(int width, int height, int targetWidth, int targetHeight);
+
+    /**
+     * @param maxArea The largest area, in pixels, the camera can stream at the wanted frame rate.
+     * @param scorer  The scorer of the sizes within that area.
+     * @return A scorer only choosing a size larger than the given area if no other size is supported.
+     */
+    @NonNull
+    public static PreviewSizeScorer withinArea(final int maxArea, @NonNull final PreviewSizeScorer scorer) {
+        return new PreviewSizeScorer() {
+            @Override
+            public double score(int width, int height, int targetWidth, int targetHeight) {
+                double score = scorer.score(width, height, targetWidth, targetHeight);
+                return width * height > maxArea ? OUT_OF_AREA_PENALTY + score : score;
+            }
+        };
+    }
+
+    static double areaDistance(int width, int height, int targetWidth, int targetHeight) {
+        return Math.abs(1 - ((double) width * height) / ((double) targetWidth * targetHeight));
+    }
+
+    static double ratioDistance(int width, int height, int targetWidth, int targetHeight) {
+        return Math.abs(1 - ((double) width / height) / ((double) targetWidth / targetHeight));
+    }
+
+    private static double quantize(double distance) {
+        return Math.floor(distance / TOLERANCE);
+    }
+}
@@ -0,0 +1,132 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * Selects the supported preview size closest to a target.
+ * <p/>
+ * Each candidate is scored once into a primitive array then the best one is picked in a single
+ * pass: no sorting, no comparator, and the candidates are left untouched. The arrays are
+ * reused across selections, so each thread keeps its own selector, eg. the camera thread one in
+ * {@link CameraSession}.
+ */
+class PreviewSizeSelector {
+
+    private double[] mScores = new double[0];
+    private int[] mWidths = new int[0];
+    private int[] mHeights = new int[0];
+    private int[] mIndices = new int[0];
+
+    /**
+     * @param sizes        The candidates.
+     * @param targetWidth  The width of the target.
+     * @param targetHeight The height of the target.
+     * @param scorer       How candidates are compared to the target.
+     * @return The index of the candidate with the lowest score, NaN being the highest, the first
+     * one in case of a tie, or -1 if there is no candidate.
+     */
+    int select(@NonNull List<Size> sizes, int targetWidth, int targetHeight, @NonNull PreviewSizeScorer scorer) {
+        final int count = sizes.size();
+        if (mWidths.length < count) {
+            mWidths = new int[count];
+            mHeights = new int[count];
+        }
+        for (int i = 0; i < count; i++) {
+            Size size = sizes.get(i);
+            mWidths[i] = size.width;
+            mHeights[i] = size.height;
+        }
+        return select(mWidths, mHeights, count, targetWidth, targetHeight, scorer);
+    }
+
+    /**
+     * Selects among the candidates that can be streamed at the given frame rate, or among the
+     * fastest ones if none can.
+     *
+     * @param sizes        The candidates.
+     * @param maxFps       The highest frame rate of each candidate, in the same order.
+     * @param minFps       The frame rate to reach, in the unit of {@code maxFps}.
+     * @param targetWidth  The width of the target.
+     * @param targetHeight The height of the target.
+     * @param scorer       How candidates are compared to the target.
+     * @return The index in {@code sizes} of the selected candidate, the first one in case of a
+     * tie, or -1 if there is no candidate. {@link #getScore(int)} takes the index among the
+     * candidates fast enough.
+     */
+    int select(@NonNull List<Size> sizes, @NonNull List<Integer> maxFps, int minFps, int targetWidth,
+               int targetHeight, @NonNull PreviewSizeScorer scorer) {
+        final int count = sizes.size();
+        if (mWidths.length < count) {
+            mWidths = new int[count];
+            mHeights = new int[count];
+        }
+        if (mIndices.length < count) {
+            mIndices = new int[count];
+        }
+        final int threshold = Math.min(minFps, PreviewGeometry.getMax(maxFps));
+        int candidates = 0;
+        for (int i = 0; i < count; i++) {
+            if (maxFps.get(i) >= threshold) {
+                Size size = sizes.get(i);
+                mWidths[candidates] = size.width;
+                mHeights[candidates] = size.height;
+                mIndices[candidates] = i;
+                candidates++;
+            }
+        }
+        int best = select(mWidths, mHeights, candidates, targetWidth, targetHeight, scorer);
+        return best < 0 ? -1 : mIndices[best];
+    }
+
+    /**
+     * @param widths       The widths of the candidates.
+     * @param heights      The heights of the candidates.
+     * @param count        The number of candidates.
+     * @param targetWidth  The width of the target.
+     * @param targetHeight The height of the target.
+     * @param scorer       How candidates are compared to the target.
+     * @return The index of the candidate with the lowest score, NaN being the highest, the first
+     * one in case of a tie, or -1 if there is no candidate.
+     */
+    int select(@NonNull int[] widths, @NonNull int[] heights, int count, int targetWidth, int targetHeight,
+               @NonNull PreviewSizeScorer scorer) {
+        if (mScores.length < count) {
+            mScores = new double[count];
+        }
+        final double[] scores = mScores;
+        for (int i = 0; i < count; i++) {
+            scores[i] = scorer.score(widths[i], heights[i], targetWidth, targetHeight);
+        }
+
+        if (count == 0) {
+            return -1;
+        }
+        // The first candidate is picked if no score is finite, eg. for an empty target.
+        int best = 0;
+        double bestScore = toComparable(scores[0]);
+        for (int i = 1; i < count; i++) {
+            final double score = toComparable(scores[i]);
+            if (score < bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return The given score, NaN being the worst.
+     */
+    private static double toComparable(double score) {
+        return Double.isNaN(score) ? Double.POSITIVE_INFINITY : score;
+    }
+
+    /**
+     * @return The score of the given candidate during the last selection.
+     */
+    double getScore(int index) {
+        return mScores[index];
+    }
+}
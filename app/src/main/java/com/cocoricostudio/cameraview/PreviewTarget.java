@@ -0,0 +1,110 @@
+package com.cocoricostudio.cameraview;
+
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+
+/**
+ * Where a {@link CameraDriver} draws the preview: the surface of a {@link android.view.SurfaceView}
+ * or the {@link SurfaceTexture} of a {@link android.view.TextureView}.
+ */
+abstract class PreviewTarget {
+
+    /**
+     * Tells the camera where to draw its preview, see {@link Camera#setPreviewDisplay(SurfaceHolder)}.
+     */
+    abstract void setOn(@NonNull Camera camera) throws IOException;
+
+    /**
+     * @return The surface to draw previews of the given size on.
+     */
+    @NonNull
+    abstract Surface getSurface(@NonNull Size previewSize);
+
+    /**
+     * @return Whether the size of the buffers of the surface is set by the view, eg. with
+     * {@link SurfaceHolder#setFixedSize(int, int)}, rather than by {@link #getSurface(Size)}.
+     */
+    abstract boolean isBufferSizeSetByView();
+
+    /**
+     * The surface of a {@link android.view.SurfaceView}, see {@link SurfaceHolder}.
+     */
+    static class Holder extends PreviewTarget {
+
+        private final SurfaceHolder mHolder;
+
+        Holder(@NonNull SurfaceHolder holder) {
+            mHolder = holder;
+        }
+
+        @Override
+        void setOn(@NonNull Camera camera) throws IOException {
+            camera.setPreviewDisplay(mHolder);
+        }
+
+        @NonNull
+        @Override
+        Surface getSurface(@NonNull Size previewSize) {
+            return mHolder.getSurface();
+        }
+
+        @Override
+        boolean isBufferSizeSetByView() {
+            return true;
+        }
+    }
+
+    /**
+     * The {@link SurfaceTexture} of a {@link android.view.TextureView}, set once available.
+     */
+    static class Texture extends PreviewTarget {
+
+        // Guarded by this.
+        @Nullable
+        private SurfaceTexture mSurfaceTexture;
+        @Nullable
+        private Surface mSurface;
+
+        /**
+         * @param surfaceTexture The texture, {@code null} once destroyed. The camera must not draw
+         *                       on the previous one anymore.
+         */
+        synchronized void setSurfaceTexture(@Nullable SurfaceTexture surfaceTexture) {
+            if (mSurface != null) {
+                mSurface.release();
+                mSurface = null;
+            }
+            mSurfaceTexture = surfaceTexture;
+        }
+
+        @Override
+        synchronized void setOn(@NonNull Camera camera) throws IOException {
+            camera.setPreviewTexture(mSurfaceTexture);
+        }
+
+        @NonNull
+        @Override
+        synchronized Surface getSurface(@NonNull Size previewSize) {
+            if (mSurfaceTexture == null) {
+                throw new IllegalStateException("No surface texture available.");
+            }
+            // Otherwise the camera picks a default size for the stream of the texture.
+            mSurfaceTexture.setDefaultBufferSize(previewSize.width, previewSize.height);
+            if (mSurface == null) {
+                mSurface = new Surface(mSurfaceTexture);
+            }
+            return mSurface;
+        }
+
+        @Override
+        boolean isBufferSizeSetByView() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Follows a recording started with
+ * {@link CameraView#startRecording(EncodedSink, int, java.util.concurrent.Executor, RecordingCallback)},
+ * on the executor given with the request. Either {@link #onRecordingFailed(IOException)} is
+ * called, or {@link #onRecordingStarted(VideoRecording)} then {@link #onRecordingStopped(VideoRecording)}.
+ */
+public interface RecordingCallback {
+
+    /**
+     * @param recording The recording, the camera now feeding its encoder.
+     */
+    void onRecordingStarted(@NonNull VideoRecording recording);
+
+    /**
+     * @param error Why the recording could not start, eg. no encoder supports the preview size.
+     */
+    void onRecordingFailed(@NonNull IOException error);
+
+    /**
+     * @param recording The recording, whose sink has been stopped.
+     */
+    void onRecordingStopped(@NonNull VideoRecording recording);
+}
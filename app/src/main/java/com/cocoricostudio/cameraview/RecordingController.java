@@ -0,0 +1,290 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Starts and stops the recording of a {@link CameraView}, without blocking the UI thread: the
+ * encoder is created and stopped on the recording thread, the recording surface attached and
+ * detached on the camera thread.
+ * <p/>
+ * UI thread only, but for the factory called on the recording thread.
+ */
+final class RecordingController {
+
+    private static final String TAG = RecordingController.class.getSimpleName();
+
+    /**
+     * Creates the recordings, on the recording thread.
+     */
+    interface Factory {
+
+        Factory DEFAULT = new Factory() {
+            @NonNull
+            @Override
+            public VideoRecording create(@NonNull EncodedSink sink, int width, int height, int rotation, int bitRate,
+                                         int frameRate, boolean surfaceInput) throws IOException {
+                return new VideoRecording(sink, width, height, rotation, bitRate, frameRate, surfaceInput);
+            }
+        };
+
+        @NonNull
+        VideoRecording create(@NonNull EncodedSink sink, int width, int height, int rotation, int bitRate,
+                              int frameRate, boolean surfaceInput) throws IOException;
+    }
+
+    interface Listener {
+
+        /**
+         * UI thread. A recording fed with the preview frames, not through its input surface,
+         * started or stopped.
+         */
+        void onBufferRecordingChanged(@NonNull VideoRecording recording, boolean started);
+    }
+
+    private final Executor mMainThread;
+    private final Executor mRecordingThread;
+    private final Factory mFactory;
+    private final Listener mListener;
+    @Nullable
+    private ActiveRecording mActive;
+
+    /**
+     * @param mainThread      The UI thread, running tasks even once the camera executor is
+     *                        invalidated.
+     * @param recordingThread Creates and stops the encoders, one at a time.
+     */
+    RecordingController(@NonNull Executor mainThread, @NonNull Executor recordingThread, @NonNull Factory factory,
+                        @NonNull Listener listener) {
+        mMainThread = mainThread;
+        mRecordingThread = recordingThread;
+        mFactory = factory;
+        mListener = listener;
+    }
+
+    /**
+     * @return Whether a recording is started or starting.
+     */
+    boolean isActive() {
+        return mActive != null;
+    }
+
+    /**
+     * @return The recording in progress, {@code null} if none or not started yet.
+     */
+    @Nullable
+    VideoRecording getRecording() {
+        final ActiveRecording active = mActive;
+        return active != null ? active.recording : null;
+    }
+
+    /**
+     * Returns immediately, see
+     * {@link CameraView#startRecording(EncodedSink, int, Executor, RecordingCallback)}.
+     *
+     * @throws IllegalStateException If a recording is already started or starting.
+     */
+    void start(@NonNull final CameraSession session, @NonNull CameraExecutor cameraExecutor,
+               @NonNull final EncodedSink sink, final int bitRate, final int frameRate,
+               @NonNull Executor executor, @NonNull RecordingCallback callback) {
+        if (mActive != null) {
+            throw new IllegalStateException("Already recording.");
+        }
+        final ActiveRecording active = new ActiveRecording(session, cameraExecutor, executor, callback);
+        mActive = active;
+        cameraExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final CameraConfiguration configuration = session.getConfiguration();
+                final int rotation;
+                try {
+                    if (configuration == null) {
+                        throw new IllegalStateException("Not configured.");
+                    }
+                    rotation = session.getRecordingOrientation();
+                } catch (IllegalStateException exception) {
+                    // Eg. the capabilities were invalidated since configured.
+                    fail(active, new IOException("The camera is not configured yet.", exception));
+                    return;
+                }
+                final Size size = configuration.previewSize;
+                final boolean surfaceInput = session.isRecordingSurfaceSupported();
+                // Creating the encoder may take tens of milliseconds.
+                mRecordingThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        create(active, sink, size, rotation, bitRate, frameRate, surfaceInput);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Recording thread.
+     */
+    private void create(@NonNull final ActiveRecording active, @NonNull EncodedSink sink, @NonNull Size size,
+                        int rotation, int bitRate, int frameRate, boolean surfaceInput) {
+        final VideoRecording recording;
+        try {
+            recording = mFactory.create(sink, size.width, size.height, rotation, bitRate, frameRate, surfaceInput);
+        } catch (IOException exception) {
+            fail(active, exception);
+            return;
+        }
+        if (CameraLog.isVerbose()) {
+            CameraLog.v(TAG, "Started recording " + size + " at " + frameRate + " fps, " + bitRate
+                    + " bps, " + (surfaceInput ? "surface" : "buffer") + " input.");
+        }
+        if (!surfaceInput || active.cameraExecutor.isQuit()) {
+            // Stopped once created, if the camera has been released meanwhile.
+            postCreated(active, recording);
+            return;
+        }
+        active.cameraExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!active.stopped) {
+                    active.session.setRecordingSurface(recording.getInputSurface());
+                }
+                postCreated(active, recording);
+            }
+        });
+    }
+
+    /**
+     * Any thread.
+     */
+    private void postCreated(@NonNull final ActiveRecording active, @NonNull final VideoRecording recording) {
+        mMainThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                active.recording = recording;
+                if (active.stopped) {
+                    // Stopped while starting.
+                    stop(active);
+                    return;
+                }
+                if (!recording.isSurfaceInput()) {
+                    mListener.onBufferRecordingChanged(recording, true);
+                }
+                active.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        active.callback.onRecordingStarted(recording);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Any thread. The recording never started: clears it, unless stopped or replaced meanwhile.
+     */
+    private void fail(@NonNull final ActiveRecording active, @NonNull final IOException error) {
+        CameraLog.e(TAG, "Failed to start recording", error);
+        mMainThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mActive == active && !active.stopped) {
+                    mActive = null;
+                }
+                active.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        active.callback.onRecordingFailed(error);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stops the recording in progress, or starting, if any. Returns immediately, see
+     * {@link CameraView#stopRecording()}.
+     */
+    void stop() {
+        final ActiveRecording active = mActive;
+        if (active == null) {
+            return;
+        }
+        mActive = null;
+        active.stopped = true;
+        final VideoRecording recording = active.recording;
+        if (recording == null) {
+            // Stopped once created.
+            return;
+        }
+        if (!recording.isSurfaceInput()) {
+            mListener.onBufferRecordingChanged(recording, false);
+        }
+        stop(active);
+    }
+
+    /**
+     * Detaches the encoder from the camera, on the camera thread, then stops it on the recording
+     * thread: its input surface is only released once the camera stopped drawing on it.
+     */
+    private void stop(@NonNull final ActiveRecording active) {
+        final VideoRecording recording = active.recording;
+        if (recording == null) {
+            throw new IllegalStateException("Not created yet.");
+        }
+        final Runnable stop = new Runnable() {
+            @Override
+            public void run() {
+                recording.stop();
+                active.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        active.callback.onRecordingStopped(recording);
+                    }
+                });
+            }
+        };
+        if (!recording.isSurfaceInput() || active.cameraExecutor.isQuit()) {
+            // Buffers are not delivered anymore, or the camera has been released.
+            mRecordingThread.execute(stop);
+            return;
+        }
+        active.cameraExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                active.session.setRecordingSurface(null);
+                mRecordingThread.execute(stop);
+            }
+        });
+    }
+
+    /**
+     * A recording, from the request to the stop. UI thread only, but for the final fields and
+     * {@link #stopped}.
+     */
+    private static final class ActiveRecording {
+
+        final CameraSession session;
+        final CameraExecutor cameraExecutor;
+        final Executor executor;
+        final RecordingCallback callback;
+        /**
+         * {@code null} while the encoder is created.
+         */
+        @Nullable
+        VideoRecording recording;
+        /**
+         * Read from the camera thread too, not to attach a recording stopped meanwhile.
+         */
+        volatile boolean stopped;
+
+        ActiveRecording(@NonNull CameraSession session, @NonNull CameraExecutor cameraExecutor,
+                        @NonNull Executor executor, @NonNull RecordingCallback callback) {
+            this.session = session;
+            this.cameraExecutor = cameraExecutor;
+            this.executor = executor;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.cocoricostudio.cameraview;
+
+/**
+ * How the preview is scaled into a {@link CameraView}, see {@link CameraView#setScaleMode(ScaleMode)}.
+ */
+public enum ScaleMode {
+    /**
+     * The whole preview is displayed, centered and keeping its aspect ratio, letterboxed if the
+     * view has another aspect ratio. The default.
+     */
+    FIT,
+    /**
+     * The preview fills the view, centered and keeping its aspect ratio, cropped if the view has
+     * another aspect ratio. With a SurfaceView, the cropped parts may show outside of the view
+     * unless it fills the window: prefer the texture view preview mode.
+     */
+    CENTER_CROP,
+    /**
+     * The preview is stretched to the view, whatever its aspect ratio.
+     */
+    FILL
+}
@@ -0,0 +1,203 @@
+package com.cocoricostudio.cameraview;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * A camera shared by several {@link CameraView}s and frame consumers, eg. a main preview and a
+ * picture-in-picture thumbnail: the camera is opened once the first of them attaches and released
+ * once the last one detaches.
+ * <p/>
+ * Views attach when resumed and detach when paused, see {@link CameraView#setSharedCamera(SharedCamera)}.
+ * The preview is drawn on one surface at a time: the first view attached shows it, and hands it
+ * over to the next one attached once detached. The camera is configured by the view showing the
+ * preview. Consumers added with {@link #addFrameConsumer(FrameConsumer, Executor, int,
+ * FrameConsumer.OverflowPolicy)} keep the camera opened until removed, and get the frames while a
+ * view shows the preview.
+ * <p/>
+ * UI thread only.
+ */
+public final class SharedCamera {
+
+    private static final String TAG = SharedCamera.class.getSimpleName();
+
+    /**
+     * Creates the host of the camera once first attached.
+     */
+    interface HostFactory {
+        @NonNull
+        CameraHost create(@NonNull FramePipeline framePipeline, @NonNull CameraMetrics metrics);
+    }
+
+    /**
+     * A view attached to the camera, told when it shows the preview.
+     */
+    interface Viewer {
+
+        /**
+         * The viewer now shows the preview of the given host, and is to bind to it.
+         */
+        void onPreviewAttached(@NonNull CameraHost host);
+
+        /**
+         * The viewer stopped showing the preview, the host has been unbound.
+         */
+        void onPreviewDetached();
+    }
+
+    final FramePipeline framePipeline = new FramePipeline();
+    final CameraMetrics metrics = new CameraMetrics();
+
+    private final HostFactory mHostFactory;
+    /**
+     * In attach order, the first one showing the preview.
+     */
+    private final List<Viewer> mViewers = new ArrayList<>();
+    private final List<FrameSubscription> mConsumers = new ArrayList<>();
+    @Nullable
+    private CameraHost mHost;
+
+    public SharedCamera(@NonNull Context context) {
+        final Context applicationContext = context.getApplicationContext();
+        mHostFactory = new HostFactory() {
+            @NonNull
+            @Override
+            public CameraHost create(@NonNull FramePipeline framePipeline, @NonNull CameraMetrics metrics) {
+                // Rotated by the view showing the preview.
+                return CameraView.createHost(applicationContext, framePipeline, metrics, 0);
+            }
+        };
+    }
+
+    SharedCamera(@NonNull HostFactory hostFactory) {
+        mHostFactory = hostFactory;
+    }
+
+    /**
+     * Same as {@link #addFrameConsumer(FrameConsumer, Executor, int, FrameConsumer.OverflowPolicy)}
+     * with a queue of one frame, always holding the latest one.
+     */
+    @NonNull
+    public FrameSubscription addFrameConsumer(@NonNull FrameConsumer consumer, @NonNull Executor executor) {
+        return addFrameConsumer(consumer, executor, 1, FrameConsumer.OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Registers a consumer of the preview frames, keeping the camera opened until it is removed,
+     * see {@link CameraView#addFrameConsumer(FrameConsumer, Executor, int, FrameConsumer.OverflowPolicy)}.
+     * If no view is attached, the default camera is opened.
+     *
+     * @return The subscription, to be given to {@link #removeFrameConsumer(FrameSubscription)}.
+     */
+    @NonNull
+    public FrameSubscription addFrameConsumer(@NonNull FrameConsumer consumer, @NonNull Executor executor,
+                                              int queueCapacity, @NonNull FrameConsumer.OverflowPolicy policy) {
+        FrameSubscription subscription = framePipeline.subscribe(consumer, executor, queueCapacity, policy,
+                CameraView.DEFAULT_BLOCK_TIMEOUT_MS);
+        mConsumers.add(subscription);
+        final CameraHost host = acquire();
+        if (mViewers.isEmpty() && mConsumers.size() == 1) {
+            host.session.open(0, Integer.MIN_VALUE, Integer.MIN_VALUE, PreviewSizeScorer.BALANCED);
+        }
+        host.updateFrameDelivery();
+        return subscription;
+    }
+
+    /**
+     * Unregisters the given consumer, releasing the camera if nothing else uses it.
+     */
+    public void removeFrameConsumer(@NonNull FrameSubscription subscription) {
+        if (!mConsumers.remove(subscription)) {
+            CameraLog.w(TAG, "Removing a consumer not added.");
+            return;
+        }
+        framePipeline.unsubscribe(subscription);
+        final CameraHost host = mHost;
+        if (host != null) {
+            host.updateFrameDelivery();
+        }
+        releaseIfUnused();
+    }
+
+    /**
+     * @return The performance metrics of the camera, see {@link CameraView#getMetrics()}.
+     */
+    @NonNull
+    public CameraMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return Whether the camera is opened, or being opened.
+     */
+    public boolean isOpened() {
+        return mHost != null;
+    }
+
+    /**
+     * Attaches the given viewer, told to show the preview if no other viewer does.
+     */
+    void attach(@NonNull Viewer viewer) {
+        if (mViewers.contains(viewer)) {
+            CameraLog.w(TAG, "Viewer already attached.");
+            return;
+        }
+        final CameraHost host = acquire();
+        mViewers.add(viewer);
+        if (mViewers.size() == 1) {
+            viewer.onPreviewAttached(host);
+        }
+    }
+
+    /**
+     * Detaches the given viewer, whose preview, if shown, is handed over to the next viewer. The
+     * camera is released if nothing else uses it.
+     */
+    void detach(@NonNull Viewer viewer) {
+        final int index = mViewers.indexOf(viewer);
+        if (index < 0) {
+            return;
+        }
+        mViewers.remove(index);
+        final CameraHost host = mHost;
+        if (index == 0 && host != null) {
+            host.unbind();
+            viewer.onPreviewDetached();
+            if (!mViewers.isEmpty()) {
+                mViewers.get(0).onPreviewAttached(host);
+            }
+        }
+        releaseIfUnused();
+    }
+
+    /**
+     * @return The number of viewers and consumers using the camera.
+     */
+    int getReferenceCount() {
+        return mViewers.size() + mConsumers.size();
+    }
+
+    @NonNull
+    private CameraHost acquire() {
+        if (mHost == null) {
+            mHost = mHostFactory.create(framePipeline, metrics);
+        }
+        return mHost;
+    }
+
+    private void releaseIfUnused() {
+        final CameraHost host = mHost;
+        if (host != null && getReferenceCount() == 0) {
+            if (CameraLog.isVerbose()) {
+                CameraLog.v(TAG, "Last one detached, releasing the camera.");
+            }
+            mHost = null;
+            host.close();
+        }
+    }
+}
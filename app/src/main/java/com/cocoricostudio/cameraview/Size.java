@@ -0,0 +1,41 @@
+package com.cocoricostudio.cameraview;
+
+/**
+ * A preview size, independent of {@link android.hardware.Camera.Size} so the size algorithms of
+ * {@link PreviewGeometry} can run off-device.
+ */
+final class Size {
+
+    final int width;
+    final int height;
+
+    Size(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @return Whether both sizes have the same aspect ratio.
+     */
+    boolean hasSameRatio(Size other) {
+        return (long) width * other.height == (long) height * other.width;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Size)) return false;
+        Size size = (Size) o;
+        return width == size.width && height == size.height;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * width + height;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height;
+    }
+}
@@ -0,0 +1,243 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Takes the pictures requested, one at a time, without waiting for them to be written: the preview
+ * goes on while the JPEG images are written to their files, or handed to their callbacks, on the
+ * executors of the requests.
+ * <p/>
+ * Bursts are bounded: at most {@link #setMaxInFlight(int) a few} pictures are taken but not yet
+ * handed to their callback, so a slow writer holds back the camera rather than piling JPEG images
+ * up in memory. Further requests wait, up to {@link #MAX_PENDING}, then fail.
+ * <p/>
+ * Camera thread only, but for the writing.
+ */
+final class StillCapture {
+
+    private static final String TAG = StillCapture.class.getSimpleName();
+
+    static final int DEFAULT_MAX_IN_FLIGHT = 3;
+    static final int MAX_PENDING = 32;
+
+    /**
+     * A picture requested.
+     */
+    static final class Request {
+
+        @Nullable
+        final File file;
+        @NonNull
+        final Executor executor;
+        @NonNull
+        final PictureCallback callback;
+
+        /**
+         * @param file     Where the JPEG image must be written, {@code null} to only hand it to the
+         *                 callback.
+         * @param executor The executor the image is written and the callback called on.
+         */
+        Request(@Nullable File file, @NonNull Executor executor, @NonNull PictureCallback callback) {
+            this.file = file;
+            this.executor = executor;
+            this.callback = callback;
+        }
+    }
+
+    private final CameraDriver mDriver;
+    private final Executor mCameraExecutor;
+
+    private final ArrayDeque<Request> mPending = new ArrayDeque<>();
+    private int mMaxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private int mInFlight;
+    @Nullable
+    private Request mCapturing;
+    /**
+     * The rotation when the picture being taken was requested from the camera.
+     */
+    private int mCapturingRotation;
+    private boolean mPreviewing;
+    private int mRotation;
+
+    private final CameraDriver.JpegCallback mJpegCallback = new CameraDriver.JpegCallback() {
+        @Override
+        public void onJpegTaken(@NonNull byte[] jpeg) {
+            final Request request = mCapturing;
+            if (request == null) {
+                return;
+            }
+            mCapturing = null;
+            deliver(request, new Picture(jpeg, mCapturingRotation, System.nanoTime(), request.file));
+            pump();
+        }
+
+        @Override
+        public void onJpegFailed() {
+            final Request request = mCapturing;
+            if (request == null) {
+                return;
+            }
+            mCapturing = null;
+            mInFlight--;
+            fail(request, new IOException("The camera failed to take the picture."));
+            pump();
+        }
+    };
+
+    private final Runnable mWritten = new Runnable() {
+        @Override
+        public void run() {
+            mInFlight--;
+            pump();
+        }
+    };
+
+    /**
+     * @param cameraExecutor Runs operations on the camera thread, after the pending ones.
+     */
+    StillCapture(@NonNull CameraDriver driver, @NonNull Executor cameraExecutor) {
+        mDriver = driver;
+        mCameraExecutor = cameraExecutor;
+    }
+
+    /**
+     * Queues a picture, taken as soon as the preview runs and fewer pictures than the maximum are
+     * in flight.
+     */
+    void request(@NonNull Request request) {
+        if (mPending.size() >= MAX_PENDING) {
+            fail(request, new IOException("Too many pictures pending."));
+            return;
+        }
+        mPending.addLast(request);
+        pump();
+    }
+
+    /**
+     * @param maxInFlight The number of pictures that can be taken but not yet handed to their
+     *                    callback.
+     */
+    void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Max in flight must be positive: " + maxInFlight);
+        }
+        mMaxInFlight = maxInFlight;
+        pump();
+    }
+
+    /**
+     * @param rotation The clockwise rotation of the pictures to be displayed upright, for the
+     *                 pictures taken from now on.
+     */
+    void setRotation(int rotation) {
+        mRotation = rotation;
+    }
+
+    /**
+     * Pictures are only taken while the preview runs. The picture being taken when the preview
+     * stops is failed by the driver.
+     */
+    void setPreviewing(boolean previewing) {
+        mPreviewing = previewing;
+        pump();
+    }
+
+    /**
+     * Fails the pictures not taken yet, eg. when the camera is closed.
+     */
+    void cancelPending() {
+        Request request;
+        while ((request = mPending.pollFirst()) != null) {
+            fail(request, new IOException("The camera was closed before taking the picture."));
+        }
+    }
+
+    int getPendingCount() {
+        return mPending.size();
+    }
+
+    int getInFlightCount() {
+        return mInFlight;
+    }
+
+    private void pump() {
+        if (!mPreviewing || mCapturing != null || mInFlight >= mMaxInFlight || mPending.isEmpty()) {
+            return;
+        }
+        mCapturing = mPending.pollFirst();
+        mCapturingRotation = mRotation;
+        mInFlight++;
+        mDriver.takePicture(mJpegCallback);
+    }
+
+    /**
+     * Writes the picture, if needed, and hands it to the callback on the executor of the request.
+     */
+    private void deliver(@NonNull final Request request, @NonNull final Picture picture) {
+        final Runnable write = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (request.file != null) {
+                        writeJpeg(picture.getJpeg(), request.file);
+                    }
+                } catch (IOException exception) {
+                    CameraLog.e(TAG, "Failed to write " + request.file, exception);
+                    request.callback.onPictureFailed(exception);
+                    return;
+                } finally {
+                    // The camera may take the next picture.
+                    mCameraExecutor.execute(mWritten);
+                }
+                request.callback.onPictureTaken(picture);
+            }
+        };
+        try {
+            request.executor.execute(write);
+        } catch (RejectedExecutionException exception) {
+            // Eg. an executor shut down: never written, the camera may take the next picture.
+            CameraLog.e(TAG, "Picture dropped, rejected by its executor", exception);
+            mInFlight--;
+        }
+    }
+
+    private static void fail(@NonNull final Request request, @NonNull final IOException error) {
+        try {
+            request.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    request.callback.onPictureFailed(error);
+                }
+            });
+        } catch (RejectedExecutionException exception) {
+            CameraLog.e(TAG, "Picture failure dropped, rejected by its executor", exception);
+        }
+    }
+
+    /**
+     * Writes the given image to the file with a single channel write, flushed to the storage.
+     */
+    static void writeJpeg(@NonNull byte[] jpeg, @NonNull File file) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            FileChannel channel = output.getChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(jpeg);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } finally {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.cocoricostudio.cameraview;
+
+import android.graphics.ImageFormat;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An H.264 {@link MediaCodec} encoder fed either by the camera drawing on its input surface, or
+ * with NV21 frames copied into its input buffers. Encoded access units are drained on a thread of
+ * the encoder into a {@link PacketQueue}.
+ */
+final class VideoEncoder {
+
+    private static final String TAG = VideoEncoder.class.getSimpleName();
+
+    private static final int I_FRAME_INTERVAL_S = 1;
+    private static final long DRAIN_TIMEOUT_US = 10000;
+    private static final long END_OF_STREAM_TIMEOUT_MS = 2000;
+
+    private final MediaCodec mCodec;
+    private final PacketQueue mQueue;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mColorFormat;
+    @Nullable
+    private final Surface mInputSurface;
+    private final Thread mDrainThread;
+    private final MediaCodec.BufferInfo mInfo = new MediaCodec.BufferInfo();
+
+    // Confined to the thread queuing frames.
+    @Nullable
+    private byte[] mConverted;
+
+    private final FrameRateCounter mEncodedRate = new FrameRateCounter();
+    private final AtomicLong mEncodedFrames = new AtomicLong();
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+
+    /**
+     * Starts an encoder.
+     *
+     * @param surfaceInput Whether the encoder is fed through {@link #getInputSurface()}, otherwise
+     *                     through {@link #encode(Frame)}.
+     * @throws IOException If no encoder supports the given parameters.
+     */
+    VideoEncoder(int width, int height, int bitRate, int frameRate, boolean surfaceInput,
+                 @NonNull PacketQueue queue) throws IOException {
+        mWidth = width;
+        mHeight = height;
+        mQueue = queue;
+        mCodec = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_VIDEO_AVC);
+        try {
+            mColorFormat = surfaceInput ?
+                    MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface :
+                    selectColorFormat(mCodec.getCodecInfo());
+            MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, width, height);
+            format.setInteger(MediaFormat.KEY_COLOR_FORMAT, mColorFormat);
+            format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+            format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_S);
+            mCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            mInputSurface = surfaceInput ? mCodec.createInputSurface() : null;
+            mCodec.start();
+        } catch (IllegalStateException | IllegalArgumentException exception) {
+            mCodec.release();
+            throw new IOException("Failed to configure the encoder for " + width + "x" + height, exception);
+        }
+        mEncodedRate.setEnabled(true);
+        mDrainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "VideoEncoder");
+        mDrainThread.start();
+    }
+
+    /**
+     * @return The surface to draw the frames to encode on, {@code null} if fed with buffers.
+     */
+    @Nullable
+    Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    /**
+     * Copies the given frame into an input buffer of the encoder, if one is free: the frame is
+     * dropped otherwise. Called on a single thread.
+     */
+    void encode(@NonNull Frame frame) {
+        if (frame.getWidth() != mWidth || frame.getHeight() != mHeight || frame.getFormat() != ImageFormat.NV21) {
+            // The preview has been reconfigured since the recording started.
+            mDroppedFrames.incrementAndGet();
+            return;
+        }
+        final int index;
+        try {
+            index = mCodec.dequeueInputBuffer(0);
+        } catch (IllegalStateException exception) {
+            // Stopped meanwhile.
+            mDroppedFrames.incrementAndGet();
+            return;
+        }
+        if (index < 0) {
+            mDroppedFrames.incrementAndGet();
+            return;
+        }
+        final int size = mWidth * mHeight * 3 / 2;
+        if (mConverted == null) {
+            mConverted = new byte[size];
+        }
+        if (mColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar) {
+            Nv21.toI420(frame.getData(), mWidth, mHeight, mConverted);
+        } else {
+            Nv21.toNv12(frame.getData(), mWidth, mHeight, mConverted);
+        }
+        ByteBuffer input = getInputBuffer(index);
+        input.clear();
+        input.put(mConverted, 0, size);
+        mCodec.queueInputBuffer(index, 0, size, TimeUnit.NANOSECONDS.toMicros(frame.getTimestampNs()), 0);
+    }
+
+    /**
+     * Signals the end of the stream and waits for the last packets to be queued, then releases
+     * the encoder and closes the queue. The input surface must not be drawn on anymore.
+     */
+    void stop() {
+        try {
+            if (mInputSurface != null) {
+                mCodec.signalEndOfInputStream();
+            } else {
+                int index = mCodec.dequeueInputBuffer(TimeUnit.MILLISECONDS.toMicros(END_OF_STREAM_TIMEOUT_MS));
+                if (index >= 0) {
+                    mCodec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                }
+            }
+            mDrainThread.join(END_OF_STREAM_TIMEOUT_MS);
+        } catch (IllegalStateException exception) {
+            CameraLog.e(TAG, "Failed to end the stream", exception);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        if (mDrainThread.isAlive()) {
+            CameraLog.w(TAG, "End of stream not reached in time.");
+            mDrainThread.interrupt();
+        }
+        try {
+            mCodec.stop();
+        } catch (IllegalStateException exception) {
+            CameraLog.e(TAG, "Failed to stop the encoder", exception);
+        }
+        mCodec.release();
+        if (mInputSurface != null) {
+            mInputSurface.release();
+        }
+        mQueue.close();
+    }
+
+    /**
+     * Moves the encoded access units into the queue until the end of the stream.
+     */
+    private void drain() {
+        ByteBuffer[] outputs = Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP ? mCodec.getOutputBuffers() : null;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final int index = mCodec.dequeueOutputBuffer(mInfo, DRAIN_TIMEOUT_US);
+                if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED && outputs != null) {
+                    outputs = mCodec.getOutputBuffers();
+                }
+                if (index < 0) {
+                    // Try again later, or the format changed: the configuration comes as a packet too.
+                    continue;
+                }
+                final MediaCodec.BufferInfo info = mInfo;
+                if (info.size > 0) {
+                    ByteBuffer output = outputs != null ? outputs[index] : mCodec.getOutputBuffer(index);
+                    output.position(info.offset);
+                    output.limit(info.offset + info.size);
+                    EncodedPacket packet = mQueue.obtain(info.size);
+                    output.get(packet.mData, 0, info.size);
+                    packet.mSize = info.size;
+                    packet.mPresentationTimeUs = info.presentationTimeUs;
+                    packet.mFlags = toPacketFlags(info.flags);
+                    if (!packet.isCodecConfig()) {
+                        mEncodedFrames.incrementAndGet();
+                        mEncodedRate.onFrame(System.nanoTime());
+                    }
+                    mQueue.offer(packet);
+                }
+                mCodec.releaseOutputBuffer(index, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    return;
+                }
+            }
+        } catch (IllegalStateException exception) {
+            CameraLog.e(TAG, "Failed to drain the encoder", exception);
+        }
+    }
+
+    @NonNull
+    private ByteBuffer getInputBuffer(int index) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return mCodec.getInputBuffer(index);
+        }
+        return mCodec.getInputBuffers()[index];
+    }
+
+    private static int toPacketFlags(int codecFlags) {
+        int flags = 0;
+        // BUFFER_FLAG_SYNC_FRAME before Lollipop, of the same value.
+        if ((codecFlags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0) {
+            flags |= EncodedPacket.FLAG_KEY_FRAME;
+        }
+        if ((codecFlags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            flags |= EncodedPacket.FLAG_CODEC_CONFIG;
+        }
+        return flags;
+    }
+
+    /**
+     * @return The YUV 4:2:0 format of the encoder NV21 frames are converted to.
+     * @throws IOException If the encoder supports none.
+     */
+    private static int selectColorFormat(@NonNull MediaCodecInfo codecInfo) throws IOException {
+        int[] colorFormats = codecInfo.getCapabilitiesForType(MediaFormat.MIMETYPE_VIDEO_AVC).colorFormats;
+        int selected = -1;
+        for (int colorFormat : colorFormats) {
+            if (colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar) {
+                return colorFormat;
+            }
+            if (colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar) {
+                selected = colorFormat;
+            }
+        }
+        if (selected == -1) {
+            throw new IOException("No YUV 4:2:0 input supported by " + codecInfo.getName());
+        }
+        return selected;
+    }
+
+    long getEncodedFrameCount() {
+        return mEncodedFrames.get();
+    }
+
+    float getEncodedFrameRate() {
+        return mEncodedRate.getFramesPerSecond();
+    }
+
+    long getDroppedFrameCount() {
+        return mDroppedFrames.get();
+    }
+}
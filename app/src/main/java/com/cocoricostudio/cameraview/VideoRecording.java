@@ -0,0 +1,181 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A recording of the preview to H.264, started with
+ * {@link CameraView#startRecording(EncodedSink, int, java.util.concurrent.Executor, RecordingCallback)}.
+ * <p/>
+ * The camera draws on the input surface of the encoder when the driver supports it, so frames are
+ * never copied. Otherwise the delivered frames are converted into the input buffers of the
+ * encoder, on a thread of the recording. Encoded packets are then written to the sink on another
+ * thread, through a bounded queue: a slow sink drops packets until the next key frame, never
+ * blocks the camera nor the encoder.
+ */
+public final class VideoRecording {
+
+    private static final String TAG = VideoRecording.class.getSimpleName();
+
+    /**
+     * Packets waiting for the sink, about two seconds at 30 fps.
+     */
+    private static final int QUEUE_CAPACITY = 60;
+    /**
+     * Frames waiting for the encoder in buffer mode.
+     */
+    private static final int FRAME_QUEUE_CAPACITY = 3;
+    private static final long BLOCK_TIMEOUT_MS = 20;
+    private static final long WRITER_TIMEOUT_MS = 2000;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final PacketQueue mQueue = new PacketQueue(QUEUE_CAPACITY);
+    private final PacketWriter mWriter;
+    private final Thread mWriterThread;
+    private final VideoEncoder mEncoder;
+    @Nullable
+    private final ExecutorService mFrameExecutor;
+    @Nullable
+    private FrameSubscription mSubscription;
+    private boolean mStopped;
+
+    VideoRecording(@NonNull EncodedSink sink, int width, int height, int rotation, int bitRate, int frameRate,
+                   boolean surfaceInput) throws IOException {
+        mWidth = width;
+        mHeight = height;
+        mEncoder = new VideoEncoder(width, height, bitRate, frameRate, surfaceInput, mQueue);
+        mFrameExecutor = surfaceInput ? null : Executors.newSingleThreadExecutor();
+        mWriter = new PacketWriter(mQueue, sink, width, height, rotation);
+        mWriterThread = new Thread(mWriter, "PacketWriter");
+        mWriterThread.start();
+    }
+
+    /**
+     * @return The input surface of the encoder, {@code null} if fed with frames.
+     */
+    @Nullable
+    Surface getInputSurface() {
+        return mEncoder.getInputSurface();
+    }
+
+    /**
+     * Subscribes the encoder to the frames of the given pipeline, in buffer mode.
+     */
+    void subscribe(@NonNull FramePipeline pipeline) {
+        if (mFrameExecutor == null) {
+            throw new IllegalStateException("Fed through its input surface.");
+        }
+        mSubscription = pipeline.subscribe(new FrameConsumer() {
+            @Override
+            public void onFrame(@NonNull Frame frame) {
+                mEncoder.encode(frame);
+            }
+        }, mFrameExecutor, FRAME_QUEUE_CAPACITY, FrameConsumer.OverflowPolicy.BLOCK, BLOCK_TIMEOUT_MS);
+    }
+
+    /**
+     * Unsubscribes from the frames, in buffer mode.
+     */
+    void unsubscribe(@NonNull FramePipeline pipeline) {
+        if (mSubscription != null) {
+            pipeline.unsubscribe(mSubscription);
+        }
+    }
+
+    /**
+     * Ends the stream and waits for the sink to be stopped, so never on the UI thread. The camera
+     * must not feed the encoder anymore.
+     */
+    void stop() {
+        if (mStopped) {
+            return;
+        }
+        mStopped = true;
+        if (mFrameExecutor != null) {
+            // Let the frames queued be encoded first.
+            mFrameExecutor.shutdown();
+            try {
+                mFrameExecutor.awaitTermination(WRITER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mEncoder.stop();
+        try {
+            mWriterThread.join(WRITER_TIMEOUT_MS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        if (mWriterThread.isAlive()) {
+            CameraLog.w(TAG, "Sink not stopped in time.");
+        }
+        if (CameraLog.isVerbose()) {
+            CameraLog.v(TAG, "Stopped recording: " + getEncodedFrameCount() + " frames encoded, "
+                    + getWrittenBytes() + " bytes written, " + getDroppedFrameCount() + " frames and "
+                    + getDroppedPacketCount() + " packets dropped.");
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return Whether the camera draws directly on the input surface of the encoder, otherwise
+     * the delivered frames are copied into its input buffers.
+     */
+    public boolean isSurfaceInput() {
+        return mFrameExecutor == null;
+    }
+
+    public long getEncodedFrameCount() {
+        return mEncoder.getEncodedFrameCount();
+    }
+
+    /**
+     * @return The frame rate of the encoder over the last second, 0 until measured.
+     */
+    public float getEncodedFrameRate() {
+        return mEncoder.getEncodedFrameRate();
+    }
+
+    /**
+     * @return The number of frames never given to the encoder, waiting for a free input buffer.
+     * Always 0 in surface mode, where the encoder drops frames itself.
+     */
+    public long getDroppedFrameCount() {
+        final FrameSubscription subscription = mSubscription;
+        return mEncoder.getDroppedFrameCount() + (subscription != null ? subscription.getDroppedCount() : 0);
+    }
+
+    /**
+     * @return The number of encoded packets dropped because the sink fell behind.
+     */
+    public long getDroppedPacketCount() {
+        return mQueue.getDroppedCount();
+    }
+
+    public long getWrittenBytes() {
+        return mWriter.getWrittenBytes();
+    }
+
+    /**
+     * @return The first error of the sink, {@code null} if none: the following packets were
+     * dropped.
+     */
+    @Nullable
+    public IOException getError() {
+        return mWriter.getError();
+    }
+}
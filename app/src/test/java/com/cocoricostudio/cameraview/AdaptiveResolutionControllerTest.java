@@ -0,0 +1,223 @@
+package com.cocoricostudio.cameraview;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveResolutionControllerTest {
+
+    private static final Size FHD = new Size(1920, 1080);
+    private static final Size HD = new Size(1280, 720);
+    private static final Size QHD = new Size(960, 540);
+    private static final List<Size> LADDER = Arrays.asList(FHD, HD, QHD);
+
+    private final PreviewSizeSelector mSelector = new PreviewSizeSelector();
+    private AdaptiveResolutionController mController;
+
+    @Before
+    public void setUp() {
+        // Down after 3 bad samples, up after 10 good ones, 2 samples ignored after each change.
+        mController = new AdaptiveResolutionController();
+        mController.reset(LADDER, 30);
+    }
+
+    @Test
+    public void ladderFollowsTheAspectRatioOfTheCeiling() {
+        List<Size> supported = Arrays.asList(new Size(1920, 1080), new Size(1440, 1080), new Size(1280, 720),
+                new Size(800, 450), new Size(640, 480), new Size(320, 240), new Size(256, 144));
+
+        assertEquals(Arrays.asList(new Size(1920, 1080), new Size(1280, 720), new Size(800, 450), new Size(256, 144)),
+                AdaptiveResolutionController.createLadder(supported, new Size(1920, 1080), PreviewSizeScorer.BALANCED, mSelector));
+        assertEquals(Arrays.asList(new Size(1440, 1080), new Size(640, 480), new Size(320, 240)),
+                AdaptiveResolutionController.createLadder(supported, new Size(1440, 1080), PreviewSizeScorer.BALANCED, mSelector));
+    }
+
+    @Test
+    public void ladderStartsAtACeilingBelowTheLargestSize() {
+        List<Size> supported = Arrays.asList(new Size(1920, 1080), new Size(1280, 720), new Size(800, 450));
+
+        assertEquals(Arrays.asList(new Size(1280, 720), new Size(800, 450)),
+                AdaptiveResolutionController.createLadder(supported, new Size(1280, 720), PreviewSizeScorer.BALANCED, mSelector));
+        assertEquals(Collections.singletonList(new Size(800, 450)),
+                AdaptiveResolutionController.createLadder(supported, new Size(800, 450), PreviewSizeScorer.BALANCED, mSelector));
+    }
+
+    @Test
+    public void ladderFollowsTheScorerOfTheCeiling() {
+        List<Size> supported = Arrays.asList(new Size(1920, 1080), new Size(1280, 720), new Size(1056, 704),
+                new Size(1024, 768), new Size(1024, 576), new Size(960, 720), new Size(720, 480));
+
+        // Closest to 800x450, balanced picks 720x480, off the ratio of the ceiling.
+        assertEquals(Arrays.asList(new Size(1920, 1080), new Size(1280, 720)),
+                AdaptiveResolutionController.createLadder(supported, new Size(1920, 1080), PreviewSizeScorer.BALANCED,
+                        mSelector));
+        assertEquals(Arrays.asList(new Size(1920, 1080), new Size(1280, 720), new Size(1024, 576)),
+                AdaptiveResolutionController.createLadder(supported, new Size(1920, 1080), PreviewSizeScorer.RATIO_FIRST,
+                        mSelector));
+    }
+
+    @Test
+    public void steadyTraceKeepsTheCeiling() {
+        assertEquals(Collections.<Size>emptyList(), run(repeat(100, 30, 0)));
+        assertEquals(FHD, mController.getSize());
+    }
+
+    @Test
+    public void sustainedLowFrameRateStepsDown() {
+        List<Size> changes = run(concat(repeat(2, 30, 0), repeat(20, 18, 0)));
+
+        // Down one step, then another once settled.
+        assertEquals(Arrays.asList(HD, QHD), changes);
+        assertEquals(QHD, mController.getSize());
+    }
+
+    @Test
+    public void droppedFramesStepDownAtFullFrameRate() {
+        assertEquals(Collections.singletonList(HD), run(concat(repeat(2, 30, 0), repeat(5, 30, 0.4f))));
+    }
+
+    @Test
+    public void shortDipsAreIgnored() {
+        // Two bad samples in a row at most.
+        float[][] trace = concat(repeat(2, 30, 0), repeat(2, 15, 0), repeat(1, 30, 0), repeat(2, 15, 0.5f),
+                repeat(1, 30, 0), repeat(2, 20, 0));
+
+        assertEquals(Collections.<Size>emptyList(), run(trace));
+    }
+
+    @Test
+    public void samplesInTheDeadBandResetTheCounts() {
+        // 26 fps: neither bad (below 24) nor good (from 28.5).
+        float[][] trace = concat(repeat(2, 30, 0), repeat(2, 15, 0), repeat(1, 26, 0), repeat(2, 15, 0));
+        assertEquals(Collections.<Size>emptyList(), run(trace));
+
+        assertEquals(Collections.singletonList(HD), run(repeat(1, 15, 0)));
+    }
+
+    @Test
+    public void recoveryStepsBackUpAfterManyGoodSamples() {
+        run(concat(repeat(2, 30, 0), repeat(3, 15, 0)));
+        assertEquals(HD, mController.getSize());
+
+        // Settling, then 9 good samples are not enough.
+        assertEquals(Collections.<Size>emptyList(), run(repeat(11, 30, 0)));
+        assertEquals(Collections.singletonList(FHD), run(repeat(1, 30, 0)));
+    }
+
+    @Test
+    public void samplesRightAfterAChangeAreIgnored() {
+        run(concat(repeat(2, 30, 0), repeat(3, 15, 0)));
+
+        // The camera is reconfigured: the next two samples are meaningless.
+        assertEquals(Collections.<Size>emptyList(), run(repeat(2, 0.5f, 1)));
+        assertEquals(HD, mController.getSize());
+    }
+
+    @Test
+    public void oscillatingLoadDoesNotThrash() {
+        // Too heavy at 1080p, fine at 720p: every step up fails.
+        List<Size> changes = new ArrayList<>();
+        for (int second = 0; second < 300; second++) {
+            final boolean heavy = FHD.equals(mController.getSize());
+            changes.addAll(run(heavy ? repeat(1, 18, 0.3f) : repeat(1, 30, 0)));
+        }
+
+        // Each failed step up doubles the wait before the next one: 20, 40, 80, 160 samples.
+        int stepUps = Collections.frequency(changes, FHD);
+        assertTrue("Stepped up " + stepUps + " times", stepUps <= 4);
+        assertEquals(stepUps + 1, Collections.frequency(changes, HD));
+    }
+
+    @Test
+    public void heldStepUpRestoresTheDefaultWait() {
+        mController.reset(LADDER, 30);
+        run(concat(repeat(2, 30, 0), repeat(3, 15, 0)));
+        run(repeat(12, 30, 0));
+        assertEquals(FHD, mController.getSize());
+        // The step up fails once: the next one waits for 20 good samples.
+        run(concat(repeat(2, 30, 0), repeat(3, 15, 0)));
+        assertEquals(HD, mController.getSize());
+        assertEquals(Collections.<Size>emptyList(), run(repeat(21, 30, 0)));
+        assertEquals(Collections.singletonList(FHD), run(repeat(1, 30, 0)));
+
+        // Held for 10 samples: the wait is back to 10 samples.
+        run(concat(repeat(12, 30, 0), repeat(3, 15, 0)));
+        assertEquals(HD, mController.getSize());
+        assertEquals(Collections.singletonList(FHD), run(repeat(12, 30, 0)));
+    }
+
+    @Test
+    public void bottomOfTheLadderIsKept() {
+        run(concat(repeat(2, 30, 0), repeat(100, 5, 0.9f)));
+
+        assertEquals(QHD, mController.getSize());
+    }
+
+    @Test
+    public void samplesAreIgnoredUntilReset() {
+        mController.clear();
+
+        assertFalse(mController.isReset());
+        assertNull(mController.onSample(5, 1));
+        assertNull(mController.getSize());
+    }
+
+    @Test
+    public void resetStartsAgainFromTheTop() {
+        run(concat(repeat(2, 30, 0), repeat(3, 15, 0)));
+        assertEquals(HD, mController.getSize());
+
+        mController.reset(LADDER, 15);
+
+        assertEquals(FHD, mController.getSize());
+        // 15 fps is now the target.
+        assertEquals(Collections.<Size>emptyList(), run(repeat(20, 15, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void stepUpFasterThanDownIsRejected() {
+        new AdaptiveResolutionController(5, 2, 0);
+    }
+
+    /**
+     * @return The sizes stepped to while feeding the given samples.
+     */
+    private List<Size> run(float[][] trace) {
+        List<Size> changes = new ArrayList<>();
+        for (float[] sample : trace) {
+            Size size = mController.onSample(sample[0], sample[1]);
+            if (size != null) {
+                changes.add(size);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * @return The given sample of frame rate and drop rate, the given number of times.
+     */
+    private static float[][] repeat(int count, float frameRate, float dropRate) {
+        float[][] trace = new float[count][];
+        for (int i = 0; i < count; i++) {
+            trace[i] = new float[]{frameRate, dropRate};
+        }
+        return trace;
+    }
+
+    private static float[][] concat(float[][]... traces) {
+        List<float[]> samples = new ArrayList<>();
+        for (float[][] trace : traces) {
+            samples.addAll(Arrays.asList(trace));
+        }
+        return samples.toArray(new float[samples.size()][]);
+    }
+}
@@ -0,0 +1,52 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that code does not allocate, from the bytes the JVM counts for the current thread.
+ */
+final class AllocationAssert {
+
+    /**
+     * The measurement's own noise.
+     */
+    private static final long NOISE_BYTES = 1024;
+
+    private AllocationAssert() {
+    }
+
+    /**
+     * Runs the given operation once to warm it up, eg. let pools grow, then asserts a second run
+     * allocates nothing. Skips the test if the JVM can't count the allocations of a thread.
+     */
+    static void assertNoAllocation(@NonNull Runnable operation) {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue("Thread allocations not measured", getAllocatedBytes(threadBean) >= 0);
+        operation.run();
+
+        long allocatedBytesBefore = getAllocatedBytes(threadBean);
+        operation.run();
+        long allocatedBytes = getAllocatedBytes(threadBean) - allocatedBytesBefore;
+
+        assertTrue("Allocated " + allocatedBytes + " bytes", allocatedBytes < NOISE_BYTES);
+    }
+
+    /**
+     * @return The bytes allocated by the current thread, or -1 if the JVM does not support it.
+     */
+    private static long getAllocatedBytes(ThreadMXBean threadBean) {
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
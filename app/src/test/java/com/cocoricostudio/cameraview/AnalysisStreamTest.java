@@ -0,0 +1,114 @@
+package com.cocoricostudio.cameraview;
+
+import android.graphics.ImageFormat;
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class AnalysisStreamTest {
+
+    private final List<Frame> mReceived = new ArrayList<>();
+    private boolean mRetain;
+    private final AnalysisStream mStream = new AnalysisStream(new FrameConsumer() {
+        @Override
+        public void onFrame(@NonNull Frame frame) {
+            mReceived.add(frame);
+            if (mRetain) {
+                frame.retain();
+            }
+        }
+    }, 320, 240);
+
+    @Test
+    public void previewFramesAreScaledToTheAnalysisSize() {
+        mStream.onPreviewFrame(previewFrame(1280, 720, ImageFormat.NV21, 42));
+
+        Frame frame = mReceived.get(0);
+        assertEquals(320, frame.getWidth());
+        assertEquals(240, frame.getHeight());
+        assertEquals(ImageFormat.NV21, frame.getFormat());
+        assertEquals(42, frame.getTimestampNs());
+        assertEquals(320 * 240 * 3 / 2, frame.getData().length);
+        assertEquals(1, mStream.getDeliveredCount());
+    }
+
+    @Test
+    public void analysisFramesArePooled() {
+        mStream.onPreviewFrame(previewFrame(640, 480, ImageFormat.NV21, 0));
+        mStream.onPreviewFrame(previewFrame(640, 480, ImageFormat.NV21, 1));
+
+        assertSame(mReceived.get(0), mReceived.get(1));
+    }
+
+    @Test
+    public void framesAreDroppedWhileEveryAnalysisFrameIsRetained() {
+        mRetain = true;
+        for (int i = 0; i < AnalysisStream.POOL_SIZE + 1; i++) {
+            mStream.onPreviewFrame(previewFrame(640, 480, ImageFormat.NV21, i));
+        }
+
+        assertEquals(AnalysisStream.POOL_SIZE, mReceived.size());
+        assertNotSame(mReceived.get(0), mReceived.get(1));
+        assertEquals(1, mStream.getDroppedCount());
+
+        mRetain = false;
+        mReceived.get(0).release();
+        mStream.onPreviewFrame(previewFrame(640, 480, ImageFormat.NV21, 9));
+        assertSame(mReceived.get(0), mReceived.get(AnalysisStream.POOL_SIZE));
+    }
+
+    @Test
+    public void regionOfInterestIsApplied() {
+        // Luma is the column / 4.
+        Frame preview = previewFrame(1280, 960, ImageFormat.NV21, 0);
+        for (int row = 0; row < 960; row++) {
+            for (int col = 0; col < 1280; col++) {
+                preview.getData()[row * 1280 + col] = (byte) (col / 8);
+            }
+        }
+
+        mStream.setRegionOfInterest(0.5f, 0.5f, 1, 1);
+        mStream.onPreviewFrame(preview);
+
+        // The right half starts at column 640, each analysis column averaging 2 of the preview.
+        assertEquals(80, mReceived.get(0).getData()[0]);
+        assertEquals(159, mReceived.get(0).getData()[319] & 0xff);
+    }
+
+    @Test
+    public void otherFormatsAreDropped() {
+        mStream.onPreviewFrame(previewFrame(640, 480, ImageFormat.YV12, 0));
+
+        assertEquals(0, mReceived.size());
+        assertEquals(1, mStream.getDroppedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oddSizeFails() {
+        new AnalysisStream(new FrameConsumer() {
+            @Override
+            public void onFrame(@NonNull Frame frame) {
+            }
+        }, 321, 240);
+    }
+
+    private static Frame previewFrame(int width, int height, int format, long timestampNs) {
+        Frame frame = new Frame(new byte[width * height * 3 / 2], new Frame.Recycler() {
+            @Override
+            public void recycle(@NonNull Frame frame) {
+            }
+        });
+        frame.mWidth = width;
+        frame.mHeight = height;
+        frame.mFormat = format;
+        frame.mTimestampNs = timestampNs;
+        return frame;
+    }
+}
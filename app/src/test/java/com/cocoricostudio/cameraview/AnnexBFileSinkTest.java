@@ -0,0 +1,66 @@
+package com.cocoricostudio.cameraview;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class AnnexBFileSinkTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("video", ".h264");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void writesThePacketsBackToBack() throws IOException {
+        AnnexBFileSink sink = new AnnexBFileSink(mFile);
+
+        sink.onStart(640, 480, 90);
+        sink.onPacket(packet(0, 0, 0, 1, 0x67));
+        sink.onPacket(packet(0, 0, 0, 1, 0x65, 42));
+        sink.onStop();
+
+        assertArrayEquals(new byte[]{0, 0, 0, 1, 0x67, 0, 0, 0, 1, 0x65, 42}, read(mFile));
+    }
+
+    @Test(expected = IOException.class)
+    public void packetBeforeStartFails() throws IOException {
+        new AnnexBFileSink(mFile).onPacket(packet(1));
+    }
+
+    private static EncodedPacket packet(int... bytes) {
+        EncodedPacket packet = new EncodedPacket(bytes.length + 8);
+        for (int i = 0; i < bytes.length; i++) {
+            packet.mData[i] = (byte) bytes[i];
+        }
+        // Bytes past the size are not written.
+        Arrays.fill(packet.mData, bytes.length, packet.mData.length, (byte) -1);
+        packet.mSize = bytes.length;
+        return packet;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        try (FileInputStream input = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                read += input.read(data, read, data.length - read);
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,196 @@
+package com.cocoricostudio.cameraview;
+
+import android.hardware.Camera;
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CameraCapabilitiesCacheTest {
+
+    private CameraCapabilitiesCache mCache;
+    private CountingLoader mLoader;
+    private File mStoreFile;
+    private QueueExecutor mStoreWriter;
+
+    @Before
+    public void setUp() throws IOException {
+        mCache = new CameraCapabilitiesCache();
+        mLoader = new CountingLoader();
+        mStoreFile = File.createTempFile("capabilities", ".bin");
+        mStoreFile.delete();
+        mStoreWriter = new QueueExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        mStoreFile.delete();
+    }
+
+    @Test
+    public void capabilitiesAreLoadedOncePerCamera() {
+        CameraCapabilities back = mCache.get(0, mLoader);
+        CameraCapabilities front = mCache.get(1, mLoader);
+
+        assertSame(back, mCache.get(0, mLoader));
+        assertSame(front, mCache.get(1, mLoader));
+        assertEquals(2, mLoader.mLoads.get());
+        assertEquals(0, back.cameraId);
+        assertEquals(1, front.cameraId);
+    }
+
+    @Test
+    public void invalidateForgetsEveryCamera() {
+        CameraCapabilities back = mCache.get(0, mLoader);
+        mCache.get(1, mLoader);
+
+        mCache.invalidate();
+        assertFalse(mCache.contains(0));
+        assertFalse(mCache.contains(1));
+        assertNotSame(back, mCache.get(0, mLoader));
+        assertEquals(3, mLoader.mLoads.get());
+    }
+
+    @Test
+    public void invalidateOneCamera() {
+        CameraCapabilities back = mCache.get(0, mLoader);
+        CameraCapabilities front = mCache.get(1, mLoader);
+
+        mCache.invalidate(1);
+        assertSame(back, mCache.get(0, mLoader));
+        assertNotSame(front, mCache.get(1, mLoader));
+    }
+
+    @Test
+    public void concurrentGetsShareOneInstance() throws InterruptedException {
+        final int threadCount = 8;
+        final CameraCapabilities[] results = new CameraCapabilities[threadCount];
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        ExecutorService threads = Executors.newFixedThreadPool(threadCount);
+        try {
+            for (int i = 0; i < threadCount; i++) {
+                final int index = i;
+                threads.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            results[index] = mCache.get(0, mLoader);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            start.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        } finally {
+            threads.shutdownNow();
+        }
+        for (CameraCapabilities result : results) {
+            assertSame(results[0], result);
+        }
+    }
+
+    @Test
+    public void getIfPresentDoesNotLoad() {
+        assertNull(mCache.getIfPresent(0));
+        assertEquals(0, mLoader.mLoads.get());
+
+        CameraCapabilities back = mCache.get(0, mLoader);
+        assertSame(back, mCache.getIfPresent(0));
+        assertEquals(1, mLoader.mLoads.get());
+    }
+
+    @Test
+    public void storedCapabilitiesAreNotLoadedAgain() {
+        new CapabilityStore(mStoreFile, "key").save(Arrays.asList(FakeCameraDriver.BACK, FakeCameraDriver.FRONT));
+        mCache.setStoreIfAbsent(new CapabilityStore(mStoreFile, "key"), mStoreWriter);
+
+        assertEquals(FakeCameraDriver.FRONT.previewSizes, mCache.getIfPresent(1).previewSizes);
+        assertEquals(FakeCameraDriver.BACK.previewMaxFps, mCache.get(0, mLoader).previewMaxFps);
+        assertEquals(0, mLoader.mLoads.get());
+        assertEquals(0, mStoreWriter.size());
+    }
+
+    @Test
+    public void loadedCapabilitiesAreStored() {
+        mCache.setStoreIfAbsent(new CapabilityStore(mStoreFile, "key"), mStoreWriter);
+        mCache.get(0, mLoader);
+        mCache.get(1, mLoader);
+        // Off the calling thread.
+        assertFalse(mStoreFile.exists());
+        mStoreWriter.runAll();
+
+        CameraCapabilitiesCache nextProcess = new CameraCapabilitiesCache();
+        nextProcess.setStoreIfAbsent(new CapabilityStore(mStoreFile, "key"), mStoreWriter);
+        assertTrue(nextProcess.contains(0));
+        assertEquals(270, nextProcess.get(1, mLoader).orientation);
+        assertEquals(2, mLoader.mLoads.get());
+    }
+
+    @Test
+    public void invalidateDeletesTheStore() {
+        new CapabilityStore(mStoreFile, "key").save(Collections.singletonList(FakeCameraDriver.BACK));
+        mCache.setStoreIfAbsent(new CapabilityStore(mStoreFile, "key"), mStoreWriter);
+
+        mCache.invalidate();
+        mStoreWriter.runAll();
+
+        assertFalse(mStoreFile.exists());
+        assertNull(mCache.getIfPresent(0));
+    }
+
+    @Test
+    public void firstStoreWins() {
+        new CapabilityStore(mStoreFile, "key").save(Collections.singletonList(FakeCameraDriver.BACK));
+        mCache.setStoreIfAbsent(new CapabilityStore(mStoreFile, "other"), mStoreWriter);
+        mCache.setStoreIfAbsent(new CapabilityStore(mStoreFile, "key"), mStoreWriter);
+
+        assertNull(mCache.getIfPresent(0));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void capabilitiesAreImmutable() {
+        mCache.get(0, mLoader).previewFormats.add(0);
+    }
+
+    private static class CountingLoader implements CameraCapabilitiesCache.Loader {
+
+        final AtomicInteger mLoads = new AtomicInteger();
+
+        @NonNull
+        @Override
+        public CameraCapabilities load(int cameraId) {
+            mLoads.incrementAndGet();
+            return new CameraCapabilities(cameraId,
+                    cameraId == 0 ? Camera.CameraInfo.CAMERA_FACING_BACK : Camera.CameraInfo.CAMERA_FACING_FRONT,
+                    cameraId == 0 ? 90 : 270,
+                    Collections.<Size>emptyList(),
+                    new ArrayList<Integer>(),
+                    Collections.<int[]>emptyList());
+        }
+    }
+}
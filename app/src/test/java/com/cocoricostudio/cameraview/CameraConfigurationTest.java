@@ -0,0 +1,126 @@
+package com.cocoricostudio.cameraview;
+
+import android.hardware.Camera;
+import android.view.Surface;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+public class CameraConfigurationTest {
+
+    private static final CameraCapabilities BACK = new CameraCapabilities(0, Camera.CameraInfo.CAMERA_FACING_BACK, 90,
+            Arrays.asList(new Size(1920, 1080), new Size(1440, 1080), new Size(640, 480)),
+            Collections.<Integer>emptyList(), Collections.<int[]>emptyList());
+    private static final CameraCapabilities FRONT = new CameraCapabilities(1, Camera.CameraInfo.CAMERA_FACING_FRONT, 270,
+            Arrays.asList(new Size(1280, 720), new Size(640, 480)),
+            Collections.<Integer>emptyList(), Collections.<int[]>emptyList());
+
+    @Test
+    public void firstSupportedSizeWithoutTarget() {
+        CameraConfiguration configuration = CameraConfiguration.create(BACK, Surface.ROTATION_0,
+                Integer.MIN_VALUE, Integer.MIN_VALUE, PreviewSizeScorer.BALANCED, 0, false);
+
+        assertEquals(0, configuration.cameraId);
+        assertEquals(new Size(1920, 1080), configuration.previewSize);
+        assertEquals(90, configuration.displayOrientation);
+    }
+
+    @Test
+    public void fpsRangeOfTheFastestSizeCloseToTarget() {
+        CameraCapabilities capabilities = new CameraCapabilities(0, Camera.CameraInfo.CAMERA_FACING_BACK, 90,
+                Arrays.asList(new Size(1920, 1080), new Size(1280, 720), new Size(640, 480)),
+                Collections.<Integer>emptyList(),
+                Arrays.asList(new int[]{15000, 15000}, new int[]{7500, 30000}, new int[]{30000, 30000}),
+                Arrays.asList(15000, 30000, 30000));
+
+        CameraConfiguration variable = CameraConfiguration.create(capabilities, Surface.ROTATION_0,
+                1920, 1080, PreviewSizeScorer.BALANCED, 30000, false);
+        assertEquals(new Size(1280, 720), variable.previewSize);
+        assertEquals(7500, variable.minFps);
+        assertEquals(30000, variable.maxFps);
+
+        CameraConfiguration fixed = CameraConfiguration.create(capabilities, Surface.ROTATION_0,
+                1920, 1080, PreviewSizeScorer.BALANCED, 30000, true);
+        assertEquals(new Size(1280, 720), fixed.previewSize);
+        assertEquals(30000, fixed.minFps);
+        assertEquals(30000, fixed.maxFps);
+
+        CameraConfiguration slow = CameraConfiguration.create(capabilities, Surface.ROTATION_0,
+                1920, 1080, PreviewSizeScorer.BALANCED, 15000, true);
+        assertEquals(new Size(1920, 1080), slow.previewSize);
+        assertEquals(15000, slow.maxFps);
+    }
+
+    @Test
+    public void defaultFpsRangeWithoutTargetFps() {
+        CameraConfiguration configuration = CameraConfiguration.create(BACK, Surface.ROTATION_0,
+                1920, 1080, PreviewSizeScorer.BALANCED, 0, false);
+        assertFalse(configuration.hasFpsRange());
+    }
+
+    @Test
+    public void closestSizeToTarget() {
+        CameraConfiguration configuration = CameraConfiguration.create(FRONT, Surface.ROTATION_90,
+                600, 450, PreviewSizeScorer.BALANCED, 0, false);
+
+        assertEquals(1, configuration.cameraId);
+        assertEquals(new Size(640, 480), configuration.previewSize);
+        assertEquals(0, configuration.displayOrientation);
+    }
+
+    @Test
+    public void diffAgainstNoConfigurationChangesAll() {
+        CameraConfiguration configuration = new CameraConfiguration(0, new Size(1280, 720), 90);
+        assertEquals(CameraConfiguration.CHANGED_ALL, configuration.diff(null));
+    }
+
+    @Test
+    public void diffOfSettingsOnlyKeepsThePreview() {
+        CameraConfiguration previous = new CameraConfiguration(0, new Size(1280, 720), 90, 7500, 30000);
+        CameraConfiguration zoomed = new CameraConfiguration(0, new Size(1280, 720), 90, 7500, 30000,
+                new CameraSettings(200, FocusMode.DEFAULT, FlashMode.TORCH, 0));
+
+        int changes = zoomed.diff(previous);
+        assertEquals(CameraSettings.CHANGED_ZOOM | CameraSettings.CHANGED_FLASH_MODE, changes);
+        assertEquals(0, changes & CameraConfiguration.CHANGES_STOPPING_PREVIEW);
+        assertNotEquals(previous, zoomed);
+        assertEquals(0, previous.diff(new CameraConfiguration(0, new Size(1280, 720), 90, 7500, 30000)));
+    }
+
+    @Test
+    public void diffOfThePreviewSizeStopsThePreview() {
+        CameraConfiguration previous = new CameraConfiguration(0, new Size(1280, 720), 90);
+        CameraConfiguration configuration = new CameraConfiguration(0, new Size(1920, 1080), 0, 0, 0,
+                new CameraSettings(100, FocusMode.INFINITY, FlashMode.OFF, 0));
+
+        int changes = configuration.diff(previous);
+        assertEquals(CameraConfiguration.CHANGED_PREVIEW_SIZE | CameraConfiguration.CHANGED_DISPLAY_ORIENTATION
+                | CameraSettings.CHANGED_FOCUS_MODE, changes);
+        assertEquals(CameraConfiguration.CHANGED_PREVIEW_SIZE, changes & CameraConfiguration.CHANGES_STOPPING_PREVIEW);
+    }
+
+    @Test
+    public void diffOfTheCameraAndFpsRange() {
+        CameraConfiguration previous = new CameraConfiguration(0, new Size(640, 480), 90);
+        assertEquals(CameraConfiguration.CHANGED_CAMERA | CameraConfiguration.CHANGED_DISPLAY_ORIENTATION,
+                new CameraConfiguration(1, new Size(640, 480), 270).diff(previous));
+        assertEquals(CameraConfiguration.CHANGED_FPS_RANGE,
+                new CameraConfiguration(0, new Size(640, 480), 90, 30000, 30000).diff(previous));
+    }
+
+    @Test
+    public void settingsAreKeptByCreate() {
+        CameraSettings settings = new CameraSettings(150, FocusMode.CONTINUOUS_VIDEO, FlashMode.AUTO, -2);
+        CameraConfiguration configuration = CameraConfiguration.create(BACK, Surface.ROTATION_0,
+                1920, 1080, PreviewSizeScorer.BALANCED, 0, false, settings);
+        assertEquals(settings, configuration.settings);
+        assertEquals(CameraSettings.DEFAULT, CameraConfiguration.create(BACK, Surface.ROTATION_0,
+                1920, 1080, PreviewSizeScorer.BALANCED, 0, false).settings);
+    }
+}
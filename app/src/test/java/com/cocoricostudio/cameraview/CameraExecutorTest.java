@@ -0,0 +1,174 @@
+package com.cocoricostudio.cameraview;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CameraExecutorTest {
+
+    private QueueExecutor mCameraThread;
+    private QueueExecutor mUiThread;
+    private CameraExecutor mExecutor;
+    private List<String> mEvents;
+
+    @Before
+    public void setUp() {
+        mCameraThread = new QueueExecutor();
+        mUiThread = new QueueExecutor();
+        mExecutor = new CameraExecutor(mCameraThread, mUiThread);
+        mEvents = new ArrayList<>();
+    }
+
+    @Test
+    public void operationsRunInSubmissionOrder() {
+        mExecutor.execute(record("open 0"));
+        mExecutor.execute(record("switch 1"));
+        mExecutor.execute(record("release"));
+
+        assertTrue(mEvents.isEmpty());
+        mCameraThread.runAll();
+        assertEquals(Arrays.asList("open 0", "switch 1", "release"), mEvents);
+    }
+
+    @Test
+    public void uiCallbackOfCurrentSessionIsDelivered() {
+        mExecutor.execute(postToUi("layout"));
+        mCameraThread.runAll();
+        mUiThread.runAll();
+
+        assertEquals(Arrays.asList("layout"), mEvents);
+    }
+
+    @Test
+    public void uiCallbackIsDroppedWhenInvalidatedBeforeOperationRuns() {
+        mExecutor.execute(postToUi("layout"));
+        mExecutor.invalidate();
+        mCameraThread.runAll();
+        mUiThread.runAll();
+
+        assertTrue(mEvents.isEmpty());
+    }
+
+    @Test
+    public void uiCallbackIsDroppedWhenInvalidatedBeforeCallbackRuns() {
+        mExecutor.execute(postToUi("layout"));
+        mCameraThread.runAll();
+        mExecutor.invalidate();
+        mUiThread.runAll();
+
+        assertTrue(mEvents.isEmpty());
+    }
+
+    @Test
+    public void rapidResumePauseSwitchSequence() {
+        // resume, switch, pause, resume, switch: all submitted before the camera thread gets a chance to run.
+        mExecutor.execute(openAndLayout("open 0"));
+        mExecutor.execute(openAndLayout("open 1"));
+        mExecutor.invalidate();
+        mExecutor.execute(record("release"));
+        mExecutor.execute(openAndLayout("open 1"));
+        mExecutor.execute(openAndLayout("open 0"));
+
+        mCameraThread.runAll();
+        assertEquals(Arrays.asList("open 0", "open 1", "release", "open 1", "open 0"), mEvents);
+
+        mEvents.clear();
+        mUiThread.runAll();
+        // Only the layouts of the last session reach the view, in order.
+        assertEquals(Arrays.asList("layout open 1", "layout open 0"), mEvents);
+    }
+
+    @Test
+    public void operationsSubmittedAfterPauseStillRun() {
+        mExecutor.execute(record("open 0"));
+        mExecutor.invalidate();
+        mExecutor.execute(record("release"));
+        mCameraThread.runAll();
+
+        assertEquals(Arrays.asList("open 0", "release"), mEvents);
+    }
+
+    @Test
+    public void executeAndWaitBlocksUntilOperationRan() {
+        ExecutorService thread = Executors.newSingleThreadExecutor();
+        try {
+            CameraExecutor executor = new CameraExecutor(thread, mUiThread);
+            final boolean[] ran = {false};
+            boolean completed = executor.executeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    sleep(50);
+                    ran[0] = true;
+                }
+            }, 5000);
+
+            assertTrue(completed);
+            assertTrue(ran[0]);
+        } finally {
+            thread.shutdownNow();
+        }
+    }
+
+    @Test
+    public void executeAndWaitTimesOut() {
+        // The queue is never drained so the operation never runs.
+        assertFalse(mExecutor.executeAndWait(record("stop"), 10));
+        assertTrue(mEvents.isEmpty());
+    }
+
+    @Test
+    public void quitInvalidatesPendingUiCallbacks() {
+        mExecutor.execute(postToUi("layout"));
+        mCameraThread.runAll();
+        mExecutor.quit();
+        mUiThread.runAll();
+
+        assertTrue(mExecutor.isQuit());
+        assertTrue(mEvents.isEmpty());
+    }
+
+    private Runnable record(final String event) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mEvents.add(event);
+            }
+        };
+    }
+
+    private Runnable postToUi(final String event) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mExecutor.postToUi(record(event));
+            }
+        };
+    }
+
+    private Runnable openAndLayout(final String event) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mEvents.add(event);
+                mExecutor.postToUi(record("layout " + event));
+            }
+        };
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
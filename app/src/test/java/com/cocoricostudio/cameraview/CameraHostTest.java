@@ -0,0 +1,233 @@
+package com.cocoricostudio.cameraview;
+
+import android.hardware.Camera;
+import android.support.annotation.NonNull;
+import android.view.Surface;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CameraHostTest {
+
+    private static final int VIEW_ID = 42;
+
+    private QueueExecutor mCameraThread;
+    private FakeCameraDriver mDriver;
+    private CameraHost mHost;
+    private final List<String> mConfigured = new ArrayList<>();
+
+    private final CameraHost.DriverFactory mDriverFactory = new CameraHost.DriverFactory() {
+        @NonNull
+        @Override
+        public CameraDriver create(@NonNull PreviewTarget previewTarget, @NonNull FramePipeline framePipeline,
+                                   @NonNull CameraDriver.FrameCallback frameCallback, @NonNull CameraMetrics metrics) {
+            return mDriver;
+        }
+    };
+
+    private final CameraSession.Listener mListener = new CameraSession.Listener() {
+        @Override
+        public void onConfigured(@NonNull Size previewSize, boolean relayout, boolean resizeSurface) {
+            mConfigured.add(previewSize + (relayout ? " relayout" : "") + (resizeSurface ? " resize" : ""));
+        }
+    };
+
+    private final CameraDriver.FrameCallback mFrameCallback = new CameraDriver.FrameCallback() {
+        @Override
+        public void onFrame(@NonNull byte[] data) {
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mCameraThread = new QueueExecutor();
+        mDriver = new FakeCameraDriver();
+        mHost = new CameraHost(new CameraExecutor(mCameraThread, new QueueExecutor()), new FramePipeline(),
+                new CameraMetrics(), mDriverFactory, new CameraCapabilitiesCache(), 0);
+    }
+
+    @After
+    public void tearDown() {
+        // Hosts are parked and prewarmed process-wide.
+        CameraHost.adopt(VIEW_ID);
+        CameraHost.adoptPrewarmed();
+    }
+
+    @Test
+    public void repeatedRotationsOpenTheCameraOnce() {
+        mHost.bind(new FakePreviewTarget(), mFrameCallback, mListener);
+        mHost.session.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+        mHost.session.onSurfaceChanged();
+        assertEquals(CameraSession.State.PREVIEWING, mHost.session.getState());
+
+        int[] rotations = {1, 0, 3, 0, 1, 2, 1, 0};
+        for (int screenRotation : rotations) {
+            rotate(screenRotation);
+            assertEquals(CameraSession.State.PREVIEWING, mHost.session.getState());
+        }
+
+        List<String> operations = mDriver.takeOperations();
+        assertEquals(1, Collections.frequency(operations, "open 0"));
+        assertEquals(1, Collections.frequency(operations, "configure 0 1280x720 90"));
+        assertFalse(operations.contains("release"));
+        assertEquals(rotations.length + 1, Collections.frequency(operations, "start"));
+        // Each new view is told the preview size to lay its surface out.
+        assertEquals(rotations.length + 1, mConfigured.size());
+        assertEquals("1280x720 relayout", mConfigured.get(rotations.length));
+    }
+
+    @Test
+    public void previewIsRotatedForTheNewScreenRotation() {
+        mHost.bind(new FakePreviewTarget(), mFrameCallback, mListener);
+        mHost.session.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+        mHost.session.onSurfaceChanged();
+        mDriver.takeOperations();
+
+        rotate(Surface.ROTATION_90);
+
+        // Back camera mounted at 90 degrees.
+        assertEquals(Arrays.asList("stop", "orientation 0", "start"), mDriver.takeOperations());
+    }
+
+    @Test
+    public void parkedHostIsAdoptedOnce() {
+        CameraHost.park(VIEW_ID, mHost);
+
+        assertTrue(CameraHost.isParked(VIEW_ID, mHost));
+        assertNull(CameraHost.adopt(VIEW_ID + 1));
+        assertSame(mHost, CameraHost.adopt(VIEW_ID));
+        assertNull(CameraHost.adopt(VIEW_ID));
+        assertFalse(CameraHost.closeIfParked(VIEW_ID, mHost));
+    }
+
+    @Test
+    public void hostNotAdoptedInTimeIsClosed() {
+        mHost.bind(new FakePreviewTarget(), mFrameCallback, mListener);
+        mHost.session.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+        mDriver.takeOperations();
+
+        mHost.unbind();
+        CameraHost.park(VIEW_ID, mHost);
+        assertTrue(CameraHost.closeIfParked(VIEW_ID, mHost));
+        mCameraThread.runAll();
+
+        assertEquals(Collections.singletonList("release"), mDriver.takeOperations());
+        assertTrue(mHost.executor.isQuit());
+        assertNull(CameraHost.adopt(VIEW_ID));
+    }
+
+    @Test
+    public void prewarmedHostIsConfiguredBeforeItsView() {
+        mHost.session.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        CameraHost.prewarm(mHost);
+        mCameraThread.runAll();
+        assertEquals(Arrays.asList("open 0", "configure 0 1280x720 90"), mDriver.takeOperations());
+        assertTrue(mConfigured.isEmpty());
+
+        CameraHost host = CameraHost.adoptPrewarmed();
+        assertSame(mHost, host);
+        host.bind(new FakePreviewTarget(), mFrameCallback, mListener);
+        host.session.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+        assertEquals(Collections.singletonList("1280x720 relayout"), mConfigured);
+
+        host.session.onSurfaceChanged();
+        assertEquals(Collections.singletonList("start"), mDriver.takeOperations());
+        assertNull(CameraHost.adoptPrewarmed());
+    }
+
+    @Test
+    public void prewarmedHostNotAdoptedInTimeIsClosed() {
+        mHost.session.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        CameraHost.prewarm(mHost);
+        mCameraThread.runAll();
+        mDriver.takeOperations();
+
+        assertTrue(CameraHost.closeIfPrewarmed(mHost));
+        mCameraThread.runAll();
+
+        assertEquals(Collections.singletonList("release"), mDriver.takeOperations());
+        assertNull(CameraHost.adoptPrewarmed());
+        assertFalse(CameraHost.closeIfPrewarmed(mHost));
+    }
+
+    @Test
+    public void prewarmingAgainClosesThePreviousHost() {
+        CameraHost.prewarm(mHost);
+        CameraHost other = new CameraHost(new CameraExecutor(new QueueExecutor(), new QueueExecutor()),
+                new FramePipeline(), new CameraMetrics(), mDriverFactory, new CameraCapabilitiesCache(), 0);
+        CameraHost.prewarm(other);
+
+        assertTrue(mHost.executor.isQuit());
+        assertSame(other, CameraHost.adoptPrewarmed());
+    }
+
+    @Test
+    public void parkedHostStopsDeliveringFrames() {
+        mHost.framePipeline.subscribe(new FrameConsumer() {
+            @Override
+            public void onFrame(@NonNull Frame frame) {
+                frame.release();
+            }
+        }, new QueueExecutor(), 1, FrameConsumer.OverflowPolicy.DROP_OLDEST, 0);
+        mHost.session.setFrameDelivery(true);
+
+        mHost.unbind();
+        CameraHost.park(VIEW_ID, mHost);
+        mCameraThread.runAll();
+
+        assertFalse(mHost.framePipeline.hasSubscriptions());
+        assertFalse(mDriver.mFrameDelivery);
+    }
+
+    /**
+     * The activity is recreated: the previous view parks the host and its surface is destroyed,
+     * then the new view adopts it and its surface gets ready.
+     */
+    private void rotate(int screenRotation) {
+        mHost.unbind();
+        CameraHost.park(VIEW_ID, mHost);
+        mHost.session.onSurfaceDestroyed();
+
+        CameraHost host = CameraHost.adopt(VIEW_ID);
+        assertSame(mHost, host);
+        host.bind(new FakePreviewTarget(), mFrameCallback, mListener);
+        host.session.setScreenRotation(screenRotation);
+        host.session.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+        host.session.onSurfaceChanged();
+    }
+
+    private static class FakePreviewTarget extends PreviewTarget {
+
+        @Override
+        void setOn(@NonNull Camera camera) {
+        }
+
+        @NonNull
+        @Override
+        Surface getSurface(@NonNull Size previewSize) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        boolean isBufferSizeSetByView() {
+            return false;
+        }
+    }
+}
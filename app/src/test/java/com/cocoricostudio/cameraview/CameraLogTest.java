@@ -0,0 +1,112 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.Surface;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CameraLogTest {
+
+    private static final List<Size> SIZES = Arrays.asList(
+            new Size(1920, 1080), new Size(1440, 1080), new Size(1280, 720), new Size(640, 480));
+    private static final ScaleMode[] SCALE_MODES = ScaleMode.values();
+
+    private CameraLogger mPreviousLogger;
+
+    @Before
+    public void setUp() {
+        mPreviousLogger = CameraLog.getLogger();
+    }
+
+    @After
+    public void tearDown() {
+        CameraLog.setLogger(mPreviousLogger);
+    }
+
+    @Test
+    public void messagesBelowTheLevelAreNotLogged() {
+        RecordingLogger logger = new RecordingLogger(Log.WARN);
+        CameraLog.setLogger(logger);
+
+        CameraLog.v("Tag", "verbose");
+        CameraLog.w("Tag", "warning");
+        CameraLog.e("Tag", "error", new RuntimeException());
+
+        assertFalse(CameraLog.isVerbose());
+        assertEquals(Arrays.asList("W/Tag: warning", "E/Tag: error"), logger.mMessages);
+    }
+
+    @Test
+    public void layoutIsLoggedWhenVerbose() {
+        RecordingLogger logger = new RecordingLogger(Log.VERBOSE);
+        CameraLog.setLogger(logger);
+
+        CameraUtils.layoutPreview(1920, 1080, new Size(1440, 1080), Surface.ROTATION_90, ScaleMode.FIT, new int[4]);
+
+        assertEquals(1, logger.mMessages.size());
+        assertTrue(logger.mMessages.get(0).contains("1440x1080"));
+    }
+
+    @Test
+    public void layoutDoesNotAllocateWhenNotLogging() {
+        CameraLog.setLogger(CameraLogger.NONE);
+        final Size previewSize = new Size(1440, 1080);
+        final int[] bounds = new int[4];
+
+        AllocationAssert.assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                // A single log message is hundreds of bytes.
+                for (int i = 0; i < 10000; i++) {
+                    layout(previewSize, bounds, i);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void sizesAreNotLoggedWhenNotLogging() {
+        RecordingLogger logger = new RecordingLogger(Log.DEBUG);
+        CameraLog.setLogger(logger);
+
+        CameraUtils.logSizes("Sizes", SIZES);
+
+        assertTrue(logger.mMessages.isEmpty());
+    }
+
+    private static void layout(Size previewSize, int[] bounds, int i) {
+        CameraUtils.layoutPreview(1080 + (i & 1), 1920, previewSize, i & 3, SCALE_MODES[i % SCALE_MODES.length], bounds);
+    }
+
+    private static class RecordingLogger extends CameraLogger {
+
+        final List<String> mMessages = new ArrayList<>();
+        private final int mMinLevel;
+
+        RecordingLogger(int minLevel) {
+            mMinLevel = minLevel;
+        }
+
+        @Override
+        public boolean isLoggable(int level) {
+            return level >= mMinLevel;
+        }
+
+        @Override
+        public void log(int level, @NonNull String tag, @NonNull String message, @Nullable Throwable throwable) {
+            mMessages.add((level == Log.ERROR ? "E" : level == Log.WARN ? "W" : "V") + "/" + tag + ": " + message);
+        }
+    }
+}
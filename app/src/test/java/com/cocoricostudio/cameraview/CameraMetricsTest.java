@@ -0,0 +1,167 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CameraMetricsTest {
+
+    private final CameraMetrics mMetrics = new CameraMetrics();
+
+    @Test
+    public void nothingMeasuredInitially() {
+        assertEquals(-1, mMetrics.getLastSwitchLatencyNs());
+        assertEquals(-1, mMetrics.getMaxSwitchLatencyNs());
+        assertEquals(0, mMetrics.getSwitchCount());
+    }
+
+    @Test
+    public void switchLatencyLastsUntilTheFirstFrame() {
+        mMetrics.onSwitchRequested(1000);
+        assertTrue(mMetrics.isSwitchPending());
+
+        mMetrics.onPreviewFrame(1500);
+        mMetrics.onPreviewFrame(1600);
+
+        assertFalse(mMetrics.isSwitchPending());
+        assertEquals(500, mMetrics.getLastSwitchLatencyNs());
+        assertEquals(1, mMetrics.getSwitchCount());
+    }
+
+    @Test
+    public void framesWithoutSwitchAreIgnored() {
+        mMetrics.onPreviewFrame(1500);
+        assertEquals(-1, mMetrics.getLastSwitchLatencyNs());
+        assertEquals(0, mMetrics.getSwitchCount());
+    }
+
+    @Test
+    public void maxSwitchLatency() {
+        mMetrics.onSwitchRequested(0);
+        mMetrics.onPreviewFrame(800);
+        mMetrics.onSwitchRequested(1000);
+        mMetrics.onPreviewFrame(1300);
+
+        assertEquals(300, mMetrics.getLastSwitchLatencyNs());
+        assertEquals(800, mMetrics.getMaxSwitchLatencyNs());
+        assertEquals(2, mMetrics.getSwitchCount());
+    }
+
+    @Test
+    public void switchingAgainBeforeTheFirstFrameMeasuresFromTheFirstRequest() {
+        mMetrics.onSwitchRequested(1000);
+        mMetrics.onSwitchRequested(1200);
+        mMetrics.onPreviewFrame(2000);
+
+        assertEquals(1000, mMetrics.getLastSwitchLatencyNs());
+        assertEquals(1, mMetrics.getSwitchCount());
+    }
+
+    @Test
+    public void cancelledSwitchIsNotMeasured() {
+        mMetrics.onSwitchRequested(1000);
+        mMetrics.onSwitchCancelled();
+        mMetrics.onPreviewFrame(2000);
+
+        assertEquals(-1, mMetrics.getLastSwitchLatencyNs());
+        assertEquals(0, mMetrics.getSwitchCount());
+    }
+
+    @Test
+    public void timeToFirstFrameAfterOpen() {
+        mMetrics.onOpenRequested(1000);
+        assertTrue(mMetrics.isFirstFramePending());
+        assertFalse(mMetrics.isSwitchPending());
+
+        mMetrics.onPreviewFrame(3000);
+        mMetrics.onPreviewFrame(4000);
+
+        assertFalse(mMetrics.isFirstFramePending());
+        assertEquals(2000, mMetrics.getTimeToFirstFrameNs());
+        assertEquals(0, mMetrics.getSwitchCount());
+    }
+
+    @Test
+    public void warmStartIsMeasuredAsSuch() {
+        mMetrics.onWarmStartRequested(1000);
+        mMetrics.onPreviewFrame(1200);
+        assertEquals(200, mMetrics.getTimeToFirstFrameNs());
+        assertTrue(mMetrics.isTimeToFirstFrameWarm());
+        assertTrue(mMetrics.snapshot().isTimeToFirstFrameWarm());
+
+        mMetrics.onWarmStartRequested(2000);
+        mMetrics.onOpenRequested(2100);
+        mMetrics.onPreviewFrame(3000);
+        assertEquals(900, mMetrics.getTimeToFirstFrameNs());
+        assertFalse(mMetrics.isTimeToFirstFrameWarm());
+    }
+
+    @Test
+    public void cancelledOpenIsNotMeasured() {
+        mMetrics.onOpenRequested(1000);
+        mMetrics.onOpenCancelled();
+        mMetrics.onPreviewFrame(2000);
+
+        assertEquals(-1, mMetrics.getTimeToFirstFrameNs());
+    }
+
+    @Test
+    public void snapshotOfTheFrameIntervals() {
+        mMetrics.onOpened(5000);
+        mMetrics.onConfigured(7000);
+        mMetrics.setFrameRateCounted(true);
+        for (int i = 0; i < 100; i++) {
+            // 30 fps, every tenth frame late.
+            mMetrics.onFrameCaptured(i * 33000000L + (i % 10 == 9 ? 20000000L : 0));
+        }
+        CameraMetrics.Snapshot snapshot = mMetrics.snapshot();
+
+        assertEquals(5000, snapshot.getOpenDurationNs());
+        assertEquals(7000, snapshot.getConfigureDurationNs());
+        assertEquals(99, snapshot.getFrameIntervalCount());
+        assertEquals(33000000, snapshot.getFrameIntervalNs(50), 33000000 / 32);
+        assertEquals(53000000, snapshot.getFrameIntervalNs(99), 53000000 / 32);
+        assertEquals(53000000, snapshot.getMaxFrameIntervalNs());
+        assertEquals((99 * 33000000L + 20000000L) / 99, snapshot.getMeanFrameIntervalNs(), 1000);
+        assertEquals(30.3f, snapshot.getFrameRate(), 0.1f);
+        assertEquals(-1, snapshot.getTimeToFirstFrameNs());
+    }
+
+    @Test
+    public void noFrameIntervalUnlessCounted() {
+        mMetrics.onFrameCaptured(0);
+        mMetrics.onFrameCaptured(33000000);
+        CameraMetrics.Snapshot snapshot = mMetrics.snapshot();
+
+        assertEquals(0, snapshot.getFrameIntervalCount());
+        assertEquals(-1, snapshot.getFrameIntervalNs(50));
+        assertEquals(-1, snapshot.getMeanFrameIntervalNs());
+        assertEquals(-1, snapshot.getMaxFrameIntervalNs());
+    }
+
+    @Test
+    public void listenerIsNotifiedOfMeasures() {
+        final int[] updates = new int[1];
+        mMetrics.setListener(new CameraMetrics.Listener() {
+            @Override
+            public void onMetricsUpdated(@NonNull CameraMetrics metrics) {
+                updates[0]++;
+            }
+        });
+        mMetrics.onOpenRequested(0);
+        mMetrics.onPreviewFrame(1000);
+        mMetrics.onPreviewFrame(2000);
+        assertEquals(1, updates[0]);
+
+        mMetrics.setFrameRateCounted(true);
+        for (int i = 0; i <= 60; i++) {
+            mMetrics.onFrameCaptured(i * 33000000L);
+        }
+        // One window of a second.
+        assertEquals(2, updates[0]);
+    }
+}
@@ -0,0 +1,432 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+import android.view.Surface;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CameraSessionTest {
+
+    private QueueExecutor mCameraThread;
+    private FakeCameraDriver mDriver;
+    private CameraMetrics mMetrics;
+    private List<String> mConfigured;
+    private CameraSession mSession;
+
+    @Before
+    public void setUp() {
+        mCameraThread = new QueueExecutor();
+        mDriver = new FakeCameraDriver();
+        mMetrics = new CameraMetrics();
+        mConfigured = new ArrayList<>();
+        mSession = new CameraSession(new CameraExecutor(mCameraThread, new QueueExecutor()), mDriver,
+                new CameraCapabilitiesCache(), mMetrics, new CameraSession.Listener() {
+            @Override
+            public void onConfigured(@NonNull Size previewSize, boolean relayout, boolean resizeSurface) {
+                mConfigured.add(previewSize + (relayout ? " relayout" : "") + (resizeSurface ? " resize" : ""));
+            }
+        }, 0);
+    }
+
+    @Test
+    public void previewStartsOnceConfiguredWithASurface() {
+        mSession.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+
+        assertEquals(CameraSession.State.CONFIGURED, mSession.getState());
+        assertEquals(Arrays.asList("open 0", "configure 0 1280x720 90"), mDriver.takeOperations());
+        assertEquals(Collections.singletonList("1280x720 relayout"), mConfigured);
+
+        mSession.onSurfaceChanged();
+        mSession.onSurfaceChanged();
+        mSession.onLayoutDone();
+
+        assertEquals(CameraSession.State.PREVIEWING, mSession.getState());
+        assertEquals(Collections.singletonList("start"), mDriver.takeOperations());
+    }
+
+    @Test
+    public void previewStartsOnOpenIfTheSurfaceIsReady() {
+        mSession.onSurfaceChanged();
+        mSession.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+        // Laid out to the ratio of the preview.
+        assertEquals(Arrays.asList("open 0", "configure 0 1280x720 90"), mDriver.takeOperations());
+
+        mSession.onLayoutDone();
+        assertEquals(Collections.singletonList("start"), mDriver.takeOperations());
+    }
+
+    @Test
+    public void burstOfPreviewSizesIsCoalesced() {
+        startPreview(0);
+
+        mSession.setTargetPreviewSize(1920, 1080, PreviewSizeScorer.BALANCED);
+        mSession.setTargetPreviewSize(640, 480, PreviewSizeScorer.BALANCED);
+        mSession.setTargetPreviewSize(1440, 1080, PreviewSizeScorer.BALANCED);
+        assertEquals(1, mCameraThread.size());
+        mCameraThread.runAll();
+
+        // Same ratio as 640x480, the layout is kept.
+        assertEquals(Arrays.asList("stop", "configure 0 1440x1080 90"), mDriver.takeOperations());
+        assertEquals(CameraSession.State.CONFIGURED, mSession.getState());
+        mSession.onLayoutDone();
+        assertEquals(Collections.singletonList("start"), mDriver.takeOperations());
+        assertEquals(CameraSession.State.PREVIEWING, mSession.getState());
+    }
+
+    @Test
+    public void sameRatioRestartsWithoutLayout() {
+        startPreview(0);
+
+        mSession.setTargetPreviewSize(1920, 1080, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+
+        assertEquals(Arrays.asList("stop", "configure 0 1920x1080 90", "start"), mDriver.takeOperations());
+        assertEquals(Collections.singletonList("1920x1080"), mConfigured);
+        assertEquals(CameraSession.State.PREVIEWING, mSession.getState());
+    }
+
+    @Test
+    public void sizedSurfaceIsResizedBeforeThePreviewStarts() {
+        mDriver.mSurfaceSizedToPreview = true;
+        startPreview(0);
+
+        mSession.setTargetPreviewSize(1920, 1080, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+        assertEquals(Collections.singletonList("1920x1080 resize"), mConfigured);
+        assertEquals(Arrays.asList("stop", "configure 0 1920x1080 90"), mDriver.takeOperations());
+
+        // Laying out is not enough, the buffers of the surface must have been resized.
+        mSession.onLayoutDone();
+        assertTrue(mDriver.takeOperations().isEmpty());
+        mSession.onSurfaceChanged();
+        assertEquals(Collections.singletonList("start"), mDriver.takeOperations());
+    }
+
+    @Test
+    public void sizedSurfaceIsKeptAcrossReopening() {
+        mDriver.mSurfaceSizedToPreview = true;
+        startPreview(0);
+
+        mSession.close();
+        mCameraThread.runAll();
+        mSession.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+
+        assertEquals(Collections.singletonList("1280x720"), mConfigured);
+        assertEquals(Arrays.asList("release", "open 0", "configure 0 1280x720 90", "start"), mDriver.takeOperations());
+    }
+
+    @Test
+    public void redundantRequestsDoNothing() {
+        startPreview(0);
+
+        mSession.setTargetPreviewSize(1280, 720, PreviewSizeScorer.BALANCED);
+        mSession.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+
+        assertTrue(mDriver.takeOperations().isEmpty());
+        assertTrue(mConfigured.isEmpty());
+        assertEquals(CameraSession.State.PREVIEWING, mSession.getState());
+    }
+
+    @Test
+    public void switchReleasesBeforeOpening() {
+        startPreview(0);
+
+        mSession.switchCamera(1, 100);
+        mCameraThread.runAll();
+
+        assertEquals(Arrays.asList("release", "open 1", "configure 1 1280x720 90", "start"), mDriver.takeOperations());
+        assertEquals(1, mSession.getCameraId());
+        assertTrue(mMetrics.isSwitchPending());
+
+        mMetrics.onPreviewFrame(600);
+        assertEquals(500, mMetrics.getLastSwitchLatencyNs());
+    }
+
+    @Test
+    public void switchBackBeforeItRunsDoesNotReopen() {
+        startPreview(0);
+
+        mSession.switchCamera(1, 100);
+        mSession.switchCamera(0, 200);
+        mCameraThread.runAll();
+
+        assertTrue(mDriver.takeOperations().isEmpty());
+        assertFalse(mMetrics.isSwitchPending());
+    }
+
+    @Test
+    public void switchedCameraIsConfiguredFromCachedCapabilities() {
+        startPreview(0);
+        mSession.switchCamera(1, 100);
+        mCameraThread.runAll();
+        mSession.switchCamera(0, 200);
+        mCameraThread.runAll();
+
+        assertEquals(2, mDriver.mCapabilityQueries);
+    }
+
+    @Test
+    public void closeReleases() {
+        startPreview(0);
+
+        mSession.close();
+        mCameraThread.runAll();
+
+        assertEquals(Collections.singletonList("release"), mDriver.takeOperations());
+        assertEquals(CameraSession.State.CLOSED, mSession.getState());
+    }
+
+    @Test
+    public void pauseResumeBurstKeepsTheCamera() {
+        startPreview(0);
+
+        mSession.close();
+        mSession.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+
+        assertTrue(mDriver.takeOperations().isEmpty());
+        assertEquals(CameraSession.State.PREVIEWING, mSession.getState());
+    }
+
+    @Test
+    public void closeCancelsThePendingSwitch() {
+        startPreview(0);
+        mSession.switchCamera(1, 100);
+        mCameraThread.runAll();
+
+        mSession.close();
+        mCameraThread.runAll();
+
+        assertFalse(mMetrics.isSwitchPending());
+    }
+
+    @Test
+    public void failedOpenCloses() {
+        mDriver.mUnavailableCameras.add(0);
+        mSession.onSurfaceChanged();
+        mSession.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+
+        assertEquals(Collections.singletonList("open 0 failed"), mDriver.takeOperations());
+        assertEquals(CameraSession.State.CLOSED, mSession.getState());
+
+        // Tried again on the next request.
+        mDriver.mUnavailableCameras.clear();
+        mSession.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+        assertEquals(Arrays.asList("open 0", "configure 0 1280x720 90"), mDriver.takeOperations());
+    }
+
+    @Test
+    public void destroyedSurfaceStopsThePreview() {
+        startPreview(0);
+
+        mSession.onSurfaceDestroyed();
+        assertEquals(Collections.singletonList("stop"), mDriver.takeOperations());
+        assertEquals(CameraSession.State.CONFIGURED, mSession.getState());
+
+        // Reconfigured without a surface, started once one is back.
+        mSession.setTargetPreviewSize(1920, 1080, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+        assertEquals(Collections.singletonList("configure 0 1920x1080 90"), mDriver.takeOperations());
+
+        mSession.onSurfaceChanged();
+        assertEquals(Collections.singletonList("start"), mDriver.takeOperations());
+    }
+
+    @Test
+    public void targetFrameRateReconfiguresOnlyWhenItChanges() {
+        startPreview(0);
+
+        mSession.setTargetFrameRate(30000, true);
+        mCameraThread.runAll();
+        assertEquals(Arrays.asList("stop", "configure 0 1280x720 90 30000-30000", "start"), mDriver.takeOperations());
+
+        mSession.setTargetFrameRate(30000, true);
+        mCameraThread.runAll();
+        assertEquals(Collections.emptyList(), mDriver.takeOperations());
+
+        // 1920x1080 only streams at 15 fps.
+        mSession.setTargetPreviewSize(1920, 1080, PreviewSizeScorer.BALANCED);
+        mSession.setTargetFrameRate(30000, false);
+        mCameraThread.runAll();
+        assertEquals(Arrays.asList("stop", "configure 0 1440x1080 90 15000-30000"), mDriver.takeOperations());
+    }
+
+    @Test
+    public void openAndConfigurationAreMeasured() {
+        mSession.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+
+        assertTrue(mMetrics.getOpenDurationNs() >= 0);
+        assertTrue(mMetrics.getConfigureDurationNs() >= 0);
+        // Until the first frame.
+        assertTrue(mMetrics.isFirstFramePending());
+
+        mMetrics.onPreviewFrame(System.nanoTime());
+        assertTrue(mMetrics.getTimeToFirstFrameNs() >= 0);
+    }
+
+    @Test
+    public void timeToFirstFrameIsNotMeasuredOnceClosed() {
+        mSession.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mSession.close();
+        mCameraThread.runAll();
+
+        assertFalse(mMetrics.isFirstFramePending());
+
+        mDriver.mUnavailableCameras.add(0);
+        mSession.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+        assertFalse(mMetrics.isFirstFramePending());
+        assertEquals(-1, mMetrics.getOpenDurationNs());
+    }
+
+    @Test
+    public void rotationKeepsThePreviewRunning() {
+        startPreview(0);
+
+        mSession.setScreenRotation(Surface.ROTATION_90);
+        mCameraThread.runAll();
+
+        // Back camera mounted at 90 degrees.
+        assertEquals(Collections.singletonList("orientation 0"), mDriver.takeOperations());
+        assertEquals(CameraSession.State.PREVIEWING, mSession.getState());
+        assertEquals(0, mSession.getConfiguration().displayOrientation);
+        assertTrue(mConfigured.isEmpty());
+
+        mSession.setScreenRotation(Surface.ROTATION_90);
+        mCameraThread.runAll();
+        assertEquals(Collections.emptyList(), mDriver.takeOperations());
+    }
+
+    @Test
+    public void settingsAreAppliedWithoutStoppingThePreview() {
+        startPreview(0);
+
+        mSession.setSettings(new CameraSettings(200, FocusMode.DEFAULT, FlashMode.TORCH, 0));
+        mSession.setSettings(new CameraSettings(300, FocusMode.DEFAULT, FlashMode.TORCH, 1));
+        mCameraThread.runAll();
+
+        // Coalesced into a single update of the camera.
+        assertEquals(Collections.singletonList("settings zoom 300, DEFAULT, flash TORCH, exposure 1"),
+                mDriver.takeOperations());
+        assertEquals(CameraSession.State.PREVIEWING, mSession.getState());
+        assertTrue(mConfigured.isEmpty());
+
+        mSession.setSettings(new CameraSettings(300, FocusMode.DEFAULT, FlashMode.TORCH, 1));
+        mCameraThread.runAll();
+        assertEquals(Collections.emptyList(), mDriver.takeOperations());
+    }
+
+    @Test
+    public void parametersChangingThePreviewSizeRestartItOnce() {
+        startPreview(0);
+
+        CameraSettings settings = new CameraSettings(200, FocusMode.CONTINUOUS_VIDEO, FlashMode.OFF, 0);
+        mSession.setParameters(1920, 1080, PreviewSizeScorer.BALANCED, 0, false, settings);
+        mCameraThread.runAll();
+
+        // The settings are applied with the configuration.
+        assertEquals(Arrays.asList("stop", "configure 0 1920x1080 90 " + settings, "start"), mDriver.takeOperations());
+        assertEquals(settings, mSession.getConfiguration().settings);
+    }
+
+    @Test
+    public void settingsAndRotationAreAppliedTogether() {
+        startPreview(0);
+
+        mSession.setScreenRotation(Surface.ROTATION_90);
+        mSession.setSettings(new CameraSettings(100, FocusMode.INFINITY, FlashMode.OFF, 0));
+        mCameraThread.runAll();
+
+        assertEquals(Arrays.asList("orientation 0", "settings zoom 100, INFINITY, flash OFF, exposure 0"),
+                mDriver.takeOperations());
+        assertEquals(CameraSession.State.PREVIEWING, mSession.getState());
+    }
+
+    @Test
+    public void settingsRequestedBeforeOpeningAreConfigured() {
+        CameraSettings settings = new CameraSettings(100, FocusMode.DEFAULT, FlashMode.AUTO, 0);
+        mSession.setSettings(settings);
+        mSession.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+
+        assertEquals(Arrays.asList("open 0", "configure 0 1280x720 90 " + settings), mDriver.takeOperations());
+    }
+
+    @Test
+    public void timeToFirstFrameOfACameraOpenedAheadIsWarm() {
+        mSession.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+        mMetrics.onPreviewFrame(System.nanoTime());
+        assertFalse(mMetrics.isTimeToFirstFrameWarm());
+
+        // Prewarmed: opened and configured, the view resumes later.
+        mSession.close();
+        mCameraThread.runAll();
+        mSession.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+        mSession.measureTimeToFirstFrame(100);
+        mCameraThread.runAll();
+        mSession.onSurfaceChanged();
+        mMetrics.onPreviewFrame(600);
+
+        assertEquals(500, mMetrics.getTimeToFirstFrameNs());
+        assertTrue(mMetrics.isTimeToFirstFrameWarm());
+    }
+
+    @Test
+    public void timeToFirstFrameIsNotMeasuredAgainWhilePreviewing() {
+        startPreview(0);
+        mMetrics.onPreviewFrame(System.nanoTime());
+
+        mSession.measureTimeToFirstFrame(100);
+        mCameraThread.runAll();
+
+        assertFalse(mMetrics.isFirstFramePending());
+    }
+
+    @Test
+    public void frameDeliveryIsForwarded() {
+        mSession.setFrameDelivery(true);
+        assertTrue(mDriver.mFrameDelivery);
+    }
+
+    @Test
+    public void recordingFollowsTheConfiguredCamera() {
+        assertNull(mSession.getConfiguration());
+
+        startPreview(0);
+
+        assertEquals(new Size(1280, 720), mSession.getConfiguration().previewSize);
+        assertEquals(90, mSession.getRecordingOrientation());
+        mSession.switchCamera(1, 0);
+        mCameraThread.runAll();
+        assertEquals(270, mSession.getRecordingOrientation());
+    }
+
+    private void startPreview(int cameraId) {
+        mSession.open(cameraId, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+        mSession.onSurfaceChanged();
+        assertEquals(CameraSession.State.PREVIEWING, mSession.getState());
+        mDriver.takeOperations();
+        mConfigured.clear();
+    }
+}
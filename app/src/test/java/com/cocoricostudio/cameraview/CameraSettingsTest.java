@@ -0,0 +1,47 @@
+package com.cocoricostudio.cameraview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class CameraSettingsTest {
+
+    @Test
+    public void sameSettingsHaveNoDiff() {
+        CameraSettings settings = new CameraSettings(250, FocusMode.CONTINUOUS_PICTURE, FlashMode.AUTO, 1);
+
+        assertEquals(0, settings.diff(new CameraSettings(250, FocusMode.CONTINUOUS_PICTURE, FlashMode.AUTO, 1)));
+        assertEquals(settings, new CameraSettings(250, FocusMode.CONTINUOUS_PICTURE, FlashMode.AUTO, 1));
+        assertEquals(settings.hashCode(),
+                new CameraSettings(250, FocusMode.CONTINUOUS_PICTURE, FlashMode.AUTO, 1).hashCode());
+    }
+
+    @Test
+    public void eachChangedSettingIsFlagged() {
+        CameraSettings previous = CameraSettings.DEFAULT;
+
+        assertEquals(CameraSettings.CHANGED_ZOOM,
+                new CameraSettings(200, FocusMode.DEFAULT, FlashMode.OFF, 0).diff(previous));
+        assertEquals(CameraSettings.CHANGED_FOCUS_MODE,
+                new CameraSettings(100, FocusMode.INFINITY, FlashMode.OFF, 0).diff(previous));
+        assertEquals(CameraSettings.CHANGED_FLASH_MODE,
+                new CameraSettings(100, FocusMode.DEFAULT, FlashMode.TORCH, 0).diff(previous));
+        assertEquals(CameraSettings.CHANGED_EXPOSURE_COMPENSATION,
+                new CameraSettings(100, FocusMode.DEFAULT, FlashMode.OFF, -3).diff(previous));
+    }
+
+    @Test
+    public void severalChangesAreCombined() {
+        CameraSettings settings = new CameraSettings(400, FocusMode.CONTINUOUS_VIDEO, FlashMode.OFF, 2);
+
+        assertEquals(CameraSettings.CHANGED_ZOOM | CameraSettings.CHANGED_FOCUS_MODE
+                | CameraSettings.CHANGED_EXPOSURE_COMPENSATION, settings.diff(CameraSettings.DEFAULT));
+        assertNotEquals(CameraSettings.DEFAULT, settings);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zoomBelowOneIsRejected() {
+        new CameraSettings(99, FocusMode.DEFAULT, FlashMode.OFF, 0);
+    }
+}
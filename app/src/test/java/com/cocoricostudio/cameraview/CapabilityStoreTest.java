@@ -0,0 +1,213 @@
+package com.cocoricostudio.cameraview;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CapabilityStoreTest {
+
+    private static final String KEY = "brand/product/device:9/PQ1A/1234:user/release-keys/camera1";
+
+    private File mFile;
+    private CapabilityStore mStore;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("capabilities", ".bin");
+        mFile.delete();
+        mStore = new CapabilityStore(mFile, KEY);
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        new File(mFile.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void capabilitiesSurviveARoundTrip() {
+        assertTrue(mStore.save(Arrays.asList(FakeCameraDriver.BACK, FakeCameraDriver.FRONT)));
+
+        Map<Integer, CameraCapabilities> loaded = new CapabilityStore(mFile, KEY).load();
+
+        assertEquals(2, loaded.size());
+        assertCapabilitiesEqual(FakeCameraDriver.BACK, loaded.get(0));
+        assertCapabilitiesEqual(FakeCameraDriver.FRONT, loaded.get(1));
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void unboundedFrameRatesSurvive() {
+        // No frame rate range: every size at Integer.MAX_VALUE.
+        CameraCapabilities capabilities = new CameraCapabilities(3, 1, 0,
+                Collections.singletonList(new Size(4032, 3024)), Collections.singletonList(17),
+                Collections.<int[]>emptyList());
+        mStore.save(Collections.singletonList(capabilities));
+
+        assertCapabilitiesEqual(capabilities, mStore.load().get(3));
+    }
+
+    @Test
+    public void saveReplacesTheCapabilities() {
+        mStore.save(Arrays.asList(FakeCameraDriver.BACK, FakeCameraDriver.FRONT));
+        mStore.save(Collections.singletonList(FakeCameraDriver.FRONT));
+
+        assertEquals(Collections.singleton(1), mStore.load().keySet());
+    }
+
+    @Test
+    public void noFileLoadsNothing() {
+        assertTrue(mStore.load().isEmpty());
+    }
+
+    @Test
+    public void capabilitiesOfAnotherBuildAreIgnored() {
+        mStore.save(Collections.singletonList(FakeCameraDriver.BACK));
+
+        assertTrue(new CapabilityStore(mFile, KEY + "2").load().isEmpty());
+        // Kept, eg. for a rollback.
+        assertTrue(mFile.exists());
+    }
+
+    @Test
+    public void otherVersionIsIgnored() throws IOException {
+        byte[] data = CapabilityStore.serialize(Collections.singletonList(FakeCameraDriver.BACK), KEY);
+        data[7]++;
+
+        assertNull(CapabilityStore.deserialize(data, KEY));
+    }
+
+    @Test
+    public void corruptedFileIsDeleted() throws IOException {
+        mStore.save(Collections.singletonList(FakeCameraDriver.BACK));
+        byte[] data = read(mFile);
+        data[data.length - 5] ^= 0x10;
+        write(mFile, data);
+
+        assertTrue(mStore.load().isEmpty());
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void truncatedFileIsDeleted() throws IOException {
+        mStore.save(Collections.singletonList(FakeCameraDriver.BACK));
+        byte[] data = read(mFile);
+        write(mFile, Arrays.copyOf(data, data.length - 3));
+
+        assertTrue(mStore.load().isEmpty());
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void everyTruncationIsDetected() {
+        byte[] data = CapabilityStore.serialize(Arrays.asList(FakeCameraDriver.BACK, FakeCameraDriver.FRONT), KEY);
+        for (int length = 0; length < data.length; length++) {
+            try {
+                CapabilityStore.deserialize(Arrays.copyOf(data, length), KEY);
+                throw new AssertionError("Truncation at " + length + " not detected");
+            } catch (IOException expected) {
+                // Corrupted.
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFileIsCorrupted() throws IOException {
+        CapabilityStore.deserialize("not a store, but long enough to be read".getBytes("UTF-8"), KEY);
+    }
+
+    @Test
+    public void storeIsCompact() {
+        byte[] data = CapabilityStore.serialize(Arrays.asList(FakeCameraDriver.BACK, FakeCameraDriver.FRONT), KEY);
+
+        // Header, key, and 8 bytes per size.
+        assertTrue(data.length + " bytes", data.length < 200);
+    }
+
+    @Test
+    public void loadIsFasterThanAQuery() {
+        mStore.save(manyCameras());
+        // Warm up.
+        for (int i = 0; i < 50; i++) {
+            mStore.load();
+        }
+
+        final int loads = 200;
+        final long startNs = System.nanoTime();
+        for (int i = 0; i < loads; i++) {
+            assertEquals(4, mStore.load().size());
+        }
+        final long loadNs = (System.nanoTime() - startNs) / loads;
+
+        // Querying the parameters of a camera takes tens of milliseconds on a device.
+        assertTrue("Loaded in " + loadNs / 1000 + " us", loadNs < 5000000);
+    }
+
+    private static Collection<CameraCapabilities> manyCameras() {
+        List<CameraCapabilities> cameras = new ArrayList<>();
+        for (int id = 0; id < 4; id++) {
+            List<Size> sizes = new ArrayList<>();
+            List<Integer> maxFps = new ArrayList<>();
+            for (int i = 1; i <= 40; i++) {
+                sizes.add(new Size(96 * i, 54 * i));
+                maxFps.add(i < 20 ? 60000 : 30000);
+            }
+            cameras.add(new CameraCapabilities(id, id % 2, 90, sizes, Arrays.asList(17, 842094169),
+                    Arrays.asList(new int[]{15000, 30000}, new int[]{30000, 30000}, new int[]{60000, 60000}), maxFps));
+        }
+        return cameras;
+    }
+
+    private static void assertCapabilitiesEqual(CameraCapabilities expected, CameraCapabilities actual) {
+        assertEquals(expected.cameraId, actual.cameraId);
+        assertEquals(expected.facing, actual.facing);
+        assertEquals(expected.orientation, actual.orientation);
+        assertEquals(expected.previewSizes, actual.previewSizes);
+        assertEquals(expected.previewFormats, actual.previewFormats);
+        assertEquals(expected.previewMaxFps, actual.previewMaxFps);
+        assertEquals(expected.previewFpsRanges.size(), actual.previewFpsRanges.size());
+        for (int i = 0; i < expected.previewFpsRanges.size(); i++) {
+            assertArrayEquals(expected.previewFpsRanges.get(i), actual.previewFpsRanges.get(i));
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream input = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                offset += input.read(data, offset, data.length - offset);
+            }
+        } finally {
+            input.close();
+        }
+        return data;
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(data);
+        } finally {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.cocoricostudio.cameraview;
+
+import android.hardware.Camera;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.Surface;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A camera driver recording the operations it is asked for, eg. "open 0", "configure 0 1280x720 90",
+ * "orientation 0", "settings zoom 200, DEFAULT, flash OFF, exposure 0", "start", "picture", "stop", "release". Pictures are taken by {@link #deliverPicture(byte[])}.
+ */
+class FakeCameraDriver implements CameraDriver {
+
+    static final CameraCapabilities BACK = new CameraCapabilities(0, Camera.CameraInfo.CAMERA_FACING_BACK, 90,
+            Arrays.asList(new Size(1920, 1080), new Size(1440, 1080), new Size(1280, 720), new Size(640, 480)),
+            Collections.<Integer>emptyList(), Arrays.asList(new int[]{15000, 30000}, new int[]{30000, 30000}),
+            Arrays.asList(15000, 30000, 30000, 30000));
+    static final CameraCapabilities FRONT = new CameraCapabilities(1, Camera.CameraInfo.CAMERA_FACING_FRONT, 270,
+            Arrays.asList(new Size(1280, 720), new Size(640, 480)),
+            Collections.<Integer>emptyList(), Collections.<int[]>emptyList());
+
+    final List<String> mOperations = new ArrayList<>();
+    final Set<Integer> mUnavailableCameras = new HashSet<>();
+    int mCapabilityQueries;
+    boolean mFrameDelivery;
+    boolean mSurfaceSizedToPreview;
+    boolean mRecordingSurfaceSupported;
+    @Nullable
+    Surface mRecordingSurface;
+
+    private int mCameraId = Integer.MIN_VALUE;
+    private boolean mConfigured;
+    private boolean mPreviewing;
+    @Nullable
+    private JpegCallback mJpegCallback;
+
+    @Override
+    public boolean open(int cameraId) {
+        if (mCameraId != Integer.MIN_VALUE) {
+            throw new IllegalStateException("Camera " + mCameraId + " not released");
+        }
+        if (mUnavailableCameras.contains(cameraId)) {
+            mOperations.add("open " + cameraId + " failed");
+            return false;
+        }
+        mOperations.add("open " + cameraId);
+        mCameraId = cameraId;
+        return true;
+    }
+
+    @NonNull
+    @Override
+    public CameraCapabilities queryCapabilities() {
+        requireOpened();
+        mCapabilityQueries++;
+        return mCameraId == 0 ? BACK : FRONT;
+    }
+
+    @Override
+    public void configure(@NonNull CameraConfiguration configuration) {
+        requireOpened();
+        if (mPreviewing) {
+            throw new IllegalStateException("Configured while previewing");
+        }
+        mOperations.add("configure " + configuration.cameraId + " " + configuration.previewSize + " " + configuration.displayOrientation
+                + (configuration.hasFpsRange() ? " " + configuration.minFps + "-" + configuration.maxFps : "")
+                + (configuration.settings.equals(CameraSettings.DEFAULT) ? "" : " " + configuration.settings));
+        mConfigured = true;
+    }
+
+    @Override
+    public void setDisplayOrientation(int degrees) {
+        requireOpened();
+        if (!mConfigured) {
+            throw new IllegalStateException("Rotated before configuration");
+        }
+        mOperations.add("orientation " + degrees);
+    }
+
+    @Override
+    public void applySettings(@NonNull CameraSettings settings) {
+        requireOpened();
+        if (!mConfigured) {
+            throw new IllegalStateException("Settings applied before configuration");
+        }
+        mOperations.add("settings " + settings);
+    }
+
+    @Override
+    public void setFrameDelivery(boolean enabled) {
+        mFrameDelivery = enabled;
+    }
+
+    @Override
+    public boolean isRecordingSurfaceSupported() {
+        return mRecordingSurfaceSupported;
+    }
+
+    @Override
+    public void setRecordingSurface(@Nullable Surface surface) {
+        mRecordingSurface = surface;
+    }
+
+    @Override
+    public boolean isSurfaceSizedToPreview() {
+        return mSurfaceSizedToPreview;
+    }
+
+    @Override
+    public int getTextureRotation(int screenRotation) {
+        return 0;
+    }
+
+    @Override
+    public void startPreview() {
+        requireOpened();
+        if (!mConfigured || mPreviewing) {
+            throw new IllegalStateException("Preview started twice or before configuration");
+        }
+        mOperations.add("start");
+        mPreviewing = true;
+    }
+
+    @Override
+    public void takePicture(@NonNull JpegCallback callback) {
+        requireOpened();
+        if (!mPreviewing || mJpegCallback != null) {
+            throw new IllegalStateException("Picture taken while not previewing or taking another one");
+        }
+        mOperations.add("picture");
+        mJpegCallback = callback;
+    }
+
+    @Override
+    public void stopPreview() {
+        requireOpened();
+        mOperations.add("stop");
+        mPreviewing = false;
+        failPicture();
+    }
+
+    @Override
+    public void release() {
+        requireOpened();
+        mOperations.add("release");
+        failPicture();
+        mCameraId = Integer.MIN_VALUE;
+        mConfigured = false;
+        mPreviewing = false;
+    }
+
+    boolean isPreviewing() {
+        return mPreviewing;
+    }
+
+    boolean isTakingPicture() {
+        return mJpegCallback != null;
+    }
+
+    /**
+     * Delivers the picture being taken.
+     */
+    void deliverPicture(@NonNull byte[] jpeg) {
+        JpegCallback callback = mJpegCallback;
+        if (callback == null) {
+            throw new IllegalStateException("No picture being taken");
+        }
+        mJpegCallback = null;
+        callback.onJpegTaken(jpeg);
+    }
+
+    private void failPicture() {
+        JpegCallback callback = mJpegCallback;
+        if (callback != null) {
+            mJpegCallback = null;
+            callback.onJpegFailed();
+        }
+    }
+
+    /**
+     * @return The operations recorded since the last call.
+     */
+    List<String> takeOperations() {
+        List<String> operations = new ArrayList<>(mOperations);
+        mOperations.clear();
+        return operations;
+    }
+
+    private void requireOpened() {
+        if (mCameraId == Integer.MIN_VALUE) {
+            throw new IllegalStateException("No camera opened");
+        }
+    }
+}
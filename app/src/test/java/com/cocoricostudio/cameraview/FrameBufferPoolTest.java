@@ -0,0 +1,173 @@
+package com.cocoricostudio.cameraview;
+
+import android.graphics.ImageFormat;
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FrameBufferPoolTest {
+
+    @Test
+    public void bufferSizeOfNv21() {
+        assertEquals(1920 * 1080 * 3 / 2, FrameBufferPool.getBufferSize(1920, 1080, ImageFormat.NV21));
+        assertEquals(176 * 144 * 3 / 2, FrameBufferPool.getBufferSize(176, 144, ImageFormat.NV21));
+    }
+
+    @Test
+    public void bufferSizeOfYv12IsStrideAligned() {
+        // 176 is 16-aligned but 88 is not: uv stride is rounded up to 96.
+        assertEquals(176 * 144 + 96 * 72 * 2, FrameBufferPool.getBufferSize(176, 144, ImageFormat.YV12));
+        assertEquals(640 * 480 + 320 * 240 * 2, FrameBufferPool.getBufferSize(640, 480, ImageFormat.YV12));
+    }
+
+    @Test
+    public void buffersAreAllocatedLazilyUpToCapacity() {
+        FrameBufferPool pool = new FrameBufferPool(3);
+        pool.setBufferSize(100);
+        assertEquals(0, pool.getAllocationCount());
+
+        assertNotNull(pool.acquire());
+        assertNotNull(pool.acquire());
+        assertNotNull(pool.acquire());
+        assertNull(pool.acquire());
+        assertEquals(3, pool.getAllocationCount());
+    }
+
+    @Test
+    public void releasedBufferIsReused() {
+        FrameBufferPool pool = new FrameBufferPool(1);
+        pool.setBufferSize(100);
+        byte[] buffer = pool.acquire();
+
+        assertTrue(pool.release(buffer));
+        assertSame(buffer, pool.acquire());
+        assertEquals(1, pool.getAllocationCount());
+    }
+
+    @Test
+    public void sameSizeDoesNotReallocate() {
+        FrameBufferPool pool = new FrameBufferPool(2);
+        assertTrue(pool.setBufferSize(100));
+        byte[] buffer = pool.acquire();
+        pool.release(buffer);
+
+        assertFalse(pool.setBufferSize(100));
+        assertSame(buffer, pool.acquire());
+        assertEquals(1, pool.getAllocationCount());
+    }
+
+    @Test
+    public void sizeChangeDropsBuffers() {
+        FrameBufferPool pool = new FrameBufferPool(2);
+        pool.setBufferSize(100);
+        byte[] old = pool.acquire();
+
+        assertTrue(pool.setBufferSize(200));
+        assertFalse(pool.owns(old));
+        assertFalse(pool.release(old));
+        byte[] buffer = pool.acquire();
+        assertNotSame(old, buffer);
+        assertEquals(200, buffer.length);
+    }
+
+    @Test
+    public void foreignBufferIsIgnored() {
+        FrameBufferPool pool = new FrameBufferPool(2);
+        pool.setBufferSize(100);
+
+        assertFalse(pool.release(new byte[100]));
+        assertEquals(0, pool.getFreeCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void doubleReleaseThrows() {
+        FrameBufferPool pool = new FrameBufferPool(2);
+        pool.setBufferSize(100);
+        byte[] buffer = pool.acquire();
+        pool.release(buffer);
+        pool.release(buffer);
+    }
+
+    @Test
+    public void reclaimAllFreesEveryBuffer() {
+        FrameBufferPool pool = new FrameBufferPool(3);
+        pool.setBufferSize(100);
+        pool.acquire();
+        pool.acquire();
+        pool.acquire();
+
+        pool.reclaimAll();
+        assertEquals(3, pool.getFreeCount());
+        assertNotNull(pool.acquire());
+        assertEquals(3, pool.getAllocationCount());
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate() {
+        FramePipeline pipeline = new FramePipeline();
+        final QueueExecutor worker = new QueueExecutor();
+        pipeline.subscribe(new FrameConsumer() {
+            @Override
+            public void onFrame(@NonNull Frame frame) {
+                // Read, then released once returned.
+                frame.getData()[1] = frame.getData()[0];
+            }
+        }, worker, 2, FrameConsumer.OverflowPolicy.DROP_OLDEST, 0);
+        final FakeCamera camera = new FakeCamera(pipeline);
+        pipeline.attach(camera, 1920, 1080, ImageFormat.NV21);
+        int allocations = pipeline.getAllocationCount();
+
+        AllocationAssert.assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                // 10 000 frames of 3 MB would be 30 GB.
+                for (int i = 0; i < 10000; i++) {
+                    camera.deliverFrame();
+                    worker.runAll();
+                }
+            }
+        });
+
+        assertEquals(allocations, pipeline.getAllocationCount());
+    }
+
+    /**
+     * Mimics {@link android.hardware.Camera#addCallbackBuffer(byte[])}: frames are written to
+     * queued buffers, obtained from the pipeline and dispatched to its consumers.
+     */
+    private static class FakeCamera implements FramePipeline.BufferQueue {
+
+        private final FramePipeline mPipeline;
+        private final ArrayDeque<byte[]> mQueue = new ArrayDeque<>();
+        private byte mFrameNumber;
+        private long mTimestampNs;
+
+        FakeCamera(FramePipeline pipeline) {
+            mPipeline = pipeline;
+        }
+
+        @Override
+        public void queueBuffer(@NonNull byte[] buffer) {
+            mQueue.add(buffer);
+        }
+
+        void deliverFrame() {
+            byte[] data = mQueue.poll();
+            assertNotNull("Camera starved", data);
+            data[0] = mFrameNumber++;
+            Frame frame = mPipeline.obtain(data, mTimestampNs += 33000000);
+            assertNotNull(frame);
+            mPipeline.dispatch(frame);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.cocoricostudio.cameraview;
+
+import android.graphics.ImageFormat;
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameConverterTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private final byte[] mImage = randomImage(WIDTH, HEIGHT);
+    private final FrameConverter mConverter = new FrameConverter();
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(3);
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdown();
+    }
+
+    @Test
+    public void argbMatchesTheFloatingPointConversion() {
+        int[] out = new int[WIDTH * HEIGHT];
+
+        mConverter.toArgb(mImage, WIDTH, HEIGHT, out);
+
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                int expected = referenceArgb(mImage, WIDTH, HEIGHT, col, row);
+                int actual = out[row * WIDTH + col];
+                assertEquals(0xff, actual >>> 24);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    assertTrue("Pixel " + col + "," + row + ": " + Integer.toHexString(actual) + " instead of "
+                                    + Integer.toHexString(expected),
+                            Math.abs(((actual >> shift) & 0xff) - ((expected >> shift) & 0xff)) <= 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void argbOfTheVideoRangeLimits() {
+        int[] out = new int[4];
+
+        mConverter.toArgb(image(16, 128, 128), 2, 2, out);
+        assertEquals(0xff000000, out[0]);
+
+        mConverter.toArgb(image(235, 128, 128), 2, 2, out);
+        assertEquals(0xffffffff, out[0]);
+
+        // Saturated red, clamped.
+        mConverter.toArgb(image(235, 255, 0), 2, 2, out);
+        assertEquals(0xffff0000, out[3] & 0xffff0000);
+    }
+
+    @Test
+    public void downscaleAveragesBoxes() {
+        byte[] image = new byte[8 * 4 * 3 / 2];
+        // Luma 0..31, row by row; chroma rows 100.. and 200...
+        for (int i = 0; i < 32; i++) {
+            image[i] = (byte) i;
+        }
+        for (int i = 0; i < 8; i++) {
+            image[32 + i] = (byte) (100 + i);
+            image[40 + i] = (byte) (200 + i);
+        }
+        byte[] out = new byte[4 * 2 * 3 / 2];
+
+        mConverter.downscale(image, 8, 4, 2, out);
+
+        // Eg. (0 + 1 + 8 + 9) / 4, rounded.
+        assertArrayEquals(new byte[]{5, 7, 9, 11, 21, 23, 25, 27,
+                        (byte) 151, (byte) 152, (byte) 155, (byte) 156},
+                out);
+    }
+
+    @Test
+    public void downscaleByFourIsDownscaleByTwoTwice() {
+        // Exact when every box is uniform.
+        byte[] image = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                image[row * WIDTH + col] = (byte) (17 * (row / 4) + 3 * (col / 4));
+            }
+        }
+        for (int i = WIDTH * HEIGHT; i < image.length; i++) {
+            int chromaRow = (i - WIDTH * HEIGHT) / WIDTH;
+            int chromaCol = (i - WIDTH * HEIGHT) % WIDTH / 2;
+            image[i] = (byte) (7 * (chromaRow / 2) + 5 * (chromaCol / 2) + (i & 1) * 100);
+        }
+        byte[] half = new byte[image.length / 4];
+        byte[] quarter = new byte[image.length / 16];
+        byte[] direct = new byte[image.length / 16];
+
+        mConverter.downscale(image, WIDTH, HEIGHT, 2, half);
+        mConverter.downscale(half, WIDTH / 2, HEIGHT / 2, 2, quarter);
+        mConverter.downscale(image, WIDTH, HEIGHT, 4, direct);
+
+        assertArrayEquals(quarter, direct);
+    }
+
+    @Test
+    public void rotationsCompose() {
+        byte[] once = new byte[mImage.length];
+        byte[] twice = new byte[mImage.length];
+        byte[] halfTurn = new byte[mImage.length];
+        byte[] back = new byte[mImage.length];
+
+        mConverter.rotate(mImage, WIDTH, HEIGHT, 90, once);
+        mConverter.rotate(once, HEIGHT, WIDTH, 90, twice);
+        mConverter.rotate(mImage, WIDTH, HEIGHT, 180, halfTurn);
+        assertArrayEquals(halfTurn, twice);
+
+        mConverter.rotate(once, HEIGHT, WIDTH, 270, back);
+        assertArrayEquals(mImage, back);
+
+        mConverter.rotate(mImage, WIDTH, HEIGHT, 0, back);
+        assertArrayEquals(mImage, back);
+    }
+
+    @Test
+    public void rotationBy90MovesTheFirstRowToTheLastColumn() {
+        // 4x2, luma 0..7, chroma one VU pair per 2x2 block.
+        byte[] image = {0, 1, 2, 3, 4, 5, 6, 7, 10, 11, 20, 21};
+        byte[] out = new byte[image.length];
+
+        mConverter.rotate(image, 4, 2, 90, out);
+
+        // 2x4, chroma rows of one pair.
+        assertArrayEquals(new byte[]{4, 0, 5, 1, 6, 2, 7, 3, 10, 11, 20, 21}, out);
+    }
+
+    @Test
+    public void stripesMatchTheCallingThread() {
+        FrameConverter striped = new FrameConverter(mExecutor, 4);
+        int[] argb = new int[WIDTH * HEIGHT];
+        int[] stripedArgb = new int[WIDTH * HEIGHT];
+        mConverter.toArgb(mImage, WIDTH, HEIGHT, argb);
+        striped.toArgb(mImage, WIDTH, HEIGHT, stripedArgb);
+        assertArrayEquals(argb, stripedArgb);
+
+        byte[] downscaled = new byte[mImage.length / 16];
+        byte[] stripedDownscaled = new byte[mImage.length / 16];
+        mConverter.downscale(mImage, WIDTH, HEIGHT, 4, downscaled);
+        striped.downscale(mImage, WIDTH, HEIGHT, 4, stripedDownscaled);
+        assertArrayEquals(downscaled, stripedDownscaled);
+
+        for (int degrees = 0; degrees < 360; degrees += 90) {
+            byte[] rotated = new byte[mImage.length];
+            byte[] stripedRotated = new byte[mImage.length];
+            mConverter.rotate(mImage, WIDTH, HEIGHT, degrees, rotated);
+            striped.rotate(mImage, WIDTH, HEIGHT, degrees, stripedRotated);
+            assertArrayEquals(rotated, stripedRotated);
+        }
+    }
+
+    @Test
+    public void stripesOfAShutDownExecutorRunOnTheCallingThread() {
+        FrameConverter striped = new FrameConverter(mExecutor, 4);
+        mExecutor.shutdown();
+        int[] argb = new int[WIDTH * HEIGHT];
+        int[] stripedArgb = new int[WIDTH * HEIGHT];
+
+        mConverter.toArgb(mImage, WIDTH, HEIGHT, argb);
+        striped.toArgb(mImage, WIDTH, HEIGHT, stripedArgb);
+
+        assertArrayEquals(argb, stripedArgb);
+    }
+
+    @Test
+    public void lumaIsAViewOfTheFrame() {
+        Frame frame = new Frame(mImage, new Frame.Recycler() {
+            @Override
+            public void recycle(@NonNull Frame frame) {
+            }
+        });
+        frame.mWidth = WIDTH;
+        frame.mHeight = HEIGHT;
+        frame.mFormat = ImageFormat.NV21;
+
+        ByteBuffer luma = FrameConverter.getLuma(frame);
+        mImage[WIDTH + 1] = 42;
+
+        assertEquals(WIDTH * HEIGHT, luma.remaining());
+        assertTrue(luma.isReadOnly());
+        assertEquals(42, luma.get(WIDTH + 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rotationNotAMultipleOf90Fails() {
+        mConverter.rotate(mImage, WIDTH, HEIGHT, 45, new byte[mImage.length]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void downscaleOfAnIndivisibleSizeFails() {
+        mConverter.downscale(mImage, 60, HEIGHT, 4, new byte[mImage.length]);
+    }
+
+    @Test
+    public void convertingDoesNotAllocate() {
+        FrameConverter striped = new FrameConverter(mExecutor, 4);
+        final int[] argb = new int[WIDTH * HEIGHT];
+        final byte[] downscaled = new byte[mImage.length / 4];
+        for (int i = 0; i < 100; i++) {
+            striped.toArgb(mImage, WIDTH, HEIGHT, argb);
+        }
+
+        AllocationAssert.assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 1000; i++) {
+                    mConverter.toArgb(mImage, WIDTH, HEIGHT, argb);
+                    mConverter.downscale(mImage, WIDTH, HEIGHT, 2, downscaled);
+                }
+            }
+        });
+    }
+
+    /**
+     * The BT.601 video range conversion, in floating point.
+     */
+    private static int referenceArgb(byte[] nv21, int width, int height, int col, int row) {
+        int uv = width * height + (row / 2) * width + (col / 2) * 2;
+        double y = 1.164 * ((nv21[row * width + col] & 0xff) - 16);
+        double v = (nv21[uv] & 0xff) - 128;
+        double u = (nv21[uv + 1] & 0xff) - 128;
+        int r = clamp(y + 1.596 * v);
+        int g = clamp(y - 0.813 * v - 0.391 * u);
+        int b = clamp(y + 2.018 * u);
+        return 0xff000000 | r << 16 | g << 8 | b;
+    }
+
+    private static int clamp(double component) {
+        return (int) Math.max(0, Math.min(255, Math.round(component)));
+    }
+
+    /**
+     * @return A uniform 2x2 image.
+     */
+    private static byte[] image(int y, int v, int u) {
+        return new byte[]{(byte) y, (byte) y, (byte) y, (byte) y, (byte) v, (byte) u};
+    }
+
+    private static byte[] randomImage(int width, int height) {
+        byte[] image = new byte[width * height * 3 / 2];
+        new Random(42).nextBytes(image);
+        return image;
+    }
+}
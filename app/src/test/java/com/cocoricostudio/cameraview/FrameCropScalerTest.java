@@ -0,0 +1,140 @@
+package com.cocoricostudio.cameraview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameCropScalerTest {
+
+    private final FrameCropScaler mScaler = new FrameCropScaler();
+
+    @Test
+    public void wholeFrameAtTheSameSizeIsCopied() {
+        byte[] image = gradient(16, 8);
+        byte[] out = new byte[image.length];
+
+        mScaler.configure(16, 8, 0, 0, 1, 1, 16, 8);
+        mScaler.scale(image, out);
+
+        assertArrayEquals(image, out);
+    }
+
+    @Test
+    public void downscaleAveragesBoxes() {
+        // Same as FrameConverter by 2.
+        byte[] image = gradient(16, 8);
+        byte[] scaled = new byte[8 * 4 * 3 / 2];
+        byte[] expected = new byte[8 * 4 * 3 / 2];
+
+        mScaler.configure(16, 8, 0, 0, 1, 1, 8, 4);
+        mScaler.scale(image, scaled);
+        new FrameConverter().downscale(image, 16, 8, 2, expected);
+
+        assertArrayEquals(expected, scaled);
+    }
+
+    @Test
+    public void regionIsCroppedToTheAspectRatioAroundItsCenter() {
+        // 4:3 preview, centered half of the frame to 320x240.
+        mScaler.configure(1920, 1080, 0.25f, 0.25f, 0.75f, 0.75f, 320, 240);
+
+        assertEquals(720, mScaler.getCropWidth());
+        assertEquals(540, mScaler.getCropHeight());
+        assertEquals(600, mScaler.getCropLeft());
+        assertEquals(270, mScaler.getCropTop());
+    }
+
+    @Test
+    public void cropIsEvenAndWithinTheFrame() {
+        mScaler.configure(640, 480, 0.9f, 0.9f, 1, 1, 20, 2);
+
+        assertEquals(0, mScaler.getCropLeft() % 2);
+        assertEquals(0, mScaler.getCropTop() % 2);
+        assertEquals(0, mScaler.getCropHeight() % 2);
+        assertTrue(mScaler.getCropLeft() + mScaler.getCropWidth() <= 640);
+        assertTrue(mScaler.getCropTop() + mScaler.getCropHeight() <= 480);
+    }
+
+    @Test
+    public void croppedPixelsComeFromTheRegion() {
+        // Luma is the column, chroma pairs are (row, column) of the chroma plane.
+        final int width = 64;
+        final int height = 32;
+        byte[] image = new byte[width * height * 3 / 2];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                image[row * width + col] = (byte) col;
+            }
+        }
+        for (int row = 0; row < height / 2; row++) {
+            for (int col = 0; col < width / 2; col++) {
+                image[width * height + row * width + 2 * col] = (byte) row;
+                image[width * height + row * width + 2 * col + 1] = (byte) col;
+            }
+        }
+        byte[] out = new byte[16 * 8 * 3 / 2];
+
+        // Columns 32 to 48, rows 8 to 16, at the same size.
+        mScaler.configure(width, height, 0.5f, 0.25f, 0.75f, 0.5f, 16, 8);
+        mScaler.scale(image, out);
+        assertEquals(32, out[0]);
+        assertEquals(47, out[15]);
+
+        // Downscaled by 2: (32 + 33) / 2 rounded up.
+        out = new byte[8 * 4 * 3 / 2];
+        mScaler.configure(width, height, 0.5f, 0.25f, 0.75f, 0.5f, 8, 4);
+        mScaler.scale(image, out);
+        assertEquals(33, out[0]);
+        // First chroma pair: rows 4 and 5, columns 16 and 17 of the chroma plane.
+        assertEquals(5, out[32]);
+        assertEquals(17, out[33]);
+    }
+
+    @Test
+    public void upscaleRepeatsSamples() {
+        byte[] image = gradient(4, 2);
+        byte[] out = new byte[8 * 4 * 3 / 2];
+
+        mScaler.configure(4, 2, 0, 0, 1, 1, 8, 4);
+        mScaler.scale(image, out);
+
+        assertEquals(image[0], out[0]);
+        assertEquals(image[0], out[1]);
+        assertEquals(image[3], out[7]);
+        assertEquals(image[4], out[8 * 3]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyRegionFails() {
+        mScaler.configure(640, 480, 0.5f, 0, 0.5f, 1, 320, 240);
+    }
+
+    @Test
+    public void scalingDoesNotAllocate() {
+        final byte[] image = gradient(640, 480);
+        final byte[] out = new byte[320 * 240 * 3 / 2];
+
+        AllocationAssert.assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 100; i++) {
+                    mScaler.configure(640, 480, 0.1f, 0.1f, 0.9f, 0.9f, 320, 240);
+                    mScaler.scale(image, out);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return An NV21 image whose samples grow with their index.
+     */
+    private static byte[] gradient(int width, int height) {
+        byte[] image = new byte[width * height * 3 / 2];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) (i * 7);
+        }
+        return image;
+    }
+}
@@ -0,0 +1,134 @@
+package com.cocoricostudio.cameraview;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameIntervalHistogramTest {
+
+    private final FrameIntervalHistogram mHistogram = new FrameIntervalHistogram();
+    private final long[] mCounts = new long[FrameIntervalHistogram.COUNTS_LENGTH];
+
+    @Test
+    public void bucketsAreContiguous() {
+        assertEquals(0, FrameIntervalHistogram.getLowestValue(0));
+        for (int i = 1; i < FrameIntervalHistogram.COUNTS_LENGTH; i++) {
+            assertEquals(FrameIntervalHistogram.getHighestValue(i - 1) + 1, FrameIntervalHistogram.getLowestValue(i));
+        }
+        assertEquals(FrameIntervalHistogram.MAX_VALUE_US,
+                FrameIntervalHistogram.getHighestValue(FrameIntervalHistogram.COUNTS_LENGTH - 1));
+    }
+
+    @Test
+    public void valuesAreCountedInTheirBucket() {
+        Random random = new Random(42);
+        for (int run = 0; run < 100000; run++) {
+            long value = random.nextInt(Integer.MAX_VALUE);
+            int index = FrameIntervalHistogram.getIndex(value);
+            assertTrue(FrameIntervalHistogram.getLowestValue(index) <= value);
+            assertTrue(value <= FrameIntervalHistogram.getHighestValue(index));
+            // Within the precision of the sub-buckets.
+            assertTrue(FrameIntervalHistogram.getHighestValue(index) - value
+                    <= Math.max(0, value / FrameIntervalHistogram.SUB_BUCKET_COUNT));
+        }
+    }
+
+    @Test
+    public void percentilesAgreeWithTheSortedIntervals() {
+        Random random = new Random(7);
+        long[] intervalsUs = new long[10000];
+        for (int i = 0; i < intervalsUs.length; i++) {
+            // 30 fps with jitter, and a few stalls.
+            intervalsUs[i] = i % 100 == 0 ? 100000 + random.nextInt(100000) : 33333 + (long) (random.nextGaussian() * 2000);
+            mHistogram.record(intervalsUs[i] * 1000);
+        }
+        mHistogram.copyCounts(mCounts);
+        Arrays.sort(intervalsUs);
+
+        assertEquals(intervalsUs.length, FrameIntervalHistogram.getTotalCount(mCounts));
+        for (double percentile : new double[]{0, 10, 50, 90, 99, 99.9, 100}) {
+            int rank = Math.max(1, (int) Math.ceil(percentile / 100 * intervalsUs.length));
+            long exact = intervalsUs[rank - 1];
+            long measured = FrameIntervalHistogram.getValueAtPercentile(mCounts, percentile);
+            assertTrue(percentile + ": " + measured + " for " + exact,
+                    measured >= exact && measured - exact <= exact / FrameIntervalHistogram.SUB_BUCKET_COUNT);
+        }
+        assertEquals(intervalsUs[intervalsUs.length - 1], mHistogram.getMaxUs());
+    }
+
+    @Test
+    public void outOfRangeIntervalsAreClamped() {
+        mHistogram.record(-5);
+        mHistogram.record(Long.MAX_VALUE);
+        mHistogram.copyCounts(mCounts);
+
+        assertEquals(1, mCounts[0]);
+        assertEquals(1, mCounts[FrameIntervalHistogram.COUNTS_LENGTH - 1]);
+        assertEquals(FrameIntervalHistogram.MAX_VALUE_US, mHistogram.getMaxUs());
+    }
+
+    @Test
+    public void nothingRecorded() {
+        mHistogram.copyCounts(mCounts);
+        assertEquals(0, FrameIntervalHistogram.getTotalCount(mCounts));
+        assertEquals(0, FrameIntervalHistogram.getValueAtPercentile(mCounts, 50));
+    }
+
+    @Test
+    public void resetForgetsTheIntervals() {
+        mHistogram.record(33000000);
+        mHistogram.reset();
+        mHistogram.copyCounts(mCounts);
+
+        assertEquals(0, FrameIntervalHistogram.getTotalCount(mCounts));
+        assertEquals(0, mHistogram.getTotalUs());
+        assertEquals(0, mHistogram.getMaxUs());
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws InterruptedException {
+        final int threads = 4;
+        final int intervals = 100000;
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long intervalNs = (t + 1) * 10000000L;
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < intervals; i++) {
+                        mHistogram.record(intervalNs);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        // Reading meanwhile is safe.
+        for (int i = 0; i < 100; i++) {
+            mHistogram.copyCounts(mCounts);
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        mHistogram.copyCounts(mCounts);
+
+        assertEquals(threads * intervals, FrameIntervalHistogram.getTotalCount(mCounts));
+        assertEquals((10000 + 20000 + 30000 + 40000) * (long) intervals, mHistogram.getTotalUs());
+        assertEquals(40000, mHistogram.getMaxUs());
+    }
+
+    @Test
+    public void recordingDoesNotAllocate() {
+        AllocationAssert.assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 100000; i++) {
+                    mHistogram.record(i * 10000L);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,321 @@
+package com.cocoricostudio.cameraview;
+
+import android.graphics.ImageFormat;
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FramePipelineTest {
+
+    private FramePipeline mPipeline;
+    private FakeCamera mCamera;
+    private QueueExecutor mWorker;
+    private List<Frame> mConsumed;
+    private final FrameConsumer mConsumer = new FrameConsumer() {
+        @Override
+        public void onFrame(@NonNull Frame frame) {
+            mConsumed.add(frame);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mPipeline = new FramePipeline();
+        mCamera = new FakeCamera();
+        mWorker = new QueueExecutor();
+        mConsumed = new ArrayList<>();
+    }
+
+    @Test
+    public void attachQueuesEnoughBuffersForEveryConsumer() {
+        mPipeline.subscribe(mConsumer, mWorker, 2, FrameConsumer.OverflowPolicy.DROP_OLDEST, 0);
+        mPipeline.attach(mCamera, 640, 480, ImageFormat.NV21);
+
+        assertEquals(FramePipeline.CAMERA_BUFFER_COUNT + 3, mCamera.mQueue.size());
+        assertEquals(640 * 480 * 3 / 2, mCamera.mQueue.peek().length);
+    }
+
+    @Test
+    public void frameCarriesPreviewMetadata() {
+        mPipeline.subscribe(mConsumer, mWorker, 1, FrameConsumer.OverflowPolicy.DROP_OLDEST, 0);
+        mPipeline.attach(mCamera, 320, 240, ImageFormat.NV21);
+        mCamera.deliverFrame(42);
+        mWorker.runAll();
+
+        Frame frame = mConsumed.get(0);
+        assertEquals(320, frame.getWidth());
+        assertEquals(240, frame.getHeight());
+        assertEquals(ImageFormat.NV21, frame.getFormat());
+        assertEquals(42, frame.getTimestampNs());
+    }
+
+    @Test
+    public void consumedFrameReturnsToCamera() {
+        mPipeline.subscribe(mConsumer, mWorker, 1, FrameConsumer.OverflowPolicy.DROP_OLDEST, 0);
+        mPipeline.attach(mCamera, 320, 240, ImageFormat.NV21);
+        int queued = mCamera.mQueue.size();
+
+        byte[] data = mCamera.deliverFrame(0);
+        assertEquals(queued - 1, mCamera.mQueue.size());
+        mWorker.runAll();
+
+        assertEquals(queued, mCamera.mQueue.size());
+        assertSame(data, mCamera.mQueue.peekLast());
+    }
+
+    @Test
+    public void cameraNeverStarvesWithStalledConsumers() {
+        mPipeline.subscribe(mConsumer, mWorker, 2, FrameConsumer.OverflowPolicy.DROP_OLDEST, 0);
+        mPipeline.subscribe(mConsumer, new QueueExecutor(), 1, FrameConsumer.OverflowPolicy.DROP_NEWEST, 0);
+        mPipeline.attach(mCamera, 320, 240, ImageFormat.NV21);
+
+        // Neither consumer ever runs: their queues stay full.
+        for (int i = 0; i < 1000; i++) {
+            assertFalse("Camera starved at frame " + i, mCamera.mQueue.isEmpty());
+            mCamera.deliverFrame(i);
+        }
+        assertFalse(mCamera.mQueue.isEmpty());
+    }
+
+    @Test
+    public void slowConsumerSeesLatestFrames() {
+        FrameSubscription subscription = mPipeline.subscribe(mConsumer, mWorker, 1, FrameConsumer.OverflowPolicy.DROP_OLDEST, 0);
+        mPipeline.attach(mCamera, 320, 240, ImageFormat.NV21);
+
+        for (int round = 0; round < 100; round++) {
+            // The camera delivers 3 frames per frame the consumer can process.
+            mCamera.deliverFrame(round * 3);
+            mCamera.deliverFrame(round * 3 + 1);
+            mCamera.deliverFrame(round * 3 + 2);
+            mWorker.runAll();
+            assertEquals(round * 3 + 2, mConsumed.get(round).getTimestampNs());
+        }
+        assertEquals(100, subscription.getDeliveredCount());
+        assertEquals(200, subscription.getDroppedCount());
+    }
+
+    @Test
+    public void detachedFramesReturnToPoolThenToNextCamera() {
+        mPipeline.subscribe(mConsumer, mWorker, 1, FrameConsumer.OverflowPolicy.DROP_OLDEST, 0);
+        mPipeline.attach(mCamera, 320, 240, ImageFormat.NV21);
+        int queued = mCamera.mQueue.size();
+        byte[] held = mCamera.deliverFrame(0);
+
+        // Camera released while the consumer holds a frame.
+        mPipeline.detach();
+        mCamera.mQueue.clear();
+        mWorker.runAll();
+        assertTrue(mCamera.mQueue.isEmpty());
+
+        FakeCamera next = new FakeCamera();
+        assertFalse(mPipeline.attach(next, 320, 240, ImageFormat.NV21));
+        assertEquals(queued, next.mQueue.size());
+        assertTrue(next.mQueue.contains(held));
+        assertEquals(queued, mPipeline.getAllocationCount());
+    }
+
+    @Test
+    public void sizeChangeReallocatesAndDropsStaleFrames() {
+        mPipeline.subscribe(mConsumer, mWorker, 1, FrameConsumer.OverflowPolicy.DROP_OLDEST, 0);
+        mPipeline.attach(mCamera, 320, 240, ImageFormat.NV21);
+        byte[] stale = mCamera.deliverFrame(0);
+
+        mPipeline.detach();
+        mCamera.mQueue.clear();
+        assertTrue(mPipeline.attach(mCamera, 640, 480, ImageFormat.NV21));
+        int queued = mCamera.mQueue.size();
+        mWorker.runAll();
+
+        // The stale frame has been released but not queued again.
+        assertEquals(queued, mCamera.mQueue.size());
+        assertFalse(mCamera.mQueue.contains(stale));
+        assertNull(mPipeline.obtain(stale, 0));
+    }
+
+    @Test
+    public void unsubscribeReleasesQueuedFrames() {
+        FrameSubscription subscription = mPipeline.subscribe(mConsumer, mWorker, 2, FrameConsumer.OverflowPolicy.DROP_OLDEST, 0);
+        mPipeline.attach(mCamera, 320, 240, ImageFormat.NV21);
+        int queued = mCamera.mQueue.size();
+        mCamera.deliverFrame(0);
+        mCamera.deliverFrame(1);
+
+        mPipeline.unsubscribe(subscription);
+        mWorker.runAll();
+
+        assertFalse(mPipeline.hasSubscriptions());
+        assertTrue(mConsumed.isEmpty());
+        assertEquals(queued, mCamera.mQueue.size());
+    }
+
+    @Test
+    public void fanOutSharesOneFrameWithEveryConsumer() {
+        final List<Frame> first = new ArrayList<>();
+        final List<Frame> second = new ArrayList<>();
+        QueueExecutor otherWorker = new QueueExecutor();
+        mPipeline.subscribe(collectInto(first), mWorker, 1, FrameConsumer.OverflowPolicy.DROP_OLDEST, 0);
+        mPipeline.subscribe(collectInto(second), otherWorker, 1, FrameConsumer.OverflowPolicy.DROP_OLDEST, 0);
+        mPipeline.attach(mCamera, 320, 240, ImageFormat.NV21);
+        int queued = mCamera.mQueue.size();
+
+        byte[] data = mCamera.deliverFrame(0);
+        mWorker.runAll();
+        // Still held by the second consumer.
+        assertEquals(queued - 1, mCamera.mQueue.size());
+        otherWorker.runAll();
+
+        assertSame(first.get(0), second.get(0));
+        assertSame(data, first.get(0).getData());
+        assertEquals(queued, mCamera.mQueue.size());
+    }
+
+    @Test
+    public void retainedFrameReturnsToCameraOnLastRelease() {
+        final List<Frame> retained = new ArrayList<>();
+        mPipeline.subscribe(new FrameConsumer() {
+            @Override
+            public void onFrame(@NonNull Frame frame) {
+                frame.retain();
+                retained.add(frame);
+            }
+        }, mWorker, 1, FrameConsumer.OverflowPolicy.DROP_OLDEST, 0);
+        mPipeline.attach(mCamera, 320, 240, ImageFormat.NV21);
+        int queued = mCamera.mQueue.size();
+
+        mCamera.deliverFrame(0);
+        mWorker.runAll();
+        assertEquals(queued - 1, mCamera.mQueue.size());
+
+        retained.get(0).release();
+        assertEquals(queued, mCamera.mQueue.size());
+    }
+
+    @Test
+    public void concurrentConsumersNeverSeeABufferRecycledUnderThem() throws InterruptedException {
+        final int consumerCount = 3;
+        final int frameCount = 500;
+        final AtomicInteger corrupted = new AtomicInteger();
+        final ExecutorService releaser = Executors.newSingleThreadExecutor();
+        ExecutorService[] workers = new ExecutorService[consumerCount];
+        for (int i = 0; i < consumerCount; i++) {
+            workers[i] = Executors.newSingleThreadExecutor();
+            final boolean handOff = i == 0;
+            mPipeline.subscribe(new FrameConsumer() {
+                @Override
+                public void onFrame(@NonNull final Frame frame) {
+                    final byte expected = frame.getData()[0];
+                    Thread.yield();
+                    if (frame.getData()[0] != expected) {
+                        corrupted.incrementAndGet();
+                    }
+                    if (handOff) {
+                        // Keep it a bit longer, released from yet another thread.
+                        frame.retain();
+                        releaser.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (frame.getData()[0] != expected) {
+                                    corrupted.incrementAndGet();
+                                }
+                                frame.release();
+                            }
+                        });
+                    }
+                }
+            }, workers[i], 2, FrameConsumer.OverflowPolicy.DROP_OLDEST, 0);
+        }
+        mPipeline.attach(mCamera, 64, 48, ImageFormat.NV21);
+        int allocated = mPipeline.getAllocationCount();
+
+        for (int i = 0; i < frameCount; i++) {
+            byte[] data = mCamera.mQueue.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Camera starved at frame " + i, data);
+            // The camera overwrites the buffer: it must not be held by anyone.
+            data[0] = (byte) i;
+            Frame frame = mPipeline.obtain(data, i);
+            assertNotNull(frame);
+            mPipeline.dispatch(frame);
+        }
+
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+            assertTrue(worker.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        releaser.shutdown();
+        assertTrue(releaser.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(0, corrupted.get());
+        assertEquals(allocated, mCamera.mQueue.size());
+        assertEquals(allocated, mPipeline.getAllocationCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void attachTwiceThrows() {
+        mPipeline.attach(mCamera, 320, 240, ImageFormat.NV21);
+        mPipeline.attach(mCamera, 320, 240, ImageFormat.NV21);
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocateBuffers() {
+        mPipeline.subscribe(mConsumer, mWorker, 1, FrameConsumer.OverflowPolicy.DROP_OLDEST, 0);
+        mPipeline.attach(mCamera, 1920, 1080, ImageFormat.NV21);
+        int allocations = mPipeline.getAllocationCount();
+
+        for (int i = 0; i < 1000; i++) {
+            mCamera.deliverFrame(i);
+            if (i % 2 == 0) {
+                mWorker.runAll();
+            }
+            mConsumed.clear();
+        }
+        assertEquals(allocations, mPipeline.getAllocationCount());
+    }
+
+    private static FrameConsumer collectInto(final List<Frame> frames) {
+        return new FrameConsumer() {
+            @Override
+            public void onFrame(@NonNull Frame frame) {
+                frames.add(frame);
+            }
+        };
+    }
+
+    /**
+     * Mimics {@link android.hardware.Camera#addCallbackBuffer(byte[])} and the preview callback
+     * installed by {@link CameraView}.
+     */
+    private class FakeCamera implements FramePipeline.BufferQueue {
+
+        final LinkedBlockingDeque<byte[]> mQueue = new LinkedBlockingDeque<>();
+
+        @Override
+        public void queueBuffer(@NonNull byte[] buffer) {
+            mQueue.add(buffer);
+        }
+
+        byte[] deliverFrame(long timestampNs) {
+            byte[] data = mQueue.poll();
+            assertNotNull("Camera starved", data);
+            Frame frame = mPipeline.obtain(data, timestampNs);
+            assertNotNull(frame);
+            mPipeline.dispatch(frame);
+            return data;
+        }
+    }
+}
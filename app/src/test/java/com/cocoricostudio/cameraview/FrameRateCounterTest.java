@@ -0,0 +1,74 @@
+package com.cocoricostudio.cameraview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameRateCounterTest {
+
+    private static final long MS = 1000000;
+
+    private final FrameRateCounter mCounter = new FrameRateCounter();
+
+    @Test
+    public void nothingCountedUnlessEnabled() {
+        feed(0, 33 * MS, 100);
+        assertEquals(0, mCounter.getFramesPerSecond(), 0);
+    }
+
+    @Test
+    public void steadyFrameRate() {
+        mCounter.setEnabled(true);
+        feed(0, 33 * MS, 100);
+        assertEquals(1000 / 33f, mCounter.getFramesPerSecond(), 0.01f);
+    }
+
+    @Test
+    public void rateOfTheLastWindow() {
+        mCounter.setEnabled(true);
+        long timestampNs = feed(0, 33 * MS, 100);
+        // Frames dropped to 15 fps.
+        feed(timestampNs + 66 * MS, 66 * MS, 40);
+        assertEquals(1000 / 66f, mCounter.getFramesPerSecond(), 0.01f);
+    }
+
+    @Test
+    public void pauseStartsANewWindow() {
+        mCounter.setEnabled(true);
+        long timestampNs = feed(0, 33 * MS, 100);
+        feed(timestampNs + 5000 * MS, 33 * MS, 40);
+        assertEquals(1000 / 33f, mCounter.getFramesPerSecond(), 0.01f);
+    }
+
+    @Test
+    public void disablingForgetsTheRate() {
+        mCounter.setEnabled(true);
+        feed(0, 33 * MS, 100);
+        mCounter.setEnabled(false);
+        assertEquals(0, mCounter.getFramesPerSecond(), 0);
+    }
+
+    @Test
+    public void countingDoesNotAllocate() {
+        mCounter.setEnabled(true);
+
+        AllocationAssert.assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                feed(0, 33 * MS, 10000);
+            }
+        });
+    }
+
+    /**
+     * @return The timestamp of the last frame.
+     */
+    private long feed(long startNs, long intervalNs, int frames) {
+        long timestampNs = startNs;
+        for (int i = 0; i < frames; i++) {
+            timestampNs = startNs + i * intervalNs;
+            mCounter.onFrame(timestampNs);
+        }
+        return timestampNs;
+    }
+}
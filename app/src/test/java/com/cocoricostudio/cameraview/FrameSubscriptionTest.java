@@ -0,0 +1,234 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameSubscriptionTest {
+
+    private QueueExecutor mWorker;
+    private List<Frame> mRecycled;
+    private List<Byte> mConsumed;
+    private final FrameConsumer mConsumer = new FrameConsumer() {
+        @Override
+        public void onFrame(@NonNull Frame frame) {
+            mConsumed.add(frame.getData()[0]);
+        }
+    };
+    private final Frame.Recycler mRecycler = new Frame.Recycler() {
+        @Override
+        public void recycle(@NonNull Frame frame) {
+            mRecycled.add(frame);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mWorker = new QueueExecutor();
+        mRecycled = Collections.synchronizedList(new ArrayList<Frame>());
+        mConsumed = new ArrayList<>();
+    }
+
+    @Test
+    public void framesAreDeliveredOnTheExecutorThenReleased() {
+        FrameSubscription subscription = subscribe(2, FrameConsumer.OverflowPolicy.DROP_OLDEST);
+        Frame frame = offer(subscription, 1);
+
+        assertTrue(mConsumed.isEmpty());
+        assertTrue(mRecycled.isEmpty());
+        mWorker.runAll();
+
+        assertEquals(Arrays.asList((byte) 1), mConsumed);
+        assertEquals(Arrays.asList(frame), mRecycled);
+        assertEquals(1, subscription.getDeliveredCount());
+        assertEquals(0, subscription.getDroppedCount());
+    }
+
+    @Test
+    public void dropOldest() {
+        FrameSubscription subscription = subscribe(2, FrameConsumer.OverflowPolicy.DROP_OLDEST);
+        Frame first = offer(subscription, 1);
+        offer(subscription, 2);
+        offer(subscription, 3);
+
+        assertEquals(Arrays.asList(first), mRecycled);
+        mWorker.runAll();
+
+        assertEquals(Arrays.asList((byte) 2, (byte) 3), mConsumed);
+        assertEquals(2, subscription.getDeliveredCount());
+        assertEquals(1, subscription.getDroppedCount());
+        assertEquals(3, mRecycled.size());
+    }
+
+    @Test
+    public void dropNewest() {
+        FrameSubscription subscription = subscribe(2, FrameConsumer.OverflowPolicy.DROP_NEWEST);
+        offer(subscription, 1);
+        offer(subscription, 2);
+        Frame third = offer(subscription, 3);
+
+        assertEquals(Arrays.asList(third), mRecycled);
+        mWorker.runAll();
+
+        assertEquals(Arrays.asList((byte) 1, (byte) 2), mConsumed);
+        assertEquals(2, subscription.getDeliveredCount());
+        assertEquals(1, subscription.getDroppedCount());
+    }
+
+    @Test
+    public void blockDropsAfterTimeout() {
+        FrameSubscription subscription = subscribe(1, FrameConsumer.OverflowPolicy.BLOCK, 50);
+        offer(subscription, 1);
+
+        long start = System.nanoTime();
+        Frame second = offer(subscription, 2);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("Waited " + elapsedMs + " ms", elapsedMs >= 45);
+        assertEquals(Arrays.asList(second), mRecycled);
+        assertEquals(1, subscription.getDroppedCount());
+    }
+
+    @Test
+    public void blockWaitsForConsumer() throws InterruptedException {
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        final CountDownLatch firstFrameStarted = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        try {
+            FrameSubscription subscription = new FrameSubscription(new FrameConsumer() {
+                @Override
+                public void onFrame(@NonNull Frame frame) {
+                    firstFrameStarted.countDown();
+                    sleep(30);
+                    done.countDown();
+                }
+            }, worker, 1, FrameConsumer.OverflowPolicy.BLOCK, 5000);
+
+            assertTrue(offerFrame(subscription, 1));
+            assertTrue(firstFrameStarted.await(5, TimeUnit.SECONDS));
+            // The queue is empty again: fill it, then block until the consumer is done with frame 1.
+            assertTrue(offerFrame(subscription, 2));
+            assertTrue(offerFrame(subscription, 3));
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(0, subscription.getDroppedCount());
+        } finally {
+            worker.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failingConsumerDoesNotStallTheQueue() {
+        final boolean[] fail = {true};
+        FrameSubscription subscription = new FrameSubscription(new FrameConsumer() {
+            @Override
+            public void onFrame(@NonNull Frame frame) {
+                mConsumed.add(frame.getData()[0]);
+                if (fail[0]) {
+                    fail[0] = false;
+                    throw new RuntimeException("Analyzer crashed");
+                }
+            }
+        }, mWorker, 2, FrameConsumer.OverflowPolicy.DROP_OLDEST, 0);
+        offer(subscription, 1);
+        offer(subscription, 2);
+
+        try {
+            mWorker.runNext();
+        } catch (RuntimeException expected) {
+            // The executor would report it.
+        }
+        mWorker.runAll();
+
+        assertEquals(Arrays.asList((byte) 1, (byte) 2), mConsumed);
+        assertEquals(2, mRecycled.size());
+        assertEquals(1, subscription.getDeliveredCount());
+    }
+
+    @Test
+    public void drainIsScheduledOncePerBurst() {
+        FrameSubscription subscription = subscribe(4, FrameConsumer.OverflowPolicy.DROP_OLDEST);
+        offer(subscription, 1);
+        offer(subscription, 2);
+        offer(subscription, 3);
+
+        assertEquals(1, mWorker.size());
+        mWorker.runAll();
+        offer(subscription, 4);
+        assertEquals(1, mWorker.size());
+    }
+
+    @Test
+    public void closeReleasesQueuedFramesAndRejectsNewOnes() {
+        FrameSubscription subscription = subscribe(2, FrameConsumer.OverflowPolicy.DROP_OLDEST);
+        offer(subscription, 1);
+        offer(subscription, 2);
+
+        subscription.close();
+        assertEquals(2, mRecycled.size());
+        assertFalse(offerFrame(subscription, 3));
+        mWorker.runAll();
+
+        assertTrue(mConsumed.isEmpty());
+        assertEquals(3, mRecycled.size());
+        assertEquals(0, subscription.getDroppedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePositive() {
+        subscribe(0, FrameConsumer.OverflowPolicy.DROP_OLDEST);
+    }
+
+    private FrameSubscription subscribe(int capacity, FrameConsumer.OverflowPolicy policy) {
+        return subscribe(capacity, policy, 0);
+    }
+
+    private FrameSubscription subscribe(int capacity, FrameConsumer.OverflowPolicy policy, long blockTimeoutMs) {
+        return new FrameSubscription(mConsumer, mWorker, capacity, policy, blockTimeoutMs);
+    }
+
+    /**
+     * Offers a new frame the way the camera thread does: holding it while dispatching.
+     */
+    private Frame offer(FrameSubscription subscription, int value) {
+        Frame frame = newFrame(value);
+        frame.acquire();
+        subscription.offer(frame);
+        frame.release();
+        return frame;
+    }
+
+    private boolean offerFrame(FrameSubscription subscription, int value) {
+        Frame frame = newFrame(value);
+        frame.acquire();
+        boolean queued = subscription.offer(frame);
+        frame.release();
+        return queued;
+    }
+
+    private Frame newFrame(int value) {
+        return new Frame(new byte[]{(byte) value}, mRecycler);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
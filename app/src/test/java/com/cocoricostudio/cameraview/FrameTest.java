@@ -0,0 +1,143 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameTest {
+
+    private final AtomicInteger mRecycleCount = new AtomicInteger();
+    private Frame mFrame;
+
+    @Before
+    public void setUp() {
+        mFrame = new Frame(new byte[1], new Frame.Recycler() {
+            @Override
+            public void recycle(@NonNull Frame frame) {
+                mRecycleCount.incrementAndGet();
+            }
+        });
+    }
+
+    @Test
+    public void recycledOnLastRelease() {
+        mFrame.acquire();
+        mFrame.retain();
+        mFrame.retain();
+
+        mFrame.release();
+        mFrame.release();
+        assertEquals(0, mRecycleCount.get());
+        mFrame.release();
+        assertEquals(1, mRecycleCount.get());
+        assertEquals(0, mFrame.getReferenceCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releaseMoreThanRetainedThrows() {
+        mFrame.acquire();
+        mFrame.release();
+        mFrame.release();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void retainRecycledFrameThrows() {
+        mFrame.acquire();
+        mFrame.release();
+        mFrame.retain();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void acquireFrameInUseThrows() {
+        mFrame.acquire();
+        mFrame.acquire();
+    }
+
+    @Test
+    public void frameCanBeReusedOnceRecycled() {
+        mFrame.acquire();
+        mFrame.release();
+        mFrame.acquire();
+        mFrame.release();
+
+        assertEquals(2, mRecycleCount.get());
+    }
+
+    @Test
+    public void concurrentReleaseRecyclesExactlyOnce() throws InterruptedException {
+        final int holders = 8;
+        ExecutorService threads = Executors.newFixedThreadPool(holders);
+        try {
+            for (int round = 0; round < 1000; round++) {
+                mFrame.acquire();
+                for (int i = 1; i < holders; i++) {
+                    mFrame.retain();
+                }
+                final CountDownLatch start = new CountDownLatch(1);
+                final CountDownLatch done = new CountDownLatch(holders);
+                for (int i = 0; i < holders; i++) {
+                    threads.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                start.await();
+                                mFrame.release();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            } finally {
+                                done.countDown();
+                            }
+                        }
+                    });
+                }
+                start.countDown();
+                assertTrue(done.await(5, TimeUnit.SECONDS));
+                assertEquals("Round " + round, round + 1, mRecycleCount.get());
+                assertEquals(0, mFrame.getReferenceCount());
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void concurrentRetainAndReleaseKeepFrameAlive() throws InterruptedException {
+        final int threadCount = 4;
+        ExecutorService threads = Executors.newFixedThreadPool(threadCount);
+        try {
+            mFrame.acquire();
+            final CountDownLatch done = new CountDownLatch(threadCount);
+            for (int i = 0; i < threadCount; i++) {
+                threads.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int j = 0; j < 10000; j++) {
+                            mFrame.retain();
+                            mFrame.release();
+                        }
+                        done.countDown();
+                    }
+                });
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+
+            // The initial reference kept the frame alive the whole time.
+            assertEquals(0, mRecycleCount.get());
+            assertEquals(1, mFrame.getReferenceCount());
+            mFrame.release();
+            assertEquals(1, mRecycleCount.get());
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.cocoricostudio.cameraview;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Nv21Test {
+
+    private static final int WIDTH = 4;
+    private static final int HEIGHT = 2;
+
+    // Y 0..7, U 100 101, V 200 201.
+    private static final byte[] EXPECTED = {0, 1, 2, 3, 4, 5, 6, 7, (byte) 200, 100, (byte) 201, 101};
+
+    @Test
+    public void copiesPlanarImages() {
+        ByteBuffer y = ByteBuffer.wrap(new byte[]{0, 1, 2, 3, 4, 5, 6, 7});
+        ByteBuffer u = ByteBuffer.wrap(new byte[]{100, 101});
+        ByteBuffer v = ByteBuffer.wrap(new byte[]{(byte) 200, (byte) 201});
+        byte[] out = new byte[WIDTH * HEIGHT * 3 / 2];
+
+        Nv21.fromYuv420(WIDTH, HEIGHT, y, WIDTH, u, v, 2, 1, out);
+
+        assertArrayEquals(EXPECTED, out);
+    }
+
+    @Test
+    public void skipsRowPadding() {
+        // Rows of 6 bytes, the last one not padded.
+        ByteBuffer y = ByteBuffer.allocateDirect(10);
+        y.put(new byte[]{0, 1, 2, 3, -1, -1, 4, 5, 6, 7}).flip();
+        ByteBuffer u = ByteBuffer.wrap(new byte[]{100, 101});
+        ByteBuffer v = ByteBuffer.wrap(new byte[]{(byte) 200, (byte) 201});
+        byte[] out = new byte[WIDTH * HEIGHT * 3 / 2];
+
+        Nv21.fromYuv420(WIDTH, HEIGHT, y, 6, u, v, 2, 1, out);
+
+        assertArrayEquals(EXPECTED, out);
+        assertEquals(0, y.position());
+    }
+
+    @Test
+    public void copiesInterleavedChroma() {
+        // Semi-planar layout: V and U planes are views of the same interleaved VU buffer.
+        byte[] vu = {(byte) 200, 100, (byte) 201, 101};
+        ByteBuffer y = ByteBuffer.wrap(new byte[]{0, 1, 2, 3, 4, 5, 6, 7});
+        ByteBuffer v = ByteBuffer.wrap(vu, 0, 3).slice();
+        ByteBuffer u = ByteBuffer.wrap(vu, 1, 3).slice();
+        byte[] out = new byte[WIDTH * HEIGHT * 3 / 2];
+
+        Nv21.fromYuv420(WIDTH, HEIGHT, y, WIDTH, u, v, 4, 2, out);
+
+        assertArrayEquals(EXPECTED, out);
+    }
+
+    @Test
+    public void copiesEveryChromaRow() {
+        final int width = 2;
+        final int height = 4;
+        ByteBuffer y = ByteBuffer.wrap(new byte[]{0, 1, 2, 3, 4, 5, 6, 7});
+        // Chroma rows of 3 bytes, 1 of padding.
+        ByteBuffer u = ByteBuffer.wrap(new byte[]{10, 0, 0, 11});
+        ByteBuffer v = ByteBuffer.wrap(new byte[]{20, 0, 0, 21});
+        byte[] out = new byte[width * height * 3 / 2];
+
+        Nv21.fromYuv420(width, height, y, width, u, v, 3, 1, out);
+
+        assertArrayEquals(new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 20, 10, 21, 11}, out);
+    }
+
+    @Test
+    public void swapsChromaToNv12() {
+        byte[] out = new byte[WIDTH * HEIGHT * 3 / 2];
+
+        Nv21.toNv12(EXPECTED, WIDTH, HEIGHT, out);
+
+        assertArrayEquals(new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 100, (byte) 200, 101, (byte) 201}, out);
+    }
+
+    @Test
+    public void splitsChromaToI420() {
+        byte[] out = new byte[WIDTH * HEIGHT * 3 / 2];
+
+        Nv21.toI420(EXPECTED, WIDTH, HEIGHT, out);
+
+        assertArrayEquals(new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 100, 101, (byte) 200, (byte) 201}, out);
+    }
+}
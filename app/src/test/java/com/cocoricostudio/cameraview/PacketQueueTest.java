@@ -0,0 +1,138 @@
+package com.cocoricostudio.cameraview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PacketQueueTest {
+
+    private final PacketQueue mQueue = new PacketQueue(3);
+
+    @Test
+    public void packetsAreTakenInOrder() throws InterruptedException {
+        offer(EncodedPacket.FLAG_CODEC_CONFIG, 0);
+        offer(EncodedPacket.FLAG_KEY_FRAME, 1);
+        offer(0, 2);
+
+        assertTaken(0, 1, 2);
+        assertEquals(3, mQueue.getQueuedCount());
+        assertEquals(0, mQueue.getDroppedCount());
+    }
+
+    @Test
+    public void fullQueueDropsUntilTheNextKeyFrame() throws InterruptedException {
+        offer(EncodedPacket.FLAG_KEY_FRAME, 0);
+        offer(0, 1);
+        offer(0, 2);
+
+        assertFalse(offer(0, 3));
+        assertTaken(0);
+        // Room again, but 4 references the dropped 3.
+        assertFalse(offer(0, 4));
+        assertTrue(offer(EncodedPacket.FLAG_KEY_FRAME, 5));
+        assertTaken(1);
+        assertTrue(offer(0, 6));
+
+        assertTaken(2, 5, 6);
+        assertEquals(2, mQueue.getDroppedCount());
+    }
+
+    @Test
+    public void configurationIsNeverDropped() throws InterruptedException {
+        offer(EncodedPacket.FLAG_KEY_FRAME, 0);
+        offer(0, 1);
+        offer(0, 2);
+
+        assertTrue(offer(EncodedPacket.FLAG_CODEC_CONFIG, 3));
+        // Room was made by dropping the oldest frame, so frames are dropped until a key frame.
+        assertFalse(offer(0, 4));
+
+        assertTaken(1, 2, 3);
+        assertEquals(2, mQueue.getDroppedCount());
+    }
+
+    @Test
+    public void closedQueueIsDrainedThenEmpty() throws InterruptedException {
+        offer(EncodedPacket.FLAG_KEY_FRAME, 0);
+        mQueue.close();
+
+        assertTrue(mQueue.isClosed());
+        assertFalse(offer(0, 1));
+        assertTaken(0);
+        assertNull(mQueue.take(1000));
+    }
+
+    @Test
+    public void takeTimesOut() throws InterruptedException {
+        assertNull(mQueue.take(10));
+        assertFalse(mQueue.isClosed());
+    }
+
+    @Test
+    public void takeWaitsForAPacket() throws InterruptedException {
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                offer(EncodedPacket.FLAG_KEY_FRAME, 7);
+            }
+        });
+        producer.start();
+
+        EncodedPacket packet = mQueue.take(5000);
+        producer.join();
+
+        assertEquals(7, packet.getPresentationTimeUs());
+    }
+
+    @Test
+    public void packetsAreRecycled() throws InterruptedException {
+        offer(EncodedPacket.FLAG_KEY_FRAME, 0);
+        EncodedPacket packet = mQueue.take(0);
+        mQueue.recycle(packet);
+
+        assertSame(packet, mQueue.obtain(10));
+        // Grown if needed.
+        assertTrue(mQueue.obtain(100).getData().length >= 100);
+    }
+
+    @Test
+    public void steadyRecordingDoesNotAllocate() {
+        AllocationAssert.assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 10000; i++) {
+                        offerAndRecycle(i);
+                    }
+                } catch (InterruptedException exception) {
+                    throw new AssertionError(exception);
+                }
+            }
+        });
+    }
+
+    private void offerAndRecycle(int i) throws InterruptedException {
+        offer(i % 30 == 0 ? EncodedPacket.FLAG_KEY_FRAME : 0, i);
+        mQueue.recycle(mQueue.take(0));
+    }
+
+    private boolean offer(int flags, long presentationTimeUs) {
+        EncodedPacket packet = mQueue.obtain(16);
+        packet.mSize = 16;
+        packet.mFlags = flags;
+        packet.mPresentationTimeUs = presentationTimeUs;
+        return mQueue.offer(packet);
+    }
+
+    private void assertTaken(long... presentationTimesUs) throws InterruptedException {
+        for (long presentationTimeUs : presentationTimesUs) {
+            EncodedPacket packet = mQueue.take(0);
+            assertEquals(presentationTimeUs, packet.getPresentationTimeUs());
+            mQueue.recycle(packet);
+        }
+    }
+}
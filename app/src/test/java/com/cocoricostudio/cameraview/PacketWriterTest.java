@@ -0,0 +1,137 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PacketWriterTest {
+
+    private final PacketQueue mQueue = new PacketQueue(8);
+    private final MemorySink mSink = new MemorySink();
+    private final List<EncodedPacket> mOffered = new ArrayList<>();
+
+    @Test
+    public void writesEveryPacketBetweenStartAndStop() {
+        offer(EncodedPacket.FLAG_CODEC_CONFIG, 1, 2);
+        offer(EncodedPacket.FLAG_KEY_FRAME, 3);
+        mQueue.close();
+
+        PacketWriter writer = new PacketWriter(mQueue, mSink, 640, 480, 90);
+        writer.run();
+
+        assertEquals("start 640x480 90, packet 2, packet 1, stop", mSink.mEvents.toString()
+                .replace("[", "").replace("]", ""));
+        assertArrayEquals(new byte[]{1, 2, 3}, mSink.mOutput.toByteArray());
+        assertEquals(2, writer.getWrittenPacketCount());
+        assertEquals(3, writer.getWrittenBytes());
+        assertNull(writer.getError());
+    }
+
+    @Test
+    public void errorStopsTheWritingButNotTheDraining() {
+        mSink.mFailAtPacket = 1;
+        offer(EncodedPacket.FLAG_KEY_FRAME, 1);
+        offer(0, 2);
+        offer(0, 3);
+        mQueue.close();
+
+        PacketWriter writer = new PacketWriter(mQueue, mSink, 640, 480, 0);
+        writer.run();
+
+        assertEquals(1, writer.getWrittenPacketCount());
+        assertSame(mSink.mError, writer.getError());
+        assertEquals("stop", mSink.mEvents.get(mSink.mEvents.size() - 1));
+        // Every packet went back to the pool.
+        for (int i = 0; i < 3; i++) {
+            assertTrue(mOffered.contains(mQueue.obtain(1)));
+        }
+    }
+
+    @Test
+    public void failedStartStillStops() {
+        mSink.mFailAtStart = true;
+        offer(EncodedPacket.FLAG_KEY_FRAME, 1);
+        mQueue.close();
+
+        PacketWriter writer = new PacketWriter(mQueue, mSink, 640, 480, 0);
+        writer.run();
+
+        assertEquals(0, writer.getWrittenPacketCount());
+        assertSame(mSink.mError, writer.getError());
+        assertEquals("stop", mSink.mEvents.get(mSink.mEvents.size() - 1));
+    }
+
+    @Test
+    public void writesWhileProduced() throws InterruptedException {
+        PacketWriter writer = new PacketWriter(mQueue, mSink, 640, 480, 0);
+        Thread thread = new Thread(writer);
+        thread.start();
+        int dropped = 0;
+        for (int i = 0; i < 100; i++) {
+            // Key frames only, so that a packet dropped while the queue is full can be offered again.
+            while (!offer(EncodedPacket.FLAG_KEY_FRAME, i)) {
+                dropped++;
+                Thread.sleep(1);
+            }
+        }
+        mQueue.close();
+        thread.join(5000);
+
+        assertEquals(100, writer.getWrittenPacketCount());
+        assertEquals(dropped, mQueue.getDroppedCount());
+    }
+
+    private boolean offer(int flags, int... data) {
+        EncodedPacket packet = mQueue.obtain(data.length);
+        for (int i = 0; i < data.length; i++) {
+            packet.mData[i] = (byte) data[i];
+        }
+        packet.mSize = data.length;
+        packet.mFlags = flags;
+        mOffered.add(packet);
+        return mQueue.offer(packet);
+    }
+
+    private static class MemorySink implements EncodedSink {
+
+        final List<String> mEvents = new ArrayList<>();
+        final ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+        final IOException mError = new IOException("Disk full");
+        boolean mFailAtStart;
+        int mFailAtPacket = -1;
+        private int mPackets;
+
+        @Override
+        public void onStart(int width, int height, int rotation) throws IOException {
+            mEvents.add("start " + width + "x" + height + " " + rotation);
+            if (mFailAtStart) {
+                throw mError;
+            }
+        }
+
+        @Override
+        public void onPacket(@NonNull EncodedPacket packet) throws IOException {
+            if (mPackets++ == mFailAtPacket) {
+                throw mError;
+            }
+            mEvents.add("packet " + packet.getSize());
+            mOutput.write(packet.getData(), 0, packet.getSize());
+        }
+
+        @Override
+        public void onStop() {
+            mEvents.add("stop");
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.cocoricostudio.cameraview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParameterChangesTest {
+
+    @Test
+    public void untouchedParametersKeepTheCurrentValues() {
+        ParameterChanges changes = new ParameterChanges();
+        changes.setZoom(2f);
+
+        // Eg. the target size was set on the view since the transaction began.
+        assertEquals(1280, changes.getWidth(1280));
+        assertEquals(720, changes.getHeight(720));
+        assertEquals(24, changes.getFrameRate(24));
+        assertTrue(changes.isFixedFrameRate(true));
+        CameraSettings current = new CameraSettings(100, FocusMode.INFINITY, FlashMode.TORCH, -2);
+        assertEquals(new CameraSettings(200, FocusMode.INFINITY, FlashMode.TORCH, -2), changes.applyTo(current));
+        assertFalse(changes.isSet(ParameterChanges.CHANGED_PREVIEW_SIZE | ParameterChanges.CHANGED_FRAME_RATE));
+    }
+
+    @Test
+    public void setParametersReplaceTheCurrentValues() {
+        ParameterChanges changes = new ParameterChanges();
+        changes.setTargetPreviewSize(1920, 1080);
+        changes.setTargetFrameRate(30, false);
+        changes.setFocusMode(FocusMode.CONTINUOUS_VIDEO);
+        changes.setFlashMode(FlashMode.OFF);
+        changes.setExposureCompensation(0);
+
+        assertEquals(1920, changes.getWidth(1280));
+        assertEquals(1080, changes.getHeight(720));
+        assertEquals(30, changes.getFrameRate(24));
+        assertFalse(changes.isFixedFrameRate(true));
+        assertEquals(new CameraSettings(150, FocusMode.CONTINUOUS_VIDEO, FlashMode.OFF, 0),
+                changes.applyTo(new CameraSettings(150, FocusMode.INFINITY, FlashMode.TORCH, -2)));
+    }
+
+    @Test
+    public void lastValueSetWins() {
+        ParameterChanges changes = new ParameterChanges();
+        changes.setZoom(2f);
+        changes.setZoom(1.5f);
+
+        assertEquals(150, changes.applyTo(CameraSettings.DEFAULT).zoom);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void doubleCommitIsRejected() {
+        ParameterChanges changes = new ParameterChanges();
+        changes.setZoom(2f);
+        changes.commit();
+
+        changes.commit();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSizeIsRejected() {
+        new ParameterChanges().setTargetPreviewSize(0, 720);
+    }
+}
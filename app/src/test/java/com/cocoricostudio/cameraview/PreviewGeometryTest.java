@@ -0,0 +1,215 @@
+package com.cocoricostudio.cameraview;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PreviewGeometryTest {
+
+    private static final List<Size> SIZES = Arrays.asList(
+            new Size(1920, 1080), new Size(1440, 1080), new Size(1280, 720),
+            new Size(640, 480), new Size(352, 288), new Size(176, 144));
+
+    @Test
+    public void backCameraOrientation() {
+        assertEquals(90, PreviewGeometry.getDisplayOrientation(0, false, 90));
+        assertEquals(0, PreviewGeometry.getDisplayOrientation(1, false, 90));
+        assertEquals(270, PreviewGeometry.getDisplayOrientation(2, false, 90));
+        assertEquals(180, PreviewGeometry.getDisplayOrientation(3, false, 90));
+    }
+
+    @Test
+    public void frontCameraOrientationCompensatesTheMirror() {
+        assertEquals(90, PreviewGeometry.getDisplayOrientation(0, true, 270));
+        assertEquals(0, PreviewGeometry.getDisplayOrientation(1, true, 270));
+        assertEquals(270, PreviewGeometry.getDisplayOrientation(2, true, 270));
+        assertEquals(180, PreviewGeometry.getDisplayOrientation(3, true, 270));
+    }
+
+    @Test
+    public void recordingOrientationOfTheSensorFrames() {
+        assertEquals(90, PreviewGeometry.getRecordingOrientation(0, false, 90));
+        assertEquals(0, PreviewGeometry.getRecordingOrientation(1, false, 90));
+        assertEquals(270, PreviewGeometry.getRecordingOrientation(0, true, 270));
+        // Unlike the display orientation, not mirrored.
+        assertEquals(0, PreviewGeometry.getRecordingOrientation(1, true, 270));
+        assertEquals(180, PreviewGeometry.getRecordingOrientation(3, true, 270));
+        assertEquals(90, PreviewGeometry.getRecordingOrientation(7, false, 90));
+    }
+
+    @Test
+    public void unknownScreenRotationIsIgnored() {
+        assertEquals(PreviewGeometry.getDisplayOrientation(0, false, 90), PreviewGeometry.getDisplayOrientation(7, false, 90));
+    }
+
+    @Test
+    public void optimalSizeKeepsTheAspectRatio() {
+        assertEquals(new Size(1440, 1080), PreviewGeometry.getOptimalPreviewSize(SIZES, 1600, 1200));
+        assertEquals(new Size(1280, 720), PreviewGeometry.getOptimalPreviewSize(SIZES, 1280, 700));
+    }
+
+    @Test
+    public void optimalSizeFallsBackToTheClosestHeight() {
+        assertEquals(new Size(640, 480), PreviewGeometry.getOptimalPreviewSize(SIZES, 500, 500));
+    }
+
+    @Test
+    public void closestSize() {
+        PreviewSizeSelector selector = new PreviewSizeSelector();
+        assertEquals(new Size(1280, 720), PreviewGeometry.getClosestPreviewSize(SIZES, 1280, 720, PreviewSizeScorer.BALANCED, selector));
+        assertEquals(new Size(352, 288), PreviewGeometry.getClosestPreviewSize(SIZES, 360, 290, PreviewSizeScorer.BALANCED, selector));
+    }
+
+    @Test
+    public void closestSizeFastEnough() {
+        PreviewSizeSelector selector = new PreviewSizeSelector();
+        List<Integer> maxFps = Arrays.asList(15000, 24000, 30000, 30000, 30000, 30000);
+        assertEquals(new Size(1280, 720), PreviewGeometry.getClosestPreviewSize(SIZES, maxFps, 30000, 1920, 1080, PreviewSizeScorer.BALANCED, selector));
+        assertEquals(new Size(1920, 1080), PreviewGeometry.getClosestPreviewSize(SIZES, maxFps, 15000, 1920, 1080, PreviewSizeScorer.BALANCED, selector));
+        // None is fast enough: the fastest ones.
+        assertEquals(new Size(1280, 720), PreviewGeometry.getClosestPreviewSize(SIZES, maxFps, 60000, 1920, 1080, PreviewSizeScorer.BALANCED, selector));
+        // Without target, the first one fast enough.
+        assertEquals(new Size(1440, 1080), PreviewGeometry.getClosestPreviewSize(SIZES, maxFps, 24000, Integer.MIN_VALUE, Integer.MIN_VALUE, PreviewSizeScorer.BALANCED, selector));
+    }
+
+    @Test
+    public void variableFpsRangeReachesTheTargetAndIsTheWidest() {
+        List<int[]> ranges = Arrays.asList(new int[]{15000, 15000}, new int[]{7500, 30000},
+                new int[]{15000, 30000}, new int[]{30000, 30000}, new int[]{60000, 60000});
+        assertEquals(1, PreviewGeometry.selectFpsRange(ranges, 60000, 30000, false));
+        assertEquals(0, PreviewGeometry.selectFpsRange(ranges, 60000, 15000, false));
+        // Above every range: the fastest.
+        assertEquals(4, PreviewGeometry.selectFpsRange(ranges, 60000, 120000, false));
+        // The preview size is not streamed that fast.
+        assertEquals(1, PreviewGeometry.selectFpsRange(ranges, 30000, 60000, false));
+    }
+
+    @Test
+    public void fixedFpsRangeIsTheClosestOnBothBounds() {
+        List<int[]> ranges = Arrays.asList(new int[]{7500, 30000}, new int[]{15000, 30000},
+                new int[]{30000, 30000}, new int[]{24000, 24000});
+        assertEquals(2, PreviewGeometry.selectFpsRange(ranges, 30000, 30000, true));
+        assertEquals(3, PreviewGeometry.selectFpsRange(ranges, 30000, 24000, true));
+        // No fixed range of that rate: the narrowest reaching it.
+        assertEquals(1, PreviewGeometry.selectFpsRange(Arrays.asList(new int[]{7500, 30000}, new int[]{15000, 30000}), 30000, 25000, true));
+        assertEquals(-1, PreviewGeometry.selectFpsRange(Arrays.<int[]>asList(), 30000, 30000, true));
+    }
+
+    @Test
+    public void centerWiderParent() {
+        int[] bounds = new int[4];
+        assertTrue(PreviewGeometry.centerPreview(1920, 1080, 1440, 1080, bounds));
+        assertArrayEquals(new int[]{240, 0, 1680, 1080}, bounds);
+    }
+
+    @Test
+    public void centerTallerParent() {
+        int[] bounds = new int[4];
+        assertFalse(PreviewGeometry.centerPreview(1080, 1920, 1080, 1440, bounds));
+        assertArrayEquals(new int[]{0, 240, 1080, 1680}, bounds);
+    }
+
+    @Test
+    public void centerSameRatio() {
+        int[] bounds = new int[4];
+        PreviewGeometry.centerPreview(1280, 720, 1920, 1080, bounds);
+        assertArrayEquals(new int[]{0, 0, 1280, 720}, bounds);
+    }
+
+    @Test
+    public void landscapeScreenRotations() {
+        assertFalse(PreviewGeometry.isLandscape(0));
+        assertTrue(PreviewGeometry.isLandscape(1));
+        assertFalse(PreviewGeometry.isLandscape(2));
+        assertTrue(PreviewGeometry.isLandscape(3));
+    }
+
+    @Test
+    public void sameRatio() {
+        assertTrue(new Size(1920, 1080).hasSameRatio(new Size(1280, 720)));
+        assertFalse(new Size(1920, 1080).hasSameRatio(new Size(1440, 1080)));
+    }
+
+    @Test
+    public void textureTransformMapsTheViewToTheCenteredBounds() {
+        final int[][] parents = {{1080, 1920}, {1920, 1080}, {1000, 1000}, {720, 1000}};
+        final int[] bounds = new int[4];
+        final float[] values = new float[PreviewGeometry.MATRIX_SIZE];
+        for (int[] parent : parents) {
+            for (Size size : SIZES) {
+                PreviewGeometry.centerPreview(parent[0], parent[1], size.width, size.height, bounds);
+                PreviewGeometry.getTextureTransform(parent[0], parent[1], bounds, 0, values);
+
+                assertMapsTo(values, 0, 0, bounds[PreviewGeometry.LEFT], bounds[PreviewGeometry.TOP]);
+                assertMapsTo(values, parent[0], parent[1], bounds[PreviewGeometry.RIGHT], bounds[PreviewGeometry.BOTTOM]);
+                // Scaled and translated only.
+                assertEquals(0, values[1], 0);
+                assertEquals(0, values[3], 0);
+            }
+        }
+    }
+
+    @Test
+    public void rotatedTextureTransformKeepsTheBounds() {
+        final int width = 1080;
+        final int height = 1920;
+        final int[] bounds = new int[4];
+        final float[] values = new float[PreviewGeometry.MATRIX_SIZE];
+        PreviewGeometry.centerPreview(width, height, 720, 1280, bounds);
+        final int left = bounds[PreviewGeometry.LEFT];
+        final int top = bounds[PreviewGeometry.TOP];
+        final int right = bounds[PreviewGeometry.RIGHT];
+        final int bottom = bounds[PreviewGeometry.BOTTOM];
+
+        PreviewGeometry.getTextureTransform(width, height, bounds, 90, values);
+        // The top left corner of the content goes to the top right corner of the bounds.
+        assertMapsTo(values, 0, 0, right, top);
+        assertMapsTo(values, width, 0, right, bottom);
+        assertMapsTo(values, width, height, left, bottom);
+        assertMapsTo(values, 0, height, left, top);
+
+        PreviewGeometry.getTextureTransform(width, height, bounds, 180, values);
+        assertMapsTo(values, 0, 0, right, bottom);
+        assertMapsTo(values, width, height, left, top);
+
+        PreviewGeometry.getTextureTransform(width, height, bounds, 270, values);
+        assertMapsTo(values, 0, 0, left, bottom);
+        assertMapsTo(values, width, 0, left, top);
+        assertMapsTo(values, width, height, right, top);
+        assertMapsTo(values, 0, height, right, bottom);
+    }
+
+    @Test
+    public void textureTransformIsAffine() {
+        final int[] bounds = {10, 20, 110, 220};
+        final float[] values = new float[PreviewGeometry.MATRIX_SIZE];
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            PreviewGeometry.getTextureTransform(400, 300, bounds, rotation, values);
+            assertArrayEquals(new float[]{0, 0, 1}, Arrays.copyOfRange(values, 6, 9), 0);
+        }
+    }
+
+    private static void assertMapsTo(float[] values, float x, float y, float expectedX, float expectedY) {
+        assertEquals(expectedX, values[0] * x + values[1] * y + values[2], 0.01f);
+        assertEquals(expectedY, values[3] * x + values[4] * y + values[5], 0.01f);
+    }
+
+    @Test
+    public void closestSizeOfAnEmptyTargetIsASupportedOne() {
+        PreviewSizeSelector selector = new PreviewSizeSelector();
+        assertTrue(SIZES.contains(PreviewGeometry.getClosestPreviewSize(SIZES, 0, 0, PreviewSizeScorer.BALANCED, selector)));
+        assertTrue(SIZES.contains(PreviewGeometry.getClosestPreviewSize(SIZES, 640, 0, PreviewSizeScorer.BALANCED, selector)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void closestSizeAmongNoneIsRejected() {
+        PreviewGeometry.getClosestPreviewSize(Arrays.<Size>asList(), 640, 480, PreviewSizeScorer.BALANCED,
+                new PreviewSizeSelector());
+    }
+}
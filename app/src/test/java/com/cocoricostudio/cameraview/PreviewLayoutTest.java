@@ -0,0 +1,159 @@
+package com.cocoricostudio.cameraview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PreviewLayoutTest {
+
+    private static final int[][] VIEW_SIZES = {{1080, 1920}, {1920, 1080}, {1000, 1000}, {720, 1184}, {1184, 720}};
+
+    @Test
+    public void fitShowsTheWholePreview() {
+        for (int[] view : VIEW_SIZES) {
+            for (Resolution resolution : Resolution.values()) {
+                for (int rotation = 0; rotation < 4; rotation++) {
+                    int[] bounds = layout(view, resolution, rotation, ScaleMode.FIT);
+                    String message = message(view, resolution, rotation);
+
+                    assertInside(message, view, bounds);
+                    assertTrue(message, width(bounds) == view[0] || height(bounds) == view[1]);
+                    assertKeepsRatio(message, resolution, rotation, bounds);
+                    assertCentered(message, view, bounds);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void centerCropFillsTheView() {
+        for (int[] view : VIEW_SIZES) {
+            for (Resolution resolution : Resolution.values()) {
+                for (int rotation = 0; rotation < 4; rotation++) {
+                    int[] bounds = layout(view, resolution, rotation, ScaleMode.CENTER_CROP);
+                    String message = message(view, resolution, rotation);
+
+                    assertTrue(message, bounds[PreviewGeometry.LEFT] <= 0 && bounds[PreviewGeometry.TOP] <= 0);
+                    assertTrue(message, bounds[PreviewGeometry.RIGHT] >= view[0] && bounds[PreviewGeometry.BOTTOM] >= view[1]);
+                    assertTrue(message, width(bounds) == view[0] || height(bounds) == view[1]);
+                    assertKeepsRatio(message, resolution, rotation, bounds);
+                    assertCentered(message, view, bounds);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void fillStretchesToTheView() {
+        for (int[] view : VIEW_SIZES) {
+            for (Resolution resolution : Resolution.values()) {
+                for (int rotation = 0; rotation < 4; rotation++) {
+                    int[] bounds = layout(view, resolution, rotation, ScaleMode.FILL);
+
+                    assertEquals(0, bounds[PreviewGeometry.LEFT]);
+                    assertEquals(0, bounds[PreviewGeometry.TOP]);
+                    assertEquals(view[0], bounds[PreviewGeometry.RIGHT]);
+                    assertEquals(view[1], bounds[PreviewGeometry.BOTTOM]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void fitMatchesTheCenteredLayout() {
+        final int[] expected = new int[4];
+        for (int[] view : VIEW_SIZES) {
+            for (Resolution resolution : Resolution.values()) {
+                for (int rotation = 0; rotation < 4; rotation++) {
+                    boolean landscape = PreviewGeometry.isLandscape(rotation);
+                    PreviewGeometry.centerPreview(view[0], view[1],
+                            landscape ? resolution.width : resolution.height,
+                            landscape ? resolution.height : resolution.width, expected);
+
+                    int[] bounds = layout(view, resolution, rotation, ScaleMode.FIT);
+                    for (int i = 0; i < 4; i++) {
+                        assertEquals(message(view, resolution, rotation), expected[i], bounds[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void transformMapsTheTextureToTheBounds() {
+        for (ScaleMode scaleMode : ScaleMode.values()) {
+            for (Resolution resolution : Resolution.values()) {
+                PreviewLayout layout = new PreviewLayout();
+                layout.update(1080, 1920, size(resolution), 0, scaleMode, 0);
+                int[] bounds = layout.getBounds();
+                float[] transform = layout.getTransform();
+
+                assertEquals(bounds[PreviewGeometry.LEFT], transform[2], 0.01f);
+                assertEquals(bounds[PreviewGeometry.TOP], transform[5], 0.01f);
+                assertEquals(bounds[PreviewGeometry.RIGHT], transform[0] * 1080 + transform[2], 0.01f);
+                assertEquals(bounds[PreviewGeometry.BOTTOM], transform[4] * 1920 + transform[5], 0.01f);
+            }
+        }
+    }
+
+    @Test
+    public void geometryIsComputedOncePerState() {
+        PreviewLayout layout = new PreviewLayout();
+        assertTrue(layout.update(1080, 1920, new Size(1280, 720), 0, ScaleMode.FIT, 0));
+        // Equal preview size, another instance.
+        assertFalse(layout.update(1080, 1920, new Size(1280, 720), 0, ScaleMode.FIT, 0));
+
+        assertTrue(layout.update(1080, 1920, new Size(1280, 720), 0, ScaleMode.CENTER_CROP, 0));
+        assertTrue(layout.update(1080, 1920, new Size(1920, 1080), 0, ScaleMode.CENTER_CROP, 0));
+        assertTrue(layout.update(1080, 1920, new Size(1920, 1080), 1, ScaleMode.CENTER_CROP, 0));
+        assertTrue(layout.update(1080, 1920, new Size(1920, 1080), 1, ScaleMode.CENTER_CROP, 270));
+        assertTrue(layout.update(1080, 1800, new Size(1920, 1080), 1, ScaleMode.CENTER_CROP, 270));
+        assertTrue(layout.update(1080, 1800, null, 1, ScaleMode.CENTER_CROP, 270));
+        assertFalse(layout.update(1080, 1800, null, 1, ScaleMode.CENTER_CROP, 270));
+    }
+
+    private static int[] layout(int[] view, Resolution resolution, int rotation, ScaleMode scaleMode) {
+        PreviewLayout layout = new PreviewLayout();
+        layout.update(view[0], view[1], size(resolution), rotation, scaleMode, 0);
+        return layout.getBounds();
+    }
+
+    private static Size size(Resolution resolution) {
+        return new Size(resolution.width, resolution.height);
+    }
+
+    private static String message(int[] view, Resolution resolution, int rotation) {
+        return resolution + " in " + view[0] + "x" + view[1] + ", rotation " + rotation;
+    }
+
+    private static int width(int[] bounds) {
+        return bounds[PreviewGeometry.RIGHT] - bounds[PreviewGeometry.LEFT];
+    }
+
+    private static int height(int[] bounds) {
+        return bounds[PreviewGeometry.BOTTOM] - bounds[PreviewGeometry.TOP];
+    }
+
+    private static void assertInside(String message, int[] view, int[] bounds) {
+        assertTrue(message, bounds[PreviewGeometry.LEFT] >= 0 && bounds[PreviewGeometry.TOP] >= 0);
+        assertTrue(message, bounds[PreviewGeometry.RIGHT] <= view[0] && bounds[PreviewGeometry.BOTTOM] <= view[1]);
+    }
+
+    /**
+     * The preview is displayed with its width along the width of the view in landscape only, and
+     * scaled by a whole number of pixels at most.
+     */
+    private static void assertKeepsRatio(String message, Resolution resolution, int rotation, int[] bounds) {
+        boolean landscape = PreviewGeometry.isLandscape(rotation);
+        double expected = landscape ? (double) resolution.width / resolution.height : (double) resolution.height / resolution.width;
+        double tolerance = 2.0 / Math.min(width(bounds), height(bounds));
+        assertEquals(message, expected, (double) width(bounds) / height(bounds), expected * tolerance);
+    }
+
+    private static void assertCentered(String message, int[] view, int[] bounds) {
+        assertTrue(message, Math.abs(bounds[PreviewGeometry.LEFT] + bounds[PreviewGeometry.RIGHT] - view[0]) <= 1);
+        assertTrue(message, Math.abs(bounds[PreviewGeometry.TOP] + bounds[PreviewGeometry.BOTTOM] - view[1]) <= 1);
+    }
+}
@@ -0,0 +1,335 @@
+package com.cocoricostudio.cameraview;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Property-based tests: each property is checked against many random lists of supported sizes.
+ */
+public class PreviewSizeSelectorTest {
+
+    private static final int RUNS = 500;
+    private static final PreviewSizeScorer[] SCORERS = {
+            PreviewSizeScorer.BALANCED, PreviewSizeScorer.RATIO_FIRST, PreviewSizeScorer.AREA_FIRST};
+    private static final int[][] RATIOS = {{4, 3}, {16, 9}, {1, 1}, {3, 2}, {11, 9}, {5, 3}, {18, 9}};
+
+    private final Random mRandom = new Random(42);
+    private final PreviewSizeSelector mSelector = new PreviewSizeSelector();
+
+    @Test
+    public void selectedSizeHasTheLowestScore() {
+        for (int run = 0; run < RUNS; run++) {
+            Sizes sizes = randomSizes();
+            int[] target = randomTarget();
+            for (PreviewSizeScorer scorer : SCORERS) {
+                int selected = mSelector.select(sizes.widths, sizes.heights, sizes.count, target[0], target[1], scorer);
+                double best = scorer.score(sizes.widths[selected], sizes.heights[selected], target[0], target[1]);
+                for (int i = 0; i < sizes.count; i++) {
+                    assertTrue(best <= scorer.score(sizes.widths[i], sizes.heights[i], target[0], target[1]));
+                    // Ties go to the first candidate.
+                    if (i < selected) {
+                        assertTrue(best < scorer.score(sizes.widths[i], sizes.heights[i], target[0], target[1]));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void exactMatchIsAlwaysSelected() {
+        for (int run = 0; run < RUNS; run++) {
+            Sizes sizes = randomSizes();
+            int expected = mRandom.nextInt(sizes.count);
+            int targetWidth = sizes.widths[expected];
+            int targetHeight = sizes.heights[expected];
+            for (PreviewSizeScorer scorer : SCORERS) {
+                int selected = mSelector.select(sizes.widths, sizes.heights, sizes.count, targetWidth, targetHeight, scorer);
+                assertEquals(targetWidth, sizes.widths[selected]);
+                assertEquals(targetHeight, sizes.heights[selected]);
+            }
+        }
+    }
+
+    @Test
+    public void candidatesAreLeftUntouched() {
+        for (int run = 0; run < RUNS; run++) {
+            Sizes sizes = randomSizes();
+            int[] widths = sizes.widths.clone();
+            int[] heights = sizes.heights.clone();
+            int[] target = randomTarget();
+            mSelector.select(sizes.widths, sizes.heights, sizes.count, target[0], target[1], PreviewSizeScorer.BALANCED);
+
+            assertArrayEquals(widths, sizes.widths);
+            assertArrayEquals(heights, sizes.heights);
+        }
+    }
+
+    @Test
+    public void selectionDoesNotDependOnOrderButForTies() {
+        for (int run = 0; run < RUNS; run++) {
+            Sizes sizes = randomSizes();
+            Sizes shuffled = sizes.shuffled(mRandom);
+            int[] target = randomTarget();
+            for (PreviewSizeScorer scorer : SCORERS) {
+                int selected = mSelector.select(sizes.widths, sizes.heights, sizes.count, target[0], target[1], scorer);
+                int selectedShuffled = mSelector.select(shuffled.widths, shuffled.heights, shuffled.count, target[0], target[1], scorer);
+                assertEquals(scorer.score(sizes.widths[selected], sizes.heights[selected], target[0], target[1]),
+                        scorer.score(shuffled.widths[selectedShuffled], shuffled.heights[selectedShuffled], target[0], target[1]),
+                        0);
+            }
+        }
+    }
+
+    @Test
+    public void ratioFirstPrefersTheClosestAspectRatio() {
+        for (int run = 0; run < RUNS; run++) {
+            Sizes sizes = randomSizes();
+            int[] target = randomTarget();
+            int selected = mSelector.select(sizes.widths, sizes.heights, sizes.count, target[0], target[1], PreviewSizeScorer.RATIO_FIRST);
+            double ratioDistance = PreviewSizeScorer.ratioDistance(sizes.widths[selected], sizes.heights[selected], target[0], target[1]);
+            for (int i = 0; i < sizes.count; i++) {
+                // Within the tolerance of the scorer.
+                assertTrue(ratioDistance <= PreviewSizeScorer.ratioDistance(sizes.widths[i], sizes.heights[i], target[0], target[1]) + 0.001);
+            }
+        }
+    }
+
+    @Test
+    public void areaFirstPrefersTheClosestArea() {
+        for (int run = 0; run < RUNS; run++) {
+            Sizes sizes = randomSizes();
+            int[] target = randomTarget();
+            int selected = mSelector.select(sizes.widths, sizes.heights, sizes.count, target[0], target[1], PreviewSizeScorer.AREA_FIRST);
+            double areaDistance = PreviewSizeScorer.areaDistance(sizes.widths[selected], sizes.heights[selected], target[0], target[1]);
+            for (int i = 0; i < sizes.count; i++) {
+                assertTrue(areaDistance <= PreviewSizeScorer.areaDistance(sizes.widths[i], sizes.heights[i], target[0], target[1]) + 0.001);
+            }
+        }
+    }
+
+    @Test
+    public void withinAreaAvoidsLargerSizesWhenPossible() {
+        for (int run = 0; run < RUNS; run++) {
+            Sizes sizes = randomSizes();
+            int[] target = randomTarget();
+            int maxArea = 640 * 480;
+            PreviewSizeScorer scorer = PreviewSizeScorer.withinArea(maxArea, PreviewSizeScorer.BALANCED);
+            int selected = mSelector.select(sizes.widths, sizes.heights, sizes.count, target[0], target[1], scorer);
+
+            boolean anyWithin = false;
+            for (int i = 0; i < sizes.count; i++) {
+                anyWithin |= sizes.widths[i] * sizes.heights[i] <= maxArea;
+            }
+            if (anyWithin) {
+                assertTrue(sizes.widths[selected] * sizes.heights[selected] <= maxArea);
+            } else {
+                // Falls back to the best of the larger sizes.
+                int unbounded = mSelector.select(sizes.widths, sizes.heights, sizes.count, target[0], target[1], PreviewSizeScorer.BALANCED);
+                assertEquals(unbounded, selected);
+            }
+        }
+    }
+
+    @Test
+    public void sizesFastEnoughArePreferred() {
+        final int[] rates = {15000, 24000, 30000, 60000};
+        for (int run = 0; run < RUNS; run++) {
+            Sizes sizes = randomSizes();
+            int[] target = randomTarget();
+            int minFps = rates[mRandom.nextInt(rates.length)];
+            List<Size> list = new ArrayList<>();
+            List<Integer> maxFps = new ArrayList<>();
+            int fastest = 0;
+            for (int i = 0; i < sizes.count; i++) {
+                list.add(new Size(sizes.widths[i], sizes.heights[i]));
+                maxFps.add(rates[mRandom.nextInt(rates.length - 1)]);
+                fastest = Math.max(fastest, maxFps.get(i));
+            }
+            int selected = mSelector.select(list, maxFps, minFps, target[0], target[1], PreviewSizeScorer.BALANCED);
+
+            int threshold = Math.min(minFps, fastest);
+            assertTrue(maxFps.get(selected) >= threshold);
+            double best = PreviewSizeScorer.BALANCED.score(sizes.widths[selected], sizes.heights[selected], target[0], target[1]);
+            for (int i = 0; i < sizes.count; i++) {
+                if (maxFps.get(i) >= threshold) {
+                    assertTrue(best <= PreviewSizeScorer.BALANCED.score(sizes.widths[i], sizes.heights[i], target[0], target[1]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void balancedAgreesWithLegacyComparator() {
+        for (int run = 0; run < RUNS; run++) {
+            Sizes sizes = randomSizes().distinct();
+            int[] target = randomTarget();
+            int selected = mSelector.select(sizes.widths, sizes.heights, sizes.count, target[0], target[1], PreviewSizeScorer.BALANCED);
+            if (hasTies(sizes, target)) {
+                // The legacy comparator is not consistent with ties, it may even throw.
+                continue;
+            }
+            int[] legacy = legacyClosest(sizes, target[0], target[1]);
+
+            assertEquals(legacy[0], sizes.widths[selected]);
+            assertEquals(legacy[1], sizes.heights[selected]);
+        }
+    }
+
+    @Test
+    public void noCandidate() {
+        assertEquals(-1, mSelector.select(new int[0], new int[0], 0, 640, 480, PreviewSizeScorer.BALANCED));
+    }
+
+    @Test
+    public void nanScoresAreTheWorst() {
+        int[] widths = {640, 1280, 1920};
+        int[] heights = {480, 720, 1080};
+        PreviewSizeScorer nanBelow1080p = new PreviewSizeScorer() {
+            @Override
+            public double score(int width, int height, int targetWidth, int targetHeight) {
+                return height < 1080 ? Double.NaN : 1;
+            }
+        };
+        assertEquals(2, mSelector.select(widths, heights, 3, 1280, 720, nanBelow1080p));
+    }
+
+    @Test
+    public void firstCandidateWithoutFiniteScore() {
+        int[] widths = {640, 1280, 1920};
+        int[] heights = {480, 720, 1080};
+        PreviewSizeScorer nan = new PreviewSizeScorer() {
+            @Override
+            public double score(int width, int height, int targetWidth, int targetHeight) {
+                return Double.NaN;
+            }
+        };
+        assertEquals(0, mSelector.select(widths, heights, 3, 1280, 720, nan));
+        // Empty targets.
+        for (PreviewSizeScorer scorer : SCORERS) {
+            assertTrue(mSelector.select(widths, heights, 3, 0, 0, scorer) >= 0);
+            assertTrue(mSelector.select(widths, heights, 3, 640, 0, scorer) >= 0);
+        }
+    }
+
+    @Test
+    public void scoreArrayGrowsAndIsReused() {
+        int[] widths = {640, 1280, 1920};
+        int[] heights = {480, 720, 1080};
+        assertEquals(1, mSelector.select(widths, heights, 3, 1280, 720, PreviewSizeScorer.BALANCED));
+        assertEquals(0, mSelector.getScore(1), 0);
+        // Only the first candidates count.
+        assertEquals(0, mSelector.select(widths, heights, 1, 1280, 720, PreviewSizeScorer.BALANCED));
+    }
+
+    private boolean hasTies(Sizes sizes, int[] target) {
+        double[] scores = new double[sizes.count];
+        for (int i = 0; i < sizes.count; i++) {
+            scores[i] = PreviewSizeScorer.BALANCED.score(sizes.widths[i], sizes.heights[i], target[0], target[1]);
+        }
+        Arrays.sort(scores);
+        for (int i = 1; i < scores.length; i++) {
+            if (scores[i] == scores[i - 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The former {@code CameraUtils.CameraSizeComparator}, on plain sizes.
+     */
+    private static int[] legacyClosest(Sizes sizes, final int targetWidth, final int targetHeight) {
+        List<int[]> list = new ArrayList<>();
+        for (int i = 0; i < sizes.count; i++) {
+            list.add(new int[]{sizes.widths[i], sizes.heights[i]});
+        }
+        final double area = (double) targetWidth * targetHeight;
+        final double ratio = (double) targetWidth / targetHeight;
+        Collections.sort(list, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] lhs, int[] rhs) {
+                if (lhs[0] == rhs[0] && lhs[1] == rhs[1]) return 0;
+                if (lhs[0] == targetWidth && lhs[1] == targetHeight) return -1;
+                if (rhs[0] == targetWidth && rhs[1] == targetHeight) return 1;
+                double lhsDistance = (Math.abs(1 - (double) lhs[0] * lhs[1] / area) + Math.abs(1 - ((double) lhs[0] / lhs[1]) / ratio)) * 0.5;
+                double rhsDistance = (Math.abs(1 - (double) rhs[0] * rhs[1] / area) + Math.abs(1 - ((double) rhs[0] / rhs[1]) / ratio)) * 0.5;
+                return rhsDistance < lhsDistance ? 1 : -1;
+            }
+        });
+        return list.get(0);
+    }
+
+    private Sizes randomSizes() {
+        int count = 20 + mRandom.nextInt(41);
+        Sizes sizes = new Sizes(count);
+        for (int i = 0; i < count; i++) {
+            int[] ratio = RATIOS[mRandom.nextInt(RATIOS.length)];
+            int unit = 8 + mRandom.nextInt(240);
+            sizes.widths[i] = ratio[0] * unit;
+            sizes.heights[i] = ratio[1] * unit;
+        }
+        return sizes;
+    }
+
+    private int[] randomTarget() {
+        Resolution[] resolutions = Resolution.values();
+        if (mRandom.nextBoolean()) {
+            Resolution resolution = resolutions[mRandom.nextInt(resolutions.length)];
+            return new int[]{resolution.width, resolution.height};
+        }
+        return new int[]{96 + mRandom.nextInt(4000), 96 + mRandom.nextInt(3000)};
+    }
+
+    private static class Sizes {
+
+        final int[] widths;
+        final int[] heights;
+        final int count;
+
+        Sizes(int count) {
+            this.widths = new int[count];
+            this.heights = new int[count];
+            this.count = count;
+        }
+
+        Sizes shuffled(Random random) {
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                order.add(i);
+            }
+            Collections.shuffle(order, random);
+            Sizes shuffled = new Sizes(count);
+            for (int i = 0; i < count; i++) {
+                shuffled.widths[i] = widths[order.get(i)];
+                shuffled.heights[i] = heights[order.get(i)];
+            }
+            return shuffled;
+        }
+
+        Sizes distinct() {
+            List<Long> seen = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                long key = ((long) widths[i] << 32) | heights[i];
+                if (!seen.contains(key)) {
+                    seen.add(key);
+                }
+            }
+            Sizes distinct = new Sizes(seen.size());
+            for (int i = 0; i < seen.size(); i++) {
+                distinct.widths[i] = (int) (seen.get(i) >> 32);
+                distinct.heights[i] = (int) (long) seen.get(i);
+            }
+            return distinct;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.cocoricostudio.cameraview;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * A thread that only runs its tasks when told to.
+ */
+class QueueExecutor implements Executor {
+
+    private final Queue<Runnable> mTasks = new ArrayDeque<>();
+
+    @Override
+    public void execute(Runnable command) {
+        mTasks.add(command);
+    }
+
+    /**
+     * Runs the tasks, including the ones submitted while running, until there are none left.
+     */
+    void runAll() {
+        Runnable task;
+        while ((task = mTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Runs the next task, if any.
+     *
+     * @return {@code false} if there was no task to run.
+     */
+    boolean runNext() {
+        Runnable task = mTasks.poll();
+        if (task == null) {
+            return false;
+        }
+        task.run();
+        return true;
+    }
+
+    int size() {
+        return mTasks.size();
+    }
+}
@@ -0,0 +1,172 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingControllerTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final EncodedSink SINK = new EncodedSink() {
+        @Override
+        public void onStart(int width, int height, int rotation) {
+        }
+
+        @Override
+        public void onPacket(@NonNull EncodedPacket packet) {
+        }
+
+        @Override
+        public void onStop() {
+        }
+    };
+
+    private QueueExecutor mCameraThread;
+    private QueueExecutor mMainThread;
+    private QueueExecutor mRecordingThread;
+    private CameraExecutor mCameraExecutor;
+    private CameraCapabilitiesCache mCapabilitiesCache;
+    private CameraSession mSession;
+    private List<String> mCreated;
+    private List<String> mEvents;
+    private RecordingController mController;
+
+    @Before
+    public void setUp() {
+        mCameraThread = new QueueExecutor();
+        mMainThread = new QueueExecutor();
+        mRecordingThread = new QueueExecutor();
+        mCameraExecutor = new CameraExecutor(mCameraThread, new QueueExecutor());
+        mCapabilitiesCache = new CameraCapabilitiesCache();
+        mSession = new CameraSession(mCameraExecutor, new FakeCameraDriver(), mCapabilitiesCache,
+                new CameraMetrics(), new CameraSession.Listener() {
+            @Override
+            public void onConfigured(@NonNull Size previewSize, boolean relayout, boolean resizeSurface) {
+            }
+        }, 0);
+        mCreated = new ArrayList<>();
+        mEvents = new ArrayList<>();
+        mController = new RecordingController(mMainThread, mRecordingThread, new RecordingController.Factory() {
+            @NonNull
+            @Override
+            public VideoRecording create(@NonNull EncodedSink sink, int width, int height, int rotation, int bitRate,
+                                         int frameRate, boolean surfaceInput) throws IOException {
+                mCreated.add(width + "x" + height + " " + rotation);
+                // No encoder on the JVM.
+                throw new IOException("No encoder.");
+            }
+        }, new RecordingController.Listener() {
+            @Override
+            public void onBufferRecordingChanged(@NonNull VideoRecording recording, boolean started) {
+                mEvents.add(started ? "subscribed" : "unsubscribed");
+            }
+        });
+    }
+
+    @Test
+    public void startingBeforeConfiguredFails() {
+        start();
+        assertTrue(mController.isActive());
+
+        runAll();
+
+        assertEquals(Collections.<String>emptyList(), mCreated);
+        assertEquals(Collections.singletonList("failed: The camera is not configured yet."), mEvents);
+        assertFalse(mController.isActive());
+    }
+
+    @Test
+    public void recordingCanStartAfterAFailedStart() {
+        start();
+        runAll();
+        mSession.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+
+        // Not "Already recording".
+        start();
+        runAll();
+
+        assertEquals(Collections.singletonList("1280x720 90"), mCreated);
+        assertEquals(Arrays.asList("failed: The camera is not configured yet.", "failed: No encoder."), mEvents);
+        assertFalse(mController.isActive());
+    }
+
+    @Test
+    public void invalidatedCapabilitiesFailTheStart() {
+        mSession.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+        mCameraThread.runAll();
+        mCapabilitiesCache.invalidate(0);
+
+        start();
+        runAll();
+
+        assertEquals(Collections.<String>emptyList(), mCreated);
+        assertEquals(Collections.singletonList("failed: The camera is not configured yet."), mEvents);
+        assertFalse(mController.isActive());
+    }
+
+    @Test
+    public void failureAfterAStopKeepsTheNextRecording() {
+        start();
+        mController.stop();
+        start();
+
+        // The first start fails once the second one is requested.
+        mCameraThread.runNext();
+        mMainThread.runAll();
+
+        assertTrue(mController.isActive());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void startingTwiceIsRejected() {
+        start();
+        start();
+    }
+
+    private void start() {
+        mController.start(mSession, mCameraExecutor, SINK, 1000000, 30, DIRECT,
+                new RecordingCallback() {
+                    @Override
+                    public void onRecordingStarted(@NonNull VideoRecording recording) {
+                        mEvents.add("started");
+                    }
+
+                    @Override
+                    public void onRecordingFailed(@NonNull IOException error) {
+                        mEvents.add("failed: " + error.getMessage());
+                    }
+
+                    @Override
+                    public void onRecordingStopped(@NonNull VideoRecording recording) {
+                        mEvents.add("stopped");
+                    }
+                });
+    }
+
+    private void runAll() {
+        while (mCameraThread.size() + mRecordingThread.size() + mMainThread.size() > 0) {
+            mCameraThread.runAll();
+            mRecordingThread.runAll();
+            mMainThread.runAll();
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.cocoricostudio.cameraview;
+
+import android.hardware.Camera;
+import android.support.annotation.NonNull;
+import android.view.Surface;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SharedCameraTest {
+
+    private QueueExecutor mCameraThread;
+    private FakeCameraDriver mDriver;
+    private final List<CameraHost> mHosts = new ArrayList<>();
+    private SharedCamera mCamera;
+
+    private final FrameConsumer mConsumer = new FrameConsumer() {
+        @Override
+        public void onFrame(@NonNull Frame frame) {
+            frame.release();
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mCameraThread = new QueueExecutor();
+        mDriver = new FakeCameraDriver();
+        mCamera = new SharedCamera(new SharedCamera.HostFactory() {
+            @NonNull
+            @Override
+            public CameraHost create(@NonNull FramePipeline framePipeline, @NonNull CameraMetrics metrics) {
+                CameraHost host = new CameraHost(new CameraExecutor(mCameraThread, new QueueExecutor()), framePipeline,
+                        metrics, new CameraHost.DriverFactory() {
+                    @NonNull
+                    @Override
+                    public CameraDriver create(@NonNull PreviewTarget previewTarget, @NonNull FramePipeline framePipeline,
+                                               @NonNull CameraDriver.FrameCallback frameCallback,
+                                               @NonNull CameraMetrics metrics) {
+                        return mDriver;
+                    }
+                }, new CameraCapabilitiesCache(), 0);
+                mHosts.add(host);
+                return host;
+            }
+        });
+    }
+
+    @Test
+    public void firstViewerShowsThePreview() {
+        FakeViewer main = new FakeViewer("main");
+        FakeViewer thumbnail = new FakeViewer("thumbnail");
+
+        main.resume();
+        thumbnail.resume();
+        main.surfaceReady();
+        mCameraThread.runAll();
+
+        assertEquals(Arrays.asList("open 0", "configure 0 1280x720 90", "start"), mDriver.takeOperations());
+        assertSame(mHosts.get(0), main.mHost);
+        assertNull(thumbnail.mHost);
+        assertEquals(2, mCamera.getReferenceCount());
+    }
+
+    @Test
+    public void previewIsHandedOverToTheNextViewer() {
+        FakeViewer main = new FakeViewer("main");
+        FakeViewer thumbnail = new FakeViewer("thumbnail");
+        main.resume();
+        thumbnail.resume();
+        main.surfaceReady();
+        thumbnail.mSurfaceReady = true;
+        mCameraThread.runAll();
+        mDriver.takeOperations();
+
+        main.pause();
+        mCameraThread.runAll();
+
+        // Restarted on the surface of the thumbnail, without reopening the camera.
+        assertEquals(Arrays.asList("stop", "start"), mDriver.takeOperations());
+        assertNull(main.mHost);
+        assertSame(mHosts.get(0), thumbnail.mHost);
+        assertEquals(Arrays.asList("main attached", "main detached", "thumbnail attached"), mEvents);
+        assertTrue(mCamera.isOpened());
+    }
+
+    @Test
+    public void detachingAViewerNotShowingThePreviewKeepsIt() {
+        FakeViewer main = new FakeViewer("main");
+        FakeViewer thumbnail = new FakeViewer("thumbnail");
+        main.resume();
+        thumbnail.resume();
+        main.surfaceReady();
+        mCameraThread.runAll();
+        mDriver.takeOperations();
+
+        thumbnail.pause();
+        mCameraThread.runAll();
+
+        assertTrue(mDriver.takeOperations().isEmpty());
+        assertEquals(CameraSession.State.PREVIEWING, main.mHost.session.getState());
+        assertEquals(Collections.singletonList("main attached"), mEvents);
+    }
+
+    @Test
+    public void cameraIsReleasedWhenTheLastViewerDetaches() {
+        FakeViewer main = new FakeViewer("main");
+        FakeViewer thumbnail = new FakeViewer("thumbnail");
+        main.resume();
+        thumbnail.resume();
+        mCameraThread.runAll();
+        mDriver.takeOperations();
+
+        main.pause();
+        mCameraThread.runAll();
+        assertFalse(mDriver.takeOperations().contains("release"));
+
+        thumbnail.pause();
+        mCameraThread.runAll();
+        assertEquals(Collections.singletonList("release"), mDriver.takeOperations());
+        assertFalse(mCamera.isOpened());
+        assertTrue(mHosts.get(0).executor.isQuit());
+        assertEquals(0, mCamera.getReferenceCount());
+    }
+
+    @Test
+    public void viewersDetachingInAnyOrderReleaseOnce() {
+        FakeViewer first = new FakeViewer("first");
+        FakeViewer second = new FakeViewer("second");
+        FakeViewer third = new FakeViewer("third");
+        first.resume();
+        second.resume();
+        third.resume();
+        mCameraThread.runAll();
+
+        second.pause();
+        third.pause();
+        first.pause();
+        mCameraThread.runAll();
+
+        assertEquals(1, Collections.frequency(mDriver.takeOperations(), "release"));
+        assertEquals(1, mHosts.size());
+        // The preview was never handed over.
+        assertEquals(Arrays.asList("first attached", "first detached"), mEvents);
+    }
+
+    @Test
+    public void consumerKeepsTheCameraOpened() {
+        FakeViewer main = new FakeViewer("main");
+        main.resume();
+        FrameSubscription subscription = mCamera.addFrameConsumer(mConsumer, new QueueExecutor());
+        mCameraThread.runAll();
+        assertTrue(mDriver.mFrameDelivery);
+
+        main.pause();
+        mCameraThread.runAll();
+        assertFalse(mDriver.takeOperations().contains("release"));
+        assertTrue(mDriver.mFrameDelivery);
+
+        mCamera.removeFrameConsumer(subscription);
+        mCameraThread.runAll();
+        assertTrue(mDriver.takeOperations().contains("release"));
+        assertFalse(mCamera.isOpened());
+    }
+
+    @Test
+    public void consumerAloneOpensTheDefaultCamera() {
+        FrameSubscription subscription = mCamera.addFrameConsumer(mConsumer, new QueueExecutor());
+        mCameraThread.runAll();
+        assertEquals(Arrays.asList("open 0", "configure 0 1920x1080 90"), mDriver.takeOperations());
+
+        // The view attaching later configures the camera opened.
+        FakeViewer main = new FakeViewer("main");
+        main.resume();
+        main.surfaceReady();
+        mCameraThread.runAll();
+        assertEquals(Arrays.asList("configure 0 1280x720 90", "start"), mDriver.takeOperations());
+
+        main.pause();
+        mCamera.removeFrameConsumer(subscription);
+        mCameraThread.runAll();
+        assertEquals(Arrays.asList("stop", "release"), mDriver.takeOperations());
+    }
+
+    @Test
+    public void consumersDoNotReopenTheCamera() {
+        FrameSubscription first = mCamera.addFrameConsumer(mConsumer, new QueueExecutor());
+        FrameSubscription second = mCamera.addFrameConsumer(mConsumer, new QueueExecutor());
+        mCameraThread.runAll();
+        assertEquals(1, Collections.frequency(mDriver.takeOperations(), "open 0"));
+
+        mCamera.removeFrameConsumer(first);
+        mCameraThread.runAll();
+        assertTrue(mDriver.takeOperations().isEmpty());
+        assertTrue(mDriver.mFrameDelivery);
+
+        mCamera.removeFrameConsumer(second);
+        mCamera.removeFrameConsumer(second);
+        mCameraThread.runAll();
+        assertEquals(Collections.singletonList("release"), mDriver.takeOperations());
+        assertEquals(0, mCamera.getReferenceCount());
+    }
+
+    @Test
+    public void attachingAfterTheReleaseReopens() {
+        FakeViewer main = new FakeViewer("main");
+        main.resume();
+        mCameraThread.runAll();
+        main.pause();
+        mCameraThread.runAll();
+        mDriver.takeOperations();
+
+        main.resume();
+        mCameraThread.runAll();
+
+        assertEquals(Arrays.asList("open 0", "configure 0 1280x720 90"), mDriver.takeOperations());
+        assertEquals(2, mHosts.size());
+        assertSame(mHosts.get(1), main.mHost);
+    }
+
+    @Test
+    public void attachingTwiceHoldsOneReference() {
+        FakeViewer main = new FakeViewer("main");
+        main.resume();
+        mCamera.attach(main);
+        mCamera.detach(new FakeViewer("other"));
+
+        assertEquals(1, mCamera.getReferenceCount());
+        main.pause();
+        assertFalse(mCamera.isOpened());
+    }
+
+    private final List<String> mEvents = new ArrayList<>();
+
+    /**
+     * Attaches and binds like a {@link CameraView}.
+     */
+    private class FakeViewer implements SharedCamera.Viewer {
+
+        private final String mName;
+        CameraHost mHost;
+        boolean mSurfaceReady;
+
+        FakeViewer(String name) {
+            mName = name;
+        }
+
+        void resume() {
+            mCamera.attach(this);
+            if (mHost != null) {
+                mHost.session.open(0, 1280, 720, PreviewSizeScorer.BALANCED);
+            }
+        }
+
+        void pause() {
+            mCamera.detach(this);
+        }
+
+        void surfaceReady() {
+            mSurfaceReady = true;
+            final CameraHost host = mHost;
+            host.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    host.session.onSurfaceChanged();
+                }
+            });
+        }
+
+        @Override
+        public void onPreviewAttached(@NonNull final CameraHost host) {
+            mEvents.add(mName + " attached");
+            mHost = host;
+            host.bind(new FakePreviewTarget(), new CameraDriver.FrameCallback() {
+                @Override
+                public void onFrame(@NonNull byte[] data) {
+                }
+            }, new CameraSession.Listener() {
+                @Override
+                public void onConfigured(@NonNull Size previewSize, boolean relayout, boolean resizeSurface) {
+                }
+            });
+            if (mSurfaceReady) {
+                surfaceReady();
+            }
+        }
+
+        @Override
+        public void onPreviewDetached() {
+            mEvents.add(mName + " detached");
+            mHost = null;
+        }
+    }
+
+    private static class FakePreviewTarget extends PreviewTarget {
+
+        @Override
+        void setOn(@NonNull Camera camera) {
+        }
+
+        @NonNull
+        @Override
+        Surface getSurface(@NonNull Size previewSize) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        boolean isBufferSizeSetByView() {
+            return false;
+        }
+    }
+}
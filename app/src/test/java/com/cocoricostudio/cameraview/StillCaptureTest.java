@@ -0,0 +1,288 @@
+package com.cocoricostudio.cameraview;
+
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StillCaptureTest {
+
+    private QueueExecutor mCameraThread;
+    private QueueExecutor mWriter;
+    private FakeCameraDriver mDriver;
+    private StillCapture mStillCapture;
+    private final List<Picture> mTaken = new ArrayList<>();
+    private final List<IOException> mFailed = new ArrayList<>();
+    private final List<File> mFiles = new ArrayList<>();
+
+    private final PictureCallback mCallback = new PictureCallback() {
+        @Override
+        public void onPictureTaken(@NonNull Picture picture) {
+            mTaken.add(picture);
+        }
+
+        @Override
+        public void onPictureFailed(@NonNull IOException error) {
+            mFailed.add(error);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mCameraThread = new QueueExecutor();
+        mWriter = new QueueExecutor();
+        mDriver = new FakeCameraDriver();
+        mDriver.open(0);
+        mDriver.configure(CameraConfiguration.create(FakeCameraDriver.BACK, 0, 1280, 720,
+                PreviewSizeScorer.BALANCED, 0, false));
+        mDriver.startPreview();
+        mDriver.takeOperations();
+        mStillCapture = new StillCapture(mDriver, mCameraThread);
+        mStillCapture.setRotation(90);
+        mStillCapture.setPreviewing(true);
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void pictureIsWrittenThenHandedOver() throws IOException {
+        File file = createFile();
+        mStillCapture.request(new StillCapture.Request(file, mWriter, mCallback));
+        assertEquals(Collections.singletonList("picture"), mDriver.takeOperations());
+
+        mDriver.deliverPicture(new byte[]{(byte) 0xff, (byte) 0xd8, 1, 2, 3});
+        assertTrue(mTaken.isEmpty());
+        mWriter.runAll();
+
+        assertEquals(1, mTaken.size());
+        Picture picture = mTaken.get(0);
+        assertSame(file, picture.getFile());
+        assertEquals(90, picture.getRotation());
+        assertArrayEquals(new byte[]{(byte) 0xff, (byte) 0xd8, 1, 2, 3}, read(file));
+        mCameraThread.runAll();
+        assertEquals(0, mStillCapture.getInFlightCount());
+    }
+
+    @Test
+    public void pictureWithoutFileIsOnlyHandedOver() {
+        mStillCapture.request(new StillCapture.Request(null, mWriter, mCallback));
+        mDriver.deliverPicture(new byte[]{4, 2});
+        mWriter.runAll();
+
+        assertNull(mTaken.get(0).getFile());
+        assertArrayEquals(new byte[]{4, 2}, mTaken.get(0).getJpeg());
+    }
+
+    @Test
+    public void burstIsBoundedByThePicturesInFlight() throws IOException {
+        mStillCapture.setMaxInFlight(2);
+        for (int i = 0; i < 4; i++) {
+            mStillCapture.request(new StillCapture.Request(createFile(), mWriter, mCallback));
+        }
+        assertEquals(Collections.singletonList("picture"), mDriver.takeOperations());
+
+        // The next picture is taken without waiting for the previous one to be written.
+        mDriver.deliverPicture(new byte[]{0});
+        assertEquals(Collections.singletonList("picture"), mDriver.takeOperations());
+        mDriver.deliverPicture(new byte[]{1});
+        assertFalse(mDriver.isTakingPicture());
+        assertEquals(2, mStillCapture.getInFlightCount());
+        assertEquals(2, mStillCapture.getPendingCount());
+
+        // Written: room for the next one, once back on the camera thread.
+        mWriter.runNext();
+        assertFalse(mDriver.isTakingPicture());
+        mCameraThread.runAll();
+        assertEquals(Collections.singletonList("picture"), mDriver.takeOperations());
+        mDriver.deliverPicture(new byte[]{2});
+
+        mWriter.runAll();
+        mCameraThread.runAll();
+        mDriver.deliverPicture(new byte[]{3});
+        mWriter.runAll();
+        mCameraThread.runAll();
+
+        assertEquals(4, mTaken.size());
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(new byte[]{(byte) i}, read(mTaken.get(i).getFile()));
+        }
+        assertEquals(0, mStillCapture.getInFlightCount());
+        assertTrue(mFailed.isEmpty());
+    }
+
+    @Test
+    public void picturesWaitForThePreview() {
+        mStillCapture.setPreviewing(false);
+        mDriver.stopPreview();
+        mDriver.takeOperations();
+
+        mStillCapture.request(new StillCapture.Request(null, mWriter, mCallback));
+        assertTrue(mDriver.takeOperations().isEmpty());
+
+        mDriver.startPreview();
+        mStillCapture.setPreviewing(true);
+        assertEquals(Arrays.asList("start", "picture"), mDriver.takeOperations());
+    }
+
+    @Test
+    public void stoppingThePreviewFailsThePictureBeingTakenOnly() {
+        mStillCapture.request(new StillCapture.Request(null, mWriter, mCallback));
+        mStillCapture.request(new StillCapture.Request(null, mWriter, mCallback));
+
+        mStillCapture.setPreviewing(false);
+        mDriver.stopPreview();
+        mWriter.runAll();
+        assertEquals(1, mFailed.size());
+        assertEquals(0, mStillCapture.getInFlightCount());
+        assertEquals(1, mStillCapture.getPendingCount());
+
+        // Eg. reconfigured: the pending picture is taken with the new configuration.
+        mDriver.startPreview();
+        mStillCapture.setPreviewing(true);
+        mDriver.deliverPicture(new byte[]{1});
+        mWriter.runAll();
+        assertEquals(1, mTaken.size());
+    }
+
+    @Test
+    public void closingFailsThePendingPictures() {
+        mStillCapture.request(new StillCapture.Request(null, mWriter, mCallback));
+        mStillCapture.request(new StillCapture.Request(null, mWriter, mCallback));
+
+        mStillCapture.setPreviewing(false);
+        mDriver.release();
+        mStillCapture.cancelPending();
+        mWriter.runAll();
+
+        assertEquals(2, mFailed.size());
+        assertEquals(0, mStillCapture.getPendingCount());
+        assertEquals(0, mStillCapture.getInFlightCount());
+    }
+
+    @Test
+    public void tooManyPendingPicturesFail() {
+        mStillCapture.setMaxInFlight(1);
+        for (int i = 0; i < StillCapture.MAX_PENDING + 2; i++) {
+            mStillCapture.request(new StillCapture.Request(null, mWriter, mCallback));
+        }
+        mWriter.runAll();
+
+        // The first one is being taken.
+        assertEquals(1, mFailed.size());
+        assertEquals(StillCapture.MAX_PENDING, mStillCapture.getPendingCount());
+    }
+
+    @Test
+    public void writeFailureIsReportedAndReleasesThePicture() throws IOException {
+        File directory = createFile();
+        mStillCapture.setMaxInFlight(1);
+        mStillCapture.request(new StillCapture.Request(new File(directory, "picture.jpg"), mWriter, mCallback));
+        mStillCapture.request(new StillCapture.Request(null, mWriter, mCallback));
+
+        mDriver.deliverPicture(new byte[]{1});
+        mWriter.runAll();
+        assertEquals(1, mFailed.size());
+        assertTrue(mTaken.isEmpty());
+
+        mCameraThread.runAll();
+        assertTrue(mDriver.isTakingPicture());
+    }
+
+    @Test
+    public void pictureKeepsTheRotationItWasTakenWith() {
+        mStillCapture.request(new StillCapture.Request(null, mWriter, mCallback));
+        // Rotated while the camera takes the picture.
+        mStillCapture.setRotation(180);
+        mDriver.deliverPicture(new byte[]{1});
+        mStillCapture.request(new StillCapture.Request(null, mWriter, mCallback));
+        mDriver.deliverPicture(new byte[]{2});
+        mWriter.runAll();
+
+        assertEquals(90, mTaken.get(0).getRotation());
+        assertEquals(180, mTaken.get(1).getRotation());
+    }
+
+    @Test
+    public void rejectedPictureReleasesItsSlot() {
+        Executor shutDown = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                throw new RejectedExecutionException("Shut down");
+            }
+        };
+        mStillCapture.setMaxInFlight(1);
+        mStillCapture.request(new StillCapture.Request(null, shutDown, mCallback));
+        mStillCapture.request(new StillCapture.Request(null, mWriter, mCallback));
+
+        mDriver.deliverPicture(new byte[]{1});
+
+        assertEquals(0, mStillCapture.getPendingCount());
+        assertTrue(mDriver.isTakingPicture());
+        mDriver.deliverPicture(new byte[]{2});
+        mWriter.runAll();
+        assertArrayEquals(new byte[]{2}, mTaken.get(0).getJpeg());
+    }
+
+    @Test
+    public void rejectedFailureIsDropped() {
+        mStillCapture.setPreviewing(false);
+        mStillCapture.request(new StillCapture.Request(null, new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                throw new RejectedExecutionException("Shut down");
+            }
+        }, mCallback));
+
+        mStillCapture.cancelPending();
+
+        assertEquals(0, mStillCapture.getPendingCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxInFlightMustBePositive() {
+        mStillCapture.setMaxInFlight(0);
+    }
+
+    private File createFile() throws IOException {
+        File file = File.createTempFile("picture", ".jpg");
+        mFiles.add(file);
+        return file;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream input = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                offset += input.read(data, offset, data.length - offset);
+            }
+        } finally {
+            input.close();
+        }
+        return data;
+    }
+}
@@ -0,0 +1,72 @@
+package com.cocoricostudio.cameraview;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Supported preview size lists as cameras report them, largest first, with the duplicated aspect
+ * ratios, odd sizes and ordering quirks of real HALs. Replace or extend them with the lists logged
+ * by {@code CameraUtils.logSizes} on the devices of the fleet.
+ */
+final class DeviceSizes {
+
+    /**
+     * An entry level device, 22 sizes.
+     */
+    static final List<Size> SMALL = sizes(
+            1920, 1080, 1600, 1200, 1440, 1080, 1280, 960, 1280, 768, 1280, 720,
+            1024, 768, 960, 720, 800, 600, 800, 480, 768, 432, 720, 480,
+            640, 480, 640, 360, 576, 432, 480, 320, 384, 288, 352, 288,
+            320, 240, 240, 160, 176, 144, 160, 120);
+
+    /**
+     * A mid range device, 38 sizes.
+     */
+    static final List<Size> MEDIUM = sizes(
+            3264, 2448, 3264, 1836, 2592, 1944, 2560, 1920, 2560, 1440, 2448, 2448,
+            2304, 1728, 2048, 1536, 2048, 1152, 1920, 1440, 1920, 1088, 1920, 1080,
+            1840, 1380, 1632, 1224, 1600, 1200, 1600, 900, 1536, 864, 1440, 1080,
+            1440, 720, 1280, 960, 1280, 720, 1088, 1088, 1056, 704, 1024, 768,
+            960, 720, 960, 540, 800, 600, 800, 450, 720, 720, 720, 480,
+            640, 480, 640, 360, 480, 360, 352, 288, 320, 240, 176, 144,
+            160, 120, 144, 176);
+
+    /**
+     * A high end device, 58 sizes.
+     */
+    static final List<Size> LARGE = sizes(
+            4032, 3024, 4032, 2268, 4000, 3000, 4000, 2250, 3840, 2160, 3264, 2448,
+            3264, 1836, 3024, 3024, 2976, 2976, 2880, 2160, 2592, 1944, 2592, 1458,
+            2560, 1920, 2560, 1440, 2560, 1080, 2448, 2448, 2304, 1728, 2160, 2160,
+            2048, 1536, 2048, 1152, 1920, 1440, 1920, 1088, 1920, 1080, 1920, 960,
+            1920, 864, 1856, 1392, 1840, 1380, 1632, 1224, 1600, 1200, 1600, 900,
+            1536, 864, 1520, 720, 1440, 1080, 1440, 720, 1280, 960, 1280, 768,
+            1280, 720, 1280, 640, 1088, 1088, 1080, 1080, 1056, 704, 1024, 768,
+            960, 720, 960, 540, 864, 480, 800, 600, 800, 480, 800, 450,
+            768, 432, 720, 720, 720, 480, 640, 480, 640, 360, 480, 360,
+            480, 320, 352, 288, 320, 240, 176, 144);
+
+    private DeviceSizes() {
+    }
+
+    static List<Size> get(String name) {
+        switch (name) {
+            case "SMALL":
+                return SMALL;
+            case "MEDIUM":
+                return MEDIUM;
+            case "LARGE":
+                return LARGE;
+        }
+        throw new IllegalArgumentException("Unknown device: " + name);
+    }
+
+    private static List<Size> sizes(int... widthsAndHeights) {
+        List<Size> sizes = new ArrayList<>(widthsAndHeights.length / 2);
+        for (int i = 0; i < widthsAndHeights.length; i += 2) {
+            sizes.add(new Size(widthsAndHeights[i], widthsAndHeights[i + 1]));
+        }
+        return Collections.unmodifiableList(sizes);
+    }
+}
@@ -0,0 +1,86 @@
+package com.cocoricostudio.cameraview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The frame converters on a preview frame, on the calling thread and striped over a thread pool.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameConversionBenchmark {
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String size;
+
+    @Param({"1", "4"})
+    public int stripes;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mImage;
+    private int[] mArgb;
+    private byte[] mDownscaled;
+    private byte[] mRotated;
+    private ExecutorService mExecutor;
+    private FrameConverter mConverter;
+
+    @Setup
+    public void setUp() {
+        String[] dimensions = size.split("x");
+        mWidth = Integer.parseInt(dimensions[0]);
+        mHeight = Integer.parseInt(dimensions[1]);
+        mImage = new byte[mWidth * mHeight * 3 / 2];
+        new Random(42).nextBytes(mImage);
+        mArgb = new int[mWidth * mHeight];
+        mDownscaled = new byte[mImage.length / 4];
+        mRotated = new byte[mImage.length];
+        if (stripes > 1) {
+            mExecutor = Executors.newFixedThreadPool(stripes - 1);
+            mConverter = new FrameConverter(mExecutor, stripes);
+        } else {
+            mConverter = new FrameConverter();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int[] toArgb() {
+        mConverter.toArgb(mImage, mWidth, mHeight, mArgb);
+        return mArgb;
+    }
+
+    @Benchmark
+    public byte[] downscaleBy2() {
+        mConverter.downscale(mImage, mWidth, mHeight, 2, mDownscaled);
+        return mDownscaled;
+    }
+
+    @Benchmark
+    public byte[] downscaleBy4() {
+        mConverter.downscale(mImage, mWidth, mHeight, 4, mDownscaled);
+        return mDownscaled;
+    }
+
+    @Benchmark
+    public byte[] rotate90() {
+        mConverter.rotate(mImage, mWidth, mHeight, 90, mRotated);
+        return mRotated;
+    }
+}
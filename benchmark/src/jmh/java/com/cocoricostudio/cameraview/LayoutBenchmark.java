@@ -0,0 +1,41 @@
+package com.cocoricostudio.cameraview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The centering math of {@code CameraView.onLayout}, run on each layout pass.
+ */
+@State(Scope.Benchmark)
+public class LayoutBenchmark {
+
+    @Param({"1080x1920", "1920x1080", "1440x3040"})
+    public String parent;
+
+    @Param({"0", "1"})
+    public int screenRotation;
+
+    private int mWidth;
+    private int mHeight;
+    private final Size mPreviewSize = new Size(1440, 1080);
+    private final int[] mBounds = new int[4];
+
+    @Setup
+    public void setUp() {
+        String[] dimensions = parent.split("x");
+        mWidth = Integer.parseInt(dimensions[0]);
+        mHeight = Integer.parseInt(dimensions[1]);
+    }
+
+    @Benchmark
+    public int[] centerPreview() {
+        boolean isCameraLandscape = PreviewGeometry.isLandscape(screenRotation);
+        int previewWidth = isCameraLandscape ? mPreviewSize.width : mPreviewSize.height;
+        int previewHeight = isCameraLandscape ? mPreviewSize.height : mPreviewSize.width;
+        PreviewGeometry.centerPreview(mWidth, mHeight, previewWidth, previewHeight, mBounds);
+        return mBounds;
+    }
+}
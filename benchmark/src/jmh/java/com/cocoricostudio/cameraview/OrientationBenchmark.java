@@ -0,0 +1,24 @@
+package com.cocoricostudio.cameraview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Display orientation math, over every screen rotation, facing and sensor orientation.
+ */
+public class OrientationBenchmark {
+
+    private static final int[] SENSOR_ORIENTATIONS = {0, 90, 180, 270};
+
+    @Benchmark
+    @OperationsPerInvocation(32)
+    public void displayOrientation(Blackhole blackhole) {
+        for (int screenRotation = 0; screenRotation < 4; screenRotation++) {
+            for (int sensorOrientation : SENSOR_ORIENTATIONS) {
+                blackhole.consume(PreviewGeometry.getDisplayOrientation(screenRotation, false, sensorOrientation));
+                blackhole.consume(PreviewGeometry.getDisplayOrientation(screenRotation, true, sensorOrientation));
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.cocoricostudio.cameraview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Preview size selection, run once per camera open, switch and resolution change.
+ */
+@State(Scope.Benchmark)
+public class SizeSelectionBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public String device;
+
+    @Param({"1280x720", "1600x1200", "1080x1920", "333x777"})
+    public String target;
+
+    private List<Size> mSizes;
+    private int mTargetWidth;
+    private int mTargetHeight;
+    private final PreviewSizeSelector mSelector = new PreviewSizeSelector();
+    private final PreviewSizeScorer mWithinArea = PreviewSizeScorer.withinArea(1920 * 1080, PreviewSizeScorer.BALANCED);
+
+    @Setup
+    public void setUp() {
+        mSizes = DeviceSizes.get(device);
+        String[] dimensions = target.split("x");
+        mTargetWidth = Integer.parseInt(dimensions[0]);
+        mTargetHeight = Integer.parseInt(dimensions[1]);
+    }
+
+    @Benchmark
+    public Size optimal() {
+        return PreviewGeometry.getOptimalPreviewSize(mSizes, mTargetWidth, mTargetHeight);
+    }
+
+    @Benchmark
+    public Size closestBalanced() {
+        return PreviewGeometry.getClosestPreviewSize(mSizes, mTargetWidth, mTargetHeight, PreviewSizeScorer.BALANCED, mSelector);
+    }
+
+    @Benchmark
+    public Size closestRatioFirst() {
+        return PreviewGeometry.getClosestPreviewSize(mSizes, mTargetWidth, mTargetHeight, PreviewSizeScorer.RATIO_FIRST, mSelector);
+    }
+
+    @Benchmark
+    public Size closestAreaFirst() {
+        return PreviewGeometry.getClosestPreviewSize(mSizes, mTargetWidth, mTargetHeight, PreviewSizeScorer.AREA_FIRST, mSelector);
+    }
+
+    @Benchmark
+    public Size closestWithinArea() {
+        return PreviewGeometry.getClosestPreviewSize(mSizes, mTargetWidth, mTargetHeight, mWithinArea, mSelector);
+    }
+
+    /**
+     * The former implementation: sorting a copy of the sizes with a comparator, for comparison.
+     */
+    @Benchmark
+    public Size closestSorted() {
+        List<Size> sizes = new ArrayList<>(mSizes);
+        Collections.sort(sizes, new LegacySizeComparator(mTargetWidth, mTargetHeight));
+        return sizes.get(0);
+    }
+
+    private static class LegacySizeComparator implements Comparator<Size> {
+
+        private final int mWidth;
+        private final int mHeight;
+        private final double mArea;
+        private final double mRatio;
+
+        LegacySizeComparator(int width, int height) {
+            mWidth = width;
+            mHeight = height;
+            mArea = (double) width * height;
+            mRatio = (double) width / height;
+        }
+
+        @Override
+        public int compare(Size lhs, Size rhs) {
+            if (lhs.width == rhs.width && lhs.height == rhs.height) return 0;
+            if (lhs.width == mWidth && lhs.height == mHeight) return -1;
+            if (rhs.width == mWidth && rhs.height == mHeight) return 1;
+            double lhsDistance = (Math.abs(1 - (double) lhs.width * lhs.height / mArea) + Math.abs(1 - ((double) lhs.width / lhs.height) / mRatio)) * 0.5;
+            double rhsDistance = (Math.abs(1 - (double) rhs.width * rhs.height / mArea) + Math.abs(1 - ((double) rhs.width / rhs.height) / mRatio)) * 0.5;
+            return rhsDistance < lhsDistance ? 1 : -1;
+        }
+    }
+}